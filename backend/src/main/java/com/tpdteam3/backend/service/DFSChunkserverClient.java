@@ -1,7 +1,9 @@
 package com.tpdteam3.backend.service;
 
+import com.tpdteam3.common.ChunkHeaders;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
@@ -9,6 +11,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
@@ -23,8 +26,21 @@ public class DFSChunkserverClient {
         this.restTemplate = new RestTemplate(factory);
     }
 
-    public void writeChunk(String imagenId, int chunkIndex, String base64Data, String chunkserverUrl) throws Exception {
-        String writeUrl = chunkserverUrl + "/api/chunk/write";
+    public void writeChunk(String imagenId, int chunkIndex, byte[] data, String chunkserverUrl) throws Exception {
+        String writeUrl = chunkserverUrl + "/api/chunk/raw";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(ChunkHeaders.IMAGEN_ID, imagenId);
+        headers.set(ChunkHeaders.CHUNK_INDEX, String.valueOf(chunkIndex));
+
+        HttpEntity<byte[]> entity = new HttpEntity<>(data, headers);
+        restTemplate.exchange(writeUrl, HttpMethod.PUT, entity, String.class);
+    }
+
+    public void writeChunkRange(String imagenId, int chunkIndex, long offset, String base64Data,
+                                String chunkserverUrl) throws Exception {
+        String writeUrl = chunkserverUrl + "/api/chunk/write-range";
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
@@ -32,30 +48,44 @@ public class DFSChunkserverClient {
         Map<String, Object> request = new HashMap<>();
         request.put("imagenId", imagenId);
         request.put("chunkIndex", chunkIndex);
+        request.put("offset", offset);
         request.put("data", base64Data);
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(request, headers);
         restTemplate.postForEntity(writeUrl, entity, String.class);
     }
 
-    public byte[] readChunk(String imagenId, int chunkIndex, String chunkserverUrl) throws Exception {
-        String readUrl = chunkserverUrl + "/api/chunk/read?imagenId=" + imagenId + "&chunkIndex=" + chunkIndex;
+    public byte[] readChunkRange(String imagenId, int chunkIndex, long offset, int length,
+                                 String chunkserverUrl) throws Exception {
+        String readUrl = chunkserverUrl + "/api/chunk/read-range?imagenId=" + imagenId + "&chunkIndex=" + chunkIndex +
+                         "&offset=" + offset + "&length=" + length;
         ResponseEntity<Map> response = restTemplate.getForEntity(readUrl, Map.class);
 
-        if (!response.getStatusCode().is2xxSuccessful()) {
-            throw new RuntimeException("Error leyendo chunk");
-        }
-
-        Map<String, Object> chunkData = response.getBody();
-        if (chunkData == null) {
+        Map<String, Object> rangeData = response.getBody();
+        if (rangeData == null || rangeData.get("data") == null) {
             throw new RuntimeException("Respuesta vacía del chunkserver");
         }
 
-        String base64Data = (String) chunkData.get("data");
-        if (base64Data == null) {
-            throw new RuntimeException("Data es null en la respuesta del chunkserver");
+        return java.util.Base64.getDecoder().decode((String) rangeData.get("data"));
+    }
+
+    public byte[] readChunk(String imagenId, int chunkIndex, String chunkserverUrl) throws Exception {
+        String readUrl = chunkserverUrl + "/api/chunk/raw";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(List.of(MediaType.APPLICATION_OCTET_STREAM));
+        headers.set(ChunkHeaders.IMAGEN_ID, imagenId);
+        headers.set(ChunkHeaders.CHUNK_INDEX, String.valueOf(chunkIndex));
+
+        ResponseEntity<byte[]> response = restTemplate.exchange(readUrl, HttpMethod.GET,
+                new HttpEntity<>(headers), byte[].class);
+
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            throw new RuntimeException("Error leyendo chunk");
         }
 
-        return java.util.Base64.getDecoder().decode(base64Data);
+        // Un chunk vacío llega sin cuerpo
+        byte[] chunkData = response.getBody();
+        return chunkData != null ? chunkData : new byte[0];
     }
 }
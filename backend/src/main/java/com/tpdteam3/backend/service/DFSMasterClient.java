@@ -19,6 +19,10 @@ public class DFSMasterClient {
     @Value("${dfs.master.url:https://backend.tpdteam3.com/master}")
     private String masterUrl;
 
+    // Clase de almacenamiento pedida al Master (REPLICATED o EC); vacío = la que use el Master por defecto
+    @Value("${dfs.storage-class:}")
+    private String storageClass;
+
     private final RestTemplate restTemplate;
 
     public DFSMasterClient() {
@@ -28,8 +32,13 @@ public class DFSMasterClient {
         this.restTemplate = new RestTemplate(factory);
     }
 
+    /**
+     * Pide al Master el plan de escritura: chunkSize y clase de almacenamiento
+     * elegidos para el archivo y ubicación de cada réplica o shard (lista "chunks").
+     * El checksum (CRC32 del contenido) lo guarda el Master si el objeto se empaqueta.
+     */
     @SuppressWarnings("unchecked")
-    public List<Map<String, Object>> requestUploadChunks(String imagenId, int size) throws Exception {
+    public Map<String, Object> requestUploadPlan(String imagenId, int size, long checksum) throws Exception {
         String uploadUrl = masterUrl + "/api/master/upload";
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
@@ -37,6 +46,10 @@ public class DFSMasterClient {
         Map<String, Object> request = new HashMap<>();
         request.put("imagenId", imagenId);
         request.put("size", size);
+        request.put("checksum", checksum);
+        if (storageClass != null && !storageClass.trim().isEmpty()) {
+            request.put("storageClass", storageClass.trim());
+        }
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(request, headers);
         ResponseEntity<Map> response = restTemplate.postForEntity(uploadUrl, entity, Map.class);
@@ -55,11 +68,15 @@ public class DFSMasterClient {
             throw new RuntimeException("El Master no devolvió información de chunks");
         }
 
-        return chunks;
+        return responseBody;
     }
 
+    /**
+     * Metadatos de la imagen: size, chunkSize, storageClass (y dataShards/parityShards
+     * si es EC) y las réplicas disponibles (lista "chunks")
+     */
     @SuppressWarnings("unchecked")
-    public List<Map<String, Object>> getImageMetadata(String imagenId) throws Exception {
+    public Map<String, Object> getImageMetadata(String imagenId) throws Exception {
         if (imagenId == null || imagenId.trim().isEmpty()) {
             throw new IllegalArgumentException("imagenId no puede estar vacío");
         }
@@ -81,7 +98,7 @@ public class DFSMasterClient {
             throw new RuntimeException("No hay chunks disponibles para la imagen: " + imagenId);
         }
 
-        return chunks;
+        return metadata;
     }
 
     public void deleteImage(String imagenId) throws Exception {
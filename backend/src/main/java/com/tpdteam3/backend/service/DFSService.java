@@ -1,5 +1,6 @@
 package com.tpdteam3.backend.service;
 
+import com.tpdteam3.common.ReedSolomon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,12 +9,20 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
 @Service
 public class DFSService {
 
     private static final Logger logger = LoggerFactory.getLogger(DFSService.class);
-    private static final int CHUNK_SIZE = 32 * 1024; // 32KB
+    // Tamaño de chunk si el Master no lo informa en el plan (versiones anteriores)
+    private static final int DEFAULT_CHUNK_SIZE = 32 * 1024; // 32KB
+    // Clase de almacenamiento erasure-coded (Reed-Solomon) informada por el Master
+    private static final String STORAGE_ERASURE_CODED = "EC";
+    // Objeto chico guardado en un rango del chunk 0 de un contenedor compartido
+    private static final String STORAGE_PACKED = "PACKED";
+    // Niveles de sospecha (0 a 1, informada por el Master) que se distinguen al ordenar réplicas
+    private static final int SUSPICION_GRADES = 4;
 
     private final DFSMasterClient masterClient;
     private final DFSChunkserverClient chunkServerClient;
@@ -34,15 +43,33 @@ public class DFSService {
 
         logger.info("Iniciando upload de imagen - ID: {}, Size: {} bytes", imagenId, imageBytes.length);
 
-        List<Map<String, Object>> allChunks = masterClient.requestUploadChunks(imagenId, imageBytes.length);
+        Map<String, Object> plan = masterClient.requestUploadPlan(imagenId, imageBytes.length, checksum(imageBytes));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> allChunks = (List<Map<String, Object>>) plan.get("chunks");
+        int chunkSize = plan.get("chunkSize") instanceof Number
+                ? ((Number) plan.get("chunkSize")).intValue()
+                : DEFAULT_CHUNK_SIZE;
+
+        if (STORAGE_PACKED.equals(plan.get("storageClass"))) {
+            uploadPacked(imagenId, imageBytes, plan, allChunks);
+            return imagenId;
+        }
 
         Map<Integer, List<Map<String, Object>>> chunksByIndex = allChunks.stream()
                 .collect(Collectors.groupingBy(chunk -> (Integer) chunk.get("chunkIndex")));
 
-        logger.info("Chunks asignados - Total chunks: {}, Total replicas: {}",
-                chunksByIndex.size(), allChunks.size());
+        logger.info("Chunks asignados - Total chunks: {}, Total replicas: {}, Chunk size: {} bytes",
+                chunksByIndex.size(), allChunks.size(), chunkSize);
+
+        // Archivos EC: cada "chunk" del plan es un shard (de datos o de paridad) ya codificado
+        List<byte[]> shards = null;
+        if (STORAGE_ERASURE_CODED.equals(plan.get("storageClass"))) {
+            int dataShards = ((Number) plan.get("dataShards")).intValue();
+            int parityShards = ((Number) plan.get("parityShards")).intValue();
+            shards = encodeShards(imageBytes, chunkSize, dataShards, parityShards);
+            logger.info("Imagen codificada RS({},{}) - Shards: {}", dataShards, parityShards, shards.size());
+        }
 
-        int offset = 0;
         int successfulWrites = 0;
         int failedWrites = 0;
 
@@ -50,9 +77,14 @@ public class DFSService {
             int chunkIndex = entry.getKey();
             List<Map<String, Object>> replicas = entry.getValue();
 
-            int length = Math.min(CHUNK_SIZE, imageBytes.length - offset);
-            byte[] chunkData = Arrays.copyOfRange(imageBytes, offset, offset + length);
-            String base64Data = Base64.getEncoder().encodeToString(chunkData);
+            byte[] chunkData;
+            if (shards != null) {
+                chunkData = shards.get(chunkIndex);
+            } else {
+                int offset = chunkIndex * chunkSize;
+                chunkData = Arrays.copyOfRange(imageBytes, offset, Math.min(offset + chunkSize, imageBytes.length));
+            }
+            int length = chunkData.length;
 
             logger.debug("Procesando chunk {} - Size: {} bytes, Replicas: {}",
                     chunkIndex, length, replicas.size());
@@ -64,7 +96,7 @@ public class DFSService {
                         : 0;
 
                 try {
-                    chunkServerClient.writeChunk(imagenId, chunkIndex, base64Data, chunkserverUrl);
+                    chunkServerClient.writeChunk(imagenId, chunkIndex, chunkData, chunkserverUrl);
 
                     String replicaType = replicaIndex == 0 ? "PRIMARIA" : "RÉPLICA " + replicaIndex;
                     logger.debug("Chunk {} escrito exitosamente - Type: {}, CS: {}",
@@ -78,8 +110,6 @@ public class DFSService {
                     failedWrites++;
                 }
             }
-
-            offset += length;
         }
 
         if (failedWrites > 0) {
@@ -92,10 +122,88 @@ public class DFSService {
         return imagenId;
     }
 
+    /**
+     * Escribe un objeto empaquetado en su rango del contenedor, en cada réplica del contenedor.
+     * Si alguna réplica no lo acepta, el objeto se borra del Master y el upload falla:
+     * esa réplica devolvería el rango sin escribir.
+     */
+    private void uploadPacked(String imagenId, byte[] imageBytes, Map<String, Object> plan,
+                              List<Map<String, Object>> containerReplicas) {
+        String containerId = (String) plan.get("containerId");
+        long offset = ((Number) plan.get("offset")).longValue();
+        String base64Data = Base64.getEncoder().encodeToString(imageBytes);
+
+        logger.info("Objeto empaquetado - ID: {}, Contenedor: {}, Offset: {}, Replicas: {}",
+                imagenId, containerId, offset, containerReplicas.size());
+
+        int successfulWrites = 0;
+        for (Map<String, Object> replica : containerReplicas) {
+            String chunkserverUrl = (String) replica.get("chunkserverUrl");
+            try {
+                chunkServerClient.writeChunkRange(containerId, 0, offset, base64Data, chunkserverUrl);
+                successfulWrites++;
+            } catch (Exception e) {
+                logger.warn("Fallo al escribir rango de {} en {} - Error: {}", containerId, chunkserverUrl, e.getMessage());
+            }
+        }
+
+        if (successfulWrites < containerReplicas.size()) {
+            logger.error("Upload empaquetado incompleto - ID: {}, Writes: {}/{}",
+                    imagenId, successfulWrites, containerReplicas.size());
+            try {
+                masterClient.deleteImage(imagenId);
+            } catch (Exception e) {
+                logger.warn("No se pudo deshacer el registro de {} en el Master - Error: {}", imagenId, e.getMessage());
+            }
+            throw new RuntimeException("No se pudo escribir el objeto en todas las réplicas del contenedor " +
+                                       containerId + " (" + successfulWrites + "/" + containerReplicas.size() + ")");
+        }
+        logger.info("Upload empaquetado completado - ID: {}, Writes: {}/{}",
+                imagenId, successfulWrites, containerReplicas.size());
+    }
+
+    /**
+     * Parte la imagen en franjas de dataShards × chunkSize bytes y calcula la paridad
+     * de cada una. El shard j de la franja s queda en la posición s × (datos + paridad) + j.
+     * La última franja usa shards más chicos (tamaño / dataShards, redondeado hacia arriba).
+     */
+    private List<byte[]> encodeShards(byte[] imageBytes, int chunkSize, int dataShards, int parityShards) {
+        ReedSolomon codec = new ReedSolomon(dataShards, parityShards);
+        int totalShards = dataShards + parityShards;
+        long stripeBytes = (long) dataShards * chunkSize;
+        int stripes = (int) ((imageBytes.length + stripeBytes - 1) / stripeBytes);
+
+        List<byte[]> shards = new ArrayList<>(stripes * totalShards);
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            int stripeOffset = (int) (stripe * stripeBytes);
+            int bytesInStripe = (int) Math.min(stripeBytes, imageBytes.length - stripeOffset);
+            int shardSize = (bytesInStripe + dataShards - 1) / dataShards;
+
+            byte[][] stripeShards = new byte[totalShards][];
+            for (int j = 0; j < dataShards; j++) {
+                stripeShards[j] = new byte[shardSize];
+                int from = j * shardSize;
+                if (from < bytesInStripe) {
+                    System.arraycopy(imageBytes, stripeOffset + from, stripeShards[j], 0,
+                            Math.min(shardSize, bytesInStripe - from));
+                }
+            }
+            codec.encodeParity(stripeShards, shardSize);
+            shards.addAll(Arrays.asList(stripeShards));
+        }
+        return shards;
+    }
+
     public byte[] downloadImagen(String imagenId) throws Exception {
         logger.info("Iniciando download de imagen - ID: {}", imagenId);
 
-        List<Map<String, Object>> allChunks = masterClient.getImageMetadata(imagenId);
+        Map<String, Object> metadata = masterClient.getImageMetadata(imagenId);
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> allChunks = (List<Map<String, Object>>) metadata.get("chunks");
+
+        if (STORAGE_PACKED.equals(metadata.get("storageClass"))) {
+            return downloadPacked(imagenId, metadata, allChunks);
+        }
 
         Map<Integer, List<Map<String, Object>>> chunksByIndex = allChunks.stream()
                 .collect(Collectors.groupingBy(chunk -> (Integer) chunk.get("chunkIndex")));
@@ -103,6 +211,10 @@ public class DFSService {
         logger.info("Metadata obtenida - Total chunks: {}, Total replicas: {}",
                 chunksByIndex.size(), allChunks.size());
 
+        if (STORAGE_ERASURE_CODED.equals(metadata.get("storageClass"))) {
+            return downloadErasureCoded(imagenId, metadata, chunksByIndex);
+        }
+
         List<byte[]> chunkDataList = new ArrayList<>(chunksByIndex.size());
         int successfulReads = 0;
         int fallbacksUsed = 0;
@@ -115,6 +227,11 @@ public class DFSService {
                 throw new RuntimeException("Fragmento " + i + " no disponible");
             }
 
+            // Orden aleatorio dentro de cada nivel de sospecha: reparte las lecturas entre
+            // todas las réplicas (las imágenes populares tienen réplicas extra justamente
+            // para eso) pero prueba antes los servidores al día con sus heartbeats
+            replicas = orderForRead(replicas, metadata);
+
             logger.debug("Procesando chunk {} - Replicas disponibles: {}", i, replicas.size());
 
             byte[] chunkData = null;
@@ -184,6 +301,157 @@ public class DFSService {
         return fullImage;
     }
 
+    /**
+     * Lee una imagen erasure-coded franja por franja: primero los shards de datos y,
+     * si alguno no se puede leer, los de paridad hasta juntar dataShards para decodificar.
+     */
+    private byte[] downloadErasureCoded(String imagenId, Map<String, Object> metadata,
+                                        Map<Integer, List<Map<String, Object>>> chunksByIndex) {
+        int size = ((Number) metadata.get("size")).intValue();
+        int chunkSize = ((Number) metadata.get("chunkSize")).intValue();
+        int dataShards = ((Number) metadata.get("dataShards")).intValue();
+        int parityShards = ((Number) metadata.get("parityShards")).intValue();
+        int totalShards = dataShards + parityShards;
+
+        ReedSolomon codec = new ReedSolomon(dataShards, parityShards);
+        long stripeBytes = (long) dataShards * chunkSize;
+        int stripes = (int) ((size + stripeBytes - 1) / stripeBytes);
+        byte[] fullImage = new byte[size];
+        int degradedStripes = 0;
+
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            int stripeOffset = (int) (stripe * stripeBytes);
+            int bytesInStripe = (int) Math.min(stripeBytes, size - stripeOffset);
+            int shardSize = (bytesInStripe + dataShards - 1) / dataShards;
+
+            byte[][] shards = new byte[totalShards][];
+            boolean[] present = new boolean[totalShards];
+            int collected = 0;
+            for (int j = 0; j < totalShards && collected < dataShards; j++) {
+                int chunkIndex = stripe * totalShards + j;
+                byte[] data = readFromAnyReplica(imagenId, chunkIndex,
+                        orderForRead(chunksByIndex.get(chunkIndex), metadata));
+                if (data != null && data.length == shardSize) {
+                    shards[j] = data;
+                    present[j] = true;
+                    collected++;
+                }
+            }
+
+            if (collected < dataShards) {
+                logger.error("Franja {} irrecuperable - ID: {}, Shards legibles: {}/{}",
+                        stripe, imagenId, collected, dataShards);
+                throw new RuntimeException("No se pudo reconstruir la franja " + stripe + ": solo " +
+                                           collected + " de " + dataShards + " shards legibles");
+            }
+
+            boolean missingData = false;
+            for (int j = 0; j < dataShards; j++) {
+                missingData |= !present[j];
+            }
+            if (missingData) {
+                codec.decodeMissing(shards, present, shardSize);
+                degradedStripes++;
+                logger.info("Franja {} reconstruida con paridad - ID: {}", stripe, imagenId);
+            }
+
+            for (int j = 0; j < dataShards; j++) {
+                int from = j * shardSize;
+                if (from >= bytesInStripe) {
+                    break;
+                }
+                System.arraycopy(shards[j], 0, fullImage, stripeOffset + from,
+                        Math.min(shardSize, bytesInStripe - from));
+            }
+        }
+
+        logger.info("Download EC completado - ID: {}, Size: {} bytes, Franjas: {}, Reconstruidas: {}",
+                imagenId, size, stripes, degradedStripes);
+        return fullImage;
+    }
+
+    /**
+     * Lee el rango de un objeto empaquetado desde alguna réplica del contenedor. Si el Master
+     * tiene su checksum, descarta las réplicas cuyo rango no coincide (sin escribir o atrasado).
+     */
+    private byte[] downloadPacked(String imagenId, Map<String, Object> metadata,
+                                  List<Map<String, Object>> containerReplicas) {
+        String containerId = (String) metadata.get("containerId");
+        long offset = ((Number) metadata.get("offset")).longValue();
+        int length = ((Number) metadata.get("length")).intValue();
+        Long expectedChecksum = metadata.get("checksum") instanceof Number
+                ? ((Number) metadata.get("checksum")).longValue()
+                : null;
+
+        List<Map<String, Object>> replicas = orderForRead(containerReplicas, metadata);
+        for (Map<String, Object> replica : replicas) {
+            String chunkserverUrl = (String) replica.get("chunkserverUrl");
+            try {
+                byte[] data = chunkServerClient.readChunkRange(containerId, 0, offset, length, chunkserverUrl);
+                if (expectedChecksum != null && checksum(data) != expectedChecksum) {
+                    logger.warn("Checksum distinto en el rango de {} desde {} - ID: {}", containerId, chunkserverUrl, imagenId);
+                    continue;
+                }
+                logger.info("Download empaquetado completado - ID: {}, Contenedor: {}, Size: {} bytes",
+                        imagenId, containerId, data.length);
+                return data;
+            } catch (Exception e) {
+                logger.warn("Error leyendo rango de {} desde {} - Error: {}", containerId, chunkserverUrl, e.getMessage());
+            }
+        }
+
+        logger.error("Objeto empaquetado no disponible - ID: {}, Contenedor: {}", imagenId, containerId);
+        throw new RuntimeException("No se pudo leer el objeto desde ninguna réplica del contenedor " + containerId);
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    /**
+     * Réplicas en orden de lectura: primero los servidores menos sospechosos según el
+     * detector de fallas del Master, al azar dentro del mismo nivel
+     */
+    private List<Map<String, Object>> orderForRead(List<Map<String, Object>> replicas,
+                                                   Map<String, Object> metadata) {
+        if (replicas == null) {
+            return null;
+        }
+        List<Map<String, Object>> ordered = new ArrayList<>(replicas);
+        Collections.shuffle(ordered);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> suspicion = (Map<String, Object>) metadata.get("serverSuspicion");
+        if (suspicion != null && !suspicion.isEmpty()) {
+            ordered.sort(Comparator.comparingInt(replica -> {
+                Object value = suspicion.get((String) replica.get("chunkserverUrl"));
+                double level = value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+                return (int) Math.min(SUSPICION_GRADES, Math.floor(level * SUSPICION_GRADES));
+            }));
+        }
+        return ordered;
+    }
+
+    /**
+     * Lee un chunk desde la primera réplica que responda; null si ninguna lo tiene
+     */
+    private byte[] readFromAnyReplica(String imagenId, int chunkIndex, List<Map<String, Object>> replicas) {
+        if (replicas == null) {
+            return null;
+        }
+        for (Map<String, Object> replica : replicas) {
+            String chunkserverUrl = (String) replica.get("chunkserverUrl");
+            try {
+                return chunkServerClient.readChunk(imagenId, chunkIndex, chunkserverUrl);
+            } catch (Exception e) {
+                logger.warn("Error leyendo shard {} desde {} - Error: {}", chunkIndex, chunkserverUrl, e.getMessage());
+            }
+        }
+        return null;
+    }
+
     public void deleteImagen(String imagenId) throws Exception {
         logger.info("Eliminando imagen - ID: {}", imagenId);
         masterClient.deleteImage(imagenId);
@@ -1,11 +1,21 @@
 package com.tpdteam3.chunkserver.controller;
 
+import com.tpdteam3.chunkserver.service.ChunkTransferService;
+import com.tpdteam3.chunkserver.service.CommandExecutor;
 import com.tpdteam3.chunkserver.service.StorageService;
+import com.tpdteam3.common.ChunkHeaders;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
@@ -23,6 +33,22 @@ public class ChunkController {
     @Autowired
     private StorageService storageService;
 
+    @Autowired
+    private CommandExecutor commandExecutor;
+
+    @Autowired
+    private ChunkTransferService chunkTransferService;
+
+    // Metadatos de los endpoints binarios (/raw), que no llevan JSON
+    public static final String IMAGEN_ID_HEADER = ChunkHeaders.IMAGEN_ID;
+    public static final String CHUNK_INDEX_HEADER = ChunkHeaders.CHUNK_INDEX;
+
+    // Atributos de sendfile del conector de Tomcat (org.apache.tomcat.util.net.Constants/Globals)
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
     /**
      * Escribe un fragmento de archivo en disco.
      * Recibe datos en Base64 y los almacena con el nombre: imagenId_chunk_chunkIndex.bin
@@ -80,6 +106,169 @@ public class ChunkController {
         }
     }
 
+    /**
+     * Escribe un fragmento recibiendo los bytes crudos (application/octet-stream).
+     * El cuerpo se copia directo al archivo, sin Base64 ni copias intermedias en memoria;
+     * imagenId y chunkIndex viajan en los headers X-Imagen-Id y X-Chunk-Index.
+     *
+     * @param imagenId   ID único de la imagen
+     * @param chunkIndex Índice del fragmento (0, 1, 2, ...)
+     * @param data       Contenido del fragmento
+     * @return ResponseEntity con los bytes escritos o error
+     */
+    @PutMapping(value = "/raw", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Map<String, Object>> writeChunkRaw(
+            @RequestHeader(IMAGEN_ID_HEADER) String imagenId,
+            @RequestHeader(CHUNK_INDEX_HEADER) int chunkIndex,
+            InputStream data) {
+        try {
+            if (imagenId.trim().isEmpty() || chunkIndex < 0) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("status", "error");
+                error.put("message", "Se requieren " + IMAGEN_ID_HEADER + " y " + CHUNK_INDEX_HEADER + " >= 0");
+                return ResponseEntity.badRequest().body(error);
+            }
+
+            long size = storageService.writeChunk(imagenId, chunkIndex, data);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("message", "Fragmento almacenado correctamente");
+            response.put("size", size);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", "Error al escribir fragmento: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
+    /**
+     * Lee un fragmento como bytes crudos (application/octet-stream) sin pasarlo por el heap.
+     * Si el conector de Tomcat soporta sendfile, se le indica el archivo y el kernel lo
+     * envía directo al socket; si no (por ejemplo con TLS en Tomcat), se copia con
+     * FileChannel.transferTo al stream de la respuesta. imagenId y chunkIndex van en los
+     * headers X-Imagen-Id y X-Chunk-Index; la respuesta los repite junto con el
+     * Content-Length.
+     *
+     * @param imagenId   ID único de la imagen
+     * @param chunkIndex Índice del fragmento (0, 1, 2, ...)
+     * @return ResponseEntity con el contenido del fragmento, o error 404 (JSON) si no existe
+     */
+    @GetMapping("/raw")
+    public ResponseEntity<?> readChunkRaw(
+            @RequestHeader(IMAGEN_ID_HEADER) String imagenId,
+            @RequestHeader(CHUNK_INDEX_HEADER) int chunkIndex,
+            HttpServletRequest request) {
+        Path chunkPath;
+        long size;
+        try {
+            // Tomcat exige la ruta canónica para sendfile
+            chunkPath = storageService.getChunkPath(imagenId, chunkIndex).toRealPath();
+            size = Files.size(chunkPath);
+        } catch (Exception e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.APPLICATION_JSON).body(error);
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(size)
+                .header(IMAGEN_ID_HEADER, imagenId)
+                .header(CHUNK_INDEX_HEADER, String.valueOf(chunkIndex));
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            // Tomcat envía el archivo después de los headers; la respuesta va sin cuerpo
+            request.setAttribute(SENDFILE_FILENAME_ATTR, chunkPath.toString());
+            request.setAttribute(SENDFILE_START_ATTR, 0L);
+            request.setAttribute(SENDFILE_END_ATTR, size);
+            return response.build();
+        }
+
+        StreamingResponseBody body = out -> storageService.transferChunk(imagenId, chunkIndex, Channels.newChannel(out));
+        return response.body(body);
+    }
+
+    /**
+     * Escribe un rango dentro de un fragmento (contenedores de objetos empaquetados).
+     *
+     * @param request Mapa con imagenId, chunkIndex, offset y data (Base64)
+     * @return ResponseEntity con estado de éxito o error
+     */
+    @PostMapping("/write-range")
+    public ResponseEntity<Map<String, String>> writeChunkRange(@RequestBody Map<String, Object> request) {
+        try {
+            String imagenId = (String) request.get("imagenId");
+            Number chunkIndex = (Number) request.get("chunkIndex");
+            Number offset = (Number) request.get("offset");
+            String data = (String) request.get("data");
+
+            if (imagenId == null || imagenId.trim().isEmpty() || chunkIndex == null || chunkIndex.intValue() < 0 ||
+                offset == null || offset.longValue() < 0 || data == null || data.isEmpty()) {
+                Map<String, String> error = new HashMap<>();
+                error.put("status", "error");
+                error.put("message", "imagenId, chunkIndex (>= 0), offset (>= 0) y data son requeridos");
+                return ResponseEntity.badRequest().body(error);
+            }
+
+            storageService.writeChunkRange(imagenId, chunkIndex.intValue(), offset.longValue(), data);
+
+            Map<String, String> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("message", "Rango almacenado correctamente");
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", "Error al escribir rango: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
+    /**
+     * Lee un rango de un fragmento (objetos empaquetados en un contenedor).
+     *
+     * @param imagenId   ID del contenedor
+     * @param chunkIndex Índice del fragmento
+     * @param offset     Posición donde empieza el rango
+     * @param length     Bytes a leer
+     * @return ResponseEntity con los datos del rango en Base64 o 404 si no está completo
+     */
+    @GetMapping("/read-range")
+    public ResponseEntity<Map<String, Object>> readChunkRange(
+            @RequestParam String imagenId,
+            @RequestParam int chunkIndex,
+            @RequestParam long offset,
+            @RequestParam int length) {
+        if (imagenId.trim().isEmpty() || chunkIndex < 0 || offset < 0 || length <= 0) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", "imagenId, chunkIndex (>= 0), offset (>= 0) y length (> 0) son requeridos");
+            return ResponseEntity.badRequest().body(error);
+        }
+        try {
+            byte[] data = storageService.readChunkRange(imagenId, chunkIndex, offset, length);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            response.put("imagenId", imagenId);
+            response.put("chunkIndex", chunkIndex);
+            response.put("offset", offset);
+            response.put("data", Base64.getEncoder().encodeToString(data));
+            response.put("size", data.length);
+            return ResponseEntity.ok(response);
+        } catch (RuntimeException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+        }
+    }
+
     /**
      * Lee un fragmento de archivo desde disco.
      * Retorna los datos del chunk en formato Base64.
@@ -249,7 +438,10 @@ public class ChunkController {
     @GetMapping("/stats")
     public ResponseEntity<Map<String, Object>> getStats() {
         try {
-            return ResponseEntity.ok(storageService.getStats());
+            Map<String, Object> stats = new HashMap<>(storageService.getStats());
+            stats.put("commands", commandExecutor.getStats());
+            stats.put("transfers", chunkTransferService.getStats());
+            return ResponseEntity.ok(stats);
         } catch (Exception e) {
             e.printStackTrace();
             Map<String, Object> error = new HashMap<>();
@@ -0,0 +1,77 @@
+package com.tpdteam3.chunkserver.service;
+
+import com.tpdteam3.chunkserver.controller.ChunkController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copia de chunks directamente entre chunkservers.
+ * <p>
+ * El Master solo indica qué copiar y entre qué servidores; los datos no pasan por él.
+ * Este servidor lee su chunk y lo escribe en el destino (comando replicate_to). El
+ * destino llega solo en comandos del Master (respuesta del heartbeat): ningún endpoint
+ * hace que este servidor se conecte a una URL recibida en la petición.
+ * Los bytes viajan crudos por los endpoints /api/chunk/raw, sin Base64.
+ */
+@Service
+public class ChunkTransferService {
+
+    @Autowired
+    private StorageService storageService;
+
+    private final RestTemplate restTemplate;
+
+    // Estadísticas
+    private final AtomicLong totalPushed = new AtomicLong();
+    private final AtomicLong bytesPushed = new AtomicLong();
+
+    public ChunkTransferService() {
+        org.springframework.http.client.SimpleClientHttpRequestFactory factory =
+                new org.springframework.http.client.SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(5000);  // 5 segundos
+        factory.setReadTimeout(30000);    // 30 segundos (chunks de hasta varios MB)
+        this.restTemplate = new RestTemplate(factory);
+    }
+
+    /**
+     * Escribe un chunk local en otro chunkserver (PUT /api/chunk/raw): el archivo se
+     * copia directo al cuerpo de la petición, sin cargarlo en memoria
+     *
+     * @return Bytes copiados
+     */
+    public long pushTo(String imagenId, int chunkIndex, String target) {
+        Path chunkPath = storageService.getChunkPath(imagenId, chunkIndex);
+        long[] size = {0};
+        restTemplate.execute(target + "/api/chunk/raw", HttpMethod.PUT, request -> {
+            size[0] = Files.size(chunkPath);
+            HttpHeaders headers = request.getHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            headers.setContentLength(size[0]);
+            headers.set(ChunkController.IMAGEN_ID_HEADER, imagenId);
+            headers.set(ChunkController.CHUNK_INDEX_HEADER, String.valueOf(chunkIndex));
+            Files.copy(chunkPath, request.getBody());
+        }, response -> null);
+
+        totalPushed.incrementAndGet();
+        bytesPushed.addAndGet(size[0]);
+        System.out.println("📤 Chunk " + imagenId + "[" + chunkIndex + "] replicado a " + target);
+        return size[0];
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("totalPushed", totalPushed.get());
+        stats.put("bytesPushed", bytesPushed.get());
+        return stats;
+    }
+}
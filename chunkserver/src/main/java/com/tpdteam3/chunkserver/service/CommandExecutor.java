@@ -0,0 +1,226 @@
+package com.tpdteam3.chunkserver.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ejecuta los comandos que el Master manda en las respuestas de heartbeat.
+ * <p>
+ * Cada comando corre en un pool acotado, fuera del hilo del heartbeat; el resultado se
+ * confirma en el próximo heartbeat ({@code commandResults}). Si la cola está llena el
+ * comando se descarta y el Master lo vuelve a mandar. Los ids en curso se ignoran y los
+ * ya terminados se confirman de nuevo sin ejecutarlos (el Master reentrega los comandos
+ * cuya confirmación no le llegó).
+ * <p>
+ * Acciones: {@code replicate_to} (copiar un chunk local a otro chunkserver),
+ * {@code delete}, {@code verify} (qué chunks de una lista faltan) y
+ * {@code report_full_inventory}.
+ */
+@Service
+public class CommandExecutor {
+
+    private static final int COMPLETED_CACHE_SIZE = 1024;
+
+    @Value("${chunkserver.commands.workers:4}")
+    private int workers;
+
+    @Value("${chunkserver.commands.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private ChunkTransferService chunkTransferService;
+
+    @Autowired
+    @Lazy
+    private HeartbeatService heartbeatService;
+
+    private ThreadPoolExecutor executor;
+
+    // Resultados a confirmar en el próximo heartbeat
+    private final ConcurrentLinkedQueue<Map<String, Object>> pendingResults = new ConcurrentLinkedQueue<>();
+    private final Set<Long> inProgress = ConcurrentHashMap.newKeySet();
+    // Últimos resultados, para volver a confirmar un comando reentregado
+    private final Map<Long, Map<String, Object>> completed = Collections.synchronizedMap(
+            new LinkedHashMap<Long, Map<String, Object>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Map<String, Object>> eldest) {
+                    return size() > COMPLETED_CACHE_SIZE;
+                }
+            });
+
+    // Estadísticas
+    private final AtomicLong totalReceived = new AtomicLong();
+    private final AtomicLong totalSucceeded = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+    private final AtomicLong totalRejected = new AtomicLong();
+    private final AtomicLong totalDuplicates = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Recibe los comandos de una respuesta de heartbeat
+     */
+    @SuppressWarnings("unchecked")
+    public void submit(Object commands) {
+        if (!(commands instanceof List)) {
+            return;
+        }
+
+        for (Object item : (List<Object>) commands) {
+            if (!(item instanceof Map) || !(((Map<String, Object>) item).get("commandId") instanceof Number)) {
+                continue;
+            }
+            Map<String, Object> command = (Map<String, Object>) item;
+            long commandId = ((Number) command.get("commandId")).longValue();
+            totalReceived.incrementAndGet();
+
+            Map<String, Object> previous = completed.get(commandId);
+            if (previous != null) {
+                totalDuplicates.incrementAndGet();
+                pendingResults.add(previous);
+                continue;
+            }
+            if (!inProgress.add(commandId)) {
+                totalDuplicates.incrementAndGet();
+                continue;
+            }
+
+            try {
+                executor.execute(() -> run(commandId, command));
+            } catch (RejectedExecutionException e) {
+                // Cola llena: el Master lo reentrega si no recibe confirmación
+                inProgress.remove(commandId);
+                totalRejected.incrementAndGet();
+            }
+        }
+    }
+
+    private void run(long commandId, Map<String, Object> command) {
+        String action = (String) command.get("action");
+        Map<String, Object> result = new HashMap<>();
+        result.put("commandId", commandId);
+        result.put("action", action);
+        try {
+            execute(action, command, result);
+            result.put("status", "success");
+            totalSucceeded.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println("❌ Comando " + action + " #" + commandId + " falló: " + e.getMessage());
+            result.put("status", "error");
+            result.put("message", e.getMessage());
+            totalFailed.incrementAndGet();
+        }
+        completed.put(commandId, result);
+        inProgress.remove(commandId);
+        pendingResults.add(result);
+    }
+
+    private void execute(String action, Map<String, Object> command, Map<String, Object> result) {
+        if ("replicate_to".equals(action)) {
+            replicateTo(command, result);
+        } else if ("delete".equals(action)) {
+            storageService.deleteChunk((String) command.get("imagenId"), chunkIndexOf(command));
+        } else if ("verify".equals(action)) {
+            result.put("missing", findMissing(command.get("chunks")));
+        } else if ("report_full_inventory".equals(action)) {
+            heartbeatService.requestFullReport();
+        } else {
+            throw new IllegalArgumentException("Acción desconocida: " + action);
+        }
+    }
+
+    /**
+     * Copia un chunk local al chunkserver destino (push directo, sin pasar por el Master)
+     */
+    private void replicateTo(Map<String, Object> command, Map<String, Object> result) {
+        String imagenId = (String) command.get("imagenId");
+        int chunkIndex = chunkIndexOf(command);
+        String target = (String) command.get("target");
+        if (imagenId == null || target == null) {
+            throw new IllegalArgumentException("replicate_to requiere imagenId, chunkIndex y target");
+        }
+        result.put("bytes", chunkTransferService.pushTo(imagenId, chunkIndex, target));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> findMissing(Object chunks) {
+        List<Map<String, Object>> missing = new ArrayList<>();
+        if (!(chunks instanceof List)) {
+            return missing;
+        }
+        for (Object item : (List<Object>) chunks) {
+            Map<String, Object> chunk = (Map<String, Object>) item;
+            String imagenId = (String) chunk.get("imagenId");
+            int chunkIndex = chunkIndexOf(chunk);
+            if (!storageService.chunkExists(imagenId, chunkIndex)) {
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("imagenId", imagenId);
+                entry.put("chunkIndex", chunkIndex);
+                missing.add(entry);
+            }
+        }
+        return missing;
+    }
+
+    private static int chunkIndexOf(Map<String, Object> values) {
+        Object chunkIndex = values.get("chunkIndex");
+        if (!(chunkIndex instanceof Number)) {
+            throw new IllegalArgumentException("chunkIndex inválido: " + chunkIndex);
+        }
+        return ((Number) chunkIndex).intValue();
+    }
+
+    /**
+     * Resultados a mandar en el próximo heartbeat (se sacan de la cola)
+     */
+    public List<Map<String, Object>> drainResults() {
+        List<Map<String, Object>> results = new ArrayList<>();
+        Map<String, Object> result;
+        while ((result = pendingResults.poll()) != null) {
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Devuelve a la cola resultados cuyo heartbeat no llegó al Master
+     */
+    public void restoreResults(List<Map<String, Object>> results) {
+        pendingResults.addAll(results);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", workers);
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("queued", executor.getQueue().size());
+        stats.put("inProgress", inProgress.size());
+        stats.put("pendingResults", pendingResults.size());
+        stats.put("totalReceived", totalReceived.get());
+        stats.put("totalSucceeded", totalSucceeded.get());
+        stats.put("totalFailed", totalFailed.get());
+        stats.put("totalRejected", totalRejected.get());
+        stats.put("totalDuplicates", totalDuplicates.get());
+        return stats;
+    }
+}
@@ -1,5 +1,7 @@
 package com.tpdteam3.chunkserver.service;
 
+import com.tpdteam3.common.ChunkInventory;
+import com.tpdteam3.common.InventoryDigest;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,9 +13,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -22,8 +22,13 @@ import java.util.concurrent.TimeUnit;
  * Heartbeats ACTIVOS desde Chunkserver → Master
  * El Chunkserver envía heartbeats periódicos al Master para:
  * 1. Informar que está vivo y disponible
- * 2. Enviar inventario actualizado de chunks
+ * 2. Enviar inventario de chunks: completo al arrancar o cuando el Master lo pide,
+ *    y en el resto de los heartbeats solo los chunks agregados/eliminados (delta)
+ *    con un número de secuencia y un resumen (digest) del inventario completo, para
+ *    que el Master detecte diferencias sin comparar el inventario
  * 3. Reportar métricas de salud (espacio disponible, carga, etc)
+ * 4. Recibir comandos del Master en la respuesta (replicar, borrar, verificar) y
+ *    confirmar sus resultados en los heartbeats siguientes
  */
 @Service
 public class HeartbeatService {
@@ -46,15 +51,34 @@ public class HeartbeatService {
     @Value("${chunkserver.heartbeat.interval:10}")
     private int heartbeatIntervalSeconds;
 
+    // Cada cuántos heartbeats se manda igual un inventario completo (red de seguridad)
+    @Value("${chunkserver.heartbeat.full-report-every:360}")
+    private int fullReportEvery;
+
     @Autowired
     private StorageService storageService;
 
+    @Autowired
+    private TopologyService topologyService;
+
+    @Autowired
+    private CommandExecutor commandExecutor;
+
     private final RestTemplate restTemplate;
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     private String chunkserverUrl;
     private int consecutiveFailures = 0;
     private static final int MAX_FAILURES_BEFORE_ALERT = 3;
 
+    // Inventario que el Master tiene según el último heartbeat aceptado (base de los deltas)
+    private ChunkInventory reportedInventory = new ChunkInventory();
+    private long inventorySeq = 0;
+    private volatile boolean fullReportPending = true;
+    private int heartbeatsSinceFullReport = 0;
+    // Resumen del inventario reportado (se actualiza con cada delta) y grupos que pidió el Master
+    private InventoryDigest reportedDigest = new InventoryDigest();
+    private List<Integer> requestedBuckets = Collections.emptyList();
+
     public HeartbeatService() {
         this.restTemplate = new RestTemplate();
     }
@@ -112,6 +136,7 @@ public class HeartbeatService {
      * HEARTBEAT ACTIVO: El Chunkserver envía su estado al Master
      */
     private void sendHeartbeat() {
+        List<Map<String, Object>> commandResults = Collections.emptyList();
         try {
             String heartbeatUrl = masterUrl + "/api/master/heartbeat";
 
@@ -125,9 +150,10 @@ public class HeartbeatService {
             heartbeatData.put("status", "UP");
             heartbeatData.put("timestamp", System.currentTimeMillis());
 
-            // ✅ INCLUIR INVENTARIO DE CHUNKS (lo que realmente tiene el servidor)
-            Map<String, List<Integer>> inventory = storageService.getChunkInventory();
-            heartbeatData.put("inventory", inventory);
+            // ✅ INCLUIR INVENTARIO DE CHUNKS (lo que realmente tiene el servidor): completo o delta
+            ChunkInventory inventory = storageService.getChunkInventory();
+            boolean fullReport = fullReportPending || heartbeatsSinceFullReport >= fullReportEvery;
+            InventoryDigest digest = putInventory(heartbeatData, inventory, fullReport);
 
             // ✅ INCLUIR MÉTRICAS DE SALUD
             Map<String, Object> stats = storageService.getStats();
@@ -136,6 +162,15 @@ public class HeartbeatService {
             heartbeatData.put("freeSpaceMB", stats.get("freeSpaceMB"));
             heartbeatData.put("canWrite", stats.get("canWrite"));
 
+            // Topología para la colocación por dominios de falla
+            heartbeatData.putAll(topologyService.getLabels());
+
+            // Resultados de los comandos terminados desde el último heartbeat
+            commandResults = commandExecutor.drainResults();
+            if (!commandResults.isEmpty()) {
+                heartbeatData.put("commandResults", commandResults);
+            }
+
             HttpEntity<Map<String, Object>> entity = new HttpEntity<>(heartbeatData, headers);
 
             // Enviar heartbeat al Master
@@ -146,10 +181,29 @@ public class HeartbeatService {
                     System.out.println("✅ Conexión con Master restaurada");
                 }
                 consecutiveFailures = 0;
+
+                reportedInventory = inventory;
+                reportedDigest = digest;
+                heartbeatsSinceFullReport = fullReport ? 0 : heartbeatsSinceFullReport + 1;
+                Map<String, Object> body = response.getBody();
+                boolean fullRequested = body != null && Boolean.TRUE.equals(body.get("fullInventoryRequested"));
+                // Un pedido por comando que llegó después de armar este heartbeat sigue pendiente
+                fullReportPending = fullRequested || (fullReportPending && !fullReport);
+                if (fullRequested) {
+                    System.out.println("📋 El Master pidió el inventario completo (se envía en el próximo heartbeat)");
+                }
+                requestedBuckets = parseRequestedBuckets(body);
+                if (body != null) {
+                    commandExecutor.submit(body.get("commands"));
+                }
             }
 
         } catch (Exception e) {
             consecutiveFailures++;
+            // Los resultados se confirman en el próximo heartbeat
+            commandExecutor.restoreResults(commandResults);
+            // Si el Master llegó a aplicar el delta, el próximo lo repite (agregar y quitar son
+            // idempotentes) y el digest confirma que quedó al día
 
             if (consecutiveFailures == 1) {
                 System.err.println("⚠️  Error enviando heartbeat al Master: " + e.getMessage());
@@ -164,6 +218,82 @@ public class HeartbeatService {
     }
 
 
+    /**
+     * Agrega el inventario al heartbeat, en el formato binario de {@link ChunkInventory}
+     * (Base64). Completo: {@code inventory} con la secuencia actual.
+     * Delta: {@code inventoryDelta} con los chunks agregados y eliminados desde el último
+     * heartbeat aceptado, y la secuencia siguiente; sin cambios va solo la secuencia. Todo
+     * heartbeat que no es completo lleva además el digest del inventario, actualizado con el
+     * delta, y el contenido de los grupos que el Master haya pedido.
+     *
+     * @return Digest del inventario enviado
+     */
+    private InventoryDigest putInventory(Map<String, Object> heartbeatData, ChunkInventory inventory,
+                                         boolean fullReport) {
+        if (fullReport) {
+            inventorySeq++;
+            heartbeatData.put("inventory", inventory.toBase64());
+            heartbeatData.put("inventorySeq", inventorySeq);
+            return InventoryDigest.of(inventory);
+        }
+
+        ChunkInventory added = inventory.minus(reportedInventory);
+        ChunkInventory removed = reportedInventory.minus(inventory);
+        InventoryDigest digest = reportedDigest.copy();
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            inventorySeq++;
+            Map<String, Object> delta = new HashMap<>();
+            delta.put("added", added.toBase64());
+            delta.put("removed", removed.toBase64());
+            heartbeatData.put("inventoryDelta", delta);
+
+            added.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> digest.toggle(imagenId, chunkIndex)));
+            removed.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> digest.toggle(imagenId, chunkIndex)));
+        }
+        heartbeatData.put("inventorySeq", inventorySeq);
+        heartbeatData.put("inventoryDigest", digest.toList());
+
+        // Contenido completo de los grupos cuyo digest no coincidió en el Master
+        if (!requestedBuckets.isEmpty()) {
+            Map<Integer, ChunkInventory> buckets = new HashMap<>();
+            for (Integer bucket : requestedBuckets) {
+                buckets.put(bucket, new ChunkInventory());
+            }
+            inventory.forEach((imagenId, chunks) -> {
+                ChunkInventory bucket = buckets.get(InventoryDigest.bucketOf(imagenId));
+                if (bucket != null) {
+                    chunks.forEach(chunkIndex -> bucket.add(imagenId, chunkIndex));
+                }
+            });
+            Map<String, String> encoded = new HashMap<>();
+            buckets.forEach((bucket, contents) -> encoded.put(String.valueOf(bucket), contents.toBase64()));
+            heartbeatData.put("inventoryBuckets", encoded);
+        }
+        return digest;
+    }
+
+    /**
+     * El próximo heartbeat lleva el inventario completo (comando report_full_inventory)
+     */
+    public void requestFullReport() {
+        fullReportPending = true;
+    }
+
+    private static List<Integer> parseRequestedBuckets(Map<String, Object> body) {
+        Object requested = body != null ? body.get("inventoryBucketsRequested") : null;
+        if (!(requested instanceof List)) {
+            return Collections.emptyList();
+        }
+        List<Integer> buckets = new ArrayList<>();
+        for (Object bucket : (List<?>) requested) {
+            buckets.add(((Number) bucket).intValue());
+        }
+        if (!buckets.isEmpty()) {
+            System.out.println("📋 El Master pidió " + buckets.size() + " grupos del inventario " + buckets);
+        }
+        return buckets;
+    }
+
     /**
      * Notifica al Master que este chunkserver se está apagando de forma ordenada
      */
@@ -2,6 +2,7 @@ package com.tpdteam3.chunkserver.service;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -43,6 +44,9 @@ public class RegistrationService {
     @Value("${chunkserver.registration.retry.delay:5}")
     private int retryDelaySeconds;
 
+    @Autowired
+    private TopologyService topologyService;
+
     private final RestTemplate restTemplate;
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     private String chunkserverUrl;
@@ -155,6 +159,7 @@ public class RegistrationService {
         Map<String, String> request = new HashMap<>();
         request.put("url", chunkserverUrl);
         request.put("id", chunkserverId);
+        request.putAll(topologyService.getLabels());
 
         HttpEntity<Map<String, String>> entity = new HttpEntity<>(request, headers);
 
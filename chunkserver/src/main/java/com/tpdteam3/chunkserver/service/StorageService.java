@@ -1,14 +1,21 @@
 package com.tpdteam3.chunkserver.service;
 
+import com.tpdteam3.common.ChunkInventory;
 import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -109,6 +116,116 @@ public class StorageService {
         }
     }
 
+    /**
+     * Almacena un fragmento leyendo los bytes directamente de un stream (sin Base64 ni
+     * copia intermedia en memoria). Se escribe en un archivo temporal propio de esta
+     * escritura (nombre único en el directorio de almacenamiento) y se renombra al
+     * terminar, así un envío cortado a la mitad no deja un fragmento truncado y dos
+     * envíos concurrentes del mismo fragmento no comparten el temporal.
+     *
+     * @param imagenId   ID único de la imagen
+     * @param chunkIndex Índice del fragmento (0, 1, 2, ...)
+     * @param data       Contenido del fragmento
+     * @return Bytes escritos
+     * @throws RuntimeException si hay error leyendo el stream o escribiendo a disco
+     */
+    public long writeChunk(String imagenId, int chunkIndex, InputStream data) {
+        String filename = generateFilename(imagenId, chunkIndex);
+        Path filePath = resolvedStoragePath.resolve(filename);
+        Path tempPath = null;
+        try {
+            tempPath = Files.createTempFile(resolvedStoragePath, filename + ".", ".tmp");
+            long size = Files.copy(data, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            System.out.println("✅ Fragmento guardado: " + filename + " (" + size + " bytes)");
+            return size;
+        } catch (IOException e) {
+            try {
+                if (tempPath != null) {
+                    Files.deleteIfExists(tempPath);
+                }
+            } catch (IOException ignored) {
+                // El temporal no matchea el formato de chunk: no aparece en el inventario
+            }
+            System.err.println("❌ ERROR escribiendo fragmento:");
+            System.err.println("   ImagenId: " + imagenId);
+            System.err.println("   ChunkIndex: " + chunkIndex);
+            System.err.println("   Error: " + e.getMessage());
+            throw new RuntimeException("Error escribiendo fragmento a disco: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Escribe datos en una posición de un fragmento, creándolo si no existe.
+     * Lo usan los contenedores de objetos empaquetados: el Master asigna a cada
+     * objeto un rango propio, así que escrituras concurrentes no se pisan.
+     *
+     * @param imagenId   ID del contenedor
+     * @param chunkIndex Índice del fragmento
+     * @param offset     Posición donde empieza el rango
+     * @param base64Data Datos del rango codificados en Base64
+     * @throws RuntimeException si hay error decodificando Base64 o escribiendo a disco
+     */
+    public void writeChunkRange(String imagenId, int chunkIndex, long offset, String base64Data) {
+        String filename = generateFilename(imagenId, chunkIndex);
+        Path filePath = resolvedStoragePath.resolve(filename);
+        try {
+            byte[] data = Base64.getDecoder().decode(base64Data);
+            try (FileChannel channel = FileChannel.open(filePath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                long position = offset;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            System.out.println("✅ Rango guardado: " + filename + " [" + offset + ", " + (offset + data.length) + ")");
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Error decodificando datos Base64: " + e.getMessage(), e);
+        } catch (IOException e) {
+            System.err.println("❌ ERROR escribiendo rango en " + filename + ": " + e.getMessage());
+            throw new RuntimeException("Error escribiendo rango a disco: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lee un rango de un fragmento.
+     *
+     * @param imagenId   ID del contenedor
+     * @param chunkIndex Índice del fragmento
+     * @param offset     Posición donde empieza el rango
+     * @param length     Bytes a leer
+     * @return Bytes del rango
+     * @throws RuntimeException si el fragmento no existe o es más corto que el rango pedido
+     */
+    public byte[] readChunkRange(String imagenId, int chunkIndex, long offset, int length) {
+        String filename = generateFilename(imagenId, chunkIndex);
+        Path filePath = resolvedStoragePath.resolve(filename);
+        if (!Files.exists(filePath)) {
+            throw new RuntimeException("Fragmento no encontrado: " + filename);
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if (offset + length > channel.size()) {
+                throw new RuntimeException("Rango fuera del fragmento " + filename + ": [" + offset + ", " +
+                                           (offset + length) + ") con " + channel.size() + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new RuntimeException("Fin de archivo inesperado en " + filename);
+                }
+                position += read;
+            }
+            return buffer.array();
+        } catch (IOException e) {
+            System.err.println("❌ ERROR leyendo rango de " + filename + ": " + e.getMessage());
+            throw new RuntimeException("Error leyendo rango desde disco: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Lee un fragmento de archivo desde disco.
      *
@@ -138,6 +255,55 @@ public class StorageService {
         }
     }
 
+    /**
+     * Ruta del archivo de un fragmento, para servirlo sin cargarlo en memoria.
+     *
+     * @param imagenId   ID único de la imagen
+     * @param chunkIndex Índice del fragmento
+     * @return Ruta del fragmento en disco
+     * @throws RuntimeException si el chunk no existe
+     */
+    public Path getChunkPath(String imagenId, int chunkIndex) {
+        String filename = generateFilename(imagenId, chunkIndex);
+        Path filePath = resolvedStoragePath.resolve(filename);
+        if (!Files.exists(filePath)) {
+            throw new RuntimeException("Fragmento no encontrado: " + filename);
+        }
+        return filePath;
+    }
+
+    /**
+     * Copia un fragmento a un canal con {@link FileChannel#transferTo}: el kernel pasa los
+     * bytes del page cache al destino (sendfile cuando el destino es un socket o archivo)
+     * sin copiarlos al heap.
+     *
+     * @param imagenId   ID único de la imagen
+     * @param chunkIndex Índice del fragmento
+     * @param target     Canal destino
+     * @return Bytes transferidos
+     * @throws RuntimeException si el chunk no existe o falla la transferencia
+     */
+    public long transferChunk(String imagenId, int chunkIndex, WritableByteChannel target) {
+        Path filePath = getChunkPath(imagenId, chunkIndex);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            return transferAll(channel, target);
+        } catch (IOException e) {
+            throw new RuntimeException("Error transfiriendo fragmento: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * transferTo puede copiar menos de lo pedido: se repite hasta completar el archivo
+     */
+    static long transferAll(FileChannel source, WritableByteChannel target) throws IOException {
+        long size = source.size();
+        long position = 0;
+        while (position < size) {
+            position += source.transferTo(position, size - position, target);
+        }
+        return size;
+    }
+
     /**
      * Elimina un fragmento específico del disco.
      *
@@ -202,30 +368,23 @@ public class StorageService {
     /**
      * ✅ NUEVO: Obtiene un inventario completo de todos los chunks almacenados en disco.
      * <p>
-     * Este método escanea el directorio de almacenamiento y construye un mapa donde:
+     * Este método escanea el directorio de almacenamiento y construye un inventario donde:
      * - La clave es el imagenId
-     * - El valor es una lista de índices de chunks que existen para esa imagen
-     * <p>
-     * Ejemplo de retorno:
-     * {
-     * "imagen-uuid-1": [0, 1, 2, 3],
-     * "imagen-uuid-2": [0, 1]
-     * }
+     * - El valor es un bitmap con los índices de chunks que existen para esa imagen
      * <p>
      * Este inventario es usado por el Master en el health check para detectar:
      * 1. Chunks que fueron eliminados manualmente (Master espera chunk pero no está en inventario)
      * 2. Chunks huérfanos (están en inventario pero Master no los conoce)
      *
-     * @return Mapa con imagenId como clave y lista de índices de chunks como valor
+     * @return Inventario con imagenId como clave y bitmap de índices de chunks como valor
      */
-    public Map<String, List<Integer>> getChunkInventory() {
+    public ChunkInventory getChunkInventory() {
+        ChunkInventory inventory = new ChunkInventory();
         try {
             if (!Files.exists(resolvedStoragePath)) {
-                return new HashMap<>();
+                return inventory;
             }
 
-            Map<String, List<Integer>> inventory = new HashMap<>();
-
             try (Stream<Path> files = Files.list(resolvedStoragePath)) {
                 files.filter(Files::isRegularFile)
                         .forEach(path -> {
@@ -241,8 +400,7 @@ public class StorageService {
                                     );
 
                                     // Agregar chunk al inventario
-                                    inventory.computeIfAbsent(imagenId, k -> new ArrayList<>())
-                                            .add(chunkIndex);
+                                    inventory.add(imagenId, chunkIndex);
                                 } catch (Exception e) {
                                     System.err.println("⚠️ No se pudo parsear archivo: " + filename);
                                 }
@@ -250,14 +408,11 @@ public class StorageService {
                         });
             }
 
-            // Ordenar índices de chunks para facilitar comparaciones
-            inventory.values().forEach(Collections::sort);
-
             return inventory;
 
         } catch (Exception e) {
             System.err.println("❌ Error obteniendo inventario: " + e.getMessage());
-            return new HashMap<>();
+            return new ChunkInventory();
         }
     }
 
@@ -325,6 +480,24 @@ public class StorageService {
         }
     }
 
+    /**
+     * Dispositivo (file store) donde vive el directorio de almacenamiento.
+     * Dos chunkservers con el mismo dispositivo comparten disco.
+     *
+     * @return Nombre del dispositivo, o la ruta de almacenamiento si no se puede determinar
+     */
+    public String getStorageDevice() {
+        try {
+            String name = Files.getFileStore(resolvedStoragePath).name();
+            if (name != null && !name.isEmpty()) {
+                return name;
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️  No se pudo determinar el dispositivo de almacenamiento: " + e.getMessage());
+        }
+        return resolvedStoragePath.toString();
+    }
+
     /**
      * Genera el nombre de archivo para un chunk.
      * Formato: imagenId_chunk_chunkIndex.bin
@@ -0,0 +1,52 @@
+package com.tpdteam3.chunkserver.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ubicación física de este chunkserver (rack, host y disco), que se envía al Master
+ * en el registro y en cada heartbeat para que no ponga varias réplicas de un mismo
+ * chunk en el mismo dominio de falla.
+ * <p>
+ * Si no se configura el disco se usa el dispositivo donde está el directorio de
+ * almacenamiento, así dos chunkservers en la misma partición quedan en el mismo disco.
+ */
+@Service
+public class TopologyService {
+
+    @Value("${chunkserver.topology.rack:default-rack}")
+    private String rack;
+
+    @Value("${chunkserver.topology.host:${chunkserver.hostname:backend.tpdteam3.com}}")
+    private String host;
+
+    @Value("${chunkserver.topology.disk:}")
+    private String disk;
+
+    @Autowired
+    private StorageService storageService;
+
+    @PostConstruct
+    public void init() {
+        if (disk == null || disk.trim().isEmpty()) {
+            disk = storageService.getStorageDevice();
+        }
+        System.out.println("🗺️  Topología: rack=" + rack + ", host=" + host + ", disk=" + disk);
+    }
+
+    /**
+     * Etiquetas de topología con las claves que espera el Master
+     */
+    public Map<String, String> getLabels() {
+        Map<String, String> labels = new LinkedHashMap<>();
+        labels.put("rack", rack);
+        labels.put("host", host);
+        labels.put("disk", disk);
+        return labels;
+    }
+}
@@ -0,0 +1,158 @@
+package com.tpdteam3.chunkserver.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmark de las formas de servir un chunk desde disco.
+ * <p>
+ * Mide, en el hilo que lee, el tiempo, la CPU y los bytes asignados en el heap de:
+ * la lectura anterior (readAllBytes + Base64 + bytes del JSON), la copia por stream
+ * con buffer y FileChannel.transferTo. El destino es /dev/null como canal de archivo,
+ * para que transferTo use la misma llamada al kernel que con un socket (sendfile);
+ * el archivo queda en el page cache después de la primera vuelta. Como /dev/null
+ * descarta los datos, los MB/s de transferTo son un techo: lo comparable entre
+ * variantes es la CPU y el heap por GB.
+ * <p>
+ * Es una herramienta manual, fuera del servicio y de la suite de tests:
+ * <pre>
+ *   java -cp target/classes:target/test-classes com.tpdteam3.chunkserver.service.ChunkReadBenchmark [sizeKB] [iteraciones]
+ * </pre>
+ */
+public final class ChunkReadBenchmark {
+
+    private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
+
+    private ChunkReadBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int sizeKB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        Map<String, Object> result = run(sizeKB, iterations);
+        System.out.println("Chunk: " + sizeKB + " KB, " + iterations + " lecturas por variante, destino " +
+                           result.get("sink"));
+        for (String variant : new String[]{"base64Json", "stream", "transferTo"}) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> stats = (Map<String, Object>) result.get(variant);
+            System.out.printf("%-11s %8.1f MB/s, CPU %8.1f ms/GB, heap %8.1f MB/GB%n", variant,
+                    stats.get("mbPerSecond"), stats.get("cpuMillisPerGB"), stats.get("heapMBAllocatedPerGB"));
+        }
+    }
+
+    /**
+     * @param sizeKB     Tamaño del archivo a leer
+     * @param iterations Lecturas por variante
+     */
+    private static Map<String, Object> run(int sizeKB, int iterations) throws IOException {
+        Path file = Files.createTempFile("chunk-read-benchmark", ".bin");
+        try {
+            byte[] data = new byte[sizeKB * 1024];
+            new Random(42).nextBytes(data);
+            Files.write(file, data);
+
+            try (WritableByteChannel sink = openSink()) {
+                OutputStream sinkStream = Channels.newOutputStream(sink);
+
+                // Calentamiento: JIT y page cache
+                for (int i = 0; i < Math.min(iterations, 5); i++) {
+                    readBase64(file, sinkStream);
+                    Files.copy(file, sinkStream);
+                    transfer(file, sink);
+                }
+
+                long bytesPerVariant = (long) data.length * iterations;
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("sizeKB", sizeKB);
+                result.put("iterations", iterations);
+                result.put("sink", Files.exists(Paths.get("/dev/null")) ? "/dev/null" : "memoria");
+                result.put("base64Json", measure(bytesPerVariant, () -> {
+                    for (int i = 0; i < iterations; i++) {
+                        readBase64(file, sinkStream);
+                    }
+                }));
+                result.put("stream", measure(bytesPerVariant, () -> {
+                    for (int i = 0; i < iterations; i++) {
+                        Files.copy(file, sinkStream);
+                    }
+                }));
+                result.put("transferTo", measure(bytesPerVariant, () -> {
+                    for (int i = 0; i < iterations; i++) {
+                        transfer(file, sink);
+                    }
+                }));
+                return result;
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Camino anterior de /read: chunk entero al heap, a Base64 y a los bytes del JSON
+     */
+    private static void readBase64(Path file, OutputStream out) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        String encoded = Base64.getEncoder().encodeToString(bytes);
+        out.write(encoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void transfer(Path file, WritableByteChannel sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            StorageService.transferAll(channel, sink);
+        }
+    }
+
+    private static WritableByteChannel openSink() throws IOException {
+        Path devNull = Paths.get("/dev/null");
+        if (Files.exists(devNull)) {
+            return FileChannel.open(devNull, StandardOpenOption.WRITE);
+        }
+        return Channels.newChannel(OutputStream.nullOutputStream());
+    }
+
+    private static Map<String, Object> measure(long bytes, IoTask task) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuSupported = threads.isCurrentThreadCpuTimeSupported();
+        com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads
+                : null;
+        long threadId = Thread.currentThread().getId();
+
+        long allocatedBefore = allocation != null ? allocation.getThreadAllocatedBytes(threadId) : -1;
+        long cpuBefore = cpuSupported ? threads.getCurrentThreadCpuTime() : -1;
+        long start = System.nanoTime();
+        task.run();
+        long elapsedNanos = System.nanoTime() - start;
+        long cpuNanos = cpuSupported ? threads.getCurrentThreadCpuTime() - cpuBefore : -1;
+        long allocated = allocation != null ? allocation.getThreadAllocatedBytes(threadId) - allocatedBefore : -1;
+
+        double gb = bytes / BYTES_PER_GB;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("totalMillis", elapsedNanos / 1_000_000.0);
+        stats.put("mbPerSecond", elapsedNanos > 0 ? bytes / (1024.0 * 1024) / (elapsedNanos / 1e9) : 0.0);
+        stats.put("cpuMillisPerGB", cpuNanos >= 0 ? cpuNanos / 1_000_000.0 / gb : -1.0);
+        stats.put("heapMBAllocatedPerGB", allocated >= 0 ? allocated / (1024.0 * 1024) / gb : -1.0);
+        return stats;
+    }
+
+    @FunctionalInterface
+    private interface IoTask {
+        void run() throws IOException;
+    }
+}
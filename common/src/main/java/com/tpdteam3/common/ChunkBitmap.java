@@ -0,0 +1,217 @@
+package com.tpdteam3.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Conjunto de índices de chunk de un archivo como bitmap (un bit por índice, sin
+ * Integer en caja). En el cable se escribe como corridas de bits consecutivos:
+ * un archivo con todos sus chunks en el servidor ocupa unos pocos bytes.
+ */
+public final class ChunkBitmap {
+
+    private long[] words;
+    private int cardinality;
+
+    public ChunkBitmap() {
+        this.words = new long[1];
+    }
+
+    private ChunkBitmap(long[] words, int cardinality) {
+        this.words = words;
+        this.cardinality = cardinality;
+    }
+
+    public static ChunkBitmap of(Iterable<? extends Number> indices) {
+        ChunkBitmap bitmap = new ChunkBitmap();
+        for (Number index : indices) {
+            bitmap.add(index.intValue());
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return false si el índice ya estaba
+     */
+    public boolean add(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Índice de chunk negativo: " + index);
+        }
+        int word = index >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+        }
+        long bit = 1L << index;
+        if ((words[word] & bit) != 0) {
+            return false;
+        }
+        words[word] |= bit;
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * @return false si el índice no estaba
+     */
+    public boolean remove(int index) {
+        if (!contains(index)) {
+            return false;
+        }
+        words[index >>> 6] &= ~(1L << index);
+        cardinality--;
+        return true;
+    }
+
+    public boolean contains(int index) {
+        int word = index >>> 6;
+        return index >= 0 && word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                action.accept((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * Índices de este bitmap que no están en el otro
+     */
+    public ChunkBitmap andNot(ChunkBitmap other) {
+        long[] result = Arrays.copyOf(words, words.length);
+        int count = 0;
+        for (int w = 0; w < result.length; w++) {
+            if (other != null && w < other.words.length) {
+                result[w] &= ~other.words[w];
+            }
+            count += Long.bitCount(result[w]);
+        }
+        return new ChunkBitmap(result, count);
+    }
+
+    public ChunkBitmap copy() {
+        return new ChunkBitmap(Arrays.copyOf(words, words.length), cardinality);
+    }
+
+    public List<Integer> toList() {
+        List<Integer> list = new ArrayList<>(cardinality);
+        forEach(list::add);
+        return list;
+    }
+
+    /**
+     * Escribe las corridas: cantidad, y por cada una el salto desde el fin de la anterior
+     * y su largo menos uno (varints)
+     */
+    void writeRuns(DataOutputStream out) throws IOException {
+        List<int[]> runs = new ArrayList<>();
+        int runStart = -1;
+        int previous = -2;
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                if (index != previous + 1) {
+                    if (runStart >= 0) {
+                        runs.add(new int[]{runStart, previous + 1});
+                    }
+                    runStart = index;
+                }
+                previous = index;
+            }
+        }
+        if (runStart >= 0) {
+            runs.add(new int[]{runStart, previous + 1});
+        }
+
+        writeVarInt(out, runs.size());
+        int end = 0;
+        for (int[] run : runs) {
+            writeVarInt(out, run[0] - end);
+            writeVarInt(out, run[1] - run[0] - 1);
+            end = run[1];
+        }
+    }
+
+    static ChunkBitmap readRuns(DataInputStream in) throws IOException {
+        ChunkBitmap bitmap = new ChunkBitmap();
+        int runs = readVarInt(in);
+        int end = 0;
+        for (int r = 0; r < runs; r++) {
+            int start = end + readVarInt(in);
+            end = start + readVarInt(in) + 1;
+            for (int index = start; index < end; index++) {
+                bitmap.add(index);
+            }
+        }
+        return bitmap;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint demasiado largo");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ChunkBitmap)) {
+            return false;
+        }
+        ChunkBitmap other = (ChunkBitmap) o;
+        if (cardinality != other.cardinality) {
+            return false;
+        }
+        int common = Math.min(words.length, other.words.length);
+        for (int w = 0; w < common; w++) {
+            if (words[w] != other.words[w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        int last = words.length - 1;
+        while (last >= 0 && words[last] == 0) {
+            last--;
+        }
+        for (int w = 0; w <= last; w++) {
+            h = 31 * h + Long.hashCode(words[w]);
+        }
+        return h;
+    }
+}
@@ -0,0 +1,15 @@
+package com.tpdteam3.common;
+
+/**
+ * Headers de los endpoints binarios del chunkserver (/api/chunk/raw), que no llevan
+ * JSON: identifican el chunk que viaja en el cuerpo. Los usan el chunkserver que los
+ * atiende y el Master, el backend y otros chunkservers que los llaman.
+ */
+public final class ChunkHeaders {
+
+    public static final String IMAGEN_ID = "X-Imagen-Id";
+    public static final String CHUNK_INDEX = "X-Chunk-Index";
+
+    private ChunkHeaders() {
+    }
+}
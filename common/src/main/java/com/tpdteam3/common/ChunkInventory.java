@@ -0,0 +1,214 @@
+package com.tpdteam3.common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Inventario de chunks de un servidor: imagenId → {@link ChunkBitmap}.
+ * <p>
+ * Es la representación en memoria (en el Master, por servidor) y en el cable. El
+ * formato binario ordena los imagenId y los escribe con front coding (largo del
+ * prefijo compartido con el anterior + resto), seguidos de las corridas de su
+ * bitmap; en JSON viaja en Base64. Las diferencias entre inventarios (chunks
+ * eliminados, faltantes o sobrantes) se calculan bitmap contra bitmap.
+ */
+public final class ChunkInventory {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<String, ChunkBitmap> files = new HashMap<>();
+
+    /**
+     * @return false si el chunk ya estaba
+     */
+    public boolean add(String imagenId, int chunkIndex) {
+        return files.computeIfAbsent(imagenId, k -> new ChunkBitmap()).add(chunkIndex);
+    }
+
+    /**
+     * @return false si el chunk no estaba
+     */
+    public boolean remove(String imagenId, int chunkIndex) {
+        ChunkBitmap bitmap = files.get(imagenId);
+        if (bitmap == null || !bitmap.remove(chunkIndex)) {
+            return false;
+        }
+        if (bitmap.isEmpty()) {
+            files.remove(imagenId);
+        }
+        return true;
+    }
+
+    public boolean contains(String imagenId, int chunkIndex) {
+        ChunkBitmap bitmap = files.get(imagenId);
+        return bitmap != null && bitmap.contains(chunkIndex);
+    }
+
+    public ChunkBitmap get(String imagenId) {
+        return files.get(imagenId);
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    public int fileCount() {
+        return files.size();
+    }
+
+    public long chunkCount() {
+        long count = 0;
+        for (ChunkBitmap bitmap : files.values()) {
+            count += bitmap.cardinality();
+        }
+        return count;
+    }
+
+    public void forEach(BiConsumer<String, ChunkBitmap> action) {
+        files.forEach(action);
+    }
+
+    /**
+     * Chunks de este inventario que no están en el otro
+     */
+    public ChunkInventory minus(ChunkInventory other) {
+        ChunkInventory result = new ChunkInventory();
+        files.forEach((imagenId, bitmap) -> {
+            ChunkBitmap difference = bitmap.andNot(other != null ? other.files.get(imagenId) : null);
+            if (!difference.isEmpty()) {
+                result.files.put(imagenId, difference);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Agrega todos los chunks del otro inventario
+     */
+    public void addAll(ChunkInventory other) {
+        other.forEach((imagenId, bitmap) -> bitmap.forEach(chunkIndex -> add(imagenId, chunkIndex)));
+    }
+
+    public ChunkInventory copy() {
+        ChunkInventory copy = new ChunkInventory();
+        files.forEach((imagenId, bitmap) -> copy.files.put(imagenId, bitmap.copy()));
+        return copy;
+    }
+
+    public static ChunkInventory fromLists(Map<String, ? extends Collection<? extends Number>> lists) {
+        ChunkInventory inventory = new ChunkInventory();
+        lists.forEach((imagenId, indices) -> {
+            ChunkBitmap bitmap = ChunkBitmap.of(indices);
+            if (!bitmap.isEmpty()) {
+                inventory.files.put(imagenId, bitmap);
+            }
+        });
+        return inventory;
+    }
+
+    public Map<String, List<Integer>> toLists() {
+        Map<String, List<Integer>> lists = new HashMap<>();
+        files.forEach((imagenId, bitmap) -> lists.put(imagenId, bitmap.toList()));
+        return lists;
+    }
+
+    /**
+     * Inventario recibido en un heartbeat: Base64 del formato binario, o el mapa
+     * imagenId → [índices] de los chunkservers anteriores
+     *
+     * @return null si no vino
+     */
+    @SuppressWarnings("unchecked")
+    public static ChunkInventory fromReport(Object report) {
+        if (report == null) {
+            return null;
+        }
+        if (report instanceof String) {
+            return fromBase64((String) report);
+        }
+        return fromLists((Map<String, ? extends Collection<? extends Number>>) report);
+    }
+
+    // ═══════════════════════════════════════════════════════════════
+    // FORMATO BINARIO
+    // ═══════════════════════════════════════════════════════════════
+
+    public byte[] encode() {
+        List<String> ids = new ArrayList<>(files.keySet());
+        Collections.sort(ids);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(FORMAT_VERSION);
+            ChunkBitmap.writeVarInt(out, ids.size());
+
+            byte[] previous = new byte[0];
+            for (String id : ids) {
+                byte[] current = id.getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                int max = Math.min(previous.length, current.length);
+                while (shared < max && previous[shared] == current[shared]) {
+                    shared++;
+                }
+                ChunkBitmap.writeVarInt(out, shared);
+                ChunkBitmap.writeVarInt(out, current.length - shared);
+                out.write(current, shared, current.length - shared);
+                files.get(id).writeRuns(out);
+                previous = current;
+            }
+            out.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static ChunkInventory decode(byte[] data) {
+        ChunkInventory inventory = new ChunkInventory();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Versión de inventario no soportada: " + version);
+            }
+            int count = ChunkBitmap.readVarInt(in);
+            byte[] previous = new byte[0];
+            for (int i = 0; i < count; i++) {
+                int shared = ChunkBitmap.readVarInt(in);
+                int suffix = ChunkBitmap.readVarInt(in);
+                if (shared > previous.length) {
+                    throw new IllegalArgumentException("Inventario corrupto: prefijo fuera de rango");
+                }
+                byte[] current = Arrays.copyOf(previous, shared + suffix);
+                in.readFully(current, shared, suffix);
+                ChunkBitmap bitmap = ChunkBitmap.readRuns(in);
+                if (!bitmap.isEmpty()) {
+                    inventory.files.put(new String(current, StandardCharsets.UTF_8), bitmap);
+                }
+                previous = current;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Inventario corrupto: " + e.getMessage(), e);
+        }
+        return inventory;
+    }
+
+    public String toBase64() {
+        return Base64.getEncoder().encodeToString(encode());
+    }
+
+    public static ChunkInventory fromBase64(String data) {
+        return decode(Base64.getDecoder().decode(data));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ChunkInventory && files.equals(((ChunkInventory) o).files);
+    }
+
+    @Override
+    public int hashCode() {
+        return files.hashCode();
+    }
+}
@@ -0,0 +1,86 @@
+package com.tpdteam3.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resumen del inventario de chunks de un servidor, independiente del orden.
+ * <p>
+ * Los chunks se reparten en {@link #BUCKETS} grupos según el hash del imagenId; cada
+ * grupo guarda el XOR de un hash de 64 bits por chunk. Agregar o quitar un chunk es
+ * un XOR (se actualiza en forma incremental) y dos inventarios iguales dan el mismo
+ * resumen sin importar el orden. Si los resúmenes difieren, solo hace falta comparar
+ * los grupos distintos.
+ * <p>
+ * El Chunkserver y el Master usan esta misma clase (módulo common), así que el cálculo coincide.
+ */
+public final class InventoryDigest {
+
+    public static final int BUCKETS = 16;
+
+    private final long[] buckets = new long[BUCKETS];
+
+    public static InventoryDigest of(ChunkInventory inventory) {
+        InventoryDigest digest = new InventoryDigest();
+        inventory.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> digest.toggle(imagenId, chunkIndex)));
+        return digest;
+    }
+
+    public static int bucketOf(String imagenId) {
+        return Math.floorMod(imagenId.hashCode(), BUCKETS);
+    }
+
+    /**
+     * Agrega o quita un chunk (el XOR es su propia inversa)
+     */
+    public void toggle(String imagenId, int chunkIndex) {
+        buckets[bucketOf(imagenId)] ^= chunkHash(imagenId, chunkIndex);
+    }
+
+    public InventoryDigest copy() {
+        InventoryDigest copy = new InventoryDigest();
+        System.arraycopy(buckets, 0, copy.buckets, 0, BUCKETS);
+        return copy;
+    }
+
+    public List<Long> toList() {
+        List<Long> list = new ArrayList<>(BUCKETS);
+        for (long bucket : buckets) {
+            list.add(bucket);
+        }
+        return list;
+    }
+
+    /**
+     * Grupos cuyo valor difiere del resumen recibido (todos si el formato no coincide)
+     */
+    public List<Integer> differingBuckets(List<? extends Number> other) {
+        List<Integer> differing = new ArrayList<>();
+        for (int b = 0; b < BUCKETS; b++) {
+            if (other == null || other.size() != BUCKETS || other.get(b).longValue() != buckets[b]) {
+                differing.add(b);
+            }
+        }
+        return differing;
+    }
+
+    /**
+     * FNV-1a de 64 bits del imagenId combinado con el índice y mezclado (finalizador de MurmurHash3)
+     */
+    private static long chunkHash(String imagenId, int chunkIndex) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < imagenId.length(); i++) {
+            h ^= imagenId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= chunkIndex;
+        h *= 0x100000001b3L;
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,314 @@
+package com.tpdteam3.common;
+
+/**
+ * Codificador/decodificador Reed-Solomon sobre GF(2^8), en Java puro.
+ * <p>
+ * Usa una matriz de codificación sistemática: las primeras {@code dataShards} filas
+ * son la identidad (los shards de datos se guardan tal cual) y las siguientes
+ * {@code parityShards} generan la paridad. Se obtiene a partir de una matriz de
+ * Vandermonde multiplicada por la inversa de su parte superior, así que cualquier
+ * subconjunto de {@code dataShards} filas es invertible: con cualquier combinación
+ * de {@code dataShards} shards presentes se reconstruye el resto.
+ * <p>
+ * Todos los shards de una codificación deben tener el mismo tamaño.
+ * Las instancias son inmutables y se pueden compartir entre hilos.
+ */
+public final class ReedSolomon {
+
+    // Polinomio generador del campo: x^8 + x^4 + x^3 + x^2 + 1
+    private static final int FIELD_POLYNOMIAL = 0x11D;
+
+    private static final byte[] EXP = new byte[510];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            EXP[i + 255] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= FIELD_POLYNOMIAL;
+            }
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final int totalShards;
+    private final byte[][] matrix;
+    private final byte[][] parityRows;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards <= 0) {
+            throw new IllegalArgumentException("Se necesita al menos un shard de datos y uno de paridad");
+        }
+        if (dataShards + parityShards > 256) {
+            throw new IllegalArgumentException("Máximo 256 shards en total");
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.totalShards = dataShards + parityShards;
+
+        byte[][] vandermonde = vandermonde(totalShards, dataShards);
+        byte[][] top = subMatrix(vandermonde, 0, dataShards);
+        this.matrix = multiply(vandermonde, invert(top));
+        this.parityRows = subMatrix(matrix, dataShards, totalShards);
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return totalShards;
+    }
+
+    /**
+     * Calcula los shards de paridad a partir de los de datos.
+     *
+     * @param shards    Arreglo de totalShards posiciones; las de datos con contenido y
+     *                  las de paridad con un buffer de {@code shardSize} bytes o null
+     * @param shardSize Bytes por shard
+     */
+    public void encodeParity(byte[][] shards, int shardSize) {
+        checkShards(shards, shardSize, true);
+        byte[][] outputs = new byte[parityShards][];
+        for (int p = 0; p < parityShards; p++) {
+            if (shards[dataShards + p] == null) {
+                shards[dataShards + p] = new byte[shardSize];
+            }
+            outputs[p] = shards[dataShards + p];
+        }
+        code(parityRows, shards, dataShards, outputs, parityShards, shardSize);
+    }
+
+    /**
+     * Reconstruye en su lugar los shards faltantes (datos y paridad).
+     *
+     * @param shards    Arreglo de totalShards posiciones; los faltantes pueden ser null
+     * @param present   Qué posiciones tienen contenido válido
+     * @param shardSize Bytes por shard
+     * @throws IllegalArgumentException si hay menos de dataShards shards presentes
+     */
+    public void decodeMissing(byte[][] shards, boolean[] present, int shardSize) {
+        if (shards.length != totalShards || present.length != totalShards) {
+            throw new IllegalArgumentException("Se esperaban " + totalShards + " shards");
+        }
+
+        int presentCount = 0;
+        for (boolean p : present) {
+            if (p) {
+                presentCount++;
+            }
+        }
+        if (presentCount == totalShards) {
+            return;
+        }
+        if (presentCount < dataShards) {
+            throw new IllegalArgumentException("Shards insuficientes para reconstruir: " +
+                                               presentCount + " de " + dataShards + " necesarios");
+        }
+
+        // Tomar las primeras dataShards filas presentes y sus shards
+        byte[][] subMatrix = new byte[dataShards][];
+        byte[][] subShards = new byte[dataShards][];
+        int row = 0;
+        for (int i = 0; i < totalShards && row < dataShards; i++) {
+            if (present[i]) {
+                if (shards[i] == null || shards[i].length < shardSize) {
+                    throw new IllegalArgumentException("Shard " + i + " marcado presente sin contenido suficiente");
+                }
+                subMatrix[row] = matrix[i];
+                subShards[row] = shards[i];
+                row++;
+            }
+        }
+
+        // Datos faltantes: fila i de la inversa × shards presentes
+        byte[][] decodeMatrix = invert(subMatrix);
+        int missingData = 0;
+        byte[][] dataRows = new byte[dataShards][];
+        byte[][] dataOutputs = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            if (!present[i]) {
+                shards[i] = new byte[shardSize];
+                dataRows[missingData] = decodeMatrix[i];
+                dataOutputs[missingData] = shards[i];
+                missingData++;
+            }
+        }
+        code(dataRows, subShards, dataShards, dataOutputs, missingData, shardSize);
+
+        // Paridad faltante: recalcular desde los datos (ya completos)
+        int missingParity = 0;
+        byte[][] parityMatrixRows = new byte[parityShards][];
+        byte[][] parityOutputs = new byte[parityShards][];
+        for (int p = 0; p < parityShards; p++) {
+            if (!present[dataShards + p]) {
+                shards[dataShards + p] = new byte[shardSize];
+                parityMatrixRows[missingParity] = parityRows[p];
+                parityOutputs[missingParity] = shards[dataShards + p];
+                missingParity++;
+            }
+        }
+        code(parityMatrixRows, shards, dataShards, parityOutputs, missingParity, shardSize);
+    }
+
+    private void checkShards(byte[][] shards, int shardSize, boolean dataOnly) {
+        if (shards.length != totalShards) {
+            throw new IllegalArgumentException("Se esperaban " + totalShards + " shards");
+        }
+        int limit = dataOnly ? dataShards : totalShards;
+        for (int i = 0; i < limit; i++) {
+            if (shards[i] == null || shards[i].length < shardSize) {
+                throw new IllegalArgumentException("Shard " + i + " vacío o más chico que " + shardSize + " bytes");
+            }
+        }
+    }
+
+    /**
+     * outputs[o] = Σ rows[o][i] · inputs[i], byte a byte
+     */
+    private static void code(byte[][] rows, byte[][] inputs, int inputCount,
+                             byte[][] outputs, int outputCount, int byteCount) {
+        for (int o = 0; o < outputCount; o++) {
+            byte[] out = outputs[o];
+            byte[] row = rows[o];
+            byte[] mulRow = MUL[row[0] & 0xFF];
+            byte[] in = inputs[0];
+            for (int b = 0; b < byteCount; b++) {
+                out[b] = mulRow[in[b] & 0xFF];
+            }
+            for (int i = 1; i < inputCount; i++) {
+                mulRow = MUL[row[i] & 0xFF];
+                in = inputs[i];
+                for (int b = 0; b < byteCount; b++) {
+                    out[b] ^= mulRow[in[b] & 0xFF];
+                }
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════
+    // ARITMÉTICA DE MATRICES EN GF(2^8)
+    // ═══════════════════════════════════════════════════════════════
+
+    private static byte mul(byte a, byte b) {
+        return MUL[a & 0xFF][b & 0xFF];
+    }
+
+    private static byte div(byte a, byte b) {
+        if (b == 0) {
+            throw new ArithmeticException("División por cero en GF(256)");
+        }
+        if (a == 0) {
+            return 0;
+        }
+        int diff = LOG[a & 0xFF] - LOG[b & 0xFF];
+        return EXP[diff < 0 ? diff + 255 : diff];
+    }
+
+    private static byte pow(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP[(LOG[base] * exponent) % 255];
+    }
+
+    private static byte[][] vandermonde(int rows, int cols) {
+        byte[][] result = new byte[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                result[r][c] = pow(r, c);
+            }
+        }
+        return result;
+    }
+
+    private static byte[][] subMatrix(byte[][] source, int fromRow, int toRow) {
+        byte[][] result = new byte[toRow - fromRow][];
+        for (int r = fromRow; r < toRow; r++) {
+            result[r - fromRow] = source[r].clone();
+        }
+        return result;
+    }
+
+    private static byte[][] multiply(byte[][] a, byte[][] b) {
+        int rows = a.length;
+        int inner = b.length;
+        int cols = b[0].length;
+        byte[][] result = new byte[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                byte value = 0;
+                for (int i = 0; i < inner; i++) {
+                    value ^= mul(a[r][i], b[i][c]);
+                }
+                result[r][c] = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inversa por Gauss-Jordan
+     */
+    private static byte[][] invert(byte[][] source) {
+        int n = source.length;
+        byte[][] work = new byte[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(source[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Matriz singular");
+            }
+            byte[] swap = work[col];
+            work[col] = work[pivot];
+            work[pivot] = swap;
+
+            byte scale = work[col][col];
+            if (scale != 1) {
+                for (int c = 0; c < 2 * n; c++) {
+                    work[col][c] = div(work[col][c], scale);
+                }
+            }
+
+            for (int r = 0; r < n; r++) {
+                if (r != col && work[r][col] != 0) {
+                    byte factor = work[r][col];
+                    for (int c = 0; c < 2 * n; c++) {
+                        work[r][c] ^= mul(factor, work[col][c]);
+                    }
+                }
+            }
+        }
+
+        byte[][] result = new byte[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, result[r], 0, n);
+        }
+        return result;
+    }
+}
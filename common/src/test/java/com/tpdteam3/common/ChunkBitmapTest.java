@@ -0,0 +1,75 @@
+package com.tpdteam3.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkBitmapTest {
+
+    @Test
+    void addAndRemoveTrackCardinality() {
+        ChunkBitmap bitmap = new ChunkBitmap();
+
+        assertTrue(bitmap.add(3));
+        assertFalse(bitmap.add(3));
+        assertTrue(bitmap.add(200));
+        assertEquals(2, bitmap.cardinality());
+        assertTrue(bitmap.contains(200));
+        assertFalse(bitmap.contains(199));
+
+        assertTrue(bitmap.remove(3));
+        assertFalse(bitmap.remove(3));
+        assertFalse(bitmap.remove(5000));
+        assertEquals(1, bitmap.cardinality());
+        assertFalse(bitmap.isEmpty());
+    }
+
+    @Test
+    void negativeIndicesAreRejected() {
+        ChunkBitmap bitmap = new ChunkBitmap();
+        assertThrows(IllegalArgumentException.class, () -> bitmap.add(-1));
+        assertFalse(bitmap.contains(-1));
+    }
+
+    @Test
+    void iteratesInAscendingOrderAcrossWords() {
+        ChunkBitmap bitmap = ChunkBitmap.of(List.of(130, 0, 63, 64, 5));
+        assertEquals(List.of(0, 5, 63, 64, 130), bitmap.toList());
+    }
+
+    @Test
+    void andNotKeepsOnlyIndicesMissingFromTheOther() {
+        ChunkBitmap mine = ChunkBitmap.of(List.of(1, 2, 3, 100));
+        ChunkBitmap theirs = ChunkBitmap.of(List.of(2, 3));
+
+        ChunkBitmap difference = mine.andNot(theirs);
+
+        assertEquals(List.of(1, 100), difference.toList());
+        assertEquals(2, difference.cardinality());
+        assertEquals(mine, mine.andNot(null));
+        assertTrue(theirs.andNot(mine).isEmpty());
+    }
+
+    @Test
+    void equalityIgnoresUnusedCapacity() {
+        ChunkBitmap grown = ChunkBitmap.of(List.of(1, 500));
+        grown.remove(500);
+        ChunkBitmap small = ChunkBitmap.of(List.of(1));
+
+        assertEquals(small, grown);
+        assertEquals(grown, small);
+        assertEquals(small.hashCode(), grown.hashCode());
+    }
+
+    @Test
+    void copyIsIndependent() {
+        ChunkBitmap original = ChunkBitmap.of(List.of(1, 2));
+        ChunkBitmap copy = original.copy();
+        copy.add(3);
+
+        assertEquals(List.of(1, 2), original.toList());
+        assertEquals(List.of(1, 2, 3), copy.toList());
+    }
+}
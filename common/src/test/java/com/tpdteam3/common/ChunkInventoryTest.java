@@ -0,0 +1,109 @@
+package com.tpdteam3.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkInventoryTest {
+
+    private static ChunkInventory sample() {
+        ChunkInventory inventory = new ChunkInventory();
+        for (int i = 0; i < 5; i++) {
+            inventory.add("imagen-a", i);
+        }
+        inventory.add("imagen-a", 9);
+        inventory.add("imagen-b", 0);
+        inventory.add("imagen-b", 64);
+        return inventory;
+    }
+
+    /**
+     * El Master y los Chunkservers intercambian este formato: si cambia, cambia para los dos
+     * y hay que subir FORMAT_VERSION
+     */
+    @Test
+    void wireFormatIsStable() {
+        assertEquals("AQIACGltYWdlbi1hAgAEBAAHAWICAAA/AA==", sample().toBase64());
+        assertEquals(sample(), ChunkInventory.fromBase64("AQIACGltYWdlbi1hAgAEBAAHAWICAAA/AA=="));
+    }
+
+    @Test
+    void binaryRoundTripPreservesRandomInventories() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            ChunkInventory inventory = new ChunkInventory();
+            int files = random.nextInt(20);
+            for (int f = 0; f < files; f++) {
+                String imagenId = "img-" + random.nextInt(1000) + (random.nextBoolean() ? "-ñ" : "");
+                int chunks = 1 + random.nextInt(10);
+                for (int c = 0; c < chunks; c++) {
+                    inventory.add(imagenId, random.nextInt(300));
+                }
+            }
+
+            ChunkInventory decoded = ChunkInventory.decode(inventory.encode());
+
+            assertEquals(inventory, decoded);
+            assertEquals(inventory.chunkCount(), decoded.chunkCount());
+        }
+    }
+
+    @Test
+    void legacyListReportIsAccepted() {
+        ChunkInventory fromLists = ChunkInventory.fromReport(Map.of(
+                "imagen-a", List.of(0, 1, 2, 3, 4, 9),
+                "imagen-b", List.of(0, 64),
+                "vacia", List.of()));
+
+        assertEquals(sample(), fromLists);
+        assertEquals(2, fromLists.fileCount());
+        assertNull(ChunkInventory.fromReport(null));
+        assertEquals(sample(), ChunkInventory.fromReport(sample().toBase64()));
+    }
+
+    @Test
+    void minusReturnsChunksMissingFromTheOther() {
+        ChunkInventory expected = sample();
+        ChunkInventory actual = sample();
+        actual.remove("imagen-a", 9);
+        actual.remove("imagen-b", 0);
+        actual.remove("imagen-b", 64);
+
+        ChunkInventory missing = expected.minus(actual);
+
+        assertEquals(3, missing.chunkCount());
+        assertEquals(List.of(9), missing.get("imagen-a").toList());
+        assertEquals(List.of(0, 64), missing.get("imagen-b").toList());
+        assertFalse(actual.contains("imagen-b", 0));
+        assertNull(actual.get("imagen-b"), "un archivo sin chunks no queda en el inventario");
+        assertTrue(actual.minus(expected).isEmpty());
+    }
+
+    @Test
+    void addAllMergesInventories() {
+        ChunkInventory inventory = new ChunkInventory();
+        inventory.add("imagen-a", 100);
+        inventory.addAll(sample());
+
+        assertEquals(9, inventory.chunkCount());
+        assertTrue(inventory.contains("imagen-a", 100));
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        byte[] encoded = sample().encode();
+        encoded[0] = 99;
+        assertThrows(IllegalArgumentException.class, () -> ChunkInventory.decode(encoded));
+    }
+
+    @Test
+    void truncatedDataIsRejected() {
+        byte[] encoded = sample().encode();
+        byte[] truncated = java.util.Arrays.copyOf(encoded, encoded.length - 3);
+        assertThrows(IllegalArgumentException.class, () -> ChunkInventory.decode(truncated));
+    }
+}
@@ -0,0 +1,78 @@
+package com.tpdteam3.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryDigestTest {
+
+    /**
+     * El Chunkserver calcula el digest y el Master lo compara contra el suyo: el hash no
+     * puede cambiar sin que cambie en los dos lados
+     */
+    @Test
+    void hashIsStable() {
+        InventoryDigest digest = new InventoryDigest();
+        digest.toggle("imagen-a", 0);
+
+        assertEquals(7, InventoryDigest.bucketOf("imagen-a"));
+        assertEquals(6917008426996270314L, (long) digest.toList().get(7));
+    }
+
+    @Test
+    void digestDoesNotDependOnInsertionOrder() {
+        InventoryDigest forward = new InventoryDigest();
+        InventoryDigest backward = new InventoryDigest();
+        for (int i = 0; i < 100; i++) {
+            forward.toggle("img-" + (i % 7), i);
+            backward.toggle("img-" + ((99 - i) % 7), 99 - i);
+        }
+        assertEquals(forward.toList(), backward.toList());
+    }
+
+    @Test
+    void toggleTwiceCancelsOut() {
+        InventoryDigest digest = new InventoryDigest();
+        digest.toggle("imagen-a", 3);
+        digest.toggle("imagen-a", 3);
+
+        assertTrue(digest.differingBuckets(new InventoryDigest().toList()).isEmpty());
+    }
+
+    @Test
+    void incrementalUpdatesMatchRecomputation() {
+        ChunkInventory inventory = new ChunkInventory();
+        InventoryDigest incremental = new InventoryDigest();
+        for (int i = 0; i < 50; i++) {
+            inventory.add("img-" + (i % 11), i);
+            incremental.toggle("img-" + (i % 11), i);
+        }
+        inventory.remove("img-3", 14);
+        incremental.toggle("img-3", 14);
+
+        assertEquals(InventoryDigest.of(inventory).toList(), incremental.toList());
+    }
+
+    @Test
+    void onlyTheBucketOfTheChangedFileDiffers() {
+        ChunkInventory inventory = new ChunkInventory();
+        for (int i = 0; i < 40; i++) {
+            inventory.add("img-" + i, 0);
+        }
+        InventoryDigest master = InventoryDigest.of(inventory);
+        InventoryDigest chunkserver = master.copy();
+        chunkserver.toggle("img-5", 1);
+
+        assertEquals(List.of(InventoryDigest.bucketOf("img-5")), master.differingBuckets(chunkserver.toList()));
+    }
+
+    @Test
+    void malformedDigestDiffersEverywhere() {
+        InventoryDigest digest = new InventoryDigest();
+        assertEquals(InventoryDigest.BUCKETS, digest.differingBuckets(null).size());
+        assertEquals(InventoryDigest.BUCKETS, digest.differingBuckets(new ArrayList<Long>()).size());
+    }
+}
@@ -0,0 +1,101 @@
+package com.tpdteam3.common;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compara en memoria replicación 3x contra RS(dataShards, parityShards) para un objeto
+ * del tamaño indicado: throughput de escritura (copias vs codificación), de reconstrucción
+ * (copia de una réplica vs decodificar con parityShards shards de datos perdidos) y bytes
+ * almacenados.
+ * <p>
+ * Es una herramienta manual, fuera del servicio y de la suite de tests:
+ * <pre>
+ *   java -cp target/classes:target/test-classes com.tpdteam3.common.ReedSolomonBenchmark [sizeKB] [iteraciones] [k] [m]
+ * </pre>
+ */
+public final class ReedSolomonBenchmark {
+
+    private ReedSolomonBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int sizeKB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int dataShards = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int parityShards = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+        int size = sizeKB * 1024;
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        ReedSolomon codec = new ReedSolomon(dataShards, parityShards);
+        int totalShards = dataShards + parityShards;
+        int shardSize = (size + dataShards - 1) / dataShards;
+
+        // Replicación: tres copias completas
+        byte[][] copies = new byte[3][];
+        long start = System.nanoTime();
+        for (int it = 0; it < iterations; it++) {
+            for (int r = 0; r < 3; r++) {
+                copies[r] = Arrays.copyOf(data, size);
+            }
+        }
+        long replicationWriteNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int it = 0; it < iterations; it++) {
+            copies[0] = Arrays.copyOf(copies[1], size);
+        }
+        long replicationRepairNanos = System.nanoTime() - start;
+
+        // Erasure coding: partir en shards y calcular paridad
+        byte[][] shards = new byte[totalShards][];
+        start = System.nanoTime();
+        for (int it = 0; it < iterations; it++) {
+            for (int j = 0; j < dataShards; j++) {
+                shards[j] = new byte[shardSize];
+                int from = j * shardSize;
+                if (from < size) {
+                    System.arraycopy(data, from, shards[j], 0, Math.min(shardSize, size - from));
+                }
+            }
+            for (int p = 0; p < parityShards; p++) {
+                shards[dataShards + p] = null;
+            }
+            codec.encodeParity(shards, shardSize);
+        }
+        long ecEncodeNanos = System.nanoTime() - start;
+
+        // Peor caso de lectura degradada: faltan parityShards shards de datos
+        boolean[] present = new boolean[totalShards];
+        start = System.nanoTime();
+        for (int it = 0; it < iterations; it++) {
+            byte[][] degraded = shards.clone();
+            Arrays.fill(present, true);
+            for (int j = 0; j < Math.min(parityShards, dataShards); j++) {
+                degraded[j] = null;
+                present[j] = false;
+            }
+            codec.decodeMissing(degraded, present, shardSize);
+        }
+        long ecDecodeNanos = System.nanoTime() - start;
+
+        long totalBytes = (long) size * iterations;
+        long ecStored = (long) shardSize * totalShards;
+
+        System.out.println("Objeto: " + sizeKB + " KB, " + iterations + " iteraciones");
+        System.out.printf("Replicación 3x:  escritura %.1f MB/s, reparación %.1f MB/s, %d bytes (overhead 200%%)%n",
+                throughput(totalBytes, replicationWriteNanos), throughput(totalBytes, replicationRepairNanos),
+                3L * size);
+        System.out.printf("RS(%d,%d):        codificación %.1f MB/s, decodificación %.1f MB/s, %d bytes (overhead %.1f%%)%n",
+                dataShards, parityShards, throughput(totalBytes, ecEncodeNanos), throughput(totalBytes, ecDecodeNanos),
+                ecStored, 100.0 * (ecStored - size) / size);
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        if (nanos <= 0) {
+            return 0.0;
+        }
+        return (bytes / (1024.0 * 1024.0)) / (nanos / 1_000_000_000.0);
+    }
+}
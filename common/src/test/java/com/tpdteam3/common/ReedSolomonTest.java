@@ -0,0 +1,134 @@
+package com.tpdteam3.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReedSolomonTest {
+
+    private static byte[][] encoded(ReedSolomon codec, int shardSize, long seed) {
+        byte[][] shards = new byte[codec.getTotalShards()][];
+        Random random = new Random(seed);
+        for (int j = 0; j < codec.getDataShards(); j++) {
+            shards[j] = new byte[shardSize];
+            random.nextBytes(shards[j]);
+        }
+        codec.encodeParity(shards, shardSize);
+        return shards;
+    }
+
+    private static byte[][] copy(byte[][] shards) {
+        byte[][] copy = new byte[shards.length][];
+        for (int i = 0; i < shards.length; i++) {
+            copy[i] = shards[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Borra los shards indicados por la máscara, reconstruye y compara con el original
+     */
+    private static void assertRecovers(ReedSolomon codec, byte[][] original, int shardSize, int erasedMask) {
+        byte[][] damaged = copy(original);
+        boolean[] present = new boolean[codec.getTotalShards()];
+        for (int i = 0; i < present.length; i++) {
+            present[i] = (erasedMask & (1 << i)) == 0;
+            if (!present[i]) {
+                damaged[i] = null;
+            }
+        }
+
+        codec.decodeMissing(damaged, present, shardSize);
+
+        for (int i = 0; i < original.length; i++) {
+            assertArrayEquals(original[i], damaged[i], "shard " + i + " con máscara " + Integer.toBinaryString(erasedMask));
+        }
+    }
+
+    @Test
+    void dataShardsAreStoredUnchanged() {
+        ReedSolomon codec = new ReedSolomon(4, 2);
+        byte[][] shards = encoded(codec, 64, 1);
+        byte[][] again = encoded(codec, 64, 1);
+        for (int j = 0; j < 4; j++) {
+            assertArrayEquals(again[j], shards[j]);
+        }
+        assertEquals(64, shards[4].length);
+        assertEquals(64, shards[5].length);
+    }
+
+    @Test
+    void singleParityIsXorOfData() {
+        // Con la matriz sistemática de Vandermonde la primera fila de paridad es todo unos
+        ReedSolomon codec = new ReedSolomon(3, 1);
+        byte[][] shards = encoded(codec, 32, 2);
+        for (int b = 0; b < 32; b++) {
+            assertEquals((byte) (shards[0][b] ^ shards[1][b] ^ shards[2][b]), shards[3][b]);
+        }
+    }
+
+    @Test
+    void recoversEveryErasureCombinationUpToParityCount() {
+        int[][] schemes = {{4, 2}, {6, 3}, {3, 1}, {10, 4}};
+        for (int[] scheme : schemes) {
+            ReedSolomon codec = new ReedSolomon(scheme[0], scheme[1]);
+            int total = codec.getTotalShards();
+            byte[][] original = encoded(codec, 97, total);
+
+            int combinations = 0;
+            for (int mask = 1; mask < (1 << total); mask++) {
+                if (Integer.bitCount(mask) <= scheme[1]) {
+                    assertRecovers(codec, original, 97, mask);
+                    combinations++;
+                }
+            }
+            assertTrue(combinations > 0);
+        }
+    }
+
+    @Test
+    void tooManyErasuresAreRejected() {
+        ReedSolomon codec = new ReedSolomon(4, 2);
+        byte[][] shards = encoded(codec, 16, 3);
+        boolean[] present = {false, true, false, true, false, true};
+        shards[0] = null;
+        shards[2] = null;
+        shards[4] = null;
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeMissing(shards, present, 16));
+    }
+
+    @Test
+    void nothingMissingIsANoOp() {
+        ReedSolomon codec = new ReedSolomon(4, 2);
+        byte[][] original = encoded(codec, 16, 4);
+        byte[][] shards = copy(original);
+        boolean[] present = {true, true, true, true, true, true};
+
+        codec.decodeMissing(shards, present, 16);
+
+        for (int i = 0; i < shards.length; i++) {
+            assertArrayEquals(original[i], shards[i]);
+        }
+    }
+
+    @Test
+    void presentShardTooShortIsRejected() {
+        ReedSolomon codec = new ReedSolomon(2, 1);
+        byte[][] shards = encoded(codec, 16, 5);
+        shards[1] = new byte[8];
+        shards[2] = null;
+        boolean[] present = {true, true, false};
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeMissing(shards, present, 16));
+    }
+
+    @Test
+    void invalidSchemesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(0, 2));
+        assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(4, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(200, 57));
+    }
+}
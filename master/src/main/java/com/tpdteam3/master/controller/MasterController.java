@@ -1,18 +1,26 @@
 package com.tpdteam3.master.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.service.CommandQueueService;
+import com.tpdteam3.master.service.ErasureCodingService;
 import com.tpdteam3.master.service.HeartbeatHandler;
 import com.tpdteam3.master.service.MasterService;
+import com.tpdteam3.master.service.PackingService;
+import com.tpdteam3.master.service.PlacementService;
+import com.tpdteam3.master.service.ReadHeatTracker;
+import com.tpdteam3.master.service.RebalancerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.util.*;
 
 /**
  * Controlador REST del Master Service.
@@ -31,14 +39,42 @@ public class MasterController {
     @Autowired
     private HeartbeatHandler heartbeatHandler;
 
+    @Autowired
+    private PlacementService placementService;
+
+    @Autowired
+    private ErasureCodingService erasureCodingService;
+
+    @Autowired
+    private RebalancerService rebalancerService;
+
+    @Autowired
+    private ReadHeatTracker readHeatTracker;
+
+    @Autowired
+    private PackingService packingService;
+
+    @Autowired
+    private CommandQueueService commandQueue;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Listado paginado de /files
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final Set<String> LISTABLE_FIELDS = new LinkedHashSet<>(Arrays.asList(
+            "imagenId", "size", "chunkSize", "storageClass", "timestamp", "chunkCount", "replicaCount", "chunks"
+    ));
+
     /**
      * Recibe heartbeats de chunkservers
      * Este endpoint reemplaza el sistema de polling del Master.
      * Los chunkservers llaman este endpoint cada 10 segundos para:
      * 1. Informar que están vivos
-     * 2. Enviar inventario actualizado de chunks
+     * 2. Enviar inventario de chunks (completo, o delta con número de secuencia)
      * 3. Reportar métricas de salud
-     * El Master puede responder con comandos opcionales que el chunkserver debe ejecutar.
+     * El Master puede responder con comandos opcionales que el chunkserver debe ejecutar,
+     * y con fullInventoryRequested si necesita el inventario completo.
      *
      * @param heartbeatData Datos del heartbeat enviados por el chunkserver
      * @return Respuesta con acknowledgment y comandos opcionales
@@ -94,14 +130,18 @@ public class MasterController {
      * Planifica la subida de un archivo con replicación.
      * Retorna plan de escritura indicando a qué chunkservers escribir cada fragmento.
      *
-     * @param request Mapa con imagenId y size del archivo
-     * @return Plan de escritura con lista de chunks y sus ubicaciones
+     * @param request Mapa con imagenId, size, chunkSize (opcional, en bytes) y storageClass
+     *                (opcional: REPLICATED o EC) del archivo
+     * @return Plan de escritura con el tamaño de chunk y la lista de chunks y sus ubicaciones
      */
     @PostMapping("/upload")
     public ResponseEntity<Map<String, Object>> planUpload(@RequestBody Map<String, Object> request) {
         try {
             String imagenId = (String) request.get("imagenId");
             Number sizeNumber = (Number) request.get("size");
+            Number chunkSizeNumber = (Number) request.get("chunkSize");
+            String storageClass = (String) request.get("storageClass");
+            Number checksumNumber = (Number) request.get("checksum");
 
             if (imagenId == null || imagenId.trim().isEmpty()) {
                 throw new IllegalArgumentException("imagenId es requerido y no puede estar vacío");
@@ -111,7 +151,10 @@ public class MasterController {
             }
 
             long size = sizeNumber.longValue();
-            FileMetadata metadata = masterService.planUpload(imagenId, size);
+            Integer requestedChunkSize = chunkSizeNumber != null ? chunkSizeNumber.intValue() : null;
+            long checksum = checksumNumber != null ? checksumNumber.longValue() : FileMetadata.NO_CHECKSUM;
+            FileMetadata metadata = masterService.planUpload(imagenId, size, requestedChunkSize, storageClass,
+                    checksum);
 
             int uniqueChunks = (int) metadata.getChunks().stream()
                     .mapToInt(c -> c.getChunkIndex())
@@ -125,6 +168,15 @@ public class MasterController {
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
             response.put("imagenId", metadata.getImagenId());
+            response.put("chunkSize", metadata.getChunkSize());
+            response.put("storageClass", metadata.getStorageClass());
+            if (metadata.erasureCoded()) {
+                response.put("dataShards", metadata.getDataShards());
+                response.put("parityShards", metadata.getParityShards());
+            }
+            if (metadata.packed()) {
+                putPackedRange(response, metadata);
+            }
             response.put("chunks", metadata.getChunks());
             response.put("replicationFactor", replicationFactor);
 
@@ -145,7 +197,8 @@ public class MasterController {
 
     /**
      * Obtiene metadatos de un archivo (ubicación de fragmentos y réplicas).
-     * Filtra automáticamente réplicas en servidores caídos.
+     * Filtra automáticamente réplicas en servidores caídos e informa la sospecha
+     * (0 a 1) del detector de fallas para cada servidor con réplica.
      *
      * @param imagenId ID único de la imagen
      * @return Metadatos del archivo con ubicaciones de chunks
@@ -158,14 +211,33 @@ public class MasterController {
             }
 
             FileMetadata metadata = masterService.getMetadata(imagenId);
+            // Las lecturas de un objeto empaquetado calientan su contenedor (el que tiene réplicas)
+            readHeatTracker.recordRead(metadata.packed() ? metadata.getContainerId() : imagenId);
 
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
             response.put("imagenId", metadata.getImagenId());
             response.put("size", metadata.getSize());
+            response.put("chunkSize", metadata.getChunkSize());
+            response.put("storageClass", metadata.getStorageClass());
+            if (metadata.erasureCoded()) {
+                response.put("dataShards", metadata.getDataShards());
+                response.put("parityShards", metadata.getParityShards());
+            }
+            if (metadata.packed()) {
+                putPackedRange(response, metadata);
+            }
             response.put("chunks", metadata.getChunks());
             response.put("timestamp", metadata.getTimestamp());
 
+            // Sospecha de cada servidor con réplica: el cliente lee primero de los menos sospechosos
+            Map<String, Double> serverSuspicion = new HashMap<>();
+            for (FileMetadata.ChunkMetadata chunk : metadata.getChunks()) {
+                serverSuspicion.computeIfAbsent(chunk.getChunkserverUrl(),
+                        url -> Math.round(heartbeatHandler.getSuspicion(url) * 1000) / 1000.0);
+            }
+            response.put("serverSuspicion", serverSuspicion);
+
             return ResponseEntity.ok(response);
         } catch (IllegalArgumentException e) {
             Map<String, Object> error = new HashMap<>();
@@ -193,6 +265,19 @@ public class MasterController {
                 throw new IllegalArgumentException("imagenId es requerido");
             }
 
+            // Objeto empaquetado: no tiene chunks propios, su rango se recupera al compactar el contenedor
+            FileMetadata stored = masterService.findFile(imagenId);
+            if (stored != null && stored.packed()) {
+                masterService.deleteFile(imagenId);
+
+                Map<String, String> response = new HashMap<>();
+                response.put("status", "success");
+                response.put("message", "Objeto empaquetado eliminado");
+                response.put("replicasDeleted", "0");
+                response.put("replicasFailed", "0");
+                return ResponseEntity.ok(response);
+            }
+
             FileMetadata metadata = masterService.getMetadata(imagenId);
 
             System.out.println("╔════════════════════════════════════════════════════════╗");
@@ -258,13 +343,220 @@ public class MasterController {
     }
 
     /**
-     * Lista todos los archivos almacenados en el sistema.
+     * Lista los archivos almacenados en el sistema.
+     * Sin parámetros devuelve el arreglo completo (compatibilidad). Con cursor, limit
+     * o fields devuelve una página en orden de imagenId:
+     * {"files": [...], "count": n, "nextCursor": "...", "hasMore": true}
      *
-     * @return Colección de metadatos de todos los archivos
+     * @param cursor Último imagenId de la página anterior (exclusivo)
+     * @param limit  Tamaño de página (por defecto 100, máximo 1000)
+     * @param fields Campos a incluir separados por coma, p. ej. "imagenId,size"
+     * @return Colección completa o página de metadatos
      */
     @GetMapping("/files")
-    public ResponseEntity<Collection<FileMetadata>> listFiles() {
-        return ResponseEntity.ok(masterService.listFiles());
+    public ResponseEntity<?> listFiles(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String fields) {
+
+        if (cursor == null && limit == null && fields == null) {
+            return ResponseEntity.ok(masterService.listFiles());
+        }
+
+        try {
+            Set<String> projection = parseFields(fields);
+            int pageSize = Math.max(1, Math.min(limit != null ? limit : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+
+            List<Object> page = new ArrayList<>(pageSize);
+            String lastId = null;
+            boolean hasMore = false;
+
+            for (FileMetadata file : masterService.listFilesAfter(cursor)) {
+                if (page.size() == pageSize) {
+                    hasMore = true;
+                    break;
+                }
+                page.add(project(file, projection));
+                lastId = file.getImagenId();
+            }
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("files", page);
+            response.put("count", page.size());
+            response.put("nextCursor", hasMore ? lastId : null);
+            response.put("hasMore", hasMore);
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+    }
+
+    /**
+     * Lista los archivos como NDJSON (un objeto JSON por línea), escribiendo cada
+     * entrada a medida que se recorre el namespace, sin construir la lista en memoria.
+     *
+     * @param cursor Último imagenId ya recibido (exclusivo), para reanudar
+     * @param fields Campos a incluir separados por coma
+     */
+    @GetMapping("/files/stream")
+    public ResponseEntity<?> streamFiles(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String fields) {
+
+        Set<String> projection;
+        try {
+            projection = parseFields(fields);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+
+        StreamingResponseBody body = (OutputStream out) -> {
+            OutputStream buffered = new BufferedOutputStream(out, 16 * 1024);
+            for (FileMetadata file : masterService.listFilesAfter(cursor)) {
+                buffered.write(objectMapper.writeValueAsBytes(project(file, projection)));
+                buffered.write('\n');
+            }
+            buffered.flush();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    /**
+     * Rango de un objeto empaquetado: los chunks de la respuesta son los del contenedor
+     */
+    private void putPackedRange(Map<String, Object> response, FileMetadata metadata) {
+        response.put("containerId", metadata.getContainerId());
+        response.put("offset", metadata.getContainerOffset());
+        response.put("length", metadata.getSize());
+        if (metadata.hasChecksum()) {
+            response.put("checksum", metadata.getChecksum());
+        }
+    }
+
+    /**
+     * Valida la lista de campos pedida; null significa el objeto completo
+     */
+    private Set<String> parseFields(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return null;
+        }
+        Set<String> projection = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!LISTABLE_FIELDS.contains(name)) {
+                throw new IllegalArgumentException(
+                        "Campo desconocido: " + name + ". Permitidos: " + LISTABLE_FIELDS);
+            }
+            projection.add(name);
+        }
+        return projection;
+    }
+
+    /**
+     * Proyección de un archivo a los campos pedidos
+     */
+    private Object project(FileMetadata file, Set<String> projection) {
+        if (projection == null) {
+            return file;
+        }
+        FileMetadata.Replicas replicas = file.replicas();
+        Map<String, Object> entry = new LinkedHashMap<>();
+        for (String field : projection) {
+            switch (field) {
+                case "imagenId" -> entry.put("imagenId", file.getImagenId());
+                case "size" -> entry.put("size", file.getSize());
+                case "chunkSize" -> entry.put("chunkSize", file.getChunkSize());
+                case "storageClass" -> entry.put("storageClass", file.getStorageClass());
+                case "timestamp" -> entry.put("timestamp", file.getTimestamp());
+                case "chunkCount" -> entry.put("chunkCount", replicas.uniqueChunkCount());
+                case "replicaCount" -> entry.put("replicaCount", replicas.length());
+                case "chunks" -> entry.put("chunks", file.getChunks());
+                default -> {
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Estado de la colocación de réplicas: política activa, chunks colocados por
+     * servidor, dispersión del reparto y carga conocida de cada servidor.
+     */
+    @GetMapping("/placement")
+    public ResponseEntity<Map<String, Object>> getPlacementStats() {
+        return ResponseEntity.ok(placementService.getStats());
+    }
+
+    /**
+     * Estado del rebalanceador: utilización por servidor, desbalance restante,
+     * presupuesto configurado y progreso de la ronda en curso.
+     */
+    @GetMapping("/rebalancer")
+    public ResponseEntity<Map<String, Object>> getRebalancerStatus() {
+        return ResponseEntity.ok(rebalancerService.getStatus());
+    }
+
+    /**
+     * Activa el rebalanceo periódico y lanza una ronda inmediata.
+     */
+    @PostMapping("/rebalancer/start")
+    public ResponseEntity<Map<String, Object>> startRebalancer() {
+        rebalancerService.start();
+        return ResponseEntity.ok(rebalancerService.getStatus());
+    }
+
+    /**
+     * Detiene el rebalanceo (los movimientos ya iniciados terminan).
+     */
+    @PostMapping("/rebalancer/stop")
+    public ResponseEntity<Map<String, Object>> stopRebalancer() {
+        rebalancerService.stop();
+        return ResponseEntity.ok(rebalancerService.getStatus());
+    }
+
+    /**
+     * Estadísticas de reconstrucción de shards erasure-coded.
+     */
+    @GetMapping("/erasure/stats")
+    public ResponseEntity<Map<String, Object>> getErasureStats() {
+        return ResponseEntity.ok(erasureCodingService.getStats());
+    }
+
+    /**
+     * Detección de caídas por timeout de heartbeat: configuración de la rueda de plazos
+     * y latencia de detección observada.
+     */
+    @GetMapping("/heartbeat/timeouts")
+    public ResponseEntity<Map<String, Object>> getHeartbeatTimeoutStats() {
+        return ResponseEntity.ok(heartbeatHandler.getTimeoutStats());
+    }
+
+    /**
+     * Comandos encolados para los chunkservers (entregados en las respuestas de heartbeat):
+     * pendientes y en vuelo por servidor, confirmados, fallidos y vencidos.
+     */
+    @GetMapping("/commands")
+    public ResponseEntity<Map<String, Object>> getCommandStats() {
+        return ResponseEntity.ok(commandQueue.getStats());
+    }
+
+    /**
+     * Estado del empaquetado de objetos chicos: contenedores, bytes vivos y muertos
+     * y progreso de la compactación.
+     */
+    @GetMapping("/packing")
+    public ResponseEntity<Map<String, Object>> getPackingStats() {
+        return ResponseEntity.ok(packingService.getStats());
     }
 
     /**
@@ -325,7 +617,7 @@ public class MasterController {
      * Registra un nuevo chunkserver en el sistema.
      * Los chunkservers llaman este endpoint automáticamente al arrancar.
      *
-     * @param request Mapa con url (requerida) e id (opcional) del chunkserver
+     * @param request Mapa con url (requerida), id (opcional) y topología rack/host/disk (opcional)
      * @return Confirmación de registro
      */
     @PostMapping("/register")
@@ -342,7 +634,7 @@ public class MasterController {
                 throw new IllegalArgumentException("URL debe comenzar con http:// o https://");
             }
 
-            masterService.registerChunkserver(url, id);
+            masterService.registerChunkserver(url, id, request);
 
             Map<String, String> response = new HashMap<>();
             response.put("status", "success");
@@ -0,0 +1,105 @@
+package com.tpdteam3.master.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice inverso del Master: chunkserver → (imagenId → índices de chunk que aloja).
+ * <p>
+ * Se mantiene en paralelo al namespace y se actualiza en cada colocación,
+ * reparación, limpieza y borrado, de modo que saber qué debería tener un
+ * servidor cuesta O(chunks en ese servidor) y no O(namespace completo).
+ */
+public class ChunkLocationIndex {
+
+    private final Map<String, Map<String, Set<Integer>>> chunksByServer = new ConcurrentHashMap<>();
+
+    /**
+     * Reconstruye el índice completo a partir del namespace (al arrancar)
+     */
+    public void rebuild(Collection<FileMetadata> files) {
+        chunksByServer.clear();
+        for (FileMetadata file : files) {
+            addFile(file);
+        }
+    }
+
+    public void addFile(FileMetadata file) {
+        FileMetadata.Replicas replicas = file.replicas();
+        for (int i = 0; i < replicas.length(); i++) {
+            add(replicas.serverUrl(i), file.getImagenId(), replicas.chunkIndex(i));
+        }
+    }
+
+    public void removeFile(FileMetadata file) {
+        FileMetadata.Replicas replicas = file.replicas();
+        for (int i = 0; i < replicas.length(); i++) {
+            remove(replicas.serverUrl(i), file.getImagenId(), replicas.chunkIndex(i));
+        }
+    }
+
+    public void add(String serverUrl, String imagenId, int chunkIndex) {
+        chunksByServer
+                .computeIfAbsent(serverUrl, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(imagenId, k -> ConcurrentHashMap.newKeySet())
+                .add(chunkIndex);
+    }
+
+    public void remove(String serverUrl, String imagenId, int chunkIndex) {
+        Map<String, Set<Integer>> files = chunksByServer.get(serverUrl);
+        if (files == null) {
+            return;
+        }
+        // Quitar la entrada del archivo de forma atómica cuando queda vacía
+        files.computeIfPresent(imagenId, (id, chunks) -> {
+            chunks.remove(chunkIndex);
+            return chunks.isEmpty() ? null : chunks;
+        });
+    }
+
+    /**
+     * Copia de los chunks que el Master espera encontrar en un servidor
+     *
+     * @return Mapa imagenId → índices de chunk
+     */
+    public Map<String, Set<Integer>> chunksOn(String serverUrl) {
+        Map<String, Set<Integer>> files = chunksByServer.get(serverUrl);
+        if (files == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Set<Integer>> copy = new HashMap<>(files.size());
+        for (Map.Entry<String, Set<Integer>> entry : files.entrySet()) {
+            copy.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Archivos con al menos una réplica en el servidor
+     */
+    public Set<String> filesOn(String serverUrl) {
+        Map<String, Set<Integer>> files = chunksByServer.get(serverUrl);
+        return files != null ? new HashSet<>(files.keySet()) : Collections.emptySet();
+    }
+
+    public int chunkCountOn(String serverUrl) {
+        Map<String, Set<Integer>> files = chunksByServer.get(serverUrl);
+        if (files == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Set<Integer> chunks : files.values()) {
+            count += chunks.size();
+        }
+        return count;
+    }
+
+    public int serverCount() {
+        return chunksByServer.size();
+    }
+}
@@ -0,0 +1,79 @@
+package com.tpdteam3.master.model;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tabla del Master que asigna a cada chunkserver (por URL) un id entero pequeño.
+ * Los metadatos en memoria guardan solo estos ids en lugar de repetir la URL en cada réplica.
+ * <p>
+ * Es un bean único: se inyecta en los servicios que crean metadatos, y cada
+ * {@link FileMetadata} guarda la referencia a la tabla con la que se crearon sus ids
+ * (Jackson la inyecta al leer el log y los checkpoints JSON).
+ * <p>
+ * Los ids se asignan en orden de aparición y nunca se reutilizan ni se eliminan,
+ * así que un id leído en cualquier momento sigue siendo válido.
+ */
+@Component
+public class ChunkserverIdTable {
+
+    private final Map<String, Integer> idsByUrl = new ConcurrentHashMap<>();
+    private volatile String[] urlsById = new String[16];
+    private volatile int size = 0;
+
+    /**
+     * Devuelve el id de un chunkserver, asignándole uno nuevo si es la primera vez que aparece
+     */
+    public int idOf(String url) {
+        Integer id = idsByUrl.get(url);
+        if (id != null) {
+            return id;
+        }
+        return register(url);
+    }
+
+    /**
+     * Devuelve el id de un chunkserver ya conocido, o -1 si nunca fue registrado
+     */
+    public int lookup(String url) {
+        Integer id = idsByUrl.get(url);
+        return id != null ? id : -1;
+    }
+
+    public String urlOf(int id) {
+        String[] urls = urlsById;
+        if (id < 0 || id >= urls.length || urls[id] == null) {
+            throw new IllegalArgumentException("Id de chunkserver desconocido: " + id);
+        }
+        return urls[id];
+    }
+
+    /**
+     * Cantidad de ids asignados (todos los ids válidos son menores que este valor)
+     */
+    public int size() {
+        return size;
+    }
+
+    private synchronized int register(String url) {
+        Integer existing = idsByUrl.get(url);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = size;
+        String[] urls = urlsById;
+        if (id >= urls.length) {
+            urls = Arrays.copyOf(urls, urls.length * 2);
+        }
+        urls[id] = url;
+        // Publicar primero el arreglo y luego el mapa: quien lea el id ya puede resolverlo
+        urlsById = urls;
+        size = id + 1;
+        idsByUrl.put(url, id);
+        return id;
+    }
+}
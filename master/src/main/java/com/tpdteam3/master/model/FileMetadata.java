@@ -1,25 +1,87 @@
 package com.tpdteam3.master.model;
 
+import com.fasterxml.jackson.annotation.JacksonInject;
+import com.fasterxml.jackson.annotation.OptBoolean;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.IntPredicate;
 
+/**
+ * Metadatos de un archivo.
+ * <p>
+ * Las réplicas se guardan en arreglos paralelos de enteros (índice de chunk,
+ * id de chunkserver de {@link ChunkserverIdTable} e índice de réplica), ordenados
+ * por chunk. Son inmutables: cada mutación publica arreglos nuevos, así que los
+ * lectores nunca ven una lista a medio modificar. La tabla de ids se recibe al
+ * crear el archivo (Jackson la inyecta con {@code @JacksonInject} al deserializar).
+ * <p>
+ * Hacia afuera (JSON de /metadata, /files, etc.) se siguen exponiendo como
+ * lista de {@link ChunkMetadata}, con el mismo formato de siempre.
+ * <p>
+ * Cada archivo guarda su propio tamaño de chunk, elegido al planificar el upload.
+ * Los archivos anteriores a este campo (0 en metadatos viejos) usan 32 KB.
+ * <p>
+ * Clase de almacenamiento:
+ * <ul>
+ *   <li>REPLICATED: cada chunk se guarda en varias réplicas completas.</li>
+ *   <li>EC: Reed-Solomon RS(dataShards, parityShards). El archivo se divide en
+ *       franjas de dataShards × chunkSize bytes; cada franja produce dataShards
+ *       shards de datos y parityShards de paridad, todos del mismo tamaño, y cada
+ *       shard es un chunk con una sola réplica. El shard j de la franja s es el
+ *       chunk s × (dataShards + parityShards) + j.</li>
+ *   <li>PACKED: objeto chico guardado dentro de un contenedor compartido (otro
+ *       archivo replicado de un solo chunk), en el rango [containerOffset,
+ *       containerOffset + size). No tiene réplicas propias: se leen las del contenedor.
+ *       Guarda el CRC32 de sus bytes (checksum) para que una lectura detecte un rango
+ *       que no se llegó a escribir o que quedó atrasado en una réplica.</li>
+ * </ul>
+ */
 public class FileMetadata {
+
+    // Tamaño de chunk fijo que usaba el sistema antes de guardarlo por archivo
+    public static final int LEGACY_CHUNK_SIZE = 32 * 1024;
+
+    public static final String STORAGE_REPLICATED = "REPLICATED";
+    public static final String STORAGE_ERASURE_CODED = "EC";
+    public static final String STORAGE_PACKED = "PACKED";
+
+    // Objetos empaquetados registrados antes de guardar su checksum
+    public static final long NO_CHECKSUM = -1;
+
     private String imagenId;
     private long size;
-    private List<ChunkMetadata> chunks;
+    private int chunkSize;
+    private String storageClass;
+    private int dataShards;
+    private int parityShards;
+    private String containerId;
+    private long containerOffset;
+    private long checksum = NO_CHECKSUM;
+    private volatile Replicas replicas = Replicas.EMPTY;
     private long timestamp;
 
+    @JacksonInject(useInput = OptBoolean.FALSE)
+    private ChunkserverIdTable idTable;
+
     public FileMetadata() {
-        this.chunks = new ArrayList<>();
         this.timestamp = System.currentTimeMillis();
     }
 
-    public FileMetadata(String imagenId, long size) {
+    public FileMetadata(ChunkserverIdTable idTable, String imagenId, long size) {
         this();
+        this.idTable = idTable;
         this.imagenId = imagenId;
         this.size = size;
     }
 
+    public FileMetadata(ChunkserverIdTable idTable, String imagenId, long size, int chunkSize) {
+        this(idTable, imagenId, size);
+        this.chunkSize = chunkSize;
+    }
+
     // Getters y Setters
     public String getImagenId() {
         return imagenId;
@@ -37,12 +99,154 @@ public class FileMetadata {
         this.size = size;
     }
 
+    public int getChunkSize() {
+        return chunkSize > 0 ? chunkSize : LEGACY_CHUNK_SIZE;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public String getStorageClass() {
+        return storageClass != null ? storageClass : STORAGE_REPLICATED;
+    }
+
+    public void setStorageClass(String storageClass) {
+        this.storageClass = storageClass;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public void setDataShards(int dataShards) {
+        this.dataShards = dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public void setParityShards(int parityShards) {
+        this.parityShards = parityShards;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public void setContainerId(String containerId) {
+        this.containerId = containerId;
+    }
+
+    public long getContainerOffset() {
+        return containerOffset;
+    }
+
+    public void setContainerOffset(long containerOffset) {
+        this.containerOffset = containerOffset;
+    }
+
+    /**
+     * CRC32 de los bytes de un objeto empaquetado, o NO_CHECKSUM si no se conoce
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    public boolean hasChecksum() {
+        return checksum != NO_CHECKSUM;
+    }
+
+    /**
+     * Configura el archivo como objeto empaquetado en el rango del contenedor que empieza en offset
+     */
+    public void usePacking(String containerId, long offset) {
+        this.storageClass = STORAGE_PACKED;
+        this.containerId = containerId;
+        this.containerOffset = offset;
+    }
+
+    public boolean packed() {
+        return STORAGE_PACKED.equals(storageClass);
+    }
+
+    /**
+     * Configura el archivo como erasure-coded RS(dataShards, parityShards)
+     */
+    public void useErasureCoding(int dataShards, int parityShards) {
+        this.storageClass = STORAGE_ERASURE_CODED;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+    }
+
+    public boolean erasureCoded() {
+        return STORAGE_ERASURE_CODED.equals(storageClass);
+    }
+
+    /**
+     * Cantidad de chunks en que se divide el archivo con su tamaño de chunk
+     * (para EC, shards de datos y de paridad de todas las franjas; los objetos
+     * empaquetados no tienen chunks propios)
+     */
+    public int expectedChunkCount() {
+        if (packed()) {
+            return 0;
+        }
+        if (erasureCoded()) {
+            return stripeCount() * shardsPerStripe();
+        }
+        int chunk = getChunkSize();
+        return (int) ((size + chunk - 1) / chunk);
+    }
+
+    /**
+     * Réplicas objetivo de cada chunk: el factor de replicación, o 1 para los shards EC
+     */
+    public int targetReplicasPerChunk(int replicationFactor) {
+        return erasureCoded() ? 1 : replicationFactor;
+    }
+
+    public int shardsPerStripe() {
+        return dataShards + parityShards;
+    }
+
+    /**
+     * Cantidad de franjas EC (cada una cubre hasta dataShards × chunkSize bytes)
+     */
+    public int stripeCount() {
+        long stripeBytes = (long) dataShards * getChunkSize();
+        return (int) ((size + stripeBytes - 1) / stripeBytes);
+    }
+
+    /**
+     * Tamaño de cada shard de una franja EC. Las franjas completas usan chunkSize;
+     * la última se achica para no rellenar de más los archivos chicos.
+     */
+    public int shardSize(int stripe) {
+        long stripeBytes = (long) dataShards * getChunkSize();
+        long bytesInStripe = Math.min(stripeBytes, size - stripe * stripeBytes);
+        return (int) ((bytesInStripe + dataShards - 1) / dataShards);
+    }
+
+    /**
+     * Vista de solo lectura de las réplicas, materializada a partir de los arreglos compactos
+     */
     public List<ChunkMetadata> getChunks() {
-        return chunks;
+        Replicas current = replicas;
+        List<ChunkMetadata> chunks = new ArrayList<>(current.length());
+        for (int i = 0; i < current.length(); i++) {
+            chunks.add(current.toChunkMetadata(i));
+        }
+        return Collections.unmodifiableList(chunks);
     }
 
     public void setChunks(List<ChunkMetadata> chunks) {
-        this.chunks = chunks;
+        this.replicas = Replicas.of(idTable, chunks);
     }
 
     public long getTimestamp() {
@@ -53,6 +257,304 @@ public class FileMetadata {
         this.timestamp = timestamp;
     }
 
+    // ═══════════════════════════════════════════════════════════════
+    // ACCESO COMPACTO A RÉPLICAS (sin asignar ChunkMetadata)
+    // ═══════════════════════════════════════════════════════════════
+
+    /**
+     * Snapshot inmutable de las réplicas actuales
+     */
+    public Replicas replicas() {
+        return replicas;
+    }
+
+    public int replicaCount() {
+        return replicas.length();
+    }
+
+    /**
+     * Copia del archivo conservando solo las réplicas cuyos servidores acepta el filtro
+     * (por id de {@link ChunkserverIdTable}). No materializa ChunkMetadata.
+     */
+    public FileMetadata withReplicasOn(IntPredicate serverFilter) {
+        FileMetadata copy = copyWithoutReplicas();
+        copy.replicas = replicas.retain(serverFilter);
+        return copy;
+    }
+
+    /**
+     * Vista de un objeto empaquetado con las réplicas de su contenedor (para que el
+     * cliente sepa a qué servidores pedir el rango)
+     */
+    public FileMetadata withContainerReplicas(Replicas containerReplicas) {
+        FileMetadata copy = copyWithoutReplicas();
+        copy.replicas = containerReplicas;
+        return copy;
+    }
+
+    private FileMetadata copyWithoutReplicas() {
+        FileMetadata copy = new FileMetadata(idTable, imagenId, size, chunkSize);
+        copy.timestamp = timestamp;
+        copy.storageClass = storageClass;
+        copy.dataShards = dataShards;
+        copy.parityShards = parityShards;
+        copy.containerId = containerId;
+        copy.containerOffset = containerOffset;
+        copy.checksum = checksum;
+        return copy;
+    }
+
+    /**
+     * Agrega una réplica si no existe ya otra del mismo chunk en el mismo servidor
+     */
+    public synchronized boolean addReplica(ChunkMetadata replica) {
+        return addReplica(replica.getChunkIndex(), replica.getChunkserverUrl(), replica.getReplicaIndex());
+    }
+
+    public synchronized boolean addReplica(int chunkIndex, String chunkserverUrl, int replicaIndex) {
+        int serverId = idTable.idOf(chunkserverUrl);
+        Replicas current = replicas;
+        if (current.indexOf(chunkIndex, serverId) >= 0) {
+            return false;
+        }
+        replicas = current.with(idTable, chunkIndex, serverId, replicaIndex);
+        return true;
+    }
+
+    public synchronized boolean removeReplica(int chunkIndex, String chunkserverUrl) {
+        int serverId = idTable.lookup(chunkserverUrl);
+        if (serverId < 0) {
+            return false;
+        }
+        Replicas current = replicas;
+        int position = current.indexOf(chunkIndex, serverId);
+        if (position < 0) {
+            return false;
+        }
+        replicas = current.without(position);
+        return true;
+    }
+
+    /**
+     * Réplicas de un archivo en arreglos paralelos, ordenadas por índice de chunk.
+     * Inmutable. Los ids se resuelven a URL con la tabla con la que se asignaron
+     * (la vacía no tiene tabla: no hay ids que resolver).
+     */
+    public static final class Replicas {
+        static final Replicas EMPTY = new Replicas(null, new int[0], new int[0], new int[0]);
+
+        private final ChunkserverIdTable ids;
+        private final int[] chunkIndices;
+        private final int[] serverIds;
+        private final int[] replicaIndices;
+
+        private Replicas(ChunkserverIdTable ids, int[] chunkIndices, int[] serverIds, int[] replicaIndices) {
+            this.ids = ids;
+            this.chunkIndices = chunkIndices;
+            this.serverIds = serverIds;
+            this.replicaIndices = replicaIndices;
+        }
+
+        static Replicas of(ChunkserverIdTable ids, List<ChunkMetadata> chunks) {
+            if (chunks == null || chunks.isEmpty()) {
+                return EMPTY;
+            }
+            List<ChunkMetadata> sorted = new ArrayList<>(chunks);
+            sorted.sort((a, b) -> Integer.compare(a.getChunkIndex(), b.getChunkIndex()));
+
+            int n = sorted.size();
+            int[] chunkIndices = new int[n];
+            int[] serverIds = new int[n];
+            int[] replicaIndices = new int[n];
+            for (int i = 0; i < n; i++) {
+                ChunkMetadata chunk = sorted.get(i);
+                chunkIndices[i] = chunk.getChunkIndex();
+                serverIds[i] = ids.idOf(chunk.getChunkserverUrl());
+                replicaIndices[i] = chunk.getReplicaIndex();
+            }
+            return new Replicas(ids, chunkIndices, serverIds, replicaIndices);
+        }
+
+        public int length() {
+            return chunkIndices.length;
+        }
+
+        public int chunkIndex(int position) {
+            return chunkIndices[position];
+        }
+
+        public int serverId(int position) {
+            return serverIds[position];
+        }
+
+        public String serverUrl(int position) {
+            return ids.urlOf(serverIds[position]);
+        }
+
+        public int replicaIndex(int position) {
+            return replicaIndices[position];
+        }
+
+        /**
+         * Cantidad de chunks distintos (los arreglos están ordenados por chunk)
+         */
+        public int uniqueChunkCount() {
+            int unique = 0;
+            for (int i = 0; i < chunkIndices.length; i++) {
+                if (i == 0 || chunkIndices[i] != chunkIndices[i - 1]) {
+                    unique++;
+                }
+            }
+            return unique;
+        }
+
+        /**
+         * Cantidad de réplicas registradas de un chunk
+         */
+        public int replicaCountOf(int chunkIndex) {
+            int count = 0;
+            for (int i = 0; i < chunkIndices.length; i++) {
+                if (chunkIndices[i] == chunkIndex) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Cantidad de chunks con menos réplicas registradas que el factor indicado
+         */
+        public int underReplicatedChunkCount(int replicationFactor) {
+            int under = 0;
+            int run = 0;
+            for (int i = 0; i < chunkIndices.length; i++) {
+                run++;
+                boolean lastOfChunk = i == chunkIndices.length - 1 || chunkIndices[i + 1] != chunkIndices[i];
+                if (lastOfChunk) {
+                    if (run < replicationFactor) {
+                        under++;
+                    }
+                    run = 0;
+                }
+            }
+            return under;
+        }
+
+        /**
+         * Primer chunk en [0, numChunks) sin ninguna réplica, o -1 si están todos
+         */
+        public int firstMissingChunk(int numChunks) {
+            int expected = 0;
+            for (int i = 0; i < chunkIndices.length && expected < numChunks; i++) {
+                if (chunkIndices[i] > expected) {
+                    return expected;
+                }
+                if (chunkIndices[i] == expected) {
+                    expected++;
+                }
+            }
+            return expected < numChunks ? expected : -1;
+        }
+
+        /**
+         * Primera franja EC en [0, stripes) con menos de {@code minShards} shards distintos,
+         * o -1 si todas se pueden leer (o reconstruir)
+         */
+        public int firstUnreadableStripe(int stripes, int shardsPerStripe, int minShards) {
+            int[] shardsInStripe = new int[stripes];
+            for (int i = 0; i < chunkIndices.length; i++) {
+                boolean newChunk = i == 0 || chunkIndices[i] != chunkIndices[i - 1];
+                int stripe = chunkIndices[i] / shardsPerStripe;
+                if (newChunk && stripe < stripes) {
+                    shardsInStripe[stripe]++;
+                }
+            }
+            for (int s = 0; s < stripes; s++) {
+                if (shardsInStripe[s] < minShards) {
+                    return s;
+                }
+            }
+            return -1;
+        }
+
+        public ChunkMetadata toChunkMetadata(int position) {
+            String url = serverUrl(position);
+            ChunkMetadata chunk = new ChunkMetadata(chunkIndices[position], url, url);
+            chunk.setReplicaIndex(replicaIndices[position]);
+            return chunk;
+        }
+
+        int indexOf(int chunkIndex, int serverId) {
+            for (int i = 0; i < chunkIndices.length; i++) {
+                if (chunkIndices[i] == chunkIndex && serverIds[i] == serverId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Replicas with(ChunkserverIdTable table, int chunkIndex, int serverId, int replicaIndex) {
+            int n = chunkIndices.length;
+            // Insertar después de la última réplica del mismo chunk para mantener el orden
+            int insertAt = n;
+            while (insertAt > 0 && chunkIndices[insertAt - 1] > chunkIndex) {
+                insertAt--;
+            }
+            return new Replicas(
+                    table,
+                    insert(chunkIndices, insertAt, chunkIndex),
+                    insert(serverIds, insertAt, serverId),
+                    insert(replicaIndices, insertAt, replicaIndex)
+            );
+        }
+
+        Replicas retain(IntPredicate serverFilter) {
+            int n = chunkIndices.length;
+            int[] keep = new int[n];
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (serverFilter.test(serverIds[i])) {
+                    keep[kept++] = i;
+                }
+            }
+            if (kept == n) {
+                return this;
+            }
+            int[] chunks = new int[kept];
+            int[] servers = new int[kept];
+            int[] replicaIdx = new int[kept];
+            for (int k = 0; k < kept; k++) {
+                chunks[k] = chunkIndices[keep[k]];
+                servers[k] = serverIds[keep[k]];
+                replicaIdx[k] = replicaIndices[keep[k]];
+            }
+            return new Replicas(ids, chunks, servers, replicaIdx);
+        }
+
+        Replicas without(int position) {
+            return new Replicas(
+                    ids,
+                    remove(chunkIndices, position),
+                    remove(serverIds, position),
+                    remove(replicaIndices, position)
+            );
+        }
+
+        private static int[] insert(int[] source, int position, int value) {
+            int[] result = Arrays.copyOf(source, source.length + 1);
+            System.arraycopy(source, position, result, position + 1, source.length - position);
+            result[position] = value;
+            return result;
+        }
+
+        private static int[] remove(int[] source, int position) {
+            int[] result = new int[source.length - 1];
+            System.arraycopy(source, 0, result, 0, position);
+            System.arraycopy(source, position + 1, result, position, source.length - position - 1);
+            return result;
+        }
+    }
+
     /**
      * Metadata de un chunk con soporte para múltiples réplicas
      */
@@ -113,4 +615,4 @@ public class FileMetadata {
                    '}';
         }
     }
-}
\ No newline at end of file
+}
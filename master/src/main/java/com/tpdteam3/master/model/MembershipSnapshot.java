@@ -0,0 +1,74 @@
+package com.tpdteam3.master.model;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Foto inmutable de qué chunkservers están vivos.
+ * <p>
+ * El HeartbeatHandler publica una nueva (con epoch incrementado) solo cuando
+ * cambia la vivacidad de algún servidor; el resto del tiempo todas las lecturas
+ * comparten la misma instancia, sin recorrer ni copiar nada.
+ * El bitset está indexado por el id de {@link ChunkserverIdTable}.
+ */
+public final class MembershipSnapshot {
+
+    public static final MembershipSnapshot EMPTY =
+            new MembershipSnapshot(null, 0, Collections.emptyList(), Collections.emptyList());
+
+    private final long epoch;
+    private final List<String> healthyServers;
+    private final List<String> unhealthyServers;
+    private final Set<String> healthySet;
+    private final BitSet healthyIds;
+
+    public MembershipSnapshot(ChunkserverIdTable ids, long epoch,
+                              List<String> healthyServers, List<String> unhealthyServers) {
+        this.epoch = epoch;
+        this.healthyServers = Collections.unmodifiableList(healthyServers);
+        this.unhealthyServers = Collections.unmodifiableList(unhealthyServers);
+        this.healthySet = Collections.unmodifiableSet(new HashSet<>(healthyServers));
+        this.healthyIds = new BitSet();
+        for (String url : healthyServers) {
+            healthyIds.set(ids.idOf(url));
+        }
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public List<String> getHealthyServers() {
+        return healthyServers;
+    }
+
+    public List<String> getUnhealthyServers() {
+        return unhealthyServers;
+    }
+
+    public Set<String> getHealthySet() {
+        return healthySet;
+    }
+
+    public int healthyCount() {
+        return healthyServers.size();
+    }
+
+    public boolean isHealthy(String url) {
+        return healthySet.contains(url);
+    }
+
+    public boolean isHealthy(int serverId) {
+        return healthyIds.get(serverId);
+    }
+
+    /**
+     * Copia del bitset de servidores vivos (el interno no se expone para mantener la inmutabilidad)
+     */
+    public BitSet healthyIds() {
+        return (BitSet) healthyIds.clone();
+    }
+}
@@ -0,0 +1,116 @@
+package com.tpdteam3.master.model;
+
+/**
+ * Registro de una mutación del namespace en el log de operaciones (append-only).
+ * Cada operación es idempotente: reaplicarla sobre un estado que ya la contiene
+ * no cambia el resultado, lo que permite reproducir el log sobre un checkpoint
+ * tomado mientras seguían llegando mutaciones.
+ */
+public class MetadataOperation {
+
+    public enum Type {
+        CREATE,          // Alta (o reemplazo completo) de un archivo
+        ADD_REPLICA,     // Nueva réplica de un chunk
+        REMOVE_REPLICA,  // Réplica eliminada de un chunk
+        DELETE           // Baja del archivo
+    }
+
+    private Type type;
+    private String imagenId;
+    private FileMetadata file;
+    private Integer chunkIndex;
+    private String chunkserverUrl;
+    private Integer replicaIndex;
+    private long timestamp;
+
+    public MetadataOperation() {
+    }
+
+    private MetadataOperation(Type type, String imagenId) {
+        this.type = type;
+        this.imagenId = imagenId;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public static MetadataOperation create(FileMetadata file) {
+        MetadataOperation op = new MetadataOperation(Type.CREATE, file.getImagenId());
+        op.file = file;
+        return op;
+    }
+
+    public static MetadataOperation addReplica(String imagenId, FileMetadata.ChunkMetadata replica) {
+        MetadataOperation op = new MetadataOperation(Type.ADD_REPLICA, imagenId);
+        op.chunkIndex = replica.getChunkIndex();
+        op.chunkserverUrl = replica.getChunkserverUrl();
+        op.replicaIndex = replica.getReplicaIndex();
+        return op;
+    }
+
+    public static MetadataOperation removeReplica(String imagenId, int chunkIndex, String chunkserverUrl) {
+        MetadataOperation op = new MetadataOperation(Type.REMOVE_REPLICA, imagenId);
+        op.chunkIndex = chunkIndex;
+        op.chunkserverUrl = chunkserverUrl;
+        return op;
+    }
+
+    public static MetadataOperation delete(String imagenId) {
+        return new MetadataOperation(Type.DELETE, imagenId);
+    }
+
+    // Getters y Setters (requeridos por Jackson)
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getImagenId() {
+        return imagenId;
+    }
+
+    public void setImagenId(String imagenId) {
+        this.imagenId = imagenId;
+    }
+
+    public FileMetadata getFile() {
+        return file;
+    }
+
+    public void setFile(FileMetadata file) {
+        this.file = file;
+    }
+
+    public Integer getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public void setChunkIndex(Integer chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+
+    public String getChunkserverUrl() {
+        return chunkserverUrl;
+    }
+
+    public void setChunkserverUrl(String chunkserverUrl) {
+        this.chunkserverUrl = chunkserverUrl;
+    }
+
+    public Integer getReplicaIndex() {
+        return replicaIndex;
+    }
+
+    public void setReplicaIndex(Integer replicaIndex) {
+        this.replicaIndex = replicaIndex;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
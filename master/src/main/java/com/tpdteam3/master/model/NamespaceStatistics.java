@@ -0,0 +1,115 @@
+package com.tpdteam3.master.model;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Totales del namespace mantenidos de forma incremental.
+ * <p>
+ * Se actualizan en cada mutación de metadatos (alta, baja, réplica agregada o
+ * eliminada), así que consultarlos es O(1) en lugar de recorrer todos los archivos.
+ * Un chunk está sub-replicado si tiene registradas menos réplicas que su objetivo
+ * (el factor de replicación, o 1 para los shards de archivos erasure-coded).
+ */
+public class NamespaceStatistics {
+
+    private final int replicationFactor;
+
+    private final AtomicLong totalFiles = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong uniqueChunks = new AtomicLong();
+    private final AtomicLong totalReplicas = new AtomicLong();
+    private final AtomicLong underReplicatedChunks = new AtomicLong();
+
+    public NamespaceStatistics(int replicationFactor) {
+        this.replicationFactor = replicationFactor;
+    }
+
+    /**
+     * Recalcula todos los totales (al arrancar)
+     */
+    public void rebuild(Collection<FileMetadata> files) {
+        totalFiles.set(0);
+        totalBytes.set(0);
+        uniqueChunks.set(0);
+        totalReplicas.set(0);
+        underReplicatedChunks.set(0);
+        for (FileMetadata file : files) {
+            fileAdded(file);
+        }
+    }
+
+    public void fileAdded(FileMetadata file) {
+        apply(file, 1);
+    }
+
+    public void fileRemoved(FileMetadata file) {
+        apply(file, -1);
+    }
+
+    /**
+     * Una réplica agregada a un chunk de {@code file} que ahora tiene {@code replicasAfter} réplicas
+     */
+    public void replicaAdded(FileMetadata file, int replicasAfter) {
+        int target = file.targetReplicasPerChunk(replicationFactor);
+        totalReplicas.incrementAndGet();
+        if (replicasAfter == 1) {
+            uniqueChunks.incrementAndGet();
+        }
+        int before = replicasAfter - 1;
+        if (isUnderReplicated(replicasAfter, target) != isUnderReplicated(before, target)) {
+            // Pasó de 0 réplicas (no contaba) a sub-replicado, o alcanzó el objetivo
+            underReplicatedChunks.addAndGet(isUnderReplicated(replicasAfter, target) ? 1 : -1);
+        }
+    }
+
+    /**
+     * Una réplica eliminada de un chunk de {@code file} que ahora tiene {@code replicasAfter} réplicas
+     */
+    public void replicaRemoved(FileMetadata file, int replicasAfter) {
+        int target = file.targetReplicasPerChunk(replicationFactor);
+        totalReplicas.decrementAndGet();
+        if (replicasAfter == 0) {
+            uniqueChunks.decrementAndGet();
+        }
+        int before = replicasAfter + 1;
+        if (isUnderReplicated(replicasAfter, target) != isUnderReplicated(before, target)) {
+            underReplicatedChunks.addAndGet(isUnderReplicated(replicasAfter, target) ? 1 : -1);
+        }
+    }
+
+    private void apply(FileMetadata file, int sign) {
+        FileMetadata.Replicas replicas = file.replicas();
+        totalFiles.addAndGet(sign);
+        totalBytes.addAndGet(sign * file.getSize());
+        totalReplicas.addAndGet(sign * replicas.length());
+        uniqueChunks.addAndGet(sign * replicas.uniqueChunkCount());
+        underReplicatedChunks.addAndGet(sign * replicas.underReplicatedChunkCount(
+                file.targetReplicasPerChunk(replicationFactor)));
+    }
+
+    private boolean isUnderReplicated(int replicas, int target) {
+        // Un chunk sin réplicas ya no existe en los metadatos: no cuenta
+        return replicas > 0 && replicas < target;
+    }
+
+    public long getTotalFiles() {
+        return totalFiles.get();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public long getUniqueChunks() {
+        return uniqueChunks.get();
+    }
+
+    public long getTotalReplicas() {
+        return totalReplicas.get();
+    }
+
+    public long getUnderReplicatedChunks() {
+        return underReplicatedChunks.get();
+    }
+}
@@ -2,6 +2,8 @@ package com.tpdteam3.master.model;
 
 /**
  * Modelo para almacenar estado de replicación de un archivo.
+ * El objetivo es el factor de replicación (más las réplicas extra de los archivos
+ * calientes), o 1 para los shards de archivos EC.
  */
 public class ReplicationStatus {
     private final int totalChunks;
@@ -9,10 +11,18 @@ public class ReplicationStatus {
     private final int currentMaxReplicas;
     private final int totalReplicas;
     private final int chunksNeedingReplication;
+    private final int targetReplicas;
     private static final int TARGET_REPLICATION_FACTOR = 3;
 
     public ReplicationStatus(int totalChunks, int currentMinReplicas, int currentMaxReplicas,
                           int totalReplicas, int chunksNeedingReplication) {
+        this(totalChunks, currentMinReplicas, currentMaxReplicas, totalReplicas, chunksNeedingReplication,
+                TARGET_REPLICATION_FACTOR);
+    }
+
+    public ReplicationStatus(int totalChunks, int currentMinReplicas, int currentMaxReplicas,
+                          int totalReplicas, int chunksNeedingReplication, int targetReplicas) {
+        this.targetReplicas = targetReplicas;
         this.totalChunks = totalChunks;
         this.currentMinReplicas = currentMinReplicas;
         this.currentMaxReplicas = currentMaxReplicas;
@@ -25,7 +35,13 @@ public class ReplicationStatus {
     }
 
     public boolean hasExcessReplicas() {
-        return currentMaxReplicas > TARGET_REPLICATION_FACTOR + 1;
+        // Los shards EC no llevan margen: una copia de más ya es exceso
+        int slack = targetReplicas > 1 ? 1 : 0;
+        return currentMaxReplicas > targetReplicas + slack;
+    }
+
+    public int getTargetReplicas() {
+        return targetReplicas;
     }
 
     public int getTotalChunks() {
@@ -0,0 +1,86 @@
+package com.tpdteam3.master.model;
+
+/**
+ * Foto inmutable de la carga de un chunkserver usada por las políticas de colocación.
+ * <p>
+ * Combina lo que el chunkserver reporta en sus heartbeats (espacio libre, datos
+ * almacenados, cantidad de chunks, si puede escribir) con lo que el Master sabe
+ * por sí mismo: escrituras asignadas recientemente, reparaciones en curso y la sospecha
+ * del detector de fallas (0 = al día con sus heartbeats, 1 = a punto de declararse caído).
+ */
+public final class ServerLoad {
+
+    public static final long UNKNOWN = -1;
+
+    private final String url;
+    private final long freeSpaceMB;
+    private final double storageUsedMB;
+    private final long totalChunks;
+    private final boolean canWrite;
+    private final double recentWrites;
+    private final int inFlightRepairs;
+    private final double suspicion;
+
+    public ServerLoad(String url, long freeSpaceMB, double storageUsedMB, long totalChunks,
+                      boolean canWrite, double recentWrites, int inFlightRepairs, double suspicion) {
+        this.url = url;
+        this.freeSpaceMB = freeSpaceMB;
+        this.storageUsedMB = storageUsedMB;
+        this.totalChunks = totalChunks;
+        this.canWrite = canWrite;
+        this.recentWrites = recentWrites;
+        this.inFlightRepairs = inFlightRepairs;
+        this.suspicion = suspicion;
+    }
+
+    /**
+     * Carga desconocida (servidor sin heartbeats con métricas todavía)
+     */
+    public static ServerLoad unknown(String url) {
+        return new ServerLoad(url, UNKNOWN, 0, 0, true, 0, 0, 0);
+    }
+
+    /**
+     * Misma carga con una escritura más asignada (para simulaciones de colocación)
+     */
+    public ServerLoad withExtraWrite() {
+        return new ServerLoad(url, freeSpaceMB, storageUsedMB, totalChunks, canWrite,
+                recentWrites + 1, inFlightRepairs, suspicion);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getFreeSpaceMB() {
+        return freeSpaceMB;
+    }
+
+    public boolean isFreeSpaceKnown() {
+        return freeSpaceMB != UNKNOWN;
+    }
+
+    public double getStorageUsedMB() {
+        return storageUsedMB;
+    }
+
+    public long getTotalChunks() {
+        return totalChunks;
+    }
+
+    public boolean isCanWrite() {
+        return canWrite;
+    }
+
+    public double getRecentWrites() {
+        return recentWrites;
+    }
+
+    public int getInFlightRepairs() {
+        return inFlightRepairs;
+    }
+
+    public double getSuspicion() {
+        return suspicion;
+    }
+}
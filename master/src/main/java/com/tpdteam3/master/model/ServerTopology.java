@@ -0,0 +1,124 @@
+package com.tpdteam3.master.model;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Ubicación física de un chunkserver: rack, host y disco (punto de montaje).
+ * <p>
+ * Cada nivel es un dominio de falla: dos réplicas en el mismo disco se pierden
+ * juntas, dos en el mismo host caen juntas si se apaga la máquina, etc.
+ * Las claves de dominio son acumulativas (el disco incluye host y rack) para que
+ * el mismo nombre de disco en dos hosts distintos no se confunda.
+ */
+public final class ServerTopology {
+
+    public static final String DEFAULT_RACK = "default-rack";
+
+    /**
+     * Niveles de dominio de falla, del más amplio al más específico
+     */
+    public enum Level {
+        RACK, HOST, DISK
+    }
+
+    private final String rack;
+    private final String host;
+    private final String disk;
+
+    public ServerTopology(String rack, String host, String disk) {
+        this.rack = Objects.requireNonNull(rack);
+        this.host = Objects.requireNonNull(host);
+        this.disk = Objects.requireNonNull(disk);
+    }
+
+    /**
+     * Topología supuesta para un servidor que todavía no reportó etiquetas:
+     * host tomado de la URL y disco propio (no se puede saber si lo comparte)
+     */
+    public static ServerTopology fromUrl(String url) {
+        String host = url;
+        try {
+            String parsed = URI.create(url).getHost();
+            if (parsed != null) {
+                host = parsed;
+            }
+        } catch (IllegalArgumentException e) {
+            // URL rara: usar la URL completa como host
+        }
+        return new ServerTopology(DEFAULT_RACK, host, url);
+    }
+
+    /**
+     * Combina las etiquetas reportadas con los valores por defecto de la URL
+     */
+    public static ServerTopology fromLabels(String url, Object rack, Object host, Object disk) {
+        ServerTopology defaults = fromUrl(url);
+        return new ServerTopology(
+                label(rack, defaults.rack),
+                label(host, defaults.host),
+                label(disk, defaults.disk)
+        );
+    }
+
+    private static String label(Object value, String fallback) {
+        if (value instanceof String && !((String) value).trim().isEmpty()) {
+            return ((String) value).trim();
+        }
+        return fallback;
+    }
+
+    /**
+     * Clave del dominio de falla al nivel indicado
+     */
+    public String domain(Level level) {
+        switch (level) {
+            case RACK:
+                return rack;
+            case HOST:
+                return rack + "/" + host;
+            default:
+                return rack + "/" + host + "/" + disk;
+        }
+    }
+
+    public String getRack() {
+        return rack;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getDisk() {
+        return disk;
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("rack", rack);
+        map.put("host", host);
+        map.put("disk", disk);
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ServerTopology)) return false;
+        ServerTopology that = (ServerTopology) o;
+        return rack.equals(that.rack) && host.equals(that.host) && disk.equals(that.disk);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(rack, host, disk);
+    }
+
+    @Override
+    public String toString() {
+        return domain(Level.DISK);
+    }
+}
@@ -0,0 +1,289 @@
+package com.tpdteam3.master.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de comandos por chunkserver, entregados en las respuestas de heartbeat.
+ * <p>
+ * El Master no llama al chunkserver: encola el comando y lo manda en la respuesta del
+ * próximo heartbeat de ese servidor (hasta {@code master.commands.max-per-heartbeat}).
+ * El chunkserver lo ejecuta en segundo plano y confirma el resultado en un heartbeat
+ * posterior ({@code commandResults}), lo que completa el futuro devuelto por
+ * {@link #submit}.
+ * <p>
+ * Un comando entregado sin confirmación se vuelve a mandar pasado
+ * {@code master.commands.redeliver-after-seconds}, hasta {@code master.commands.max-attempts}
+ * entregas: todos los comandos son idempotentes y el chunkserver descarta los ids
+ * repetidos. Vencido el plazo total (se revisa también sin heartbeats), o si el servidor
+ * cae, el futuro falla.
+ * <p>
+ * Acciones: {@code replicate_to} (imagenId, chunkIndex, target), {@code delete}
+ * (imagenId, chunkIndex), {@code verify} (chunks) y {@code report_full_inventory}.
+ */
+@Service
+public class CommandQueueService {
+
+    public static final String REPLICATE_TO = "replicate_to";
+    public static final String DELETE = "delete";
+    public static final String VERIFY = "verify";
+    public static final String REPORT_FULL_INVENTORY = "report_full_inventory";
+
+    @Value("${master.commands.max-per-heartbeat:32}")
+    private int maxPerHeartbeat;
+
+    @Value("${master.commands.redeliver-after-seconds:30}")
+    private long redeliverAfterSeconds;
+
+    @Value("${master.commands.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${master.commands.timeout-seconds:120}")
+    private long timeoutSeconds;
+
+    // Ids únicos también entre reinicios del Master (el chunkserver recuerda los ya ejecutados)
+    private final AtomicLong nextCommandId = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final Map<String, ServerQueue> queues = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // Estadísticas
+    private final AtomicLong totalSubmitted = new AtomicLong();
+    private final AtomicLong totalDelivered = new AtomicLong();
+    private final AtomicLong totalRedelivered = new AtomicLong();
+    private final AtomicLong totalSucceeded = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+    private final AtomicLong totalExpired = new AtomicLong();
+    private final Map<String, AtomicLong> submittedPerAction = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        // Vencer comandos de servidores que dejaron de mandar heartbeats
+        scheduler.scheduleAtFixedRate(this::expireStale, 10, 10, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Encola un comando para un chunkserver
+     *
+     * @param url    Servidor que lo ejecuta
+     * @param action Acción
+     * @param params Parámetros de la acción
+     * @return Futuro con el resultado que confirme el chunkserver; falla si el comando
+     * termina con error, vence o el servidor cae
+     */
+    public CompletableFuture<Map<String, Object>> submit(String url, String action, Map<String, Object> params) {
+        Command command = new Command(nextCommandId.incrementAndGet(), action, params, System.currentTimeMillis());
+        queues.computeIfAbsent(url, k -> new ServerQueue()).add(command);
+        totalSubmitted.incrementAndGet();
+        submittedPerAction.computeIfAbsent(action, k -> new AtomicLong()).incrementAndGet();
+        return command.future;
+    }
+
+    /**
+     * Comandos a mandar en la respuesta del heartbeat: pendientes y entregados hace más de
+     * redeliver-after-seconds sin confirmación. Los vencidos o sin entregas restantes fallan.
+     */
+    public List<Map<String, Object>> nextCommands(String url) {
+        ServerQueue queue = queues.get(url);
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> toSend = new ArrayList<>();
+        List<Command> expired = new ArrayList<>();
+        synchronized (queue) {
+            Iterator<Command> iterator = queue.commands.values().iterator();
+            while (iterator.hasNext() && toSend.size() < maxPerHeartbeat) {
+                Command command = iterator.next();
+                if (isStale(command, now)) {
+                    iterator.remove();
+                    expired.add(command);
+                    continue;
+                }
+                if (command.deliveredAt > 0 && now - command.deliveredAt < redeliverAfterSeconds * 1000) {
+                    continue;  // Entregado, esperando confirmación
+                }
+                if (command.attempts >= maxAttempts) {
+                    iterator.remove();
+                    expired.add(command);
+                    continue;
+                }
+                if (command.attempts > 0) {
+                    totalRedelivered.incrementAndGet();
+                }
+                command.attempts++;
+                command.deliveredAt = now;
+                totalDelivered.incrementAndGet();
+                toSend.add(command.toMessage());
+            }
+        }
+
+        failExpired(url, expired);
+        return toSend;
+    }
+
+    private boolean isStale(Command command, long now) {
+        return now - command.createdAt > timeoutSeconds * 1000;
+    }
+
+    private void expireStale() {
+        long now = System.currentTimeMillis();
+        queues.forEach((url, queue) -> {
+            List<Command> expired = new ArrayList<>();
+            synchronized (queue) {
+                queue.commands.values().removeIf(command -> isStale(command, now) && expired.add(command));
+            }
+            failExpired(url, expired);
+        });
+    }
+
+    private void failExpired(String url, List<Command> expired) {
+        for (Command command : expired) {
+            totalExpired.incrementAndGet();
+            command.future.completeExceptionally(new RuntimeException(
+                    "Comando " + command.action + " #" + command.id + " sin confirmar en " + url +
+                    " (" + command.attempts + " entregas)"));
+        }
+    }
+
+    /**
+     * Aplica los resultados que el chunkserver confirma en su heartbeat
+     */
+    @SuppressWarnings("unchecked")
+    public void acknowledge(String url, Object results) {
+        ServerQueue queue = queues.get(url);
+        if (queue == null || !(results instanceof List)) {
+            return;
+        }
+
+        for (Object item : (List<Object>) results) {
+            if (!(item instanceof Map)) {
+                continue;
+            }
+            Map<String, Object> result = (Map<String, Object>) item;
+            Object id = result.get("commandId");
+            if (!(id instanceof Number)) {
+                continue;
+            }
+
+            Command command;
+            synchronized (queue) {
+                command = queue.commands.remove(((Number) id).longValue());
+            }
+            if (command == null) {
+                continue;  // Confirmación repetida o de un comando ya vencido
+            }
+
+            if ("success".equals(result.get("status"))) {
+                totalSucceeded.incrementAndGet();
+                command.future.complete(result);
+            } else {
+                totalFailed.incrementAndGet();
+                command.future.completeExceptionally(new RuntimeException(
+                        "Comando " + command.action + " falló en " + url + ": " + result.get("message")));
+            }
+        }
+    }
+
+    /**
+     * El servidor cayó: sus comandos pendientes fallan para que se reintenten en otro lado
+     */
+    public void onChunkserverDown(String url) {
+        ServerQueue queue = queues.remove(url);
+        if (queue == null) {
+            return;
+        }
+        List<Command> pending;
+        synchronized (queue) {
+            pending = new ArrayList<>(queue.commands.values());
+            queue.commands.clear();
+        }
+        for (Command command : pending) {
+            totalExpired.incrementAndGet();
+            command.future.completeExceptionally(new RuntimeException(
+                    "Servidor caído antes de confirmar " + command.action + " #" + command.id + ": " + url));
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> perServer = new TreeMap<>();
+        queues.forEach((url, queue) -> {
+            synchronized (queue) {
+                long inFlight = queue.commands.values().stream().filter(c -> c.deliveredAt > 0).count();
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("queued", queue.commands.size() - inFlight);
+                entry.put("inFlight", inFlight);
+                perServer.put(url, entry);
+            }
+        });
+
+        Map<String, Long> perAction = new TreeMap<>();
+        submittedPerAction.forEach((action, count) -> perAction.put(action, count.get()));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxPerHeartbeat", maxPerHeartbeat);
+        stats.put("redeliverAfterSeconds", redeliverAfterSeconds);
+        stats.put("maxAttempts", maxAttempts);
+        stats.put("timeoutSeconds", timeoutSeconds);
+        stats.put("totalSubmitted", totalSubmitted.get());
+        stats.put("totalDelivered", totalDelivered.get());
+        stats.put("totalRedelivered", totalRedelivered.get());
+        stats.put("totalSucceeded", totalSucceeded.get());
+        stats.put("totalFailed", totalFailed.get());
+        stats.put("totalExpired", totalExpired.get());
+        stats.put("submittedPerAction", perAction);
+        stats.put("servers", perServer);
+        return stats;
+    }
+
+    /**
+     * Comandos de un servidor en orden de llegada
+     */
+    private static class ServerQueue {
+        private final LinkedHashMap<Long, Command> commands = new LinkedHashMap<>();
+
+        synchronized void add(Command command) {
+            commands.put(command.id, command);
+        }
+    }
+
+    private static class Command {
+        private final long id;
+        private final String action;
+        private final Map<String, Object> params;
+        private final long createdAt;
+        private final CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        private long deliveredAt;
+        private int attempts;
+
+        Command(long id, String action, Map<String, Object> params, long createdAt) {
+            this.id = id;
+            this.action = action;
+            this.params = params != null ? params : Collections.emptyMap();
+            this.createdAt = createdAt;
+        }
+
+        Map<String, Object> toMessage() {
+            Map<String, Object> message = new HashMap<>(params);
+            message.put("commandId", id);
+            message.put("action", action);
+            return message;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.common.ChunkHeaders;
+import com.tpdteam3.common.ReedSolomon;
+import com.tpdteam3.master.model.FileMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reconstrucción de shards de archivos erasure-coded (RS).
+ * <p>
+ * Un shard perdido no se copia desde otra réplica (no la hay): se leen dataShards
+ * shards sobrevivientes de la misma franja y se recalcula con Reed-Solomon.
+ * Lo usan el ReplicationMonitor (servidores caídos) y el IntegrityMonitor
+ * (shards borrados del disco).
+ */
+@Service
+public class ErasureCodingService {
+
+    @Autowired
+    private PlacementService placementService;
+
+    private final RestTemplate restTemplate;
+
+    // Un codificador por esquema (las instancias son inmutables)
+    private final Map<String, ReedSolomon> codecs = new ConcurrentHashMap<>();
+
+    // Estadísticas
+    private final AtomicLong totalShardsReconstructed = new AtomicLong();
+    private final AtomicLong totalReconstructionFailures = new AtomicLong();
+    private final AtomicLong totalBytesReadForReconstruction = new AtomicLong();
+
+    public ErasureCodingService() {
+        org.springframework.http.client.SimpleClientHttpRequestFactory factory =
+                new org.springframework.http.client.SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(5000);  // 5 segundos
+        factory.setReadTimeout(15000);    // 15 segundos
+        this.restTemplate = new RestTemplate(factory);
+    }
+
+    public ReedSolomon codecFor(int dataShards, int parityShards) {
+        return codecs.computeIfAbsent(dataShards + "+" + parityShards,
+                k -> new ReedSolomon(dataShards, parityShards));
+    }
+
+    /**
+     * Reconstruye shards de una franja a partir de los sobrevivientes.
+     *
+     * @param file           Metadatos del archivo (con las réplicas registradas)
+     * @param stripe         Franja a reconstruir
+     * @param wanted         Índices de chunk (absolutos) de los shards a reconstruir
+     * @param healthyServers Servidores vivos de los que se puede leer
+     * @return Contenido de cada shard pedido, por índice de chunk
+     * @throws Exception si no se pudieron leer dataShards shards de la franja
+     */
+    public Map<Integer, byte[]> reconstruct(FileMetadata file, int stripe, Set<Integer> wanted,
+                                            Collection<String> healthyServers) throws Exception {
+        int dataShards = file.getDataShards();
+        int totalShards = file.shardsPerStripe();
+        int shardSize = file.shardSize(stripe);
+        int base = stripe * totalShards;
+        Set<String> healthy = new HashSet<>(healthyServers);
+
+        // Servidores vivos que tienen cada shard de la franja
+        Map<Integer, List<String>> holders = new HashMap<>();
+        FileMetadata.Replicas replicas = file.replicas();
+        for (int i = 0; i < replicas.length(); i++) {
+            int chunkIndex = replicas.chunkIndex(i);
+            String url = replicas.serverUrl(i);
+            if (chunkIndex >= base && chunkIndex < base + totalShards && healthy.contains(url)) {
+                holders.computeIfAbsent(chunkIndex, k -> new ArrayList<>()).add(url);
+            }
+        }
+
+        // Leer shards hasta juntar dataShards (los de datos primero: si están todos, no hay que invertir nada extra)
+        byte[][] shards = new byte[totalShards][];
+        boolean[] present = new boolean[totalShards];
+        int collected = 0;
+        for (int j = 0; j < totalShards && collected < dataShards; j++) {
+            int chunkIndex = base + j;
+            if (wanted.contains(chunkIndex)) {
+                continue;
+            }
+            for (String server : holders.getOrDefault(chunkIndex, Collections.emptyList())) {
+                byte[] data = readShard(file.getImagenId(), chunkIndex, server);
+                if (data != null && data.length == shardSize) {
+                    shards[j] = data;
+                    present[j] = true;
+                    collected++;
+                    totalBytesReadForReconstruction.addAndGet(data.length);
+                    break;
+                }
+            }
+        }
+
+        if (collected < dataShards) {
+            totalReconstructionFailures.addAndGet(wanted.size());
+            throw new RuntimeException("Franja " + stripe + " de " + file.getImagenId() +
+                                       ": solo " + collected + " de " + dataShards + " shards legibles");
+        }
+
+        codecFor(dataShards, file.getParityShards()).decodeMissing(shards, present, shardSize);
+
+        Map<Integer, byte[]> result = new HashMap<>();
+        for (int chunkIndex : wanted) {
+            result.put(chunkIndex, shards[chunkIndex - base]);
+        }
+        totalShardsReconstructed.addAndGet(wanted.size());
+        return result;
+    }
+
+    /**
+     * Lee un shard; devuelve null si el servidor no responde o no lo tiene
+     */
+    private byte[] readShard(String imagenId, int chunkIndex, String serverUrl) {
+        placementService.repairStarted(serverUrl);
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(ChunkHeaders.IMAGEN_ID, imagenId);
+            headers.set(ChunkHeaders.CHUNK_INDEX, String.valueOf(chunkIndex));
+            ResponseEntity<byte[]> response = restTemplate.exchange(serverUrl + "/api/chunk/raw", HttpMethod.GET,
+                    new HttpEntity<>(headers), byte[].class);
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                return null;
+            }
+            return response.getBody();
+        } catch (Exception e) {
+            System.err.println("      ⚠️  No se pudo leer shard " + chunkIndex + " desde " + serverUrl +
+                               ": " + e.getMessage());
+            return null;
+        } finally {
+            placementService.repairFinished(serverUrl);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("totalShardsReconstructed", totalShardsReconstructed.get());
+        stats.put("totalReconstructionFailures", totalReconstructionFailures.get());
+        stats.put("totalBytesReadForReconstruction", totalBytesReadForReconstruction.get());
+        stats.put("codecsInUse", new ArrayList<>(codecs.keySet()));
+        return stats;
+    }
+}
@@ -1,8 +1,13 @@
 package com.tpdteam3.master.service;
 
+import com.tpdteam3.common.ChunkInventory;
+import com.tpdteam3.common.InventoryDigest;
+import com.tpdteam3.master.model.ChunkserverIdTable;
+import com.tpdteam3.master.model.MembershipSnapshot;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
@@ -11,6 +16,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ✅ DISEÑO CORRECTO: El Master RECIBE heartbeats de los Chunkservers
@@ -18,9 +24,18 @@ import java.util.concurrent.TimeUnit;
  * Este servicio:
  * 1. Recibe heartbeats activos de cada chunkserver
  * 2. Actualiza timestamp de último heartbeat
- * 3. Marca como DOWN si no recibe heartbeat en tiempo esperado
- * 4. Procesa inventario de chunks en cada heartbeat
+ * 3. Marca como DOWN si no recibe heartbeat en tiempo esperado: un detector phi accrual
+ *    por servidor estima, a partir de sus intervalos entre heartbeats, cuándo la sospecha
+ *    llega al umbral; cada heartbeat reprograma ese plazo en una rueda de tiempo, que vence
+ *    a lo sumo un tick después. La sospecha graduada (phi / umbral) la usan la colocación
+ *    y el orden de lectura de réplicas
+ * 4. Mantiene el inventario de chunks de cada servidor: reporte completo al arrancar
+ *    y deltas (agregados/eliminados) con número de secuencia en el resto. Cada heartbeat
+ *    trae un digest por grupos del inventario; si no coincide con el que el Master
+ *    mantiene, pide solo los grupos distintos
  * 5. Detecta cambios y dispara acciones correctivas
+ * 6. Entrega en la respuesta los comandos encolados para el servidor (CommandQueueService)
+ *    y aplica las confirmaciones que el servidor manda en heartbeats posteriores
  */
 @Service
 public class HeartbeatHandler {
@@ -29,12 +44,65 @@ public class HeartbeatHandler {
     @Lazy
     private IntegrityMonitor integrityMonitor;
 
+    @Autowired
+    @Lazy
+    private ReplicationMonitorService replicationMonitor;
+
+    @Autowired
+    private ServerLoadTracker loadTracker;
+
+    @Autowired
+    private ChunkserverIdTable chunkserverIds;
+
+    @Autowired
+    private TopologyService topologyService;
+
+    @Autowired
+    private CommandQueueService commandQueue;
+
     // Almacena información de cada chunkserver
     private final Map<String, ChunkserverHeartbeatInfo> chunkserverHeartbeats = new ConcurrentHashMap<>();
 
+    // Foto inmutable de servidores vivos; se republica solo cuando cambia la vivacidad
+    private volatile MembershipSnapshot membership = MembershipSnapshot.EMPTY;
+    private long membershipEpoch = 0;
+
     // Configuración
-    private static final int HEARTBEAT_TIMEOUT_SECONDS = 30; // 3x el intervalo normal
-    private static final int CLEANUP_INTERVAL_SECONDS = 10;  // Verificar timeouts cada 10 segundos
+    @Value("${master.heartbeat.timeout:30}")
+    private int heartbeatTimeoutSeconds; // Plazo fijo mientras el detector no tiene muestras suficientes
+
+    @Value("${master.heartbeat.phi.threshold:8.0}")
+    private double phiThreshold;
+
+    @Value("${master.heartbeat.phi.window:100}")
+    private int phiWindow;
+
+    @Value("${master.heartbeat.phi.min-samples:3}")
+    private int phiMinSamples;
+
+    @Value("${master.heartbeat.phi.min-std-dev-ms:500}")
+    private long phiMinStdDevMs;
+
+    @Value("${master.heartbeat.phi.acceptable-pause-ms:3000}")
+    private long phiAcceptablePauseMs;
+
+    @Value("${master.heartbeat.phi.max-timeout-seconds:60}")
+    private int phiMaxTimeoutSeconds;
+
+    @Value("${master.heartbeat.wheel-tick-ms:250}")
+    private long wheelTickMs;
+
+    @Value("${master.heartbeat.wheel-slots:512}")
+    private int wheelSlots;
+
+    private HeartbeatTimingWheel timeoutWheel;
+
+    // Latencia de detección: desde el último heartbeat y retraso sobre el plazo exacto
+    private final AtomicLong timeoutsDetected = new AtomicLong();
+    private final AtomicLong totalDetectionLatencyMs = new AtomicLong();
+    private final AtomicLong maxDetectionLatencyMs = new AtomicLong();
+    private final AtomicLong totalExpiryDelayMs = new AtomicLong();
+    private final AtomicLong maxExpiryDelayMs = new AtomicLong();
 
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
@@ -44,15 +112,18 @@ public class HeartbeatHandler {
         System.out.println("║      HEARTBEAT HANDLER - MODO RECEPTOR                 ║");
         System.out.println("╚════════════════════════════════════════════════════════╝");
         System.out.println("✅ Esperando heartbeats de chunkservers...");
-        System.out.println("⏱️  Timeout de heartbeat: " + HEARTBEAT_TIMEOUT_SECONDS + " segundos");
+        System.out.println("⏱️  Timeout de heartbeat: " + heartbeatTimeoutSeconds + " segundos" +
+                           " (rueda de " + wheelSlots + " casilleros de " + wheelTickMs + " ms)");
         System.out.println();
 
-        // Programar verificación periódica de timeouts
+        timeoutWheel = new HeartbeatTimingWheel(wheelTickMs, wheelSlots, System.currentTimeMillis());
+
+        // Avanzar la rueda en cada tick: solo se revisa el casillero que vence
         scheduler.scheduleAtFixedRate(
                 this::checkHeartbeatTimeouts,
-                CLEANUP_INTERVAL_SECONDS,
-                CLEANUP_INTERVAL_SECONDS,
-                TimeUnit.SECONDS
+                wheelTickMs,
+                wheelTickMs,
+                TimeUnit.MILLISECONDS
         );
     }
 
@@ -87,43 +158,58 @@ public class HeartbeatHandler {
         }
 
         // Obtener o crear info del chunkserver
+        boolean[] isNew = {false};
         ChunkserverHeartbeatInfo info = chunkserverHeartbeats.computeIfAbsent(
                 url,
-                k -> new ChunkserverHeartbeatInfo(url, chunkserverId)
+                k -> {
+                    isNew[0] = true;
+                    return new ChunkserverHeartbeatInfo(url, chunkserverId,
+                            new PhiAccrualDetector(phiWindow, phiMinStdDevMs, phiAcceptablePauseMs));
+                }
         );
 
-        boolean wasDown = !info.isAlive();
-
-        // Actualizar información del heartbeat
-        info.updateHeartbeat(timestamp);
+        // Actualizar información del heartbeat y reprogramar su plazo, con el lock del
+        // servidor: handleHeartbeatTimeout revisa el plazo con el mismo lock
+        boolean wasDown;
+        synchronized (info) {
+            wasDown = !info.isAlive();
+            info.updateHeartbeat(timestamp);
+            timeoutWheel.schedule(url, info.getLastReceivedTime() + timeoutMillisFor(info));
+        }
         info.updateMetrics(heartbeatData);
+        commandQueue.acknowledge(url, heartbeatData.get("commandResults"));
+        loadTracker.reportMetrics(url, heartbeatData);
+        topologyService.update(url, heartbeatData);
 
-        // Procesar inventario de chunks
-        @SuppressWarnings("unchecked")
-        Map<String, List<Integer>> currentInventory =
-                (Map<String, List<Integer>>) heartbeatData.get("inventory");
-
-        if (currentInventory != null) {
-            Map<String, List<Integer>> previousInventory = info.getLastInventory();
-
-            // Detectar cambios en el inventario
-            if (previousInventory != null && !inventoriesMatch(previousInventory, currentInventory)) {
-                handleInventoryChange(url, previousInventory, currentInventory);
-            }
+        if (isNew[0] || wasDown) {
+            publishMembership();
+        }
 
-            info.updateInventory(currentInventory);
+        // Procesar inventario de chunks (completo o delta)
+        ChunkInventory removedChunks = processInventory(url, info, heartbeatData);
+        if (!removedChunks.isEmpty()) {
+            handleInventoryChange(url, removedChunks);
         }
 
         // Si el servidor estaba caído y ahora volvió
         if (wasDown) {
-            handleChunkserverRecovery(url, chunkserverId, currentInventory);
+            handleChunkserverRecovery(url, chunkserverId, info.getLastInventory());
         }
 
         // Respuesta al chunkserver (puede incluir comandos)
         Map<String, Object> response = createSuccessResponse("Heartbeat received");
+        if (info.isResyncRequested()) {
+            response.put("fullInventoryRequested", true);
+        } else {
+            List<Integer> differingBuckets = compareDigest(url, info, heartbeatData);
+            if (!differingBuckets.isEmpty()) {
+                response.put("inventoryBucketsRequested", differingBuckets);
+            }
+        }
 
-        // Opcionalmente, el Master puede enviar comandos al chunkserver
-        List<Map<String, Object>> commands = generateCommandsForChunkserver(url, info);
+        // Comandos encolados para el chunkserver (se confirman en heartbeats posteriores)
+        scheduleRoutineCommands(url, info);
+        List<Map<String, Object>> commands = commandQueue.nextCommands(url);
         if (!commands.isEmpty()) {
             response.put("commands", commands);
         }
@@ -132,45 +218,219 @@ public class HeartbeatHandler {
     }
 
     /**
-     * Verifica periódicamente si algún chunkserver dejó de enviar heartbeats
+     * Aplica el inventario del heartbeat: un reporte completo reemplaza al anterior; un
+     * delta se aplica sobre el inventario conocido, y los grupos reportados reemplazan a
+     * los del Master. Un hueco en la secuencia se tolera si el heartbeat trae digest (la
+     * comparación detecta lo que se haya perdido); sin digest, o si el Master no tiene
+     * inventario (recién reiniciado), se pide uno completo.
+     *
+     * @return Chunks que el servidor dejó de tener
      */
-    private void checkHeartbeatTimeouts() {
-        long now = System.currentTimeMillis();
-        long timeoutMs = HEARTBEAT_TIMEOUT_SECONDS * 1000L;
+    @SuppressWarnings("unchecked")
+    private ChunkInventory processInventory(String url, ChunkserverHeartbeatInfo info,
+                                            Map<String, Object> heartbeatData) {
+        ChunkInventory fullInventory = ChunkInventory.fromReport(heartbeatData.get("inventory"));
+        Map<String, Object> delta = (Map<String, Object>) heartbeatData.get("inventoryDelta");
+        Number seqNumber = (Number) heartbeatData.get("inventorySeq");
+
+        if (fullInventory != null) {
+            return info.replaceInventory(fullInventory, seqNumber != null ? seqNumber.longValue() : -1);
+        }
+        if (seqNumber == null) {
+            return new ChunkInventory();
+        }
+
+        long seq = seqNumber.longValue();
+        long expected = delta != null ? info.getInventorySeq() + 1 : info.getInventorySeq();
+        boolean hasDigest = heartbeatData.get("inventoryDigest") != null;
+        if (!info.isInventoryKnown() || (seq != expected && !hasDigest)) {
+            if (!info.isResyncRequested()) {
+                System.out.println("📋 Hueco en inventario de " + url + " (secuencia " + seq +
+                                   ", esperada " + expected + "): se pide inventario completo");
+            }
+            info.requestResync();
+            return new ChunkInventory();
+        }
+
+        ChunkInventory removedChunks = new ChunkInventory();
+        if (delta != null) {
+            ChunkInventory added = ChunkInventory.fromReport(delta.get("added"));
+            ChunkInventory removed = ChunkInventory.fromReport(delta.get("removed"));
+            removedChunks = info.applyDelta(
+                    added != null ? added : new ChunkInventory(),
+                    removed != null ? removed : new ChunkInventory(),
+                    seq);
+        } else {
+            info.setInventorySeq(seq);
+        }
+
+        Map<String, Object> buckets = (Map<String, Object>) heartbeatData.get("inventoryBuckets");
+        if (buckets != null) {
+            removedChunks.addAll(info.replaceBuckets(buckets));
+        }
+        return removedChunks;
+    }
 
-        List<String> timedOutServers = new ArrayList<>();
+    /**
+     * Compara el digest del heartbeat con el del inventario que mantiene el Master
+     *
+     * @return Grupos que difieren (vacío si coinciden o el heartbeat no trae digest)
+     */
+    @SuppressWarnings("unchecked")
+    private List<Integer> compareDigest(String url, ChunkserverHeartbeatInfo info,
+                                        Map<String, Object> heartbeatData) {
+        List<Number> digest = (List<Number>) heartbeatData.get("inventoryDigest");
+        if (digest == null || !info.isInventoryKnown()) {
+            return Collections.emptyList();
+        }
+        List<Integer> differing = info.differingBuckets(digest);
+        if (!differing.isEmpty()) {
+            System.out.println("📋 Digest de inventario distinto en " + url + ": se piden los grupos " + differing);
+        }
+        return differing;
+    }
 
-        for (Map.Entry<String, ChunkserverHeartbeatInfo> entry : chunkserverHeartbeats.entrySet()) {
-            String url = entry.getKey();
-            ChunkserverHeartbeatInfo info = entry.getValue();
+    /**
+     * Avanza la rueda de plazos y marca como caídos los servidores vencidos
+     */
+    private void checkHeartbeatTimeouts() {
+        try {
+            timeoutWheel.advance(System.currentTimeMillis(),
+                    expired -> handleHeartbeatTimeout(expired.getKey(), expired.getValue()));
+        } catch (Exception e) {
+            System.err.println("❌ Error verificando timeouts de heartbeat: " + e.getMessage());
+        }
+    }
 
-            long timeSinceLastHeartbeat = now - info.getLastHeartbeatTime();
+    /**
+     * Tiempo sin heartbeat tras el cual phi alcanza el umbral, acotado por el máximo.
+     * Con pocas muestras todavía no hay distribución: se usa el timeout fijo.
+     */
+    private long timeoutMillisFor(ChunkserverHeartbeatInfo info) {
+        PhiAccrualDetector detector = info.getDetector();
+        if (detector.getSampleCount() < phiMinSamples) {
+            return heartbeatTimeoutSeconds * 1000L;
+        }
+        return Math.min(phiMaxTimeoutSeconds * 1000L, detector.millisUntilPhi(phiThreshold));
+    }
 
-            if (timeSinceLastHeartbeat > timeoutMs && info.isAlive()) {
-                timedOutServers.add(url);
-                info.markAsDead();
+    /**
+     * Sospecha graduada de un servidor: phi / umbral, entre 0 (al día) y 1 (a punto de
+     * declararse caído, o caído). Un servidor desconocido no es sospechoso.
+     */
+    public double getSuspicion(String url) {
+        ChunkserverHeartbeatInfo info = chunkserverHeartbeats.get(url);
+        if (info == null) {
+            return 0.0;
+        }
+        if (!info.isAlive()) {
+            return 1.0;
+        }
+        return Math.min(1.0, info.getDetector().phi(System.currentTimeMillis()) / phiThreshold);
+    }
 
-                System.out.println("╔════════════════════════════════════════════════════════╗");
-                System.out.println("║       CHUNKSERVER TIMEOUT                              ║");
-                System.out.println("╚════════════════════════════════════════════════════════╝");
-                System.out.println("   URL: " + url);
-                System.out.println("   Último heartbeat: " + (timeSinceLastHeartbeat / 1000) + " segundos atrás");
-                System.out.println("   Uptime previo: " + info.getUptimePercentage() + "%");
-                System.out.println();
+    /**
+     * Marca como caído un servidor cuyo plazo venció en la rueda. Un heartbeat pudo llegar
+     * entre que la rueda entregó el plazo y este momento: se vuelve a comprobar con el
+     * lock del servidor, y si ya tiene un plazo nuevo por delante no se hace nada.
+     */
+    private void handleHeartbeatTimeout(String url, long deadline) {
+        ChunkserverHeartbeatInfo info = chunkserverHeartbeats.get(url);
+        if (info == null) {
+            return;
+        }
 
-                // Notificar al IntegrityMonitor
-                if (integrityMonitor != null) {
-                    integrityMonitor.onChunkserverDown(url);
-                }
+        long now;
+        long timeSinceLastHeartbeat;
+        synchronized (info) {
+            now = System.currentTimeMillis();
+            if (!info.isAlive() || info.getLastReceivedTime() + timeoutMillisFor(info) > now) {
+                return;
             }
+            timeSinceLastHeartbeat = now - info.getLastReceivedTime();
+            info.markAsDead();
+        }
+        long expiryDelay = Math.max(0, now - deadline);
+
+        timeoutsDetected.incrementAndGet();
+        totalDetectionLatencyMs.addAndGet(timeSinceLastHeartbeat);
+        maxDetectionLatencyMs.accumulateAndGet(timeSinceLastHeartbeat, Math::max);
+        totalExpiryDelayMs.addAndGet(expiryDelay);
+        maxExpiryDelayMs.accumulateAndGet(expiryDelay, Math::max);
+
+        System.out.println("╔════════════════════════════════════════════════════════╗");
+        System.out.println("║       CHUNKSERVER TIMEOUT                              ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝");
+        System.out.println("   URL: " + url);
+        System.out.println("   Último heartbeat: " + (timeSinceLastHeartbeat / 1000) + " segundos atrás" +
+                           " (detectado " + expiryDelay + " ms después del plazo)");
+        System.out.printf("   Intervalo habitual: %.0f ± %.0f ms (phi umbral %.1f)%n",
+                info.getDetector().getMeanMs(), info.getDetector().getStdDevMs(), phiThreshold);
+        System.out.println("   Uptime previo: " + info.getUptimePercentage() + "%");
+        System.out.println();
+
+        publishMembership();
+        commandQueue.onChunkserverDown(url);
+
+        // Notificar al IntegrityMonitor y al ReplicationMonitor
+        if (integrityMonitor != null) {
+            integrityMonitor.onChunkserverDown(url);
+        }
+        if (replicationMonitor != null) {
+            replicationMonitor.onChunkserverDown(url);
         }
     }
 
+    /**
+     * Latencia de detección de caídas observada y configuración de la rueda
+     */
+    public Map<String, Object> getTimeoutStats() {
+        long detected = timeoutsDetected.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("bootstrapTimeoutSeconds", heartbeatTimeoutSeconds);
+        stats.put("phiThreshold", phiThreshold);
+        stats.put("phiWindow", phiWindow);
+        stats.put("phiMinSamples", phiMinSamples);
+        stats.put("phiMinStdDevMs", phiMinStdDevMs);
+        stats.put("phiAcceptablePauseMs", phiAcceptablePauseMs);
+        stats.put("maxTimeoutSeconds", phiMaxTimeoutSeconds);
+        stats.put("wheelTickMs", wheelTickMs);
+        stats.put("wheelSlots", wheelSlots);
+        stats.put("scheduledServers", timeoutWheel != null ? timeoutWheel.size() : 0);
+        stats.put("worstCaseDetectionMs", phiMaxTimeoutSeconds * 1000L + wheelTickMs);
+
+        Map<String, Object> servers = new TreeMap<>();
+        long now = System.currentTimeMillis();
+        for (ChunkserverHeartbeatInfo info : chunkserverHeartbeats.values()) {
+            servers.put(info.getUrl(), detectorStatus(info, now));
+        }
+        stats.put("servers", servers);
+        stats.put("timeoutsDetected", detected);
+        stats.put("avgDetectionLatencyMs", detected > 0 ? totalDetectionLatencyMs.get() / detected : 0);
+        stats.put("maxDetectionLatencyMs", maxDetectionLatencyMs.get());
+        stats.put("avgExpiryDelayMs", detected > 0 ? totalExpiryDelayMs.get() / detected : 0);
+        stats.put("maxExpiryDelayMs", maxExpiryDelayMs.get());
+        return stats;
+    }
+
+    private Map<String, Object> detectorStatus(ChunkserverHeartbeatInfo info, long now) {
+        PhiAccrualDetector detector = info.getDetector();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("alive", info.isAlive());
+        status.put("phi", Math.round(detector.phi(now) * 100) / 100.0);
+        status.put("suspicion", Math.round(getSuspicion(info.getUrl()) * 1000) / 1000.0);
+        status.put("samples", detector.getSampleCount());
+        status.put("intervalMeanMs", Math.round(detector.getMeanMs()));
+        status.put("intervalStdDevMs", Math.round(detector.getStdDevMs()));
+        status.put("timeoutMs", timeoutMillisFor(info));
+        return status;
+    }
+
     /**
      * Maneja cuando un chunkserver se recupera después de estar caído
      */
     private void handleChunkserverRecovery(String url, String chunkserverId,
-                                           Map<String, List<Integer>> inventory) {
+                                           ChunkInventory inventory) {
         System.out.println("╔════════════════════════════════════════════════════════╗");
         System.out.println("║      CHUNKSERVER RECOVERED                             ║");
         System.out.println("╚════════════════════════════════════════════════════════╝");
@@ -178,8 +438,7 @@ public class HeartbeatHandler {
         System.out.println("   ID: " + chunkserverId);
 
         if (inventory != null) {
-            int totalChunks = inventory.values().stream().mapToInt(List::size).sum();
-            System.out.println("   Chunks reportados: " + totalChunks);
+            System.out.println("   Chunks reportados: " + inventory.chunkCount());
         }
 
         System.out.println();
@@ -188,6 +447,11 @@ public class HeartbeatHandler {
         if (integrityMonitor != null && inventory != null) {
             integrityMonitor.onChunkserverRecovered(url, inventory);
         }
+
+        // Sus réplicas vuelven a contar: pueden quedar archivos sobre-replicados
+        if (replicationMonitor != null) {
+            replicationMonitor.onChunkserverUp(url);
+        }
     }
 
     /**
@@ -204,84 +468,42 @@ public class HeartbeatHandler {
         ChunkserverHeartbeatInfo info = chunkserverHeartbeats.get(url);
         if (info != null) {
             info.markAsDead();
+            publishMembership();
         }
+        timeoutWheel.cancel(url);
+        commandQueue.onChunkserverDown(url);
 
         // No disparar re-replicación inmediata en shutdown graceful
-        // El ReplicationMonitor lo manejará si el servidor no vuelve
+        // El ReplicationMonitor lo manejará en su próxima revisión si el servidor no vuelve
+        if (replicationMonitor != null) {
+            replicationMonitor.onChunkserverDown(url);
+        }
     }
 
     /**
      * Maneja cambios en el inventario de chunks de un servidor
      */
-    private void handleInventoryChange(String url,
-                                       Map<String, List<Integer>> oldInventory,
-                                       Map<String, List<Integer>> newInventory) {
+    private void handleInventoryChange(String url, ChunkInventory removedChunks) {
         System.out.println("🔍 CAMBIO EN INVENTARIO DETECTADO: " + url);
+        System.out.println("Chunks eliminados: " + removedChunks.chunkCount());
 
-        Set<String> removedChunks = findRemovedChunks(oldInventory, newInventory);
-
-        if (!removedChunks.isEmpty()) {
-            System.out.println("Chunks eliminados: " + removedChunks.size());
-
-            // Notificar al IntegrityMonitor
-            if (integrityMonitor != null) {
-                integrityMonitor.onInventoryChanged(url, newInventory, removedChunks);
-            }
+        // Notificar al IntegrityMonitor
+        if (integrityMonitor != null) {
+            integrityMonitor.onInventoryChanged(url, removedChunks);
         }
     }
 
     /**
-     * Genera comandos opcionales que el Master quiere que el chunkserver ejecute
+     * Encola los comandos periódicos que el Master quiere que el chunkserver ejecute
      */
-    private List<Map<String, Object>> generateCommandsForChunkserver(String url,
-                                                                     ChunkserverHeartbeatInfo info) {
-        List<Map<String, Object>> commands = new ArrayList<>();
-
-        // Pedir verificación de integridad si han pasado muchos chunks
-        if (info.getTotalHeartbeats() % 100 == 0) {
-            Map<String, Object> command = new HashMap<>();
-            command.put("action", "verify_chunks");
-            commands.add(command);
+    private void scheduleRoutineCommands(String url, ChunkserverHeartbeatInfo info) {
+        // Pedir verificación de una muestra de chunks cada 100 heartbeats
+        if (info.getTotalHeartbeats() % 100 == 0 && integrityMonitor != null) {
+            integrityMonitor.requestVerification(url);
         }
-
-        return commands;
     }
 
     // Métodos auxiliares
-    private boolean inventoriesMatch(Map<String, List<Integer>> inv1,
-                                     Map<String, List<Integer>> inv2) {
-        if (inv1.size() != inv2.size()) return false;
-
-        for (Map.Entry<String, List<Integer>> entry : inv1.entrySet()) {
-            String imagenId = entry.getKey();
-            List<Integer> chunks1 = entry.getValue();
-            List<Integer> chunks2 = inv2.get(imagenId);
-
-            if (chunks2 == null || !new HashSet<>(chunks1).equals(new HashSet<>(chunks2))) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private Set<String> findRemovedChunks(Map<String, List<Integer>> oldInv,
-                                          Map<String, List<Integer>> newInv) {
-        Set<String> removed = new HashSet<>();
-
-        for (Map.Entry<String, List<Integer>> entry : oldInv.entrySet()) {
-            String imagenId = entry.getKey();
-            List<Integer> oldChunks = entry.getValue();
-            List<Integer> newChunks = newInv.getOrDefault(imagenId, new ArrayList<>());
-
-            for (Integer chunkIndex : oldChunks) {
-                if (!newChunks.contains(chunkIndex)) {
-                    removed.add(imagenId + "_chunk_" + chunkIndex);
-                }
-            }
-        }
-        return removed;
-    }
-
     private Map<String, Object> createSuccessResponse(String message) {
         Map<String, Object> response = new HashMap<>();
         response.put("status", "success");
@@ -290,30 +512,47 @@ public class HeartbeatHandler {
         return response;
     }
 
+    /**
+     * Reconstruye y publica la foto de membresía con un epoch nuevo.
+     * Se llama solo cuando algún servidor cambia de vivo a caído o viceversa.
+     */
+    private synchronized void publishMembership() {
+        List<String> healthy = new ArrayList<>();
+        List<String> unhealthy = new ArrayList<>();
+        for (ChunkserverHeartbeatInfo info : chunkserverHeartbeats.values()) {
+            (info.isAlive() ? healthy : unhealthy).add(info.getUrl());
+        }
+        Collections.sort(healthy);
+        Collections.sort(unhealthy);
+
+        membership = new MembershipSnapshot(chunkserverIds, ++membershipEpoch, healthy, unhealthy);
+    }
+
     // API pública para otros servicios
 
+    /**
+     * Foto inmutable actual de servidores vivos (sin copias ni recorridos)
+     */
+    public MembershipSnapshot getMembership() {
+        return membership;
+    }
+
     public List<String> getHealthyChunkservers() {
-        return chunkserverHeartbeats.values().stream()
-                .filter(ChunkserverHeartbeatInfo::isAlive)
-                .map(ChunkserverHeartbeatInfo::getUrl)
-                .collect(java.util.stream.Collectors.toList());
+        return membership.getHealthyServers();
     }
 
     public List<String> getUnhealthyChunkservers() {
-        return chunkserverHeartbeats.values().stream()
-                .filter(info -> !info.isAlive())
-                .map(ChunkserverHeartbeatInfo::getUrl)
-                .collect(java.util.stream.Collectors.toList());
+        return membership.getUnhealthyServers();
     }
 
     public boolean isChunkserverHealthy(String url) {
-        ChunkserverHeartbeatInfo info = chunkserverHeartbeats.get(url);
-        return info != null && info.isAlive();
+        return membership.isHealthy(url);
     }
 
-    public Map<String, List<Integer>> getChunkserverInventory(String url) {
+    public ChunkInventory getChunkserverInventory(String url) {
         ChunkserverHeartbeatInfo info = chunkserverHeartbeats.get(url);
-        return info != null ? info.getLastInventory() : new HashMap<>();
+        ChunkInventory inventory = info != null ? info.getLastInventory() : null;
+        return inventory != null ? inventory : new ChunkInventory();
     }
 
     /**
@@ -334,6 +573,12 @@ public class HeartbeatHandler {
             details.put("totalSuccesses", info.getTotalHeartbeats());
             details.put("totalFailures", 0);
             details.put("uptimePercentage", info.getUptimePercentage());
+            details.put("inventorySeq", info.getInventorySeq());
+            details.put("fullInventoryReports", info.getFullInventoryReports());
+            details.put("inventoryDeltas", info.getInventoryDeltas());
+            details.put("inventoryResyncs", info.getInventoryResyncs());
+            details.put("inventoryDigestMismatches", info.getDigestMismatches());
+            details.put("suspicion", Math.round(getSuspicion(info.getUrl()) * 1000) / 1000.0);
 
             detailedStatus.put(info.getUrl(), details);
         }
@@ -347,10 +592,23 @@ public class HeartbeatHandler {
     private static class ChunkserverHeartbeatInfo {
         private final String url;
         private final String chunkserverId;
-        private long lastHeartbeatTime;
+        private volatile long lastHeartbeatTime;
+        // Hora local del Master al recibir el último heartbeat (el plazo no depende del reloj del chunkserver)
+        private volatile long lastReceivedTime;
+        private final PhiAccrualDetector detector;
         private long firstHeartbeatTime;
-        private boolean alive;
-        private Map<String, List<Integer>> lastInventory;
+        private volatile boolean alive;
+        // Inventario conocido por grupo del digest (imagenId → bitmap de índices), su digest
+        // y la secuencia del último reporte aplicado
+        private final List<ChunkInventory> inventoryBuckets = newInventoryBuckets();
+        private InventoryDigest digest = new InventoryDigest();
+        private boolean inventoryKnown;
+        private long inventorySeq = -1;
+        private volatile boolean resyncRequested;
+        private long fullInventoryReports;
+        private long inventoryDeltas;
+        private long inventoryResyncs;
+        private long digestMismatches;
         private long totalHeartbeats;
         private long totalDowntime;
         private long lastDowntimeStart;
@@ -361,18 +619,25 @@ public class HeartbeatHandler {
         private Long freeSpaceMB;
         private Boolean canWrite;
 
-        public ChunkserverHeartbeatInfo(String url, String chunkserverId) {
+        public ChunkserverHeartbeatInfo(String url, String chunkserverId, PhiAccrualDetector detector) {
             this.url = url;
+            this.detector = detector;
             this.chunkserverId = chunkserverId;
             this.alive = true;
             this.firstHeartbeatTime = System.currentTimeMillis();
             this.lastHeartbeatTime = System.currentTimeMillis();
+            this.lastReceivedTime = this.lastHeartbeatTime;
             this.totalHeartbeats = 0;
             this.totalDowntime = 0;
         }
 
         public void updateHeartbeat(long timestamp) {
             this.lastHeartbeatTime = timestamp;
+            this.lastReceivedTime = System.currentTimeMillis();
+            if (!alive) {
+                detector.reset();  // El hueco de la caída no es un intervalo normal
+            }
+            detector.heartbeat(lastReceivedTime);
             this.totalHeartbeats++;
 
             if (!alive) {
@@ -383,8 +648,123 @@ public class HeartbeatHandler {
             }
         }
 
-        public void updateInventory(Map<String, List<Integer>> inventory) {
-            this.lastInventory = inventory;
+        private static List<ChunkInventory> newInventoryBuckets() {
+            List<ChunkInventory> buckets = new ArrayList<>(InventoryDigest.BUCKETS);
+            for (int b = 0; b < InventoryDigest.BUCKETS; b++) {
+                buckets.add(new ChunkInventory());
+            }
+            return buckets;
+        }
+
+        private ChunkInventory bucketFor(String imagenId) {
+            return inventoryBuckets.get(InventoryDigest.bucketOf(imagenId));
+        }
+
+        /**
+         * Reemplaza el inventario por un reporte completo
+         *
+         * @return Chunks del inventario anterior que ya no están
+         */
+        public synchronized ChunkInventory replaceInventory(ChunkInventory report, long seq) {
+            ChunkInventory removed = new ChunkInventory();
+            for (int b = 0; b < InventoryDigest.BUCKETS; b++) {
+                ChunkInventory contents = new ChunkInventory();
+                int bucket = b;
+                report.forEach((imagenId, chunks) -> {
+                    if (InventoryDigest.bucketOf(imagenId) == bucket) {
+                        chunks.forEach(chunkIndex -> contents.add(imagenId, chunkIndex));
+                    }
+                });
+                replaceBucket(b, contents, removed);
+            }
+            if (!inventoryKnown) {
+                removed = new ChunkInventory();  // Primer reporte: no hay contra qué comparar
+            }
+
+            inventoryKnown = true;
+            inventorySeq = seq;
+            resyncRequested = false;
+            fullInventoryReports++;
+            return removed;
+        }
+
+        /**
+         * Reemplaza solo los grupos reportados (pedidos tras una diferencia de digest)
+         *
+         * @param reported Grupo → inventario completo de ese grupo
+         * @return Chunks que estaban en esos grupos y ya no están
+         */
+        public synchronized ChunkInventory replaceBuckets(Map<String, Object> reported) {
+            ChunkInventory removed = new ChunkInventory();
+            for (Map.Entry<String, Object> entry : reported.entrySet()) {
+                int bucket = Integer.parseInt(entry.getKey());
+                ChunkInventory contents = ChunkInventory.fromReport(entry.getValue());
+                if (bucket < 0 || bucket >= InventoryDigest.BUCKETS || contents == null) {
+                    continue;
+                }
+                replaceBucket(bucket, contents, removed);
+            }
+            return removed;
+        }
+
+        /**
+         * Reemplaza un grupo: lo eliminado es un andNot de bitmaps, y el digest del grupo se
+         * corrige con los chunks que salen y los que entran
+         */
+        private void replaceBucket(int bucket, ChunkInventory contents, ChunkInventory removed) {
+            ChunkInventory current = inventoryBuckets.get(bucket);
+            ChunkInventory gone = current.minus(contents);
+            ChunkInventory arrived = contents.minus(current);
+            gone.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> {
+                digest.toggle(imagenId, chunkIndex);
+                removed.add(imagenId, chunkIndex);
+            }));
+            arrived.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> digest.toggle(imagenId, chunkIndex)));
+            inventoryBuckets.set(bucket, contents);
+        }
+
+        /**
+         * Aplica un delta al inventario (agregar y quitar son idempotentes)
+         *
+         * @return Chunks eliminados según el delta
+         */
+        public synchronized ChunkInventory applyDelta(ChunkInventory added, ChunkInventory removed, long seq) {
+            added.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> {
+                if (bucketFor(imagenId).add(imagenId, chunkIndex)) {
+                    digest.toggle(imagenId, chunkIndex);
+                }
+            }));
+
+            ChunkInventory removedChunks = new ChunkInventory();
+            removed.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> {
+                if (bucketFor(imagenId).remove(imagenId, chunkIndex)) {
+                    digest.toggle(imagenId, chunkIndex);
+                    removedChunks.add(imagenId, chunkIndex);
+                }
+            }));
+
+            inventorySeq = seq;
+            inventoryDeltas++;
+            return removedChunks;
+        }
+
+        public synchronized List<Integer> differingBuckets(List<? extends Number> reported) {
+            List<Integer> differing = digest.differingBuckets(reported);
+            if (!differing.isEmpty()) {
+                digestMismatches++;
+            }
+            return differing;
+        }
+
+        public synchronized void setInventorySeq(long seq) {
+            this.inventorySeq = seq;
+        }
+
+        public synchronized void requestResync() {
+            if (!resyncRequested) {
+                resyncRequested = true;
+                inventoryResyncs++;
+            }
         }
 
         public void updateMetrics(Map<String, Object> data) {
@@ -435,12 +815,58 @@ public class HeartbeatHandler {
             return lastHeartbeatTime;
         }
 
+        public PhiAccrualDetector getDetector() {
+            return detector;
+        }
+
+        public long getLastReceivedTime() {
+            return lastReceivedTime;
+        }
+
         public boolean isAlive() {
             return alive;
         }
 
-        public Map<String, List<Integer>> getLastInventory() {
-            return lastInventory;
+        /**
+         * Copia del inventario conocido, o null si todavía no llegó un reporte completo
+         */
+        public synchronized ChunkInventory getLastInventory() {
+            if (!inventoryKnown) {
+                return null;
+            }
+            ChunkInventory copy = new ChunkInventory();
+            for (ChunkInventory bucket : inventoryBuckets) {
+                copy.addAll(bucket);
+            }
+            return copy;
+        }
+
+        public synchronized boolean isInventoryKnown() {
+            return inventoryKnown;
+        }
+
+        public synchronized long getInventorySeq() {
+            return inventorySeq;
+        }
+
+        public boolean isResyncRequested() {
+            return resyncRequested;
+        }
+
+        public synchronized long getFullInventoryReports() {
+            return fullInventoryReports;
+        }
+
+        public synchronized long getInventoryDeltas() {
+            return inventoryDeltas;
+        }
+
+        public synchronized long getInventoryResyncs() {
+            return inventoryResyncs;
+        }
+
+        public synchronized long getDigestMismatches() {
+            return digestMismatches;
         }
 
         public long getTotalHeartbeats() {
@@ -0,0 +1,104 @@
+package com.tpdteam3.master.service;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Rueda de tiempo (hashed timing wheel) con el plazo de cada chunkserver.
+ * <p>
+ * Cada heartbeat reprograma el plazo del servidor: se saca de su casillero y se pone en
+ * el del nuevo plazo, en O(1). En cada tick solo se revisa el casillero que vence, así
+ * que un servidor caído se detecta a lo sumo un tick después del timeout exacto, sin
+ * recorrer todos los servidores. Los plazos más lejanos que una vuelta de la rueda
+ * quedan en su casillero hasta la vuelta que corresponde.
+ */
+public final class HeartbeatTimingWheel {
+
+    private final long tickMs;
+    private final List<Set<String>> slots;
+    private final Map<String, Long> deadlines = new HashMap<>();
+    private long currentTick;
+
+    /**
+     * @param tickMs    Resolución de la rueda
+     * @param slotCount Casilleros (una vuelta cubre tickMs × slotCount)
+     * @param startMs   Instante inicial
+     */
+    public HeartbeatTimingWheel(long tickMs, int slotCount, long startMs) {
+        if (tickMs <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("tickMs y slotCount deben ser positivos");
+        }
+        this.tickMs = tickMs;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new HashSet<>());
+        }
+        this.currentTick = startMs / tickMs;
+    }
+
+    /**
+     * Programa (o reprograma) el vencimiento de un servidor
+     */
+    public synchronized void schedule(String url, long deadlineMs) {
+        Long previous = deadlines.put(url, deadlineMs);
+        if (previous != null) {
+            slotFor(previous).remove(url);
+        }
+        slotFor(deadlineMs).add(url);
+    }
+
+    public synchronized void cancel(String url) {
+        Long previous = deadlines.remove(url);
+        if (previous != null) {
+            slotFor(previous).remove(url);
+        }
+    }
+
+    /**
+     * Avanza la rueda hasta {@code nowMs} y entrega los servidores vencidos con su plazo.
+     * Si el hilo se atrasó, recorre los ticks pendientes (como máximo una vuelta).
+     *
+     * @return Cantidad de servidores vencidos
+     */
+    public int advance(long nowMs, Consumer<Map.Entry<String, Long>> onExpired) {
+        List<Map.Entry<String, Long>> expired = new ArrayList<>();
+        synchronized (this) {
+            long targetTick = nowMs / tickMs;
+            long from = Math.max(currentTick, targetTick - slots.size() + 1);
+            for (long tick = from; tick <= targetTick; tick++) {
+                Iterator<String> iterator = slots.get((int) (tick % slots.size())).iterator();
+                while (iterator.hasNext()) {
+                    String url = iterator.next();
+                    long deadline = deadlines.get(url);
+                    if (deadline <= nowMs) {
+                        iterator.remove();
+                        deadlines.remove(url);
+                        expired.add(new AbstractMap.SimpleImmutableEntry<>(url, deadline));
+                    }
+                }
+            }
+            currentTick = targetTick + 1;
+        }
+        // Fuera del lock: el callback notifica a otros servicios
+        expired.forEach(onExpired);
+        return expired.size();
+    }
+
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    public int getSlotCount() {
+        return slots.size();
+    }
+
+    private Set<String> slotFor(long deadlineMs) {
+        // Redondeo hacia arriba: un plazo nunca se revisa antes de su tick
+        long tick = (deadlineMs + tickMs - 1) / tickMs;
+        return slots.get((int) (tick % slots.size()));
+    }
+}
@@ -1,12 +1,16 @@
 package com.tpdteam3.master.service;
 
+import com.tpdteam3.common.ChunkHeaders;
+import com.tpdteam3.common.ChunkInventory;
 import com.tpdteam3.master.model.FileMetadata;
 import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -14,6 +18,9 @@ import org.springframework.web.client.RestTemplate;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -30,8 +37,9 @@ import java.util.stream.Collectors;
  * FLUJO DE DETECCIÓN Y REPARACIÓN:
  * 1. HealthMonitor detecta cambio en inventario → notifica a IntegrityMonitor
  * 2. IntegrityMonitor compara inventario real vs metadatos del Master
- * 3. Si faltan chunks → busca otra réplica disponible
- * 4. Copia chunk desde réplica fuente a servidor afectado
+ * 3. Si faltan chunks → busca otra réplica disponible (o, en archivos EC, reconstruye el shard)
+ * 4. La réplica fuente copia el chunk al servidor afectado (comando replicate_to entregado
+ *    en su heartbeat, ver CommandQueueService)
  * 5. Actualiza metadatos del Master
  * 6. Todo automático, sin intervención manual
  */
@@ -47,17 +55,41 @@ public class IntegrityMonitor {
     @Lazy
     private HeartbeatHandler heartbeatHandler;
 
+    @Autowired
+    private PlacementService placementService;
+
+    @Autowired
+    private ErasureCodingService erasureCodingService;
+
+    @Autowired
+    private CommandQueueService commandQueue;
+
+    @Autowired
+    @Lazy
+    private PackingService packingService;
+
+    @Autowired
+    @Lazy
+    private ReplicationMonitorService replicationMonitor;
+
     private final RestTemplate restTemplate;
 
     // Estadísticas de operaciones
-    private long totalMissingChunksDetected = 0;
-    private long totalChunksRepaired = 0;
-    private long totalRepairAttempts = 0;
-    private long totalRepairFailures = 0;
+    private final AtomicLong totalMissingChunksDetected = new AtomicLong();
+    private final AtomicLong totalChunksRepaired = new AtomicLong();
+    private final AtomicLong totalRepairAttempts = new AtomicLong();
+    private final AtomicLong totalRepairFailures = new AtomicLong();
 
     // Evitar reparaciones concurrentes del mismo chunk
     private final Set<String> currentlyRepairing = ConcurrentHashMap.newKeySet();
 
+    // Resultados de comandos: se procesan aquí y no en el hilo del heartbeat o de la rueda
+    // de plazos que completa el comando
+    private final ExecutorService callbackExecutor = Executors.newFixedThreadPool(2);
+
+    // Chunks por verificación periódica de un servidor
+    private static final int VERIFICATION_SAMPLE_SIZE = 64;
+
     /**
      * Constructor que configura el RestTemplate con timeouts.
      */
@@ -83,6 +115,11 @@ public class IntegrityMonitor {
         System.out.println();
     }
 
+    @PreDestroy
+    public void shutdown() {
+        callbackExecutor.shutdownNow();
+    }
+
     /**
      * Llamado cuando el HealthHandler detecta cambios en el inventario de un servidor.
      * Este es el punto de entrada principal para la detección de eliminaciones manuales.
@@ -92,13 +129,10 @@ public class IntegrityMonitor {
      * - Llama a este método con los chunks removidos
      * - Este método repara automáticamente la réplica perdida
      *
-     * @param chunkserverUrl   URL del servidor con cambios
-     * @param currentInventory Inventario actual del servidor
-     * @param removedChunks    Set de chunks que fueron eliminados
+     * @param chunkserverUrl URL del servidor con cambios
+     * @param removedChunks  Chunks que fueron eliminados
      */
-    public synchronized void onInventoryChanged(String chunkserverUrl,
-                                                Map<String, List<Integer>> currentInventory,
-                                                Set<String> removedChunks) {
+    public void onInventoryChanged(String chunkserverUrl, ChunkInventory removedChunks) {
 
         if (removedChunks.isEmpty()) {
             return;
@@ -108,35 +142,71 @@ public class IntegrityMonitor {
         System.out.println("║       CHUNKS ELIMINADOS DETECTADOS                     ║");
         System.out.println("╚════════════════════════════════════════════════════════╝");
         System.out.println("   Servidor: " + chunkserverUrl);
-        System.out.println("   Chunks eliminados: " + removedChunks.size());
+        System.out.println("   Chunks eliminados: " + removedChunks.chunkCount());
         System.out.println();
 
-        totalMissingChunksDetected += removedChunks.size();
+        totalMissingChunksDetected.addAndGet(removedChunks.chunkCount());
 
-        // Procesar cada chunk eliminado
-        for (String chunkId : removedChunks) {
+        // Procesar cada chunk eliminado (intentar reparar la réplica perdida)
+        removedChunks.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> {
             try {
-                // Parsear chunkId: "imagen-uuid_chunk_5" → imagenId="imagen-uuid", chunkIndex=5
-                String[] parts = chunkId.split("_chunk_");
-                if (parts.length != 2) {
-                    System.err.println("⚠️  Formato de chunkId inválido: " + chunkId);
-                    continue;
-                }
-
-                String imagenId = parts[0];
-                int chunkIndex = Integer.parseInt(parts[1]);
-
-                // Intentar reparar esta réplica perdida
                 repairMissingChunk(imagenId, chunkIndex, chunkserverUrl);
-
             } catch (Exception e) {
-                System.err.println("❌ Error procesando chunk eliminado " + chunkId + ": " + e.getMessage());
+                System.err.println("❌ Error procesando chunk eliminado " + imagenId + "_chunk_" + chunkIndex +
+                                   ": " + e.getMessage());
             }
-        }
+        }));
 
         System.out.println();
     }
 
+    /**
+     * Pide al servidor que verifique una muestra de los chunks que debería tener
+     * (comando verify); los que falten se reparan como una eliminación detectada.
+     *
+     * @param chunkserverUrl URL del servidor a verificar
+     */
+    public void requestVerification(String chunkserverUrl) {
+        List<Map<String, Object>> sample = new ArrayList<>();
+        List<Map.Entry<String, Set<Integer>>> files = new ArrayList<>(buildExpectedChunksForServer(chunkserverUrl).entrySet());
+        Collections.shuffle(files);
+        for (Map.Entry<String, Set<Integer>> entry : files) {
+            for (Integer chunkIndex : entry.getValue()) {
+                if (sample.size() >= VERIFICATION_SAMPLE_SIZE) {
+                    break;
+                }
+                Map<String, Object> chunk = new HashMap<>();
+                chunk.put("imagenId", entry.getKey());
+                chunk.put("chunkIndex", chunkIndex);
+                sample.add(chunk);
+            }
+        }
+        if (sample.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("chunks", sample);
+        commandQueue.submit(chunkserverUrl, CommandQueueService.VERIFY, params).whenCompleteAsync((result, error) -> {
+            if (error != null) {
+                System.err.println("⚠️  Verificación de " + chunkserverUrl + " sin resultado: " +
+                                   (error.getCause() != null ? error.getCause() : error).getMessage());
+                return;
+            }
+            ChunkInventory missing = new ChunkInventory();
+            Object reported = result.get("missing");
+            if (reported instanceof List) {
+                for (Object item : (List<?>) reported) {
+                    Map<?, ?> chunk = (Map<?, ?>) item;
+                    missing.add((String) chunk.get("imagenId"), ((Number) chunk.get("chunkIndex")).intValue());
+                }
+            }
+            System.out.println("🔍 Verificación de " + chunkserverUrl + ": " + sample.size() + " chunks, " +
+                               missing.chunkCount() + " faltantes");
+            onInventoryChanged(chunkserverUrl, missing);
+        }, callbackExecutor);
+    }
+
     /**
      * Llamado cuando un servidor se cae.
      * No hacemos nada inmediatamente porque el servidor puede recuperarse.
@@ -156,36 +226,31 @@ public class IntegrityMonitor {
      * @param chunkserverUrl URL del servidor recuperado
      * @param inventory      Inventario actual del servidor
      */
-    public synchronized void onChunkserverRecovered(String chunkserverUrl,
-                                                    Map<String, List<Integer>> inventory) {
+    public void onChunkserverRecovered(String chunkserverUrl, ChunkInventory inventory) {
         System.out.println("🔍 Verificando integridad de servidor recuperado: " + chunkserverUrl);
 
         // Obtener chunks que este servidor DEBERÍA tener según el Master
         Map<String, Set<Integer>> expectedChunks = buildExpectedChunksForServer(chunkserverUrl);
 
         // Comparar con lo que realmente tiene
-        Set<String> missingChunks = findMissingChunks(expectedChunks, inventory);
+        ChunkInventory missingChunks = findMissingChunks(expectedChunks, inventory);
 
         if (missingChunks.isEmpty()) {
             System.out.println("   ✅ Servidor tiene todos los chunks esperados");
             return;
         }
 
-        System.out.println("   ⚠️  Faltan " + missingChunks.size() + " chunks");
+        System.out.println("   ⚠️  Faltan " + missingChunks.chunkCount() + " chunks");
         System.out.println("   🔧 Reparando...");
 
         // Reparar chunks faltantes
-        for (String chunkId : missingChunks) {
+        missingChunks.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> {
             try {
-                String[] parts = chunkId.split("_chunk_");
-                String imagenId = parts[0];
-                int chunkIndex = Integer.parseInt(parts[1]);
-
                 repairMissingChunk(imagenId, chunkIndex, chunkserverUrl);
             } catch (Exception e) {
-                System.err.println("   ❌ Error reparando " + chunkId + ": " + e.getMessage());
+                System.err.println("   ❌ Error reparando " + imagenId + "_chunk_" + chunkIndex + ": " + e.getMessage());
             }
-        }
+        }));
     }
 
     /**
@@ -195,16 +260,16 @@ public class IntegrityMonitor {
      *
      * @param chunkserverUrl URL del servidor registrado
      */
-    public synchronized void onChunkserverRegistered(String chunkserverUrl) {
+    public void onChunkserverRegistered(String chunkserverUrl) {
         System.out.println("🔍 Verificando integridad de servidor registrado: " + chunkserverUrl);
 
         try {
             // Obtener inventario actual del servidor
-            Map<String, List<Integer>> currentInventory =
-                    heartbeatHandler.getChunkserverInventory(chunkserverUrl);
+            ChunkInventory currentInventory = heartbeatHandler.getChunkserverInventory(chunkserverUrl);
 
             if (currentInventory == null || currentInventory.isEmpty()) {
-                System.out.println("   ⚠️  No se pudo obtener inventario del servidor");
+                System.out.println("   ⚠️  No se pudo obtener inventario del servidor: se le pide uno completo");
+                commandQueue.submit(chunkserverUrl, CommandQueueService.REPORT_FULL_INVENTORY, null);
                 return;
             }
 
@@ -217,54 +282,53 @@ public class IntegrityMonitor {
             }
 
             // Comparar y detectar diferencias
-            Set<String> missingChunks = findMissingChunks(expectedChunks, currentInventory);
+            ChunkInventory missingChunks = findMissingChunks(expectedChunks, currentInventory);
 
             if (missingChunks.isEmpty()) {
                 System.out.println("   ✅ Servidor tiene todos los chunks esperados");
                 return;
             }
 
-            System.out.println("   🚨 CHUNKS FALTANTES DETECTADOS: " + missingChunks.size());
+            long missingCount = missingChunks.chunkCount();
+            System.out.println("   🚨 CHUNKS FALTANTES DETECTADOS: " + missingCount);
             System.out.println("      (Probablemente eliminados mientras Master estaba caído)");
 
             // Mostrar algunos ejemplos
-            missingChunks.stream().limit(5).forEach(chunk ->
-                    System.out.println("      - " + chunk)
-            );
+            List<String> examples = new ArrayList<>();
+            missingChunks.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> {
+                if (examples.size() < 5) {
+                    examples.add(imagenId + "_chunk_" + chunkIndex);
+                }
+            }));
+            examples.forEach(chunk -> System.out.println("      - " + chunk));
 
-            if (missingChunks.size() > 5) {
-                System.out.println("      ... y " + (missingChunks.size() - 5) + " más");
+            if (missingCount > 5) {
+                System.out.println("      ... y " + (missingCount - 5) + " más");
             }
 
             System.out.println("   🔧 Iniciando reparación automática...");
             System.out.println();
 
             // Reparar chunks faltantes
-            int repaired = 0;
-            int failed = 0;
+            int[] repaired = {0};
+            int[] failed = {0};
 
-            for (String chunkId : missingChunks) {
+            missingChunks.forEach((imagenId, chunks) -> chunks.forEach(chunkIndex -> {
                 try {
-                    String[] parts = chunkId.split("_chunk_");
-                    if (parts.length != 2) continue;
-
-                    String imagenId = parts[0];
-                    int chunkIndex = Integer.parseInt(parts[1]);
-
                     repairMissingChunk(imagenId, chunkIndex, chunkserverUrl);
-                    repaired++;
-
+                    repaired[0]++;
                 } catch (Exception e) {
-                    System.err.println("      ❌ Error reparando " + chunkId + ": " + e.getMessage());
-                    failed++;
+                    System.err.println("      ❌ Error reparando " + imagenId + "_chunk_" + chunkIndex +
+                                       ": " + e.getMessage());
+                    failed[0]++;
                 }
-            }
+            }));
 
             System.out.println();
             System.out.println("   📊 Resultado de verificación al registro:");
-            System.out.println("      ✅ Chunks reparados: " + repaired);
-            if (failed > 0) {
-                System.out.println("      ❌ Fallos: " + failed);
+            System.out.println("      ✅ Chunks reparados: " + repaired[0]);
+            if (failed[0] > 0) {
+                System.out.println("      ❌ Fallos: " + failed[0]);
             }
             System.out.println();
 
@@ -295,8 +359,9 @@ public class IntegrityMonitor {
             return;
         }
 
-        totalRepairAttempts++;
+        totalRepairAttempts.incrementAndGet();
 
+        boolean async = false;
         try {
             System.out.println("   🔧 Reparando: " + imagenId + " chunk " + chunkIndex + " en " + targetServerUrl);
 
@@ -306,7 +371,25 @@ public class IntegrityMonitor {
                 metadata = masterService.getMetadata(imagenId);
             } catch (RuntimeException e) {
                 System.err.println("      ❌ Archivo no encontrado en Master: " + imagenId);
-                totalRepairFailures++;
+                totalRepairFailures.incrementAndGet();
+                return;
+            }
+
+            // Archivos EC: el shard no tiene otras réplicas, se reconstruye desde su franja
+            if (metadata.erasureCoded()) {
+                repairErasureCodedShard(metadata, chunkIndex, targetServerUrl);
+                totalChunksRepaired.incrementAndGet();
+                return;
+            }
+
+            // Contenedor que recibe rangos: una copia del chunk entero quedaría sin los últimos.
+            // Se olvida la réplica perdida y se cierra; la re-replicación lo completa al terminar
+            // su ventana de escrituras
+            if (packingService.acceptsWrites(imagenId)) {
+                System.out.println("      📦 Contenedor con escrituras en curso: se cierra y se re-replica después");
+                masterService.removeReplica(imagenId, chunkIndex, targetServerUrl);
+                packingService.seal(imagenId);
+                replicationMonitor.markForCheck(imagenId);
                 return;
             }
 
@@ -317,207 +400,185 @@ public class IntegrityMonitor {
 
             if (replicas.isEmpty()) {
                 System.err.println("      ❌ No hay réplicas registradas para este chunk en el Master");
-                totalRepairFailures++;
+                totalRepairFailures.incrementAndGet();
                 return;
             }
 
-            // 3. Buscar una réplica DISPONIBLE (en servidor activo y diferente al target)
+            // 3. Réplicas DISPONIBLES (en servidor activo y diferente al target), las menos
+            //    sospechosas primero
             List<String> healthyServers = heartbeatHandler.getHealthyChunkservers();
+            List<String> sources = replicas.stream()
+                    .map(ChunkMetadata::getChunkserverUrl)
+                    .filter(server -> healthyServers.contains(server) && !server.equals(targetServerUrl))
+                    .distinct()
+                    .sorted(Comparator.comparingDouble(heartbeatHandler::getSuspicion))
+                    .collect(Collectors.toList());
 
-            ChunkMetadata sourceReplica = null;
-            for (ChunkMetadata replica : replicas) {
-                String replicaServer = replica.getChunkserverUrl();
-
-                // Debe estar en servidor activo y no ser el servidor destino
-                if (healthyServers.contains(replicaServer) && !replicaServer.equals(targetServerUrl)) {
-                    // Verificar que el chunk realmente existe en ese servidor
-                    if (verifyChunkExists(imagenId, chunkIndex, replicaServer)) {
-                        sourceReplica = replica;
-                        break;
-                    }
-                }
-            }
-
-            if (sourceReplica == null) {
+            if (sources.isEmpty()) {
                 System.err.println("      ❌ No hay réplicas disponibles para copiar");
                 System.err.println("         Réplicas registradas: " + replicas.size());
                 System.err.println("         Servidores activos: " + healthyServers.size());
-                totalRepairFailures++;
+                totalRepairFailures.incrementAndGet();
                 return;
             }
 
-            String sourceServerUrl = sourceReplica.getChunkserverUrl();
-            System.out.println("      📥 Copiando desde: " + sourceServerUrl);
-
-            // 4. COPIAR CHUNK: Leer desde fuente y escribir en destino
-            byte[] chunkData = readChunkFromServer(imagenId, chunkIndex, sourceServerUrl);
-            String base64Data = Base64.getEncoder().encodeToString(chunkData);
-
-            writeChunkToServer(imagenId, chunkIndex, base64Data, targetServerUrl);
-
-            System.out.println("      ✅ Chunk reparado exitosamente (" + chunkData.length + " bytes)");
-
-            // 5. ACTUALIZAR METADATOS: Agregar nueva réplica si no existía
-            boolean replicaExisted = replicas.stream()
-                    .anyMatch(r -> r.getChunkserverUrl().equals(targetServerUrl));
-
-            if (!replicaExisted) {
-                // Crear nueva entrada de réplica en metadatos
-                int nextReplicaIndex = replicas.stream()
-                                               .mapToInt(ChunkMetadata::getReplicaIndex)
-                                               .max()
-                                               .orElse(-1) + 1;
-
-                ChunkMetadata newReplica = new ChunkMetadata(chunkIndex, targetServerUrl, targetServerUrl);
-                newReplica.setReplicaIndex(nextReplicaIndex);
-                metadata.getChunks().add(newReplica);
-
-                masterService.updateFileMetadata(metadata);
-                System.out.println("      💾 Metadatos actualizados - nueva réplica registrada");
-            } else {
-                System.out.println("      ℹ️  Réplica ya existía en metadatos (fue eliminada manualmente)");
-            }
-
-            totalChunksRepaired++;
+            // 4. COPIAR CHUNK: la fuente lo manda directo al destino (comando replicate_to);
+            //    la reparación termina cuando la fuente confirma en un heartbeat
+            async = true;
+            copyFromSource(imagenId, chunkIndex, targetServerUrl, sources, 0, replicas, repairKey);
 
         } catch (Exception e) {
             System.err.println("      ❌ Error reparando chunk: " + e.getMessage());
             e.printStackTrace();
-            totalRepairFailures++;
+            totalRepairFailures.incrementAndGet();
         } finally {
-            currentlyRepairing.remove(repairKey);
+            if (!async) {
+                currentlyRepairing.remove(repairKey);
+            }
         }
     }
 
     /**
-     * Construye un mapa de chunks que un servidor específico DEBERÍA tener según el Master.
-     *
-     * @param serverUrl URL del servidor
-     * @return Mapa con imagenId -> Set de índices de chunks esperados
+     * Pide a sources[i] que copie el chunk al destino; si falla (no lo tiene, no responde)
+     * prueba con la siguiente fuente
      */
-    private Map<String, Set<Integer>> buildExpectedChunksForServer(String serverUrl) {
-        Map<String, Set<Integer>> expectedChunks = new HashMap<>();
+    private void copyFromSource(String imagenId, int chunkIndex, String targetServerUrl, List<String> sources,
+                                int i, List<ChunkMetadata> replicas, String repairKey) {
+        if (i >= sources.size()) {
+            System.err.println("      ❌ Ninguna réplica pudo copiar " + imagenId + " chunk " + chunkIndex +
+                               " a " + targetServerUrl + " (" + sources.size() + " fuentes probadas)");
+            totalRepairFailures.incrementAndGet();
+            currentlyRepairing.remove(repairKey);
+            return;
+        }
 
-        Collection<FileMetadata> allFiles = masterService.listFiles();
+        String sourceServerUrl = sources.get(i);
+        System.out.println("      📥 Copiando desde: " + sourceServerUrl);
 
-        for (FileMetadata file : allFiles) {
-            for (ChunkMetadata chunk : file.getChunks()) {
-                if (chunk.getChunkserverUrl().equals(serverUrl)) {
-                    expectedChunks
-                            .computeIfAbsent(file.getImagenId(), k -> new HashSet<>())
-                            .add(chunk.getChunkIndex());
-                }
+        // Cuenta como tráfico de reparación en ambos servidores para la colocación
+        placementService.repairStarted(sourceServerUrl);
+        placementService.repairStarted(targetServerUrl);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("imagenId", imagenId);
+        params.put("chunkIndex", chunkIndex);
+        params.put("target", targetServerUrl);
+        commandQueue.submit(sourceServerUrl, CommandQueueService.REPLICATE_TO, params).whenCompleteAsync((result, error) -> {
+            placementService.repairFinished(sourceServerUrl);
+            placementService.repairFinished(targetServerUrl);
+
+            if (error != null) {
+                System.err.println("      ⚠️  " + (error.getCause() != null ? error.getCause() : error).getMessage());
+                copyFromSource(imagenId, chunkIndex, targetServerUrl, sources, i + 1, replicas, repairKey);
+                return;
             }
-        }
 
-        return expectedChunks;
+            try {
+                System.out.println("      ✅ Chunk " + chunkIndex + " de " + imagenId + " reparado en " + targetServerUrl +
+                                   " (" + result.get("bytes") + " bytes desde " + sourceServerUrl + ")");
+                registerRepairedReplica(imagenId, chunkIndex, targetServerUrl, replicas);
+                totalChunksRepaired.incrementAndGet();
+            } catch (Exception e) {
+                System.err.println("      ❌ Error registrando réplica reparada: " + e.getMessage());
+                totalRepairFailures.incrementAndGet();
+            } finally {
+                currentlyRepairing.remove(repairKey);
+            }
+        }, callbackExecutor);
     }
 
     /**
-     * Encuentra chunks que faltan comparando lo esperado vs lo que realmente hay.
-     *
-     * @param expected Chunks esperados según el Master
-     * @param actual   Inventario real del servidor
-     * @return Set de identificadores de chunks faltantes
+     * ACTUALIZAR METADATOS: Agregar nueva réplica si no existía
      */
-    private Set<String> findMissingChunks(Map<String, Set<Integer>> expected,
-                                          Map<String, List<Integer>> actual) {
-        Set<String> missing = new HashSet<>();
-
-        for (Map.Entry<String, Set<Integer>> entry : expected.entrySet()) {
-            String imagenId = entry.getKey();
-            Set<Integer> expectedIndices = entry.getValue();
-            Set<Integer> actualIndices = new HashSet<>(
-                    actual.getOrDefault(imagenId, new ArrayList<>())
-            );
-
-            for (Integer index : expectedIndices) {
-                if (!actualIndices.contains(index)) {
-                    missing.add(imagenId + "_chunk_" + index);
-                }
-            }
+    private void registerRepairedReplica(String imagenId, int chunkIndex, String targetServerUrl,
+                                         List<ChunkMetadata> replicas) {
+        boolean replicaExisted = replicas.stream()
+                .anyMatch(r -> r.getChunkserverUrl().equals(targetServerUrl));
+
+        if (!replicaExisted) {
+            // Crear nueva entrada de réplica en metadatos
+            int nextReplicaIndex = replicas.stream()
+                                           .mapToInt(ChunkMetadata::getReplicaIndex)
+                                           .max()
+                                           .orElse(-1) + 1;
+
+            ChunkMetadata newReplica = new ChunkMetadata(chunkIndex, targetServerUrl, targetServerUrl);
+            newReplica.setReplicaIndex(nextReplicaIndex);
+
+            // Sobre los metadatos almacenados (no la copia filtrada de getMetadata)
+            masterService.addReplica(imagenId, newReplica);
+            System.out.println("      💾 Metadatos actualizados - nueva réplica registrada");
+        } else {
+            System.out.println("      ℹ️  Réplica ya existía en metadatos (fue eliminada manualmente)");
         }
-
-        return missing;
     }
 
     /**
-     * Verifica que un chunk específico realmente existe en un servidor.
-     * Hace una llamada HTTP al endpoint /api/chunk/exists del chunkserver.
-     *
-     * @param imagenId   ID de la imagen
-     * @param chunkIndex Índice del chunk
-     * @param serverUrl  URL del servidor
-     * @return true si el chunk existe, false si no
+     * Reconstruye con Reed-Solomon un shard EC borrado y lo vuelve a escribir en su servidor.
+     * La réplica ya figura en los metadatos, así que no hay que registrarla.
      */
-    private boolean verifyChunkExists(String imagenId, int chunkIndex, String serverUrl) {
-        try {
-            String url = serverUrl + "/api/chunk/exists?imagenId=" + imagenId +
-                         "&chunkIndex=" + chunkIndex;
+    private void repairErasureCodedShard(FileMetadata metadata, int chunkIndex, String targetServerUrl)
+            throws Exception {
+        int stripe = chunkIndex / metadata.shardsPerStripe();
+        System.out.println("      🧩 Shard EC: reconstruyendo desde la franja " + stripe);
 
-            @SuppressWarnings("unchecked")
-            Map<String, Object> response = restTemplate.getForObject(url, Map.class);
+        byte[] shard = erasureCodingService.reconstruct(
+                metadata, stripe, Collections.singleton(chunkIndex), heartbeatHandler.getHealthyChunkservers()
+        ).get(chunkIndex);
 
-            return response != null && Boolean.TRUE.equals(response.get("exists"));
-        } catch (Exception e) {
-            return false;
+        placementService.repairStarted(targetServerUrl);
+        try {
+            writeChunkToServer(metadata.getImagenId(), chunkIndex, shard, targetServerUrl);
+        } finally {
+            placementService.repairFinished(targetServerUrl);
         }
+
+        System.out.println("      ✅ Shard reconstruido exitosamente (" + shard.length + " bytes)");
     }
 
     /**
-     * Lee un chunk desde un chunkserver.
-     * Llama al endpoint GET /api/chunk/read del servidor.
+     * Construye un mapa de chunks que un servidor específico DEBERÍA tener según el Master.
+     * Se obtiene del índice inverso del Master: cuesta O(chunks en el servidor).
      *
-     * @param imagenId   ID de la imagen
-     * @param chunkIndex Índice del chunk
-     * @param serverUrl  URL del servidor fuente
-     * @return Bytes del chunk leído
-     * @throws Exception si hay error leyendo o el servidor no responde
+     * @param serverUrl URL del servidor
+     * @return Mapa con imagenId -> Set de índices de chunks esperados
      */
-    private byte[] readChunkFromServer(String imagenId, int chunkIndex, String serverUrl)
-            throws Exception {
-        String readUrl = serverUrl + "/api/chunk/read?imagenId=" + imagenId +
-                         "&chunkIndex=" + chunkIndex;
-
-        ResponseEntity<Map> response = restTemplate.getForEntity(readUrl, Map.class);
-
-        if (!response.getStatusCode().is2xxSuccessful()) {
-            throw new RuntimeException("Error leyendo chunk: HTTP " + response.getStatusCode());
-        }
-
-        Map<String, Object> responseBody = response.getBody();
-        if (responseBody == null || !responseBody.containsKey("data")) {
-            throw new RuntimeException("Respuesta inválida del chunkserver");
-        }
+    private Map<String, Set<Integer>> buildExpectedChunksForServer(String serverUrl) {
+        return masterService.getChunksOnServer(serverUrl);
+    }
 
-        String base64Data = (String) responseBody.get("data");
-        return Base64.getDecoder().decode(base64Data);
+    /**
+     * Encuentra chunks que faltan comparando lo esperado vs lo que realmente hay.
+     *
+     * @param expected Chunks esperados según el Master
+     * @param actual   Inventario real del servidor
+     * @return Chunks faltantes (diferencia de bitmaps por archivo)
+     */
+    private ChunkInventory findMissingChunks(Map<String, Set<Integer>> expected, ChunkInventory actual) {
+        return ChunkInventory.fromLists(expected).minus(actual);
     }
 
     /**
      * Escribe un chunk a un chunkserver.
-     * Llama al endpoint POST /api/chunk/write del servidor.
+     * Llama al endpoint PUT /api/chunk/raw del servidor (bytes crudos, metadatos en headers).
      *
      * @param imagenId   ID de la imagen
      * @param chunkIndex Índice del chunk
-     * @param base64Data Datos del chunk en Base64
+     * @param data       Datos del chunk
      * @param serverUrl  URL del servidor destino
      * @throws Exception si hay error escribiendo o el servidor no responde
      */
     private void writeChunkToServer(String imagenId, int chunkIndex,
-                                    String base64Data, String serverUrl) throws Exception {
-        String writeUrl = serverUrl + "/api/chunk/write";
+                                    byte[] data, String serverUrl) throws Exception {
+        String writeUrl = serverUrl + "/api/chunk/raw";
 
         HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-
-        Map<String, Object> request = new HashMap<>();
-        request.put("imagenId", imagenId);
-        request.put("chunkIndex", chunkIndex);
-        request.put("data", base64Data);
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(ChunkHeaders.IMAGEN_ID, imagenId);
+        headers.set(ChunkHeaders.CHUNK_INDEX, String.valueOf(chunkIndex));
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(request, headers);
-        ResponseEntity<String> response = restTemplate.postForEntity(writeUrl, entity, String.class);
+        HttpEntity<byte[]> entity = new HttpEntity<>(data, headers);
+        ResponseEntity<String> response = restTemplate.exchange(writeUrl, HttpMethod.PUT, entity, String.class);
 
         if (!response.getStatusCode().is2xxSuccessful()) {
             throw new RuntimeException("Error escribiendo chunk: HTTP " + response.getStatusCode());
@@ -531,13 +592,14 @@ public class IntegrityMonitor {
      */
     public Map<String, Object> getStats() {
         Map<String, Object> stats = new HashMap<>();
-        stats.put("totalMissingChunksDetected", totalMissingChunksDetected);
-        stats.put("totalChunksRepaired", totalChunksRepaired);
-        stats.put("totalRepairAttempts", totalRepairAttempts);
-        stats.put("totalRepairFailures", totalRepairFailures);
+        stats.put("totalMissingChunksDetected", totalMissingChunksDetected.get());
+        stats.put("totalChunksRepaired", totalChunksRepaired.get());
+        stats.put("totalRepairAttempts", totalRepairAttempts.get());
+        stats.put("totalRepairFailures", totalRepairFailures.get());
         stats.put("currentlyRepairing", currentlyRepairing.size());
-        stats.put("successRate", totalRepairAttempts > 0
-                ? (totalChunksRepaired * 100.0 / totalRepairAttempts)
+        long attempts = totalRepairAttempts.get();
+        stats.put("successRate", attempts > 0
+                ? (totalChunksRepaired.get() * 100.0 / attempts)
                 : 100.0);
         return stats;
     }
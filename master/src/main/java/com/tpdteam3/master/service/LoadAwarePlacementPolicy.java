@@ -0,0 +1,113 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerLoad;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Colocación según capacidad y carga con "power of two choices":
+ * para cada réplica se toman dos candidatos al azar y se queda el de menor puntaje.
+ * <p>
+ * Puntaje (menor es mejor) = escrituras recientes
+ * + REPAIR_WEIGHT × reparaciones en curso
+ * + SPACE_WEIGHT × fracción de espacio libre que le falta respecto al candidato con más espacio
+ * + SUSPICION_WEIGHT × sospecha del detector de fallas (0 a 1).
+ * <p>
+ * Los servidores que reportan canWrite=false o menos de minFreeMB libres quedan fuera
+ * mientras haya suficientes candidatos sanos; si no, se usan como último recurso.
+ */
+public class LoadAwarePlacementPolicy implements PlacementPolicy {
+
+    public static final String NAME = "load-aware";
+
+    private static final double REPAIR_WEIGHT = 4.0;
+    private static final double SPACE_WEIGHT = 8.0;
+    private static final double UNKNOWN_SPACE_PENALTY = 0.5;
+    private static final double SUSPICION_WEIGHT = 16.0;
+
+    private final long minFreeMB;
+
+    public LoadAwarePlacementPolicy(long minFreeMB) {
+        this.minFreeMB = minFreeMB;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<String> choose(int count, List<String> candidates, Map<String, ServerLoad> loads, Random random) {
+        List<String> pool = new ArrayList<>();
+        List<String> fallback = new ArrayList<>();
+        // Sin duplicados: una URL repetida no puede recibir dos réplicas del mismo chunk
+        for (String url : new LinkedHashSet<>(candidates)) {
+            (accepts(loads.get(url)) ? pool : fallback).add(url);
+        }
+
+        long maxFree = 1;
+        for (String url : candidates) {
+            ServerLoad load = loads.get(url);
+            if (load != null && load.isFreeSpaceKnown()) {
+                maxFree = Math.max(maxFree, load.getFreeSpaceMB());
+            }
+        }
+
+        List<String> chosen = new ArrayList<>(count);
+        while (chosen.size() < count && !pool.isEmpty()) {
+            int pick;
+            if (pool.size() == 1) {
+                pick = 0;
+            } else {
+                // Dos posiciones distintas en un solo sorteo cada una, sin reintentos
+                int a = random.nextInt(pool.size());
+                int b = (a + 1 + random.nextInt(pool.size() - 1)) % pool.size();
+                pick = score(loads.get(pool.get(a)), maxFree) <= score(loads.get(pool.get(b)), maxFree) ? a : b;
+            }
+            chosen.add(pool.remove(pick));
+        }
+
+        // Último recurso: servidores llenos o sin escritura, los menos cargados primero
+        if (chosen.size() < count && !fallback.isEmpty()) {
+            final long max = maxFree;
+            fallback.sort(Comparator.comparingDouble(url -> score(loads.get(url), max)));
+            for (String url : fallback) {
+                if (chosen.size() >= count) {
+                    break;
+                }
+                chosen.add(url);
+            }
+        }
+
+        return chosen;
+    }
+
+    @Override
+    public boolean accepts(ServerLoad load) {
+        if (load == null) {
+            return true;
+        }
+        if (!load.isCanWrite()) {
+            return false;
+        }
+        return !load.isFreeSpaceKnown() || load.getFreeSpaceMB() >= minFreeMB;
+    }
+
+    double score(ServerLoad load, long maxFree) {
+        if (load == null) {
+            return SPACE_WEIGHT * UNKNOWN_SPACE_PENALTY;
+        }
+        double spacePenalty = load.isFreeSpaceKnown()
+                ? 1.0 - Math.min(1.0, (double) load.getFreeSpaceMB() / maxFree)
+                : UNKNOWN_SPACE_PENALTY;
+        return load.getRecentWrites()
+               + REPAIR_WEIGHT * load.getInFlightRepairs()
+               + SPACE_WEIGHT * spacePenalty
+               + SUSPICION_WEIGHT * load.getSuspicion();
+    }
+}
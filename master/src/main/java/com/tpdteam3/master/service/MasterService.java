@@ -1,15 +1,24 @@
 package com.tpdteam3.master.service;
 
+import com.tpdteam3.master.model.ChunkLocationIndex;
+import com.tpdteam3.master.model.ChunkserverIdTable;
 import com.tpdteam3.master.model.ChunkserverInfo;
 import com.tpdteam3.master.model.FileMetadata;
 import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import com.tpdteam3.master.model.MembershipSnapshot;
+import com.tpdteam3.master.model.MetadataOperation;
+import com.tpdteam3.master.model.NamespaceStatistics;
 import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class MasterService {
@@ -24,18 +33,87 @@ public class MasterService {
     @Lazy
     private IntegrityMonitor integrityMonitor;
 
-    // Almacena metadatos de archivos en memoria
-    private Map<String, FileMetadata> fileMetadataStore;
+    @Autowired
+    @Lazy
+    private ReplicationMonitorService replicationMonitor;
+
+    @Autowired
+    private PlacementService placementService;
+
+    @Autowired
+    @Lazy
+    private RebalancerService rebalancer;
+
+    @Autowired
+    private ReadHeatTracker readHeatTracker;
+
+    @Autowired
+    @Lazy
+    private PackingService packingService;
+
+    @Autowired
+    private TopologyService topologyService;
+
+    @Autowired
+    private ServerLoadTracker loadTracker;
+
+    @Autowired
+    private ChunkserverIdTable chunkserverIds;
+
+    // Almacena metadatos de archivos en memoria, ordenados por imagenId
+    private ConcurrentNavigableMap<String, FileMetadata> fileMetadataStore;
+
+    // Índice inverso servidor → chunks, mantenido junto con el namespace
+    private final ChunkLocationIndex locationIndex = new ChunkLocationIndex();
+
+    // Locks por imagenId (striping): ordenan las mutaciones de cada archivo sin bloquear a los demás
+    private final StripedLocks fileLocks = new StripedLocks(64);
+    // Las mutaciones se aplican en memoria bajo el lock y después se espera el log. Una
+    // escritura fallida del log es fatal (no se deshace en memoria): la persistencia se
+    // detiene sin más checkpoints y desde ahí toda mutación se rechaza antes de aplicarse,
+    // hasta reiniciar el Master, que reconstruye el namespace solo con lo confirmado.
 
     // Estado de chunkservers directamente aquí
     private final Map<String, ChunkserverInfo> registeredChunkservers = new ConcurrentHashMap<>();
 
     // Configuración
     private static final int REPLICATION_FACTOR = 3;
-    private static final int CHUNK_SIZE = 32 * 1024; // 32KB
     private static final boolean ALLOW_DEGRADED_REPLICATION = true;
     private static final int MIN_REPLICAS_REQUIRED = 1;
 
+    // Tamaño de chunk por archivo, según su tamaño (en KB)
+    @Value("${master.chunk.small-file-max-kb:256}")
+    private long smallFileMaxKB;
+
+    @Value("${master.chunk.small-size-kb:32}")
+    private int smallChunkSizeKB;
+
+    @Value("${master.chunk.medium-file-max-kb:16384}")
+    private long mediumFileMaxKB;
+
+    @Value("${master.chunk.medium-size-kb:1024}")
+    private int mediumChunkSizeKB;
+
+    @Value("${master.chunk.large-size-kb:4096}")
+    private int largeChunkSizeKB;
+
+    // Clase de almacenamiento por defecto (REPLICATED o EC) y esquema Reed-Solomon de los archivos EC
+    @Value("${master.storage.default-class:REPLICATED}")
+    private String defaultStorageClass;
+
+    @Value("${master.ec.data-shards:4}")
+    private int ecDataShards;
+
+    @Value("${master.ec.parity-shards:2}")
+    private int ecParityShards;
+
+    // Límites para un chunkSize pedido explícitamente por el cliente
+    private static final int MIN_CHUNK_SIZE = 4 * 1024;          // 4KB
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;  // 64MB
+
+    // Totales del namespace, actualizados en cada mutación (O(1) para /stats y /health)
+    private final NamespaceStatistics namespaceStats = new NamespaceStatistics(REPLICATION_FACTOR);
+
     @PostConstruct
     public void init() {
         System.out.println("╔════════════════════════════════════════════════════════╗");
@@ -44,11 +122,17 @@ public class MasterService {
 
         // Cargar metadatos desde disco
         fileMetadataStore = persistenceService.loadMetadata();
+        locationIndex.rebuild(fileMetadataStore.values());
+        namespaceStats.rebuild(fileMetadataStore.values());
+        packingService.rebuild(fileMetadataStore.values());
 
         System.out.println("Configuración:");
         System.out.println("   ├─ Metadatos recuperados: " + fileMetadataStore.size() + " archivos");
+        System.out.println("   ├─ Servidores en índice de ubicaciones: " + locationIndex.serverCount());
         System.out.println("   ├─ Factor de replicación: " + REPLICATION_FACTOR + "x");
-        System.out.println("   └─ Tamaño de fragmento: " + (CHUNK_SIZE / 1024) + " KB");
+        System.out.println("   └─ Tamaño de fragmento: " + smallChunkSizeKB + " KB (≤ " + smallFileMaxKB + " KB), " +
+                           mediumChunkSizeKB + " KB (≤ " + mediumFileMaxKB + " KB), " +
+                           largeChunkSizeKB + " KB (resto)");
         System.out.println();
         System.out.println("Esperando registro de chunkservers...");
         System.out.println();
@@ -61,22 +145,24 @@ public class MasterService {
 
     /**
      * Registra un chunkserver con ID opcional y verifica su integridad
+     *
+     * @param topology Etiquetas rack/host/disk enviadas por el chunkserver (pueden faltar)
      */
-    public synchronized void registerChunkserver(String url, String id) {
-        boolean isNewRegistration = !registeredChunkservers.containsKey(url);
-
+    public void registerChunkserver(String url, String id, Map<String, ?> topology) {
         String chunkserverId = (id != null && !id.isEmpty())
                 ? id
                 : generateChunkserverId(url);
 
         ChunkserverInfo info = new ChunkserverInfo(url, chunkserverId);
-        registeredChunkservers.put(url, info);
+        boolean isNewRegistration = registeredChunkservers.put(url, info) == null;
+        topologyService.update(url, topology);
 
         System.out.println("╔════════════════════════════════════════════════════════╗");
         System.out.println("║ CHUNKSERVER " + (isNewRegistration ? "REGISTRADO" : "RE-REGISTRADO") + "                      ║");
         System.out.println("╚════════════════════════════════════════════════════════╝");
         System.out.println("   URL: " + url);
         System.out.println("   ID: " + chunkserverId);
+        System.out.println("   Topología: " + topologyService.of(url));
         System.out.println("   Total registrados: " + registeredChunkservers.size());
 
         // Verificar integridad al registrar/re-registrar
@@ -96,16 +182,25 @@ public class MasterService {
             }
         }
 
+        // Servidor nuevo y vacío: solo recibiría escrituras nuevas, rebalancear los chunks existentes
+        if (isNewRegistration && locationIndex.chunkCountOn(url) == 0 && fileMetadataStore.size() > 0) {
+            rebalancer.onChunkserverAdded(url);
+        }
+
         System.out.println();
     }
 
     /**
      * Desregistra un chunkserver del sistema
      */
-    public synchronized void unregisterChunkserver(String url) {
+    public void unregisterChunkserver(String url) {
         ChunkserverInfo removed = registeredChunkservers.remove(url);
 
         if (removed != null) {
+            // Carga y topología se vuelven a aprender si el servidor se registra de nuevo
+            loadTracker.forget(url);
+            topologyService.forget(url);
+
             System.out.println("╔════════════════════════════════════════════════════════╗");
             System.out.println("║       CHUNKSERVER DESREGISTRADO                        ║");
             System.out.println("╚════════════════════════════════════════════════════════╝");
@@ -158,9 +253,45 @@ public class MasterService {
     // ═══════════════════════════════════════════════════════════════
 
     /**
-     * Planifica upload - SOLO USA CHUNKSERVERS ACTIVOS
+     * Planifica upload con el tamaño de chunk que corresponde al tamaño del archivo
      */
     public FileMetadata planUpload(String imagenId, long fileSize) {
+        return planUpload(imagenId, fileSize, null, null);
+    }
+
+    /**
+     * Planifica upload - SOLO USA CHUNKSERVERS ACTIVOS
+     *
+     * @param requestedChunkSize Tamaño de chunk pedido por el cliente (bytes), o null para elegirlo
+     *                           según el tamaño del archivo
+     * @param storageClass       REPLICATED, EC, o null para la clase por defecto. Los objetos
+     *                           replicados chicos sin chunkSize pedido se empaquetan (PACKED)
+     */
+    public FileMetadata planUpload(String imagenId, long fileSize, Integer requestedChunkSize, String storageClass) {
+        return planUpload(imagenId, fileSize, requestedChunkSize, storageClass, FileMetadata.NO_CHECKSUM);
+    }
+
+    /**
+     * Planifica upload guardando el CRC32 del contenido, que se verifica al leer el
+     * objeto si termina empaquetado
+     */
+    public FileMetadata planUpload(String imagenId, long fileSize, Integer requestedChunkSize, String storageClass,
+                                   long checksum) {
+        if (requestedChunkSize != null &&
+            (requestedChunkSize < MIN_CHUNK_SIZE || requestedChunkSize > MAX_CHUNK_SIZE)) {
+            throw new IllegalArgumentException(
+                    "chunkSize debe estar entre " + MIN_CHUNK_SIZE + " y " + MAX_CHUNK_SIZE + " bytes");
+        }
+
+        String resolvedClass = (storageClass == null || storageClass.trim().isEmpty())
+                ? defaultStorageClass.trim().toUpperCase()
+                : storageClass.trim().toUpperCase();
+        if (!FileMetadata.STORAGE_REPLICATED.equals(resolvedClass) &&
+            !FileMetadata.STORAGE_ERASURE_CODED.equals(resolvedClass)) {
+            throw new IllegalArgumentException("storageClass debe ser " + FileMetadata.STORAGE_REPLICATED +
+                                               " o " + FileMetadata.STORAGE_ERASURE_CODED);
+        }
+
         if (registeredChunkservers.isEmpty()) {
             throw new RuntimeException(
                     "No hay chunkservers registrados en el sistema. " +
@@ -178,6 +309,16 @@ public class MasterService {
             );
         }
 
+        if (FileMetadata.STORAGE_REPLICATED.equals(resolvedClass) && requestedChunkSize == null &&
+            !PackingService.isContainer(imagenId) && packingService.shouldPack(fileSize)) {
+            return planPackedUpload(imagenId, fileSize, checksum);
+        }
+
+        int chunkSize = requestedChunkSize != null ? requestedChunkSize : chooseChunkSize(fileSize);
+        if (FileMetadata.STORAGE_ERASURE_CODED.equals(resolvedClass)) {
+            return planErasureCodedUpload(imagenId, fileSize, chunkSize, healthyChunkservers);
+        }
+
         int availableReplicas = Math.min(REPLICATION_FACTOR, healthyChunkservers.size());
 
         if (!ALLOW_DEGRADED_REPLICATION && availableReplicas < REPLICATION_FACTOR) {
@@ -196,21 +337,23 @@ public class MasterService {
             );
         }
 
-        FileMetadata metadata = new FileMetadata(imagenId, fileSize);
-        int numChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
+        FileMetadata metadata = new FileMetadata(chunkserverIds, imagenId, fileSize, chunkSize);
+        int numChunks = metadata.expectedChunkCount();
 
         System.out.println("╔════════════════════════════════════════════════════════╗");
         System.out.println("║      PLANIFICANDO UPLOAD                               ║");
         System.out.println("╚════════════════════════════════════════════════════════╝");
         System.out.println("   ImagenId: " + imagenId);
         System.out.println("   Tamaño: " + fileSize + " bytes");
+        System.out.println("   Tamaño de fragmento: " + (chunkSize / 1024) + " KB");
         System.out.println("   Fragmentos: " + numChunks);
         System.out.println("   Réplicas por fragmento: " + availableReplicas);
+        System.out.println("   Política de colocación: " + placementService.getPolicyName());
         System.out.println();
 
         // Asignar fragmentos
         for (int i = 0; i < numChunks; i++) {
-            List<String> replicaLocations = selectHealthyChunkserversForReplicas(
+            List<String> replicaLocations = placementService.chooseServers(
                     availableReplicas,
                     healthyChunkservers
             );
@@ -219,28 +362,146 @@ public class MasterService {
                 String chunkserver = replicaLocations.get(r);
                 ChunkMetadata chunk = new ChunkMetadata(i, chunkserver, chunkserver);
                 chunk.setReplicaIndex(r);
-                metadata.getChunks().add(chunk);
+                metadata.addReplica(chunk);
             }
         }
 
-        fileMetadataStore.put(imagenId, metadata);
-        persistenceService.saveFileMetadata(fileMetadataStore);
+        storeFile(metadata);
+
+        // Colocación degradada: el ReplicationMonitor la completará cuando haya servidores
+        if (availableReplicas < REPLICATION_FACTOR && replicationMonitor != null) {
+            replicationMonitor.markForCheck(imagenId);
+        }
+
+        return metadata;
+    }
+
+    /**
+     * Planifica un upload erasure-coded RS(k, m): por cada franja se eligen k + m servidores
+     * con la política de colocación (repartidos por dominios de falla) y cada shard va a uno.
+     * Con menos de k + m servidores vivos algunos reciben dos shards de la misma franja; se
+     * exige al menos ceil((k + m) / m) servidores para que la caída de uno no pierda más de
+     * m shards de una franja.
+     */
+    private FileMetadata planErasureCodedUpload(String imagenId, long fileSize, int chunkSize,
+                                                List<String> healthyChunkservers) {
+        int shardsPerStripe = ecDataShards + ecParityShards;
+        int minServers = (shardsPerStripe + ecParityShards - 1) / ecParityShards;
+        if (healthyChunkservers.size() < minServers) {
+            throw new RuntimeException(
+                    "Insuficientes chunkservers para RS(" + ecDataShards + "," + ecParityShards + "). " +
+                    "Disponibles: " + healthyChunkservers.size() + ", " +
+                    "Mínimo requerido: " + minServers
+            );
+        }
+
+        FileMetadata metadata = new FileMetadata(chunkserverIds, imagenId, fileSize, chunkSize);
+        metadata.useErasureCoding(ecDataShards, ecParityShards);
+        int stripes = metadata.stripeCount();
+
+        System.out.println("╔════════════════════════════════════════════════════════╗");
+        System.out.println("║      PLANIFICANDO UPLOAD (ERASURE CODING)              ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝");
+        System.out.println("   ImagenId: " + imagenId);
+        System.out.println("   Tamaño: " + fileSize + " bytes");
+        System.out.println("   Esquema: RS(" + ecDataShards + "," + ecParityShards + ")");
+        System.out.println("   Tamaño de shard: " + (chunkSize / 1024) + " KB");
+        System.out.println("   Franjas: " + stripes + " (" + (stripes * shardsPerStripe) + " shards)");
+        if (healthyChunkservers.size() < shardsPerStripe) {
+            System.out.println("   ⚠️  Solo " + healthyChunkservers.size() + " servidores vivos: " +
+                               "algunos guardan dos shards de la misma franja");
+        }
+        System.out.println();
+
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            List<String> servers = placementService.chooseServers(
+                    Math.min(shardsPerStripe, healthyChunkservers.size()),
+                    healthyChunkservers
+            );
+            for (int shard = 0; shard < shardsPerStripe; shard++) {
+                String chunkserver = servers.get(shard % servers.size());
+                metadata.addReplica(new ChunkMetadata(stripe * shardsPerStripe + shard, chunkserver, chunkserver));
+            }
+        }
 
+        storeFile(metadata);
         return metadata;
     }
 
     /**
-     * Selecciona chunkservers para réplicas usando distribución aleatoria
+     * Planifica un objeto chico dentro del contenedor abierto: el cliente escribe sus
+     * bytes en el rango asignado del chunk 0 de cada réplica del contenedor. Todas
+     * tienen que aceptarlo, así que un contenedor con réplicas en servidores caídos
+     * se cierra y el objeto va a uno nuevo.
      */
-    private List<String> selectHealthyChunkserversForReplicas(
-            int numReplicas,
-            List<String> healthyChunkservers) {
+    private FileMetadata planPackedUpload(String imagenId, long fileSize, long checksum) {
+        MembershipSnapshot membership = heartbeatHandler.getMembership();
+        PackingService.Slot slot = packingService.allocate(fileSize);
+        FileMetadata container = fileMetadataStore.get(slot.containerId);
+        if (container != null && !allReplicasOn(container, membership)) {
+            packingService.seal(slot.containerId);
+            slot = packingService.allocate(fileSize);
+            container = fileMetadataStore.get(slot.containerId);
+        }
+        if (container == null) {
+            throw new RuntimeException("Contenedor no encontrado: " + slot.containerId);
+        }
+
+        FileMetadata metadata = new FileMetadata(chunkserverIds, imagenId, fileSize);
+        metadata.usePacking(slot.containerId, slot.offset);
+        metadata.setChecksum(checksum);
+
+        System.out.println("📦 Upload empaquetado: " + imagenId + " (" + fileSize + " bytes) → " +
+                           slot.containerId + " @ " + slot.offset);
+
+        storeFile(metadata);
+        return metadata.withContainerReplicas(container.replicas());
+    }
+
+    private static boolean allReplicasOn(FileMetadata file, MembershipSnapshot membership) {
+        return file.withReplicasOn(membership::isHealthy).replicas().length() == file.replicas().length();
+    }
 
-        List<String> available = new ArrayList<>(healthyChunkservers);
-        Collections.shuffle(available);
+    /**
+     * Mueve un objeto empaquetado a otro contenedor (compactación). No hace nada si el
+     * objeto se borró o ya no está en el contenedor de origen.
+     *
+     * @return true si se actualizó el metadato
+     */
+    public boolean repointPackedObject(String imagenId, String fromContainer, String toContainer, long offset) {
+        FileMetadata moved;
+        ReentrantLock lock = fileLocks.forKey(imagenId);
+        lock.lock();
+        try {
+            FileMetadata current = fileMetadataStore.get(imagenId);
+            if (current == null || !current.packed() || !fromContainer.equals(current.getContainerId())) {
+                return false;
+            }
+            moved = new FileMetadata(chunkserverIds, imagenId, current.getSize());
+            moved.setTimestamp(current.getTimestamp());
+            moved.usePacking(toContainer, offset);
+            moved.setChecksum(current.getChecksum());
+            // ReentrantLock: storeFile vuelve a tomar el mismo lock sin que otro escritor se meta en el medio
+            storeFile(moved);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
 
-        int actualReplicas = Math.min(numReplicas, available.size());
-        return available.subList(0, actualReplicas);
+    /**
+     * Tamaño de chunk según el tamaño del archivo: chunks chicos para miniaturas
+     * (lecturas parciales baratas) y grandes para archivos grandes (menos escrituras
+     * HTTP y menos registros de metadatos por archivo)
+     */
+    int chooseChunkSize(long fileSize) {
+        if (fileSize <= smallFileMaxKB * 1024) {
+            return smallChunkSizeKB * 1024;
+        }
+        if (fileSize <= mediumFileMaxKB * 1024) {
+            return mediumChunkSizeKB * 1024;
+        }
+        return largeChunkSizeKB * 1024;
     }
 
     /**
@@ -252,35 +513,47 @@ public class MasterService {
             throw new RuntimeException("Archivo no encontrado: " + imagenId);
         }
 
-        FileMetadata filteredMetadata = new FileMetadata(
-                metadata.getImagenId(),
-                metadata.getSize()
-        );
-        filteredMetadata.setTimestamp(metadata.getTimestamp());
-
-        List<String> healthyServers = heartbeatHandler.getHealthyChunkservers();
+        // Filtrar por id contra la foto de membresía actual: O(réplicas), sin listas intermedias
+        MembershipSnapshot membership = heartbeatHandler.getMembership();
+        FileMetadata filteredMetadata = metadata.withReplicasOn(membership::isHealthy);
 
-        for (ChunkMetadata chunk : metadata.getChunks()) {
-            if (healthyServers.contains(chunk.getChunkserverUrl())) {
-                filteredMetadata.getChunks().add(chunk);
+        // Objetos empaquetados: se leen de las réplicas vivas del contenedor
+        if (metadata.packed()) {
+            FileMetadata container = fileMetadataStore.get(metadata.getContainerId());
+            if (container == null) {
+                throw new RuntimeException("Contenedor no encontrado: " + metadata.getContainerId());
             }
+            FileMetadata filteredContainer = container.withReplicasOn(membership::isHealthy);
+            if (filteredContainer.replicas().firstMissingChunk(1) >= 0) {
+                throw new RuntimeException(
+                        "Contenedor " + metadata.getContainerId() + " no disponible - " +
+                        "todas sus réplicas están en servidores caídos"
+                );
+            }
+            return metadata.withContainerReplicas(filteredContainer.replicas());
         }
 
-        // Verificar que hay al menos una réplica por fragmento
-        Map<Integer, Long> replicasPerChunk = filteredMetadata.getChunks().stream()
-                .collect(java.util.stream.Collectors.groupingBy(
-                        ChunkMetadata::getChunkIndex,
-                        java.util.stream.Collectors.counting()
-                ));
-
-        int numChunks = (int) Math.ceil((double) metadata.getSize() / CHUNK_SIZE);
-        for (int i = 0; i < numChunks; i++) {
-            if (!replicasPerChunk.containsKey(i) || replicasPerChunk.get(i) == 0) {
+        // Archivos EC: cada franja necesita al menos dataShards shards para reconstruirse
+        if (metadata.erasureCoded()) {
+            int unreadable = filteredMetadata.replicas().firstUnreadableStripe(
+                    metadata.stripeCount(), metadata.shardsPerStripe(), metadata.getDataShards());
+            if (unreadable >= 0) {
                 throw new RuntimeException(
-                        "Fragmento " + i + " no disponible - " +
-                        "todas sus réplicas están en servidores caídos"
+                        "Franja " + unreadable + " no disponible - " +
+                        "quedan menos de " + metadata.getDataShards() + " shards en servidores activos"
                 );
             }
+            return filteredMetadata;
+        }
+
+        // Verificar que hay al menos una réplica por fragmento
+        int numChunks = metadata.expectedChunkCount();
+        int firstMissing = filteredMetadata.replicas().firstMissingChunk(numChunks);
+        if (firstMissing >= 0) {
+            throw new RuntimeException(
+                    "Fragmento " + firstMissing + " no disponible - " +
+                    "todas sus réplicas están en servidores caídos"
+            );
         }
 
         return filteredMetadata;
@@ -290,19 +563,154 @@ public class MasterService {
      * Elimina archivo Y metadatos
      */
     public void deleteFile(String imagenId) {
-        FileMetadata metadata = fileMetadataStore.remove(imagenId);
-        if (metadata != null) {
-            persistenceService.deleteFileMetadata(imagenId, fileMetadataStore);
-            System.out.println("🗑️ Metadatos eliminados: " + imagenId);
+        CompletableFuture<Void> logged;
+        MetadataOperation operation = MetadataOperation.delete(imagenId);
+
+        ReentrantLock lock = fileLocks.forKey(imagenId);
+        lock.lock();
+        try {
+            checkLogWritable();
+            FileMetadata metadata = fileMetadataStore.remove(imagenId);
+            if (metadata == null) {
+                return;
+            }
+            locationIndex.removeFile(metadata);
+            namespaceStats.fileRemoved(metadata);
+            packingService.onFileRemoved(metadata);
+            logged = persistenceService.logOperationAsync(operation);
+        } finally {
+            lock.unlock();
         }
+
+        readHeatTracker.forget(imagenId);
+        persistenceService.awaitLogged(operation, logged);
+        System.out.println("🗑️ Metadatos eliminados: " + imagenId);
     }
 
     /**
-     * Actualiza los metadatos de un archivo
+     * Reemplaza por completo los metadatos de un archivo
      */
     public void updateFileMetadata(FileMetadata metadata) {
-        fileMetadataStore.put(metadata.getImagenId(), metadata);
-        persistenceService.saveFileMetadata(fileMetadataStore);
+        storeFile(metadata);
+    }
+
+    /**
+     * Inserta o reemplaza un archivo en el namespace manteniendo índice inverso,
+     * totales y log de operaciones en el mismo orden
+     */
+    private void storeFile(FileMetadata metadata) {
+        CompletableFuture<Void> logged;
+        MetadataOperation operation = MetadataOperation.create(metadata);
+
+        ReentrantLock lock = fileLocks.forKey(metadata.getImagenId());
+        lock.lock();
+        try {
+            checkLogWritable();
+            FileMetadata previous = fileMetadataStore.put(metadata.getImagenId(), metadata);
+            if (previous != metadata) {
+                // Quitar primero las entradas anteriores: comparten claves (imagenId) con las nuevas
+                if (previous != null) {
+                    locationIndex.removeFile(previous);
+                    namespaceStats.fileRemoved(previous);
+                    packingService.onFileRemoved(previous);
+                }
+                locationIndex.addFile(metadata);
+                namespaceStats.fileAdded(metadata);
+                packingService.onFileStored(metadata);
+            }
+            logged = persistenceService.logOperationAsync(operation);
+        } finally {
+            lock.unlock();
+        }
+
+        persistenceService.awaitLogged(operation, logged);
+    }
+
+    /**
+     * Registra una nueva réplica de un chunk sobre los metadatos almacenados
+     *
+     * @return false si el archivo ya no existe o la réplica ya estaba registrada
+     */
+    public boolean addReplica(String imagenId, ChunkMetadata replica) {
+        CompletableFuture<Void> logged;
+        MetadataOperation operation = MetadataOperation.addReplica(imagenId, replica);
+
+        ReentrantLock lock = fileLocks.forKey(imagenId);
+        lock.lock();
+        try {
+            checkLogWritable();
+            FileMetadata metadata = fileMetadataStore.get(imagenId);
+            if (metadata == null || !metadata.addReplica(replica)) {
+                return false;
+            }
+            locationIndex.add(replica.getChunkserverUrl(), imagenId, replica.getChunkIndex());
+            namespaceStats.replicaAdded(metadata, metadata.replicas().replicaCountOf(replica.getChunkIndex()));
+            logged = persistenceService.logOperationAsync(operation);
+        } finally {
+            lock.unlock();
+        }
+
+        persistenceService.awaitLogged(operation, logged);
+        return true;
+    }
+
+    /**
+     * Elimina una réplica de un chunk de los metadatos almacenados
+     */
+    public boolean removeReplica(String imagenId, int chunkIndex, String chunkserverUrl) {
+        CompletableFuture<Void> logged;
+        MetadataOperation operation = MetadataOperation.removeReplica(imagenId, chunkIndex, chunkserverUrl);
+
+        ReentrantLock lock = fileLocks.forKey(imagenId);
+        lock.lock();
+        try {
+            checkLogWritable();
+            FileMetadata metadata = fileMetadataStore.get(imagenId);
+            if (metadata == null || !metadata.removeReplica(chunkIndex, chunkserverUrl)) {
+                return false;
+            }
+            locationIndex.remove(chunkserverUrl, imagenId, chunkIndex);
+            namespaceStats.replicaRemoved(metadata, metadata.replicas().replicaCountOf(chunkIndex));
+            logged = persistenceService.logOperationAsync(operation);
+        } finally {
+            lock.unlock();
+        }
+
+        persistenceService.awaitLogged(operation, logged);
+        return true;
+    }
+
+    /**
+     * Rechaza una mutación si el log de metadatos quedó detenido por una escritura fallida
+     */
+    private void checkLogWritable() {
+        if (!persistenceService.isLogWritable()) {
+            throw new IllegalStateException("Log de metadatos detenido por una escritura fallida: " +
+                                            "el Master no acepta cambios hasta reiniciarse");
+        }
+    }
+
+    /**
+     * Chunks que el Master espera encontrar en un servidor (vía índice inverso)
+     *
+     * @return Mapa imagenId → índices de chunk
+     */
+    public Map<String, Set<Integer>> getChunksOnServer(String chunkserverUrl) {
+        return locationIndex.chunksOn(chunkserverUrl);
+    }
+
+    /**
+     * Archivos con al menos una réplica en un servidor (vía índice inverso)
+     */
+    public Set<String> getFilesOnServer(String chunkserverUrl) {
+        return locationIndex.filesOn(chunkserverUrl);
+    }
+
+    /**
+     * Busca un archivo sin filtrar réplicas por salud del servidor
+     */
+    public FileMetadata findFile(String imagenId) {
+        return fileMetadataStore.get(imagenId);
     }
 
     /**
@@ -312,6 +720,19 @@ public class MasterService {
         return fileMetadataStore.values();
     }
 
+    /**
+     * Archivos en orden de imagenId posteriores al cursor (exclusivo).
+     * Es una vista del namespace, no una copia: se recorre sin materializar la lista.
+     *
+     * @param cursor Último imagenId ya entregado, o null para empezar desde el principio
+     */
+    public Collection<FileMetadata> listFilesAfter(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return fileMetadataStore.values();
+        }
+        return fileMetadataStore.tailMap(cursor, false).values();
+    }
+
 
     // ═══════════════════════════════════════════════════════════════
     // ESTADO Y ESTADÍSTICAS
@@ -330,10 +751,12 @@ public class MasterService {
         health.put("healthyChunkservers", healthy.size());
         health.put("unhealthyChunkservers", unhealthy.size());
         health.put("healthyServers", healthy);
+        health.put("membershipEpoch", heartbeatHandler.getMembership().getEpoch());
         health.put("unhealthyServers", unhealthy);
         health.put("requiredForReplication", REPLICATION_FACTOR);
         health.put("canMaintainReplication", healthy.size() >= REPLICATION_FACTOR);
-        health.put("filesInMemory", fileMetadataStore.size());
+        health.put("filesInMemory", namespaceStats.getTotalFiles());
+        health.put("underReplicatedChunks", namespaceStats.getUnderReplicatedChunks());
         health.putAll(persistenceService.getStorageStats());
         health.put("chunkserverDetails", heartbeatHandler.getDetailedStatus());
 
@@ -348,38 +771,36 @@ public class MasterService {
 
         List<String> healthy = heartbeatHandler.getHealthyChunkservers();
 
-        stats.put("totalFiles", fileMetadataStore.size());
+        stats.put("totalFiles", namespaceStats.getTotalFiles());
         stats.put("totalChunkservers", registeredChunkservers.size());
         stats.put("healthyChunkservers", healthy.size());
         stats.put("unhealthyChunkservers", registeredChunkservers.size() - healthy.size());
         stats.put("allChunkservers", getAllChunkservers());
         stats.put("healthyServers", healthy);
-        stats.put("chunkSizeKB", CHUNK_SIZE / 1024);
+        Map<String, Object> chunkSizeTiers = new LinkedHashMap<>();
+        chunkSizeTiers.put("smallFileMaxKB", smallFileMaxKB);
+        chunkSizeTiers.put("smallChunkSizeKB", smallChunkSizeKB);
+        chunkSizeTiers.put("mediumFileMaxKB", mediumFileMaxKB);
+        chunkSizeTiers.put("mediumChunkSizeKB", mediumChunkSizeKB);
+        chunkSizeTiers.put("largeChunkSizeKB", largeChunkSizeKB);
+        stats.put("chunkSizeTiers", chunkSizeTiers);
         stats.put("replicationFactor", REPLICATION_FACTOR);
 
-        // Calcular totales
-        long totalSize = 0;
-        long totalChunks = 0;
-        long totalReplicas = 0;
-
-        for (FileMetadata metadata : fileMetadataStore.values()) {
-            totalSize += metadata.getSize();
-            Set<Integer> uniqueChunks = new HashSet<>();
-            for (ChunkMetadata chunk : metadata.getChunks()) {
-                uniqueChunks.add(chunk.getChunkIndex());
-                totalReplicas++;
-            }
-            totalChunks += uniqueChunks.size();
-        }
+        // Totales mantenidos incrementalmente
+        long totalSize = namespaceStats.getTotalBytes();
+        long totalChunks = namespaceStats.getUniqueChunks();
+        long totalReplicas = namespaceStats.getTotalReplicas();
 
         stats.put("totalStorageUsed", totalSize);
         stats.put("totalStorageUsedKB", totalSize / 1024);
         stats.put("totalUniqueChunks", totalChunks);
         stats.put("totalReplicas", totalReplicas);
+        stats.put("underReplicatedChunks", namespaceStats.getUnderReplicatedChunks());
         stats.put("replicationEfficiency",
                 totalChunks > 0 ? (double) totalReplicas / totalChunks : 0);
         stats.put("healthStatus", getHealthStatus());
         stats.put("persistenceStats", persistenceService.getStorageStats());
+        stats.put("readHeat", readHeatTracker.getStats());
 
         return stats;
     }
@@ -1,27 +1,75 @@
 package com.tpdteam3.master.service;
 
+import com.fasterxml.jackson.databind.InjectableValues;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.tpdteam3.master.model.ChunkserverIdTable;
 import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.MetadataOperation;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
- * Servicio para persistir metadatos en disco usando JSON
- * Implementa patrón Write-Ahead con archivo temporal para atomicidad
+ * Servicio para persistir metadatos en disco.
+ * <p>
+ * Cada mutación del namespace se agrega a un log de operaciones (append-only,
+ * una línea JSON por operación), de modo que el costo de una escritura es O(1)
+ * y no depende del número de archivos. Periódicamente se toma un checkpoint
+ * completo (file_metadata.snapshot, formato binario de {@link MetadataSnapshotCodec},
+ * escrito a temporal + rename atómico). El checkpoint anterior se conserva como
+ * file_metadata.snapshot.prev junto con los segmentos de log posteriores a él, y
+ * solo se truncan los segmentos que ya cubre ese checkpoint anterior. Un
+ * file_metadata.json heredado se sigue cargando si todavía no existe snapshot binario.
+ * <p>
+ * Al arrancar se carga el último checkpoint y se reproducen los segmentos de log
+ * restantes en orden. Si el último checkpoint está corrupto se aparta y se usa el
+ * anterior más el log; si tampoco se puede, el arranque falla en lugar de seguir
+ * con un namespace vacío (que el siguiente checkpoint haría definitivo).
+ * <p>
+ * Las escrituras al log usan group commit: los hilos de petición encolan su
+ * operación y esperan un future; un único hilo de persistencia agrupa lo que
+ * llega dentro de una ventana corta (o hasta un tamaño máximo de lote), lo
+ * escribe de una vez con un solo fsync y completa los futures del lote.
+ * <p>
+ * Si un lote no se puede escribir, el log queda detenido: el segmento se recorta al
+ * último lote confirmado (sin volcar lo que quedó en el buffer, así una operación que
+ * falló no aparece después en disco), las operaciones siguientes se rechazan y no se
+ * toman más checkpoints. Reiniciar el Master reconstruye el namespace con lo confirmado.
  */
 @Service
 public class MetadataPersistenceService {
@@ -29,20 +77,97 @@ public class MetadataPersistenceService {
     @Value("${master.metadata.storage.path:./metadata}")
     private String metadataStoragePath;
 
+    @Value("${master.metadata.checkpoint.interval:60}")
+    private int checkpointIntervalSeconds;
+
+    @Value("${master.metadata.checkpoint.max-log-entries:10000}")
+    private int checkpointMaxLogEntries;
+
+    @Value("${master.metadata.group-commit.window-ms:2}")
+    private long groupCommitWindowMs;
+
+    @Value("${master.metadata.group-commit.max-batch:512}")
+    private int groupCommitMaxBatch;
+
+    @Value("${master.metadata.oplog.fsync:true}")
+    private boolean fsyncEnabled;
+
+    @Value("${master.metadata.stats-cache-ms:10000}")
+    private long statsCacheMs;
+
+    @Autowired
+    private ChunkserverIdTable chunkserverIds;
+
+    private static final String LOG_SEGMENT_PREFIX = "metadata_oplog_";
+    private static final String LOG_SEGMENT_SUFFIX = ".log";
+    private static final Pattern LOG_SEGMENT_PATTERN =
+            Pattern.compile(LOG_SEGMENT_PREFIX + "(\\d+)\\" + LOG_SEGMENT_SUFFIX);
+
+    private Path storagePath;
     private Path metadataFilePath;
     private Path tempMetadataFilePath;
+    private Path previousMetadataFilePath;
+    private Path legacyJsonFilePath;
     private final ObjectMapper objectMapper;
+    private final ObjectMapper logMapper;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
+    // Estado del log de operaciones
+    private final ReentrantLock logLock = new ReentrantLock();
+    private BufferedWriter logWriter;
+    private FileChannel logChannel;
+    // Bytes del segmento actual que pertenecen a lotes confirmados
+    private long logCommittedBytes = 0;
+    // Causa de la escritura fallida que detuvo el log (null mientras funciona)
+    private volatile String logFailure;
+    private long currentSegment = 0;
+    private long entriesSinceCheckpoint = 0;
+    // Último segmento cubierto por el checkpoint anterior (los posteriores se conservan
+    // para poder reconstruir desde file_metadata.snapshot.prev); -1 = ninguno todavía
+    private long previousCheckpointSegment = -1;
+    private long totalLoggedOperations = 0;
+    private long totalCheckpoints = 0;
+    private long lastCheckpointTime = 0;
+    private final AtomicBoolean checkpointInProgress = new AtomicBoolean(false);
+
+    // Group commit: cola de operaciones pendientes y un único hilo escritor
+    private final BlockingQueue<PendingOperation> commitQueue = new LinkedBlockingQueue<>();
+    private Thread groupCommitThread;
+    private volatile boolean groupCommitRunning = false;
+    // Encolar (lectura) vs dejar de aceptar operaciones al apagar (escritura): nada entra
+    // a la cola después del último drenado del hilo escritor
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+    private boolean acceptingOperations = false;
+    private long totalCommitBatches = 0;
+    private long totalFsyncs = 0;
+    private int largestCommitBatch = 0;
+
+    // Estadísticas del sistema de archivos (caché: /stats y /health no tocan disco en cada consulta)
+    private volatile Map<String, Object> cachedFileStats;
+    private volatile long cachedFileStatsTime = 0;
+
+    // Namespace vivo (el mismo mapa que usa MasterService), fuente de los checkpoints
+    private Map<String, FileMetadata> liveMetadata;
+
+    private final ScheduledExecutorService checkpointScheduler = Executors.newSingleThreadScheduledExecutor();
+
     public MetadataPersistenceService() {
+        // Solo para leer checkpoints JSON heredados
         this.objectMapper = new ObjectMapper();
-        this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        // El log usa una línea por operación, sin indentación
+        this.logMapper = new ObjectMapper();
     }
 
     @PostConstruct
     public void init() throws IOException {
+        // Los FileMetadata leídos del log y del JSON heredado usan la tabla de ids del Master
+        InjectableValues injectables = new InjectableValues.Std()
+                .addValue(ChunkserverIdTable.class, chunkserverIds);
+        objectMapper.setInjectableValues(injectables);
+        logMapper.setInjectableValues(injectables);
+
         // Resolver ruta de almacenamiento
-        Path storagePath = Paths.get(metadataStoragePath).toAbsolutePath().normalize();
+        storagePath = Paths.get(metadataStoragePath).toAbsolutePath().normalize();
 
         System.out.println("╔════════════════════════════════════════════════════════╗");
         System.out.println("║       INICIALIZANDO PERSISTENCIA DE METADATOS          ║");
@@ -58,8 +183,10 @@ public class MetadataPersistenceService {
         }
 
         // Definir rutas de archivos
-        metadataFilePath = storagePath.resolve("file_metadata.json");
-        tempMetadataFilePath = storagePath.resolve("file_metadata.tmp.json");
+        metadataFilePath = storagePath.resolve("file_metadata.snapshot");
+        tempMetadataFilePath = storagePath.resolve("file_metadata.snapshot.tmp");
+        previousMetadataFilePath = storagePath.resolve("file_metadata.snapshot.prev");
+        legacyJsonFilePath = storagePath.resolve("file_metadata.json");
 
         // Verificar permisos
         File storageDir = storagePath.toFile();
@@ -72,34 +199,97 @@ public class MetadataPersistenceService {
         // Mostrar estado
         if (Files.exists(metadataFilePath)) {
             long size = Files.size(metadataFilePath);
-            System.out.println("Archivo de metadatos existente: " + size + " bytes");
+            System.out.println("Checkpoint de metadatos existente: " + size + " bytes");
+        } else if (Files.exists(legacyJsonFilePath)) {
+            System.out.println("Checkpoint JSON heredado: " + Files.size(legacyJsonFilePath) +
+                               " bytes (se migrará al formato binario)");
         } else {
-            System.out.println("Archivo de metadatos será creado en primera escritura");
+            System.out.println("Checkpoint de metadatos será creado en el primer checkpoint");
         }
 
+        List<Long> segments = listLogSegments();
+        System.out.println("Segmentos de log pendientes: " + segments.size());
+        System.out.println("Intervalo de checkpoint: " + checkpointIntervalSeconds + " segundos");
+        System.out.println("Group commit: ventana " + groupCommitWindowMs + " ms, lote máximo " +
+                           groupCommitMaxBatch + ", fsync " + (fsyncEnabled ? "activado" : "desactivado"));
+
         System.out.println();
+
+        checkpointScheduler.scheduleWithFixedDelay(
+                this::checkpointSafely,
+                checkpointIntervalSeconds,
+                checkpointIntervalSeconds,
+                TimeUnit.SECONDS
+        );
+
+        acceptingOperations = true;
+        groupCommitRunning = true;
+        groupCommitThread = new Thread(this::groupCommitLoop, "metadata-group-commit");
+        groupCommitThread.setDaemon(true);
+        groupCommitThread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        System.out.println("Deteniendo persistencia de metadatos...");
+
+        // Dejar de aceptar operaciones y drenar las pendientes antes del checkpoint final
+        acceptLock.writeLock().lock();
+        try {
+            acceptingOperations = false;
+        } finally {
+            acceptLock.writeLock().unlock();
+        }
+        groupCommitRunning = false;
+        if (groupCommitThread != null) {
+            try {
+                groupCommitThread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Si el hilo escritor no terminó a tiempo, nadie queda esperando un lote que no llega
+        failPendingOperations();
+
+        checkpointScheduler.shutdown();
+        try {
+            if (!checkpointScheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                checkpointScheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            checkpointScheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        // Checkpoint final para que el próximo arranque no tenga que reproducir el log
+        checkpointSafely();
+
+        logLock.lock();
+        try {
+            closeLogWriter();
+        } finally {
+            logLock.unlock();
+        }
     }
 
     /**
-     * Carga todos los metadatos desde disco
+     * Carga todos los metadatos desde disco: último checkpoint + segmentos de log.
+     * El mapa devuelto queda registrado como fuente de los checkpoints posteriores.
+     * Está ordenado por imagenId para poder listarlo por páginas con un cursor.
+     *
+     * @throws IllegalStateException si no se pueden reconstruir los metadatos
      */
-    public Map<String, FileMetadata> loadMetadata() {
+    public ConcurrentNavigableMap<String, FileMetadata> loadMetadata() {
         lock.readLock().lock();
         try {
-            if (!Files.exists(metadataFilePath)) {
-                System.out.println("No hay metadatos previos para cargar");
-                return new ConcurrentHashMap<>();
-            }
+            ConcurrentNavigableMap<String, FileMetadata> metadata = loadCheckpoint();
 
-            System.out.println("Cargando metadatos desde disco...");
-
-            // Leer archivo JSON
-            Map<String, FileMetadata> metadata = objectMapper.readValue(
-                    metadataFilePath.toFile(),
-                    objectMapper.getTypeFactory().constructMapType(
-                            HashMap.class, String.class, FileMetadata.class
-                    )
-            );
+            // Reproducir el log de operaciones posterior al checkpoint
+            int replayed = replayLogSegments(metadata);
+            entriesSinceCheckpoint = replayed;
+            if (replayed > 0) {
+                System.out.println("Operaciones reproducidas desde el log: " + replayed);
+            }
 
             System.out.println("Metadatos cargados exitosamente");
             System.out.println("   └─ Total de archivos: " + metadata.size());
@@ -110,7 +300,7 @@ public class MetadataPersistenceService {
                         .mapToLong(FileMetadata::getSize)
                         .sum();
                 int totalChunks = metadata.values().stream()
-                        .mapToInt(m -> m.getChunks().size())
+                        .mapToInt(FileMetadata::replicaCount)
                         .sum();
 
                 System.out.println("   └─ Tamaño total: " + (totalSize / 1024) + " KB");
@@ -118,18 +308,351 @@ public class MetadataPersistenceService {
             }
             System.out.println();
 
-            return new ConcurrentHashMap<>(metadata);
+            liveMetadata = metadata;
+            openNextLogSegment();
+            return metadata;
 
         } catch (IOException e) {
+            // No arrancar vacío: el primer checkpoint borraría el log que aún tiene los datos
             System.err.println("ERROR cargando metadatos: " + e.getMessage());
-            System.err.println("   Se iniciará con metadatos vacíos");
-            e.printStackTrace();
-            return new ConcurrentHashMap<>();
+            throw new IllegalStateException("No se pudieron cargar los metadatos desde " + storagePath, e);
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    /**
+     * Lee el checkpoint más reciente que sea válido: el último, o el anterior si el
+     * último está corrupto (en ese caso se aparta como .corrupt para que el próximo
+     * checkpoint no lo tome como anterior). Los archivos se publican en el mapa solo
+     * después de verificar el CRC.
+     */
+    private ConcurrentNavigableMap<String, FileMetadata> loadCheckpoint() throws IOException {
+        ConcurrentNavigableMap<String, FileMetadata> metadata = new ConcurrentSkipListMap<>();
+
+        if (Files.exists(metadataFilePath)) {
+            System.out.println("Cargando checkpoint binario desde disco...");
+            try {
+                readSnapshot(metadataFilePath, metadata);
+                return metadata;
+            } catch (IOException e) {
+                if (!Files.exists(previousMetadataFilePath)) {
+                    throw e;
+                }
+                Path corrupt = storagePath.resolve("file_metadata.snapshot.corrupt");
+                Files.move(metadataFilePath, corrupt, StandardCopyOption.REPLACE_EXISTING);
+                System.err.println("Checkpoint corrupto (" + e.getMessage() + "), apartado en " +
+                                   corrupt.getFileName() + "; se usa el checkpoint anterior");
+            }
+        }
+
+        if (Files.exists(previousMetadataFilePath)) {
+            // También cubre una caída entre los dos renombres de saveMetadata
+            System.out.println("Cargando checkpoint anterior desde disco...");
+            readSnapshot(previousMetadataFilePath, metadata);
+
+        } else if (Files.exists(legacyJsonFilePath)) {
+            System.out.println("Cargando checkpoint JSON heredado desde disco...");
+
+            // Leer archivo JSON
+            Map<String, FileMetadata> checkpoint = objectMapper.readValue(
+                    legacyJsonFilePath.toFile(),
+                    objectMapper.getTypeFactory().constructMapType(
+                            HashMap.class, String.class, FileMetadata.class
+                    )
+            );
+            metadata.putAll(checkpoint);
+            System.out.println("Checkpoint cargado: " + checkpoint.size() + " archivos");
+        } else {
+            System.out.println("No hay checkpoint previo para cargar");
+        }
+        return metadata;
+    }
+
+    private void readSnapshot(Path path, Map<String, FileMetadata> metadata) throws IOException {
+        int loaded = MetadataSnapshotCodec.readFromFile(chunkserverIds, path,
+                file -> metadata.put(file.getImagenId(), file));
+        System.out.println("Checkpoint cargado: " + loaded + " archivos");
+    }
+
+    /**
+     * Agrega una operación al log y espera a que su lote quede en disco.
+     * Costo O(1), independiente del tamaño del namespace.
+     */
+    public void logOperation(MetadataOperation operation) {
+        awaitLogged(operation, logOperationAsync(operation));
+    }
+
+    /**
+     * Espera a que una operación encolada con logOperationAsync quede persistida
+     */
+    public void awaitLogged(MetadataOperation operation, CompletableFuture<Void> logged) {
+        try {
+            logged.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new RuntimeException("No se pudo persistir la operación " + operation.getType() +
+                                       " de " + operation.getImagenId(), cause);
+        }
+    }
+
+    /**
+     * Encola una operación para el próximo group commit.
+     * El future se completa cuando el lote que la contiene fue escrito (y sincronizado).
+     */
+    public CompletableFuture<Void> logOperationAsync(MetadataOperation operation) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        String line;
+        try {
+            // Serializar en el hilo del llamador: el hilo escritor solo hace I/O
+            line = logMapper.writeValueAsString(operation);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        acceptLock.readLock().lock();
+        try {
+            if (!acceptingOperations) {
+                future.completeExceptionally(new IllegalStateException("Persistencia de metadatos detenida"));
+                return future;
+            }
+            commitQueue.add(new PendingOperation(line, future));
+        } finally {
+            acceptLock.readLock().unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Bucle del hilo de persistencia: toma la primera operación disponible,
+     * acumula las que lleguen dentro de la ventana de group commit y las
+     * escribe como un solo lote.
+     */
+    private void groupCommitLoop() {
+        List<PendingOperation> batch = new ArrayList<>(groupCommitMaxBatch);
+
+        while (groupCommitRunning || !commitQueue.isEmpty()) {
+            try {
+                PendingOperation first = commitQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(groupCommitWindowMs);
+
+                while (batch.size() < groupCommitMaxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        commitQueue.drainTo(batch, groupCommitMaxBatch - batch.size());
+                        break;
+                    }
+                    PendingOperation next = commitQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                writeBatch(batch);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+
+        // Si el hilo fue interrumpido, no dejar llamadores esperando para siempre
+        failPendingOperations();
+    }
+
+    private void failPendingOperations() {
+        PendingOperation pending;
+        while ((pending = commitQueue.poll()) != null) {
+            pending.future.completeExceptionally(new IllegalStateException("Persistencia de metadatos detenida"));
+        }
+    }
+
+    /**
+     * Escribe un lote completo con un único flush + fsync y completa sus futures.
+     */
+    private void writeBatch(List<PendingOperation> batch) {
+        boolean checkpointDue;
+
+        logLock.lock();
+        try {
+            if (logFailure != null) {
+                throw new IllegalStateException("Log de operaciones detenido: " + logFailure);
+            }
+            if (logWriter == null) {
+                openNextLogSegment();
+            }
+
+            for (PendingOperation pending : batch) {
+                logWriter.write(pending.line);
+                logWriter.newLine();
+            }
+            logWriter.flush();
+
+            if (fsyncEnabled) {
+                logChannel.force(false);
+                totalFsyncs++;
+            }
+            logCommittedBytes = logChannel.position();
+
+            totalLoggedOperations += batch.size();
+            entriesSinceCheckpoint += batch.size();
+            totalCommitBatches++;
+            largestCommitBatch = Math.max(largestCommitBatch, batch.size());
+            checkpointDue = entriesSinceCheckpoint >= checkpointMaxLogEntries;
+
+        } catch (IOException | RuntimeException e) {
+            if (logFailure == null) {
+                System.err.println("ERROR escribiendo lote en log de operaciones: " + e.getMessage());
+                stopLog(e);
+            }
+            for (PendingOperation pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        } finally {
+            logLock.unlock();
+        }
+
+        for (PendingOperation pending : batch) {
+            pending.future.complete(null);
+        }
+
+        // El log creció demasiado: adelantar el checkpoint en segundo plano
+        if (checkpointDue && !checkpointInProgress.get()) {
+            checkpointScheduler.execute(this::checkpointSafely);
+        }
+    }
+
+    /**
+     * Detiene el log después de una escritura fallida. El writer se descarta sin flush
+     * (lo que tenga en el buffer es del lote fallido) y el segmento se recorta a los lotes
+     * confirmados, quitando líneas completas o cortadas del lote. Las operaciones
+     * siguientes se rechazan y no se toman más checkpoints: el namespace en memoria puede
+     * incluir mutaciones que el llamador vio fallar. Debe llamarse con logLock tomado.
+     */
+    private void stopLog(Exception cause) {
+        logFailure = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+        System.err.println("🛑 Log de operaciones detenido: el Master no acepta más mutaciones hasta reiniciarse");
+
+        if (logChannel != null) {
+            try {
+                logChannel.truncate(logCommittedBytes);
+                logChannel.force(false);
+            } catch (IOException e) {
+                System.err.println("  No se pudo recortar el segmento " + currentSegment + " a " +
+                                   logCommittedBytes + " bytes: " + e.getMessage());
+            }
+            try {
+                logChannel.close();
+            } catch (IOException e) {
+                System.err.println("  No se pudo cerrar segmento de log: " + e.getMessage());
+            }
+        }
+        logWriter = null;
+        logChannel = null;
+
+        // Las operaciones ya encoladas fallan en el próximo lote; las nuevas, al encolarse
+        acceptLock.writeLock().lock();
+        try {
+            acceptingOperations = false;
+        } finally {
+            acceptLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * true mientras el log acepte operaciones; false después de una escritura fallida
+     */
+    public boolean isLogWritable() {
+        return logFailure == null;
+    }
+
+    /**
+     * Toma un checkpoint completo y trunca los segmentos de log que cubre.
+     * <p>
+     * 1. Se rota el log: las nuevas operaciones van a un segmento nuevo.
+     * 2. Se serializa el namespace vivo (puede incluir ya algunas operaciones
+     * del segmento nuevo; como son idempotentes, reproducirlas es inocuo).
+     * 3. Se eliminan los segmentos que ya cubría el checkpoint anterior; los cubiertos
+     * solo por este se conservan hasta el siguiente, junto con el snapshot .prev.
+     */
+    public void checkpoint() {
+        // Con el log detenido el namespace en memoria puede tener mutaciones que no llegaron al log
+        if (liveMetadata == null || logFailure != null || !checkpointInProgress.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long coveredUpTo;
+            long coveredEntries;
+
+            logLock.lock();
+            try {
+                if (logFailure != null) {
+                    return;
+                }
+                if (entriesSinceCheckpoint == 0 && Files.exists(metadataFilePath)
+                    && !Files.exists(legacyJsonFilePath)) {
+                    return; // Nada nuevo desde el último checkpoint
+                }
+                coveredUpTo = currentSegment;
+                coveredEntries = entriesSinceCheckpoint;
+                openNextLogSegment();
+                entriesSinceCheckpoint = 0;
+            } finally {
+                logLock.unlock();
+            }
+
+            try {
+                saveMetadata(liveMetadata);
+            } catch (RuntimeException e) {
+                // Los segmentos siguen en disco; forzar reintento en el próximo ciclo
+                logLock.lock();
+                try {
+                    entriesSinceCheckpoint += coveredEntries;
+                } finally {
+                    logLock.unlock();
+                }
+                throw e;
+            }
+
+            for (Long segment : listLogSegments()) {
+                if (segment <= previousCheckpointSegment) {
+                    Files.deleteIfExists(segmentPath(segment));
+                }
+            }
+            previousCheckpointSegment = coveredUpTo;
+
+            totalCheckpoints++;
+            lastCheckpointTime = System.currentTimeMillis();
+            cachedFileStatsTime = 0; // El snapshot cambió de tamaño
+
+        } catch (IOException e) {
+            System.err.println("ERROR truncando log de operaciones: " + e.getMessage());
+        } finally {
+            checkpointInProgress.set(false);
+        }
+    }
+
+    private void checkpointSafely() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            // Un checkpoint fallido no pierde datos: el log sigue intacto
+            System.err.println("ERROR en checkpoint de metadatos: " + e.getMessage());
+        }
+    }
+
     /**
      * Guarda todos los metadatos a disco de forma atómica
      * Usa patrón Write-Ahead: escribe a archivo temporal y luego renombra
@@ -137,10 +660,18 @@ public class MetadataPersistenceService {
     public void saveMetadata(Map<String, FileMetadata> metadata) {
         lock.writeLock().lock();
         try {
-            // 1. Escribir a archivo temporal
-            objectMapper.writeValue(tempMetadataFilePath.toFile(), metadata);
+            // 1. Escribir a archivo temporal (binario, sincronizado a disco)
+            MetadataSnapshotCodec.writeToFile(chunkserverIds, metadata, tempMetadataFilePath);
 
-            // 2. Reemplazar archivo original (operación atómica)
+            // 2. Conservar el checkpoint actual como anterior y reemplazarlo (renombres atómicos)
+            if (Files.exists(metadataFilePath)) {
+                Files.move(
+                        metadataFilePath,
+                        previousMetadataFilePath,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE
+                );
+            }
             Files.move(
                     tempMetadataFilePath,
                     metadataFilePath,
@@ -148,7 +679,15 @@ public class MetadataPersistenceService {
                     StandardCopyOption.ATOMIC_MOVE
             );
 
-            System.out.println("Metadatos persistidos: " + metadata.size() + " archivos");
+            System.out.println("Checkpoint de metadatos: " + metadata.size() + " archivos (" +
+                               Files.size(metadataFilePath) + " bytes)");
+
+            // 3. El JSON heredado ya quedó cubierto por el snapshot binario
+            if (Files.exists(legacyJsonFilePath)) {
+                Files.move(legacyJsonFilePath, storagePath.resolve("file_metadata.json.legacy"),
+                        StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Checkpoint JSON heredado migrado a formato binario");
+            }
 
         } catch (IOException e) {
             System.err.println("ERROR persistiendo metadatos: " + e.getMessage());
@@ -162,31 +701,146 @@ public class MetadataPersistenceService {
             } catch (IOException cleanupEx) {
                 System.err.println("  No se pudo limpiar archivo temporal");
             }
+            throw new RuntimeException("Checkpoint fallido", e);
         } finally {
             lock.writeLock().unlock();
         }
     }
 
     /**
-     * Guarda un solo archivo de metadatos (más eficiente para actualizaciones)
+     * Aplica una operación del log sobre un mapa de metadatos.
+     * Todas las operaciones son idempotentes.
+     */
+    static void applyOperation(Map<String, FileMetadata> metadata, MetadataOperation op) {
+        switch (op.getType()) {
+            case CREATE -> metadata.put(op.getImagenId(), op.getFile());
+            case DELETE -> metadata.remove(op.getImagenId());
+            case ADD_REPLICA -> {
+                FileMetadata file = metadata.get(op.getImagenId());
+                if (file == null) return;
+
+                file.addReplica(op.getChunkIndex(), op.getChunkserverUrl(),
+                        op.getReplicaIndex() != null ? op.getReplicaIndex() : 0);
+            }
+            case REMOVE_REPLICA -> {
+                FileMetadata file = metadata.get(op.getImagenId());
+                if (file == null) return;
+
+                file.removeReplica(op.getChunkIndex(), op.getChunkserverUrl());
+            }
+        }
+    }
+
+    /**
+     * Reproduce todos los segmentos de log existentes en orden.
+     * Una última línea incompleta (escritura interrumpida por una caída) se descarta.
      */
-    public void saveFileMetadata(Map<String, FileMetadata> allMetadata) {
-        saveMetadata(allMetadata);
+    private int replayLogSegments(Map<String, FileMetadata> metadata) throws IOException {
+        int replayed = 0;
+
+        for (Long segment : listLogSegments()) {
+            try (BufferedReader reader = Files.newBufferedReader(segmentPath(segment), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    try {
+                        applyOperation(metadata, logMapper.readValue(line, MetadataOperation.class));
+                        replayed++;
+                    } catch (IOException e) {
+                        System.err.println("Entrada de log ilegible descartada en segmento " + segment +
+                                           ": " + e.getMessage());
+                    }
+                }
+            }
+            currentSegment = Math.max(currentSegment, segment);
+        }
+        return replayed;
     }
 
     /**
-     * Elimina el archivo de metadatos de un archivo específico
+     * Cierra el segmento actual (si existe) y abre el siguiente.
+     * Debe llamarse con logLock tomado o durante la inicialización.
      */
-    public void deleteFileMetadata(String imagenId, Map<String, FileMetadata> allMetadata) {
-        allMetadata.remove(imagenId);
-        saveMetadata(allMetadata);
-        System.out.println("Metadatos eliminados de persistencia: " + imagenId);
+    private void openNextLogSegment() {
+        try {
+            closeLogWriter();
+            currentSegment++;
+            FileOutputStream out = new FileOutputStream(segmentPath(currentSegment).toFile(), true);
+            logChannel = out.getChannel();
+            logCommittedBytes = logChannel.size();
+            logWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo abrir segmento de log " + currentSegment, e);
+        }
+    }
+
+    private void closeLogWriter() {
+        if (logWriter != null) {
+            try {
+                logWriter.close();
+            } catch (IOException e) {
+                System.err.println("  No se pudo cerrar segmento de log: " + e.getMessage());
+            }
+            logWriter = null;
+            logChannel = null;
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return storagePath.resolve(String.format("%s%08d%s", LOG_SEGMENT_PREFIX, segment, LOG_SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listLogSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(storagePath)) {
+            files.forEach(path -> {
+                Matcher matcher = LOG_SEGMENT_PATTERN.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        segments.sort(Long::compare);
+        return segments;
     }
 
     /**
      * Obtiene estadísticas del sistema de persistencia
      */
     public Map<String, Object> getStorageStats() {
+        Map<String, Object> stats = new HashMap<>(getFileStats());
+
+        stats.put("oplogSegment", currentSegment);
+        stats.put("oplogEntriesSinceCheckpoint", entriesSinceCheckpoint);
+        stats.put("oplogTotalOperations", totalLoggedOperations);
+        stats.put("totalCheckpoints", totalCheckpoints);
+        stats.put("lastCheckpointTime", lastCheckpointTime);
+        stats.put("groupCommitBatches", totalCommitBatches);
+        stats.put("groupCommitLargestBatch", largestCommitBatch);
+        stats.put("groupCommitAvgBatch", totalCommitBatches > 0
+                ? (double) totalLoggedOperations / totalCommitBatches
+                : 0.0);
+        stats.put("groupCommitPending", commitQueue.size());
+        stats.put("oplogFsyncs", totalFsyncs);
+        stats.put("oplogWritable", logFailure == null);
+        if (logFailure != null) {
+            stats.put("oplogFailure", logFailure);
+        }
+
+        return stats;
+    }
+
+    /**
+     * Datos del snapshot y del directorio de almacenamiento, recalculados
+     * como máximo cada master.metadata.stats-cache-ms
+     */
+    private Map<String, Object> getFileStats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> cached = cachedFileStats;
+        if (cached != null && now - cachedFileStatsTime < statsCacheMs) {
+            return cached;
+        }
+
         Map<String, Object> stats = new HashMap<>();
 
         try {
@@ -196,6 +850,7 @@ public class MetadataPersistenceService {
                 stats.put("metadataFileSizeBytes", fileSize);
                 stats.put("metadataFileSizeKB", fileSize / 1024.0);
                 stats.put("metadataFilePath", metadataFilePath.toAbsolutePath().toString());
+                stats.put("metadataFormat", "binary-v" + MetadataSnapshotCodec.FORMAT_VERSION);
             } else {
                 stats.put("metadataFileExists", false);
                 stats.put("metadataFilePath", metadataFilePath.toAbsolutePath().toString());
@@ -209,6 +864,21 @@ public class MetadataPersistenceService {
             stats.put("error", e.getMessage());
         }
 
+        cachedFileStats = stats;
+        cachedFileStatsTime = now;
         return stats;
     }
-}
\ No newline at end of file
+
+    /**
+     * Operación serializada a la espera de su group commit
+     */
+    private static class PendingOperation {
+        private final String line;
+        private final CompletableFuture<Void> future;
+
+        PendingOperation(String line, CompletableFuture<Void> future) {
+            this.line = line;
+            this.future = future;
+        }
+    }
+}
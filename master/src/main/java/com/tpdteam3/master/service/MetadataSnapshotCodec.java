@@ -0,0 +1,348 @@
+package com.tpdteam3.master.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tpdteam3.master.model.ChunkserverIdTable;
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Formato binario versionado para los checkpoints del namespace.
+ * <p>
+ * Estructura del archivo:
+ * <pre>
+ *   magic "GFSM" | versión (1 byte)
+ *   diccionario de servidores: varint N, N × string
+ *   archivos: varint M, M × {imagenId, varlong size, varlong timestamp, varint chunkSize,
+ *                            byte clase (0 = replicado, 1 = EC, 2 = empaquetado),
+ *                            [varint dataShards, varint parityShards] (EC),
+ *                            [string contenedor, varlong offset, varlong checksum + 1] (empaquetado),
+ *                            varint R, R × {varint chunkIndex, varint servidor, varint replicaIndex}}
+ *   CRC32 de todo lo anterior (4 bytes)
+ * </pre>
+ * Las URLs de chunkserver se escriben una sola vez en el diccionario y cada réplica
+ * las referencia por índice, en lugar de repetir chunkserverId y chunkserverUrl.
+ * El diccionario es la propia {@link ChunkserverIdTable} del Master, así que los
+ * índices coinciden con los ids en memoria.
+ * <p>
+ * El lector decodifica el snapshot completo y verifica el CRC antes de entregar los
+ * archivos al consumidor: un snapshot corrupto no publica ningún archivo.
+ * <p>
+ * Versiones: v1 no tenía chunkSize (los archivos se leen con el tamaño legado de 32 KB);
+ * v2 lo agrega; v3 agrega la clase de almacenamiento (sin ella, replicado);
+ * v4 agrega la clase empaquetada; v5 agrega el checksum de los objetos empaquetados
+ * (0 = sin checksum, así los leídos de v4 quedan en NO_CHECKSUM).
+ * Siempre se escribe la última versión.
+ */
+public final class MetadataSnapshotCodec {
+
+    private static final byte[] MAGIC = {'G', 'F', 'S', 'M'};
+    static final int FORMAT_VERSION = 5;
+    private static final int OLDEST_SUPPORTED_VERSION = 1;
+
+    private static final int CLASS_REPLICATED = 0;
+    private static final int CLASS_ERASURE_CODED = 1;
+    private static final int CLASS_PACKED = 2;
+
+    private MetadataSnapshotCodec() {
+    }
+
+    /**
+     * Escribe el namespace completo en formato binario.
+     * El mapa puede estar siendo modificado: se toma primero el snapshot inmutable
+     * de réplicas de cada archivo y después el tamaño de la tabla de ids, de modo
+     * que todo id referenciado queda dentro del diccionario.
+     */
+    public static void write(ChunkserverIdTable ids, Map<String, FileMetadata> metadata,
+                             OutputStream target) throws IOException {
+        // 1. Snapshot coherente de cada archivo
+        List<FileMetadata> files = new ArrayList<>(metadata.size());
+        List<FileMetadata.Replicas> replicas = new ArrayList<>(metadata.size());
+
+        for (FileMetadata file : metadata.values()) {
+            files.add(file);
+            replicas.add(file.replicas());
+        }
+        int serverCount = ids.size();
+
+        // 2. Serializar con CRC
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(
+                new CheckedOutputStream(new BufferedOutputStream(target, 64 * 1024), crc));
+
+        out.write(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+
+        writeVarInt(out, serverCount);
+        for (int id = 0; id < serverCount; id++) {
+            writeString(out, ids.urlOf(id));
+        }
+
+        writeVarInt(out, files.size());
+        for (int f = 0; f < files.size(); f++) {
+            FileMetadata file = files.get(f);
+            FileMetadata.Replicas fileReplicas = replicas.get(f);
+            writeString(out, file.getImagenId());
+            writeVarLong(out, file.getSize());
+            writeVarLong(out, file.getTimestamp());
+            writeVarInt(out, file.getChunkSize());
+            if (file.erasureCoded()) {
+                out.writeByte(CLASS_ERASURE_CODED);
+                writeVarInt(out, file.getDataShards());
+                writeVarInt(out, file.getParityShards());
+            } else if (file.packed()) {
+                out.writeByte(CLASS_PACKED);
+                writeString(out, file.getContainerId());
+                writeVarLong(out, file.getContainerOffset());
+                writeVarLong(out, file.getChecksum() + 1);
+            } else {
+                out.writeByte(CLASS_REPLICATED);
+            }
+
+            writeVarInt(out, fileReplicas.length());
+            for (int r = 0; r < fileReplicas.length(); r++) {
+                writeVarInt(out, fileReplicas.chunkIndex(r));
+                writeVarInt(out, fileReplicas.serverId(r));
+                writeVarInt(out, fileReplicas.replicaIndex(r));
+            }
+        }
+
+        out.flush();
+        // El CRC no se incluye a sí mismo: escribir directo al destino
+        DataOutputStream trailer = new DataOutputStream(target);
+        trailer.writeInt((int) crc.getValue());
+        trailer.flush();
+    }
+
+    /**
+     * Escribe el snapshot a un archivo y fuerza su contenido a disco.
+     */
+    public static void writeToFile(ChunkserverIdTable ids, Map<String, FileMetadata> metadata,
+                                   Path path) throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(path.toFile())) {
+            write(ids, metadata, fileOut);
+            fileOut.getChannel().force(true);
+        }
+    }
+
+    /**
+     * Lee un snapshot binario y entrega cada archivo al consumidor.
+     * Verifica magic, versión y CRC antes de entregar nada; un snapshot corrupto
+     * produce IOException sin haber llamado al consumidor.
+     *
+     * @param ids Tabla en la que se registran los servidores de las réplicas leídas
+     *
+     * @return número de archivos leídos
+     */
+    public static int read(ChunkserverIdTable ids, InputStream source,
+                           Consumer<FileMetadata> consumer) throws IOException {
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream(
+                new CheckedInputStream(new BufferedInputStream(source, 64 * 1024), crc));
+
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("No es un snapshot de metadatos (magic inválido)");
+            }
+        }
+
+        int version = in.readUnsignedByte();
+        if (version < OLDEST_SUPPORTED_VERSION || version > FORMAT_VERSION) {
+            throw new IOException("Versión de snapshot no soportada: " + version);
+        }
+
+        int serverCount = readVarInt(in);
+        String[] servers = new String[serverCount];
+        for (int i = 0; i < serverCount; i++) {
+            servers[i] = readString(in);
+        }
+
+        int fileCount = readVarInt(in);
+        List<FileMetadata> decoded = new ArrayList<>(Math.min(fileCount, 1 << 16));
+        for (int f = 0; f < fileCount; f++) {
+            FileMetadata file = new FileMetadata(ids, readString(in), readVarLong(in));
+            file.setTimestamp(readVarLong(in));
+            if (version >= 2) {
+                file.setChunkSize(readVarInt(in));
+            }
+            if (version >= 3) {
+                int storageClass = in.readUnsignedByte();
+                if (storageClass == CLASS_ERASURE_CODED) {
+                    file.useErasureCoding(readVarInt(in), readVarInt(in));
+                } else if (storageClass == CLASS_PACKED && version >= 4) {
+                    file.usePacking(readString(in), readVarLong(in));
+                    if (version >= 5) {
+                        file.setChecksum(readVarLong(in) - 1);
+                    }
+                } else if (storageClass != CLASS_REPLICATED) {
+                    throw new IOException("Clase de almacenamiento desconocida: " + storageClass);
+                }
+            }
+
+            int replicaCount = readVarInt(in);
+            List<ChunkMetadata> chunks = new ArrayList<>(replicaCount);
+            for (int r = 0; r < replicaCount; r++) {
+                int chunkIndex = readVarInt(in);
+                int serverIndex = readVarInt(in);
+                if (serverIndex >= serverCount) {
+                    throw new IOException("Índice de servidor fuera de rango: " + serverIndex);
+                }
+                String server = servers[serverIndex];
+                ChunkMetadata chunk = new ChunkMetadata(chunkIndex, server, server);
+                chunk.setReplicaIndex(readVarInt(in));
+                chunks.add(chunk);
+            }
+            file.setChunks(chunks);
+            decoded.add(file);
+        }
+
+        long expected = crc.getValue();
+        int stored;
+        try {
+            stored = in.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Snapshot truncado: falta el CRC", e);
+        }
+        if ((int) expected != stored) {
+            throw new IOException("CRC inválido en snapshot de metadatos");
+        }
+
+        decoded.forEach(consumer);
+        return fileCount;
+    }
+
+    public static int readFromFile(ChunkserverIdTable ids, Path path,
+                                   Consumer<FileMetadata> consumer) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return read(ids, in, consumer);
+        }
+    }
+
+    /**
+     * Exporta un snapshot binario como JSON (mismo formato que el antiguo
+     * file_metadata.json) para depuración.
+     */
+    public static void exportToJson(Path snapshot, OutputStream out) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+
+            // Herramienta fuera del Master: tabla propia, solo para resolver las URLs
+            readFromFile(new ChunkserverIdTable(), snapshot, file -> {
+                try {
+                    generator.writeFieldName(file.getImagenId());
+                    mapper.writeValue(generator, file);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Herramienta de depuración:
+     * java -cp ... com.tpdteam3.master.service.MetadataSnapshotCodec file_metadata.snapshot [salida.json]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: MetadataSnapshotCodec <snapshot> [salida.json]");
+            System.exit(1);
+        }
+
+        Path snapshot = Paths.get(args[0]);
+        if (args.length > 1) {
+            try (OutputStream out = Files.newOutputStream(Paths.get(args[1]))) {
+                exportToJson(snapshot, out);
+            }
+            System.out.println("Snapshot exportado a " + args[1]);
+        } else {
+            // No cerrar System.out
+            OutputStream stdout = new BufferedOutputStream(System.out) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            exportToJson(snapshot, stdout);
+            stdout.flush();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════
+    // CODIFICACIÓN VARINT (LEB128 sin signo)
+    // ═══════════════════════════════════════════════════════════════
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Varint fuera de rango: " + value);
+        }
+        return (int) value;
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Varint mal formado");
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,508 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Empaquetado de objetos chicos (miniaturas de pocos KB) en contenedores compartidos.
+ * <p>
+ * Un contenedor es un archivo replicado común de un solo chunk ({@code pack-<uuid>},
+ * chunkSize = capacidad), así que la re-replicación, la integridad y el rebalanceo
+ * lo tratan como a cualquier otro. Cada objeto empaquetado solo guarda
+ * (contenedor, offset, tamaño): no tiene réplicas ni archivos propios en los chunkservers.
+ * <p>
+ * Los objetos se agregan al contenedor abierto en rangos que asigna el Master; cuando
+ * no entra el siguiente, se abre otro. Un rango se da por escrito solo si lo aceptan
+ * todas las réplicas del contenedor, y cada objeto guarda el CRC32 de sus bytes para
+ * descartar en la lectura una réplica con el rango sin escribir o atrasado.
+ * <p>
+ * Mientras un contenedor puede recibir rangos (el abierto, y el recién cerrado durante
+ * WRITE_GRACE_MS por uploads planificados antes del cierre) no se copia su chunk
+ * completo: la copia quedaría sin los últimos rangos. Para reparar un contenedor
+ * abierto primero se lo cierra ({@link #seal}). Borrar un objeto solo quita su metadato: el
+ * espacio se recupera compactando, que copia los objetos vivos de los contenedores
+ * cerrados con poca ocupación al contenedor abierto y borra los que quedan vacíos.
+ */
+@Service
+public class PackingService {
+
+    public static final String CONTAINER_PREFIX = "pack-";
+
+    @Autowired
+    @Lazy
+    private MasterService masterService;
+
+    @Autowired
+    @Lazy
+    private HeartbeatHandler heartbeatHandler;
+
+    @Autowired
+    private CommandQueueService commandQueue;
+
+    @Value("${master.packing.enabled:true}")
+    private boolean enabled;
+
+    @Value("${master.packing.max-object-kb:64}")
+    private int maxObjectKB;
+
+    @Value("${master.packing.container-size-kb:4096}")
+    private int containerSizeKB;
+
+    @Value("${master.packing.compaction-live-percent:50}")
+    private int compactionLivePercent;
+
+    @Value("${master.packing.compaction-interval-seconds:300}")
+    private int compactionIntervalSeconds;
+
+    // Un contenedor vacío se borra recién después de esta espera (lecturas con metadatos previos a la compactación)
+    private static final long EMPTY_CONTAINER_GRACE_MS = 60_000;
+
+    // Un contenedor cerrado puede seguir recibiendo rangos de uploads ya planificados durante esta espera
+    static final long WRITE_GRACE_MS = 30_000;
+
+    private final RestTemplate restTemplate;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final Map<String, Container> containers = new ConcurrentHashMap<>();
+    private final Object allocationLock = new Object();
+    private volatile String openContainerId;
+
+    // Estadísticas
+    private final AtomicLong totalContainersCreated = new AtomicLong();
+    private final AtomicLong totalContainersDeleted = new AtomicLong();
+    private final AtomicLong totalObjectsCompacted = new AtomicLong();
+    private final AtomicLong totalBytesReclaimed = new AtomicLong();
+
+    public PackingService() {
+        org.springframework.http.client.SimpleClientHttpRequestFactory factory =
+                new org.springframework.http.client.SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(5000);  // 5 segundos
+        factory.setReadTimeout(15000);    // 15 segundos
+        this.restTemplate = new RestTemplate(factory);
+    }
+
+    @PostConstruct
+    public void init() {
+        System.out.println("📦 Empaquetado de objetos chicos: " + (enabled ? "activo" : "desactivado") +
+                           " (hasta " + maxObjectKB + " KB por objeto, contenedores de " + containerSizeKB + " KB)");
+        scheduler.scheduleWithFixedDelay(this::compact,
+                compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public static boolean isContainer(String imagenId) {
+        return imagenId != null && imagenId.startsWith(CONTAINER_PREFIX);
+    }
+
+    /**
+     * Indica si un objeto de este tamaño se empaqueta en vez de tener chunks propios
+     */
+    public boolean shouldPack(long size) {
+        return enabled && size > 0 && size <= maxObjectKB * 1024L;
+    }
+
+    public boolean isOpenContainer(String imagenId) {
+        return imagenId != null && imagenId.equals(openContainerId);
+    }
+
+    /**
+     * Indica si el contenedor todavía puede recibir escrituras de rangos: es el abierto
+     * o se cerró hace menos de WRITE_GRACE_MS. Una copia completa de su chunk podría
+     * quedar atrasada, así que la re-replicación, la reparación y el rebalanceo lo saltean.
+     */
+    public boolean acceptsWrites(String imagenId) {
+        if (isOpenContainer(imagenId)) {
+            return true;
+        }
+        Container container = imagenId != null ? containers.get(imagenId) : null;
+        return container != null && container.closedAt > 0 &&
+               System.currentTimeMillis() - container.closedAt < WRITE_GRACE_MS;
+    }
+
+    /**
+     * Cierra el contenedor si es el abierto: los próximos objetos van a uno nuevo.
+     * Se usa cuando una réplica del contenedor falla o hay que repararlo.
+     */
+    public void seal(String containerId) {
+        synchronized (allocationLock) {
+            if (isOpenContainer(containerId)) {
+                close(containerId);
+                openContainerId = null;
+                System.out.println("📦 Contenedor cerrado antes de llenarse: " + containerId);
+            }
+        }
+    }
+
+    private void close(String containerId) {
+        Container container = containers.get(containerId);
+        if (container != null) {
+            container.closedAt = System.currentTimeMillis();
+        }
+    }
+
+    private int capacity() {
+        return containerSizeKB * 1024;
+    }
+
+    /**
+     * Reserva un rango para un objeto en el contenedor abierto, abriendo uno nuevo si
+     * no entra. El rango queda reservado aunque el objeto nunca llegue a registrarse
+     * (espacio muerto que recupera la compactación).
+     */
+    public Slot allocate(long size) {
+        synchronized (allocationLock) {
+            Container open = openContainerId != null ? containers.get(openContainerId) : null;
+            if (open == null || !open.tryReserve(size, capacity())) {
+                if (openContainerId != null) {
+                    close(openContainerId);
+                }
+                String containerId = CONTAINER_PREFIX + UUID.randomUUID();
+                // Archivo replicado normal de un chunk que ocupa toda la capacidad
+                masterService.planUpload(containerId, capacity(), capacity(), FileMetadata.STORAGE_REPLICATED);
+                open = containers.computeIfAbsent(containerId, k -> new Container());
+                openContainerId = containerId;
+                totalContainersCreated.incrementAndGet();
+                System.out.println("📦 Contenedor abierto: " + containerId);
+                if (!open.tryReserve(size, capacity())) {
+                    throw new IllegalArgumentException("Objeto más grande que un contenedor: " + size + " bytes");
+                }
+            }
+            return new Slot(openContainerId, open.allocated - size);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════
+    // SEGUIMIENTO DEL NAMESPACE (lo llama MasterService con el lock del archivo)
+    // ═══════════════════════════════════════════════════════════════
+
+    /**
+     * Reconstruye el estado de los contenedores a partir del namespace recuperado
+     */
+    public void rebuild(Collection<FileMetadata> files) {
+        containers.clear();
+        for (FileMetadata file : files) {
+            onFileStored(file);
+        }
+        long now = System.currentTimeMillis();
+        // Al arrancar ningún contenedor está abierto, pero puede haber escrituras en vuelo
+        containers.values().forEach(container -> {
+            container.markEmptyIfUnused(now);
+            container.closedAt = now;
+        });
+        if (!containers.isEmpty()) {
+            System.out.println("   ├─ Contenedores de objetos empaquetados: " + containers.size());
+        }
+    }
+
+    public void onFileStored(FileMetadata file) {
+        if (file.packed()) {
+            containers.computeIfAbsent(file.getContainerId(), k -> new Container()).add(file);
+        } else if (isContainer(file.getImagenId())) {
+            containers.computeIfAbsent(file.getImagenId(), k -> new Container());
+        }
+    }
+
+    public void onFileRemoved(FileMetadata file) {
+        if (file.packed()) {
+            Container container = containers.get(file.getContainerId());
+            if (container != null) {
+                container.remove(file, System.currentTimeMillis());
+            }
+        } else if (isContainer(file.getImagenId())) {
+            containers.remove(file.getImagenId());
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════
+    // COMPACTACIÓN
+    // ═══════════════════════════════════════════════════════════════
+
+    /**
+     * Borra los contenedores cerrados que quedaron vacíos y compacta los que tienen
+     * menos de compaction-live-percent de su capacidad en objetos vivos
+     */
+    public void compact() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Container> entry : new ArrayList<>(containers.entrySet())) {
+                String containerId = entry.getKey();
+                Container container = entry.getValue();
+                if (acceptsWrites(containerId)) {
+                    continue;
+                }
+                // Un contenedor cerrado sin objetos registrados (uploads que nunca se completaron) también se borra
+                container.markEmptyIfUnused(now);
+                if (container.isEmpty()) {
+                    if (container.emptySince > 0 && now - container.emptySince > EMPTY_CONTAINER_GRACE_MS) {
+                        deleteContainer(containerId);
+                    }
+                } else if (container.liveBytes * 100L < (long) compactionLivePercent * capacity()) {
+                    compactContainer(containerId, container);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error en compactación de contenedores: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copia cada objeto vivo del contenedor al contenedor abierto y actualiza su metadato
+     */
+    private void compactContainer(String containerId, Container container) {
+        System.out.println("📦 Compactando " + containerId + " (" + container.objectCount() + " objetos vivos, " +
+                           (container.liveBytes / 1024) + " KB)");
+        long before = container.allocated;
+        int moved = 0;
+
+        for (String imagenId : container.objectIds()) {
+            FileMetadata object = masterService.findFile(imagenId);
+            if (object == null || !object.packed() || !containerId.equals(object.getContainerId())) {
+                continue;
+            }
+            try {
+                byte[] data = readRange(containerId, object.getContainerOffset(), (int) object.getSize(),
+                        object.getChecksum());
+                Slot slot = allocate(data.length);
+                try {
+                    writeRange(slot.containerId, slot.offset, data);
+                } catch (RuntimeException e) {
+                    // El rango queda como espacio muerto; el objeto sigue en el contenedor de origen
+                    seal(slot.containerId);
+                    throw e;
+                }
+                if (masterService.repointPackedObject(imagenId, containerId, slot.containerId, slot.offset)) {
+                    moved++;
+                }
+            } catch (Exception e) {
+                System.err.println("   ❌ No se pudo mover " + imagenId + ": " + e.getMessage());
+            }
+        }
+
+        totalObjectsCompacted.addAndGet(moved);
+        if (container.isEmpty()) {
+            totalBytesReclaimed.addAndGet(before);
+        }
+        System.out.println("📦 Compactación de " + containerId + ": " + moved + " objetos movidos");
+    }
+
+    private void deleteContainer(String containerId) {
+        FileMetadata container = masterService.findFile(containerId);
+        if (container != null) {
+            // Cada réplica se borra con un comando delete en el heartbeat de su servidor;
+            // se encolan todos y se esperan juntos
+            Map<FileMetadata.ChunkMetadata, CompletableFuture<Map<String, Object>>> deletions = new LinkedHashMap<>();
+            for (FileMetadata.ChunkMetadata chunk : container.getChunks()) {
+                Map<String, Object> params = new HashMap<>();
+                params.put("imagenId", containerId);
+                params.put("chunkIndex", chunk.getChunkIndex());
+                deletions.put(chunk, commandQueue.submit(chunk.getChunkserverUrl(), CommandQueueService.DELETE, params));
+            }
+            for (Map.Entry<FileMetadata.ChunkMetadata, CompletableFuture<Map<String, Object>>> deletion :
+                    deletions.entrySet()) {
+                try {
+                    deletion.getValue().join();
+                } catch (CompletionException e) {
+                    // Queda huérfano en el disco; la verificación de integridad lo reporta
+                    System.err.println("   ⚠️  No se pudo borrar " + containerId + " de " +
+                                       deletion.getKey().getChunkserverUrl() + ": " + e.getCause().getMessage());
+                }
+            }
+            masterService.deleteFile(containerId);
+        }
+        containers.remove(containerId);
+        totalContainersDeleted.incrementAndGet();
+        System.out.println("📦 Contenedor vacío eliminado: " + containerId);
+    }
+
+    /**
+     * CRC32 de los bytes de un objeto empaquetado
+     */
+    public static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    /**
+     * Lee el rango de un objeto desde alguna réplica viva del contenedor cuyo contenido
+     * coincida con el checksum (si el objeto lo tiene)
+     */
+    private byte[] readRange(String containerId, long offset, int length, long expectedChecksum) {
+        FileMetadata container = masterService.getMetadata(containerId);
+        Exception last = null;
+        for (FileMetadata.ChunkMetadata chunk : container.getChunks()) {
+            try {
+                String url = chunk.getChunkserverUrl() + "/api/chunk/read-range?imagenId=" + containerId +
+                             "&chunkIndex=0&offset=" + offset + "&length=" + length;
+                ResponseEntity<Map> response = restTemplate.getForEntity(url, Map.class);
+                Map<String, Object> body = response.getBody();
+                if (body != null && body.get("data") != null) {
+                    byte[] data = Base64.getDecoder().decode((String) body.get("data"));
+                    if (expectedChecksum == FileMetadata.NO_CHECKSUM || checksum(data) == expectedChecksum) {
+                        return data;
+                    }
+                    last = new RuntimeException("checksum distinto en " + chunk.getChunkserverUrl());
+                }
+            } catch (Exception e) {
+                last = e;
+            }
+        }
+        throw new RuntimeException("Ninguna réplica de " + containerId + " devolvió el rango" +
+                                   (last != null ? ": " + last.getMessage() : ""));
+    }
+
+    /**
+     * Escribe un rango en todas las réplicas vivas del contenedor. Falla si alguna no lo
+     * acepta: una réplica sin el rango devolvería ceros al leerlo.
+     */
+    private void writeRange(String containerId, long offset, byte[] data) {
+        // Todas las réplicas registradas, también las de servidores caídos: esas hacen fallar la escritura
+        FileMetadata container = masterService.findFile(containerId);
+        if (container == null) {
+            throw new RuntimeException("Contenedor no encontrado: " + containerId);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        Map<String, Object> request = new HashMap<>();
+        request.put("imagenId", containerId);
+        request.put("chunkIndex", 0);
+        request.put("offset", offset);
+        request.put("data", Base64.getEncoder().encodeToString(data));
+
+        int written = 0;
+        for (FileMetadata.ChunkMetadata chunk : container.getChunks()) {
+            try {
+                restTemplate.postForEntity(chunk.getChunkserverUrl() + "/api/chunk/write-range",
+                        new HttpEntity<>(request, headers), String.class);
+                written++;
+            } catch (Exception e) {
+                System.err.println("   ⚠️  No se pudo escribir en " + chunk.getChunkserverUrl() + ": " + e.getMessage());
+            }
+        }
+        if (written == 0 || written < container.getChunks().size()) {
+            throw new RuntimeException("Solo " + written + " de " + container.getChunks().size() +
+                                       " réplicas de " + containerId + " aceptaron la escritura");
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long objects = 0;
+        long liveBytes = 0;
+        long allocatedBytes = 0;
+        for (Container container : containers.values()) {
+            objects += container.objectCount();
+            liveBytes += container.liveBytes;
+            allocatedBytes += container.allocated;
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxObjectKB", maxObjectKB);
+        stats.put("containerSizeKB", containerSizeKB);
+        stats.put("containers", containers.size());
+        stats.put("openContainer", openContainerId);
+        stats.put("packedObjects", objects);
+        stats.put("liveBytes", liveBytes);
+        stats.put("allocatedBytes", allocatedBytes);
+        stats.put("deadBytes", allocatedBytes - liveBytes);
+        stats.put("compactionLivePercent", compactionLivePercent);
+        stats.put("totalContainersCreated", totalContainersCreated.get());
+        stats.put("totalContainersDeleted", totalContainersDeleted.get());
+        stats.put("totalObjectsCompacted", totalObjectsCompacted.get());
+        stats.put("totalBytesReclaimed", totalBytesReclaimed.get());
+        return stats;
+    }
+
+    /**
+     * Rango reservado para un objeto
+     */
+    public static final class Slot {
+        public final String containerId;
+        public final long offset;
+
+        Slot(String containerId, long offset) {
+            this.containerId = containerId;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Ocupación de un contenedor: rango ya asignado y objetos vivos
+     */
+    private static final class Container {
+        private final Map<String, Long> objects = new HashMap<>();
+        private long allocated;
+        private long liveBytes;
+        private long emptySince;
+        // 0 mientras está abierto (o si nunca se abrió en este proceso)
+        private volatile long closedAt;
+
+        synchronized boolean tryReserve(long size, int capacity) {
+            if (allocated + size > capacity) {
+                return false;
+            }
+            allocated += size;
+            return true;
+        }
+
+        synchronized void add(FileMetadata object) {
+            Long previous = objects.put(object.getImagenId(), object.getSize());
+            liveBytes += object.getSize() - (previous != null ? previous : 0);
+            allocated = Math.max(allocated, object.getContainerOffset() + object.getSize());
+            emptySince = 0;
+        }
+
+        synchronized void remove(FileMetadata object, long now) {
+            Long size = objects.remove(object.getImagenId());
+            if (size != null) {
+                liveBytes -= size;
+            }
+            if (objects.isEmpty()) {
+                emptySince = now;
+            }
+        }
+
+        synchronized void markEmptyIfUnused(long now) {
+            if (objects.isEmpty() && emptySince == 0) {
+                emptySince = now;
+            }
+        }
+
+        synchronized boolean isEmpty() {
+            return objects.isEmpty();
+        }
+
+        synchronized int objectCount() {
+            return objects.size();
+        }
+
+        synchronized List<String> objectIds() {
+            return new ArrayList<>(objects.keySet());
+        }
+    }
+}
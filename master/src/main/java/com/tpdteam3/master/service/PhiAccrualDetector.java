@@ -0,0 +1,127 @@
+package com.tpdteam3.master.service;
+
+/**
+ * Detector de fallas "phi accrual" de un chunkserver.
+ * <p>
+ * Guarda una ventana de los intervalos observados entre heartbeats y, en vez de una
+ * respuesta sí/no, da un nivel de sospecha phi = -log10(P(el próximo heartbeat llegue
+ * todavía más tarde)), con los intervalos aproximados por una normal. phi = 1 equivale
+ * a un 10% de probabilidad de equivocarse al declararlo caído, phi = 8 a 10^-8.
+ * <p>
+ * Una red estable (desvío chico) hace subir phi rápido cuando falta un heartbeat; un
+ * servidor con pausas habituales (GC, escaneo de directorio lento) tiene un desvío
+ * mayor y tarda más en volverse sospechoso. La pausa aceptable se suma a la media para
+ * absorber pausas aisladas que todavía no están en la ventana.
+ */
+public final class PhiAccrualDetector {
+
+    private final long[] intervals;
+    private final long minStdDevMs;
+    private final long acceptablePauseMs;
+
+    private int count;
+    private int next;
+    private double sum;
+    private double sumOfSquares;
+    private long lastHeartbeatMs = -1;
+
+    public PhiAccrualDetector(int windowSize, long minStdDevMs, long acceptablePauseMs) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize debe ser positivo");
+        }
+        this.intervals = new long[windowSize];
+        this.minStdDevMs = minStdDevMs;
+        this.acceptablePauseMs = acceptablePauseMs;
+    }
+
+    /**
+     * Registra un heartbeat recibido en {@code nowMs}
+     */
+    public synchronized void heartbeat(long nowMs) {
+        if (lastHeartbeatMs >= 0 && nowMs > lastHeartbeatMs) {
+            addInterval(nowMs - lastHeartbeatMs);
+        }
+        lastHeartbeatMs = nowMs;
+    }
+
+    /**
+     * Olvida el último heartbeat (el servidor estuvo caído: el hueco no es un intervalo normal)
+     */
+    public synchronized void reset() {
+        lastHeartbeatMs = -1;
+    }
+
+    private void addInterval(long interval) {
+        if (count == intervals.length) {
+            long dropped = intervals[next];
+            sum -= dropped;
+            sumOfSquares -= (double) dropped * dropped;
+        } else {
+            count++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % intervals.length;
+        sum += interval;
+        sumOfSquares += (double) interval * interval;
+    }
+
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    public synchronized double getMeanMs() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    public synchronized double getStdDevMs() {
+        if (count == 0) {
+            return minStdDevMs;
+        }
+        double mean = sum / count;
+        double variance = Math.max(0, sumOfSquares / count - mean * mean);
+        return Math.max(minStdDevMs, Math.sqrt(variance));
+    }
+
+    /**
+     * Nivel de sospecha en {@code nowMs} (0 sin muestras)
+     */
+    public synchronized double phi(long nowMs) {
+        if (count == 0 || lastHeartbeatMs < 0) {
+            return 0;
+        }
+        return phi(nowMs - lastHeartbeatMs, getMeanMs() + acceptablePauseMs, getStdDevMs());
+    }
+
+    /**
+     * Milisegundos desde el último heartbeat en que phi alcanza {@code threshold}
+     * (phi crece con el tiempo, se busca por bisección)
+     */
+    public synchronized long millisUntilPhi(double threshold) {
+        double mean = getMeanMs() + acceptablePauseMs;
+        double stdDev = getStdDevMs();
+        long low = 0;
+        long high = (long) (mean + 64 * stdDev);
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (phi(mid, mean, stdDev) >= threshold) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * phi con la aproximación logística de la cola de la normal (evita el underflow de
+     * 1 - CDF cuando el retraso es muchos desvíos mayor que la media)
+     */
+    static double phi(long elapsedMs, double meanMs, double stdDevMs) {
+        double y = (elapsedMs - meanMs) / stdDevMs;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsedMs > meanMs) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+}
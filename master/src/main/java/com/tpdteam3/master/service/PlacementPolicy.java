@@ -0,0 +1,40 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerLoad;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Política de colocación de réplicas: decide en qué chunkservers se escribe un chunk.
+ * Las implementaciones no modifican estado: PlacementService registra las escrituras
+ * elegidas en el ServerLoadTracker.
+ */
+public interface PlacementPolicy {
+
+    /**
+     * Nombre con el que se selecciona en master.placement.policy
+     */
+    String getName();
+
+    /**
+     * Elige hasta {@code count} servidores distintos entre los candidatos.
+     *
+     * @param count      Réplicas a colocar
+     * @param candidates Servidores vivos que todavía no tienen el chunk
+     * @param loads      Carga actual de cada candidato
+     * @param random     Fuente de aleatoriedad
+     * @return Servidores elegidos, en orden de preferencia (el primero es la primaria)
+     */
+    List<String> choose(int count, List<String> candidates, Map<String, ServerLoad> loads, Random random);
+
+    /**
+     * Si el servidor está en condiciones de recibir escrituras según esta política.
+     * PlacementService solo recurre a los que no lo están cuando no queda otra opción,
+     * aunque eso signifique repetir dominio de falla.
+     */
+    default boolean accepts(ServerLoad load) {
+        return true;
+    }
+}
@@ -0,0 +1,375 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerLoad;
+import com.tpdteam3.master.model.ServerTopology;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Punto único de decisión de colocación de réplicas.
+ * <p>
+ * Delega en la PlacementPolicy configurada (master.placement.policy) y registra
+ * cada escritura elegida en el ServerLoadTracker, de modo que las elecciones
+ * siguientes ya la tienen en cuenta. También lleva cuántos chunks colocó en
+ * cada servidor para medir el reparto.
+ * <p>
+ * Se le piden a la política solo las réplicas necesarias; cuando esas repiten un
+ * dominio de falla evitable, se pide su orden de preferencia completo y sobre él se
+ * aplica la regla de dominios de falla: cada réplica nueva va a un rack distinto de las demás si se puede; si no,
+ * a un host distinto; si no, a un disco distinto. Solo se repite disco cuando no
+ * queda alternativa. La capacidad manda sobre el dominio: un servidor que la
+ * política no acepta (lleno, sin escritura) o cuya sospecha del detector de fallas
+ * llegó a SUSPECT_LEVEL se usa únicamente como último recurso.
+ */
+@Service
+public class PlacementService {
+
+    @Autowired
+    private ServerLoadTracker loadTracker;
+
+    @Autowired
+    @Lazy
+    private HeartbeatHandler heartbeatHandler;
+
+    @Autowired
+    private TopologyService topologyService;
+
+    @Value("${master.placement.policy:load-aware}")
+    private String policyName;
+
+    @Value("${master.placement.min-free-mb:100}")
+    private long minFreeMB;
+
+    // Sospecha (phi / umbral) desde la que un servidor vivo pasa a último recurso
+    static final double SUSPECT_LEVEL = 0.5;
+
+    private final Map<String, PlacementPolicy> policies = new LinkedHashMap<>();
+    private PlacementPolicy policy;
+
+    private final Map<String, AtomicLong> placedPerServer = new ConcurrentHashMap<>();
+
+    // Réplicas colocadas en el mismo host / disco que otra réplica del mismo chunk
+    private final AtomicLong replicasSharingHost = new AtomicLong(0);
+    private final AtomicLong replicasSharingDisk = new AtomicLong(0);
+
+    @PostConstruct
+    public void init() {
+        registerPolicy(new LoadAwarePlacementPolicy(minFreeMB));
+        registerPolicy(new RandomPlacementPolicy());
+
+        policy = policies.get(policyName);
+        if (policy == null) {
+            System.err.println("⚠️  Política de colocación desconocida: " + policyName +
+                               " - usando " + LoadAwarePlacementPolicy.NAME);
+            policy = policies.get(LoadAwarePlacementPolicy.NAME);
+        }
+
+        System.out.println("📍 Política de colocación: " + policy.getName() +
+                           " (mínimo libre: " + minFreeMB + " MB)");
+    }
+
+    private void registerPolicy(PlacementPolicy placementPolicy) {
+        policies.put(placementPolicy.getName(), placementPolicy);
+    }
+
+    /**
+     * Elige servidores para las réplicas de un chunk nuevo y registra las escrituras
+     *
+     * @param count      Réplicas a colocar
+     * @param candidates Servidores vivos que todavía no tienen el chunk
+     * @return Servidores elegidos (el primero es la primaria)
+     */
+    public List<String> chooseServers(int count, List<String> candidates) {
+        return chooseServers(count, candidates, Collections.emptyList());
+    }
+
+    /**
+     * Elige servidores para réplicas adicionales de un chunk que ya tiene réplicas
+     * (re-replicación): los dominios de falla de las existentes cuentan como ocupados.
+     *
+     * @param count            Réplicas a colocar
+     * @param candidates       Servidores vivos que todavía no tienen el chunk
+     * @param existingReplicas Servidores que ya tienen el chunk
+     * @return Servidores elegidos, en orden de preferencia
+     */
+    public List<String> chooseServers(int count, List<String> candidates, Collection<String> existingReplicas) {
+        if (count <= 0 || candidates.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<String, ServerLoad> loads = loadTracker.snapshot(candidates);
+        List<String> chosen = place(policy, count, candidates, existingReplicas, loads, ThreadLocalRandom.current());
+
+        for (String url : chosen) {
+            loadTracker.recordWrite(url);
+            placedPerServer.computeIfAbsent(url, k -> new AtomicLong()).incrementAndGet();
+        }
+        long[] sharing = countSharing(chosen, existingReplicas);
+        replicasSharingHost.addAndGet(sharing[0]);
+        replicasSharingDisk.addAndGet(sharing[1]);
+        return chosen;
+    }
+
+    /**
+     * Elige qué réplicas sobrantes borrar sin romper la separación por dominios:
+     * primero las que comparten disco con otra réplica, después las que comparten
+     * host y después rack. A igualdad se borra la de menor prioridad (la última).
+     *
+     * @param excess  Réplicas a borrar
+     * @param holders Servidores con réplica, en orden de prioridad (primaria primero)
+     * @return Servidores de los que borrar la réplica
+     */
+    public List<String> chooseReplicasToRemove(int excess, List<String> holders) {
+        List<String> remaining = new ArrayList<>(holders);
+        List<String> victims = new ArrayList<>();
+
+        while (victims.size() < excess && !remaining.isEmpty()) {
+            String victim = null;
+            ServerTopology.Level[] levels = ServerTopology.Level.values();
+            for (int l = levels.length - 1; l >= 0 && victim == null; l--) {
+                victim = lastSharingDomain(remaining, levels[l]);
+            }
+            if (victim == null) {
+                victim = remaining.get(remaining.size() - 1);
+            }
+            remaining.remove(victim);
+            victims.add(victim);
+        }
+        return victims;
+    }
+
+    private String lastSharingDomain(List<String> servers, ServerTopology.Level level) {
+        Map<String, Integer> perDomain = new HashMap<>();
+        for (String url : servers) {
+            perDomain.merge(topologyService.of(url).domain(level), 1, Integer::sum);
+        }
+        for (int i = servers.size() - 1; i >= 0; i--) {
+            if (perDomain.get(topologyService.of(servers.get(i)).domain(level)) > 1) {
+                return servers.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Colocación de un chunk. Primero se piden a la política solo {@code count} servidores;
+     * si son todos aceptables y quedan tan repartidos por dominios de falla como permiten
+     * los candidatos, se usan tal cual. Si no (dominios repetidos evitables, servidores
+     * llenos o sospechosos), se pide el orden de preferencia completo y se reparte por
+     * dominios sobre él.
+     */
+    private List<String> place(PlacementPolicy placementPolicy, int count, List<String> candidates,
+                               Collection<String> existingReplicas, Map<String, ServerLoad> loads, Random random) {
+        List<String> picks = placementPolicy.choose(count, candidates, loads, random);
+        if (picks.size() == count && allPreferred(placementPolicy, picks, loads)
+            && spreadAsWideAsPossible(picks, candidates, existingReplicas)) {
+            return picks;
+        }
+
+        List<String> ranking = placementPolicy.choose(candidates.size(), candidates, loads, random);
+
+        List<String> preferred = new ArrayList<>();
+        List<String> lastResort = new ArrayList<>();
+        for (String url : ranking) {
+            (preferred(placementPolicy, loads.get(url)) ? preferred : lastResort).add(url);
+        }
+
+        List<ServerTopology> used = new ArrayList<>();
+        for (String url : existingReplicas) {
+            used.add(topologyService.of(url));
+        }
+
+        List<String> chosen = new ArrayList<>(count);
+        pickAcrossDomains(count, preferred, used, chosen);
+        pickAcrossDomains(count, lastResort, used, chosen);
+        return chosen;
+    }
+
+    private static boolean preferred(PlacementPolicy placementPolicy, ServerLoad load) {
+        boolean suspect = load != null && load.getSuspicion() >= SUSPECT_LEVEL;
+        return placementPolicy.accepts(load) && !suspect;
+    }
+
+    private static boolean allPreferred(PlacementPolicy placementPolicy, List<String> picks,
+                                        Map<String, ServerLoad> loads) {
+        for (String url : picks) {
+            if (!preferred(placementPolicy, loads.get(url))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Si en cada nivel (rack, host, disco) las réplicas elegidas más las existentes ocupan
+     * tantos dominios distintos como es posible con los candidatos disponibles
+     */
+    private boolean spreadAsWideAsPossible(List<String> picks, List<String> candidates,
+                                           Collection<String> existingReplicas) {
+        int replicas = picks.size() + existingReplicas.size();
+        for (ServerTopology.Level level : ServerTopology.Level.values()) {
+            Set<String> occupied = new HashSet<>();
+            for (String url : existingReplicas) {
+                occupied.add(topologyService.of(url).domain(level));
+            }
+            Set<String> reachable = new HashSet<>(occupied);
+            for (String url : picks) {
+                occupied.add(topologyService.of(url).domain(level));
+            }
+            if (occupied.size() == replicas) {
+                continue; // Sin colisiones en este nivel
+            }
+            for (String url : candidates) {
+                reachable.add(topologyService.of(url).domain(level));
+            }
+            if (occupied.size() < Math.min(replicas, reachable.size())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void pickAcrossDomains(int count, List<String> ranking, List<ServerTopology> used, List<String> chosen) {
+        List<String> remaining = new ArrayList<>(ranking);
+        while (chosen.size() < count && !remaining.isEmpty()) {
+            String pick = null;
+            for (ServerTopology.Level level : ServerTopology.Level.values()) {
+                pick = firstInNewDomain(remaining, used, level);
+                if (pick != null) {
+                    break;
+                }
+            }
+            if (pick == null) {
+                pick = remaining.get(0);
+            }
+            remaining.remove(pick);
+            chosen.add(pick);
+            used.add(topologyService.of(pick));
+        }
+    }
+
+    private String firstInNewDomain(List<String> ranking, List<ServerTopology> used, ServerTopology.Level level) {
+        Set<String> usedDomains = new HashSet<>();
+        for (ServerTopology topology : used) {
+            usedDomains.add(topology.domain(level));
+        }
+        for (String url : ranking) {
+            if (!usedDomains.contains(topologyService.of(url).domain(level))) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cuántas de las réplicas elegidas comparten host y disco con otra réplica del chunk
+     *
+     * @return {compartiendo host, compartiendo disco}
+     */
+    private long[] countSharing(List<String> chosen, Collection<String> existingReplicas) {
+        Set<String> hosts = new HashSet<>();
+        Set<String> disks = new HashSet<>();
+        for (String url : existingReplicas) {
+            ServerTopology topology = topologyService.of(url);
+            hosts.add(topology.domain(ServerTopology.Level.HOST));
+            disks.add(topology.domain(ServerTopology.Level.DISK));
+        }
+        long[] sharing = new long[2];
+        for (String url : chosen) {
+            ServerTopology topology = topologyService.of(url);
+            if (!hosts.add(topology.domain(ServerTopology.Level.HOST))) {
+                sharing[0]++;
+            }
+            if (!disks.add(topology.domain(ServerTopology.Level.DISK))) {
+                sharing[1]++;
+            }
+        }
+        return sharing;
+    }
+
+    public void repairStarted(String url) {
+        loadTracker.repairStarted(url);
+    }
+
+    public void repairFinished(String url) {
+        loadTracker.repairFinished(url);
+    }
+
+    public String getPolicyName() {
+        return policy.getName();
+    }
+
+    /**
+     * Estadísticas de colocación: reparto real de chunks colocados y carga actual
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Long> placed = new TreeMap<>();
+        placedPerServer.forEach((url, count) -> placed.put(url, count.get()));
+
+        List<String> healthy = heartbeatHandler.getHealthyChunkservers();
+        Map<String, Object> loads = new TreeMap<>();
+        for (ServerLoad load : loadTracker.snapshot(healthy).values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("freeSpaceMB", load.getFreeSpaceMB());
+            entry.put("storageUsedMB", load.getStorageUsedMB());
+            entry.put("totalChunks", load.getTotalChunks());
+            entry.put("canWrite", load.isCanWrite());
+            entry.put("recentWrites", load.getRecentWrites());
+            entry.put("inFlightRepairs", load.getInFlightRepairs());
+            entry.put("suspicion", Math.round(load.getSuspicion() * 1000) / 1000.0);
+            loads.put(load.getUrl(), entry);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("policy", policy.getName());
+        stats.put("availablePolicies", new ArrayList<>(policies.keySet()));
+        stats.put("minFreeMB", minFreeMB);
+        stats.put("placedPerServer", placed);
+        stats.put("spread", spread(placed.values()));
+        stats.put("replicasSharingHost", replicasSharingHost.get());
+        stats.put("replicasSharingDisk", replicasSharingDisk.get());
+        stats.put("failureDomains", topologyService.countDomains(healthy));
+        stats.put("topology", topologyService.describe(healthy));
+        stats.put("serverLoads", loads);
+        return stats;
+    }
+
+    /**
+     * Mínimo, máximo, media, desviación estándar y coeficiente de variación de un reparto
+     */
+    private Map<String, Object> spread(Collection<Long> counts) {
+        Map<String, Object> spread = new LinkedHashMap<>();
+        if (counts.isEmpty()) {
+            return spread;
+        }
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        double sum = 0;
+        for (long c : counts) {
+            min = Math.min(min, c);
+            max = Math.max(max, c);
+            sum += c;
+        }
+        double mean = sum / counts.size();
+        double variance = 0;
+        for (long c : counts) {
+            variance += (c - mean) * (c - mean);
+        }
+        double stddev = Math.sqrt(variance / counts.size());
+
+        spread.put("min", min);
+        spread.put("max", max);
+        spread.put("mean", mean);
+        spread.put("stddev", stddev);
+        spread.put("coefficientOfVariation", mean > 0 ? stddev / mean : 0.0);
+        return spread;
+    }
+}
@@ -0,0 +1,29 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerLoad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Colocación aleatoria uniforme (comportamiento original de planUpload)
+ */
+public class RandomPlacementPolicy implements PlacementPolicy {
+
+    public static final String NAME = "random";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public List<String> choose(int count, List<String> candidates, Map<String, ServerLoad> loads, Random random) {
+        List<String> available = new ArrayList<>(candidates);
+        Collections.shuffle(available, random);
+        return new ArrayList<>(available.subList(0, Math.min(count, available.size())));
+    }
+}
@@ -0,0 +1,161 @@
+package com.tpdteam3.master.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * "Calor" de lectura por archivo: contador de lecturas con decaimiento exponencial,
+ * alimentado por las consultas de /metadata (el backend pide los metadatos en cada
+ * descarga).
+ * <p>
+ * Un archivo caliente recibe réplicas extra sobre el factor de replicación: una por
+ * cada {@code master.heat.reads-per-extra-replica} lecturas recientes, hasta
+ * {@code master.heat.max-extra-replicas}. Al enfriarse las pierde de a una, con
+ * histéresis (hay que bajar a la mitad del umbral) para no crear y borrar réplicas
+ * en cada verificación.
+ */
+@Service
+public class ReadHeatTracker {
+
+    @Value("${master.heat.half-life-seconds:300}")
+    private long halfLifeSeconds;
+
+    @Value("${master.heat.reads-per-extra-replica:50}")
+    private double readsPerExtraReplica;
+
+    @Value("${master.heat.max-extra-replicas:2}")
+    private int maxExtraReplicas;
+
+    // Por debajo de esto (y sin réplicas extra) la entrada se descarta
+    private static final double FORGET_BELOW = 0.5;
+
+    private final Map<String, HeatEntry> entries = new ConcurrentHashMap<>();
+
+    // Archivos cuyo objetivo de réplicas cambió desde la última consulta del monitor
+    private final Set<String> changedFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Registra una lectura del archivo
+     */
+    public void recordRead(String imagenId) {
+        HeatEntry entry = entries.computeIfAbsent(imagenId, k -> new HeatEntry());
+        if (entry.addRead(System.currentTimeMillis())) {
+            changedFiles.add(imagenId);
+        }
+    }
+
+    /**
+     * Réplicas extra que corresponden hoy al archivo (0 si no está caliente)
+     */
+    public int extraReplicas(String imagenId) {
+        HeatEntry entry = entries.get(imagenId);
+        return entry != null ? entry.extraReplicas : 0;
+    }
+
+    /**
+     * Recalcula el calor de todos los archivos conocidos (para que los que dejaron de
+     * leerse se enfríen) y devuelve los que cambiaron de objetivo desde la última llamada
+     */
+    public Set<String> drainChangedFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, HeatEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, HeatEntry> entry = iterator.next();
+            HeatEntry heat = entry.getValue();
+            if (heat.refresh(now)) {
+                changedFiles.add(entry.getKey());
+            }
+            if (heat.extraReplicas == 0 && heat.heat(now) < FORGET_BELOW) {
+                iterator.remove();
+            }
+        }
+
+        Set<String> changed = new HashSet<>(changedFiles);
+        changedFiles.removeAll(changed);
+        return changed;
+    }
+
+    public void forget(String imagenId) {
+        entries.remove(imagenId);
+        changedFiles.remove(imagenId);
+    }
+
+    /**
+     * Archivos más leídos y sus réplicas extra (para /stats)
+     */
+    public Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, HeatEntry>> sorted = new ArrayList<>(entries.entrySet());
+        sorted.sort(Comparator.comparingDouble((Map.Entry<String, HeatEntry> e) -> e.getValue().heat(now)).reversed());
+
+        List<Map<String, Object>> hottest = new ArrayList<>();
+        long hotFiles = 0;
+        for (Map.Entry<String, HeatEntry> entry : sorted) {
+            if (entry.getValue().extraReplicas > 0) {
+                hotFiles++;
+            }
+            if (hottest.size() < 10) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("imagenId", entry.getKey());
+                item.put("heat", Math.round(entry.getValue().heat(now) * 10) / 10.0);
+                item.put("extraReplicas", entry.getValue().extraReplicas);
+                hottest.add(item);
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("halfLifeSeconds", halfLifeSeconds);
+        stats.put("readsPerExtraReplica", readsPerExtraReplica);
+        stats.put("maxExtraReplicas", maxExtraReplicas);
+        stats.put("trackedFiles", entries.size());
+        stats.put("hotFiles", hotFiles);
+        stats.put("hottest", hottest);
+        return stats;
+    }
+
+    /**
+     * Contador con decaimiento y réplicas extra asignadas
+     */
+    private class HeatEntry {
+        private double heat = 0;
+        private long lastDecayTime = System.currentTimeMillis();
+        private volatile int extraReplicas = 0;
+
+        synchronized boolean addRead(long now) {
+            heat = heat(now) + 1;
+            lastDecayTime = now;
+            return updateExtraReplicas();
+        }
+
+        synchronized boolean refresh(long now) {
+            heat = heat(now);
+            lastDecayTime = now;
+            return updateExtraReplicas();
+        }
+
+        synchronized double heat(long now) {
+            long elapsed = Math.max(0, now - lastDecayTime);
+            return heat * Math.pow(0.5, elapsed / (halfLifeSeconds * 1000.0));
+        }
+
+        /**
+         * Sube una réplica al alcanzar (extra + 1) × umbral; baja una al caer por
+         * debajo de (extra - 0.5) × umbral
+         */
+        private boolean updateExtraReplicas() {
+            int previous = extraReplicas;
+            int extra = previous;
+            while (extra < maxExtraReplicas && heat >= (extra + 1) * readsPerExtraReplica) {
+                extra++;
+            }
+            while (extra > 0 && heat < (extra - 0.5) * readsPerExtraReplica) {
+                extra--;
+            }
+            extraReplicas = extra;
+            return extra != previous;
+        }
+    }
+}
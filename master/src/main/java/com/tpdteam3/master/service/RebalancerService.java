@@ -0,0 +1,548 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
+import com.tpdteam3.master.model.ServerLoad;
+import com.tpdteam3.master.model.ServerTopology;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebalanceador del cluster: mueve réplicas de los servidores más llenos a los
+ * más vacíos (típicamente uno recién agregado, que solo recibe escrituras nuevas).
+ * <p>
+ * La utilización de cada servidor sale de las métricas del heartbeat
+ * (storageUsedMB / (storageUsedMB + freeSpaceMB)). Un servidor está desbalanceado
+ * si se aleja de la media más que el umbral configurado; se mueve de un servidor
+ * por encima de la media a uno por debajo, siempre que alguno de los dos esté
+ * desbalanceado (como el balancer de HDFS). Cada ronda planifica movimientos
+ * (el origen copia el chunk directamente al destino, registrar la réplica nueva,
+ * quitar la vieja de los metadatos y borrarla del origen) y los ejecuta con un
+ * límite de movimientos concurrentes y de ancho de banda.
+ * <p>
+ * Los shards de archivos EC no se mueven: cada franja tiene sus shards repartidos
+ * a propósito y moverlos exigiría revisar la franja entera.
+ */
+@Service
+public class RebalancerService {
+
+    @Autowired
+    private MasterService masterService;
+
+    @Autowired
+    @Lazy
+    private HeartbeatHandler heartbeatHandler;
+
+    @Autowired
+    @Lazy
+    private ReplicationMonitorService replicationMonitor;
+
+    @Autowired
+    private PlacementService placementService;
+
+    @Autowired
+    private ServerLoadTracker loadTracker;
+
+    @Autowired
+    private TopologyService topologyService;
+
+    @Autowired
+    @Lazy
+    private PackingService packingService;
+
+    @Autowired
+    private CommandQueueService commandQueue;
+
+    // Configuración
+    @Value("${master.rebalancer.enabled:true}")
+    private boolean enabledAtStartup;
+
+    @Value("${master.rebalancer.interval-seconds:60}")
+    private int intervalSeconds;
+
+    @Value("${master.rebalancer.threshold-percent:10}")
+    private double thresholdPercent;
+
+    @Value("${master.rebalancer.max-concurrent-moves:2}")
+    private int maxConcurrentMoves;
+
+    @Value("${master.rebalancer.bandwidth-mbps:10}")
+    private double bandwidthMBps;
+
+    @Value("${master.rebalancer.max-moves-per-round:200}")
+    private int maxMovesPerRound;
+
+    // Espera tras el registro de un servidor nuevo, para que llegue su primer heartbeat con métricas
+    private static final long NEW_SERVER_DELAY_SECONDS = 15;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private ExecutorService movers;
+    private BandwidthThrottle throttle;
+
+    // Estado
+    private final AtomicBoolean enabled = new AtomicBoolean(false);
+    private final AtomicBoolean roundInProgress = new AtomicBoolean(false);
+    private volatile long lastRoundStart = 0;
+    private volatile long lastRoundEnd = 0;
+    private volatile Map<String, Double> lastUtilization = Collections.emptyMap();
+
+    // Progreso de la ronda actual (o la última)
+    private final AtomicInteger roundPlannedMoves = new AtomicInteger();
+    private final AtomicInteger roundCompletedMoves = new AtomicInteger();
+    private final AtomicInteger roundFailedMoves = new AtomicInteger();
+
+    // Totales
+    private final AtomicLong totalRounds = new AtomicLong();
+    private final AtomicLong totalMoves = new AtomicLong();
+    private final AtomicLong totalFailedMoves = new AtomicLong();
+    private final AtomicLong totalBytesMoved = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        movers = Executors.newFixedThreadPool(Math.max(1, maxConcurrentMoves));
+        throttle = new BandwidthThrottle(bandwidthMBps);
+        enabled.set(enabledAtStartup);
+
+        System.out.println("⚖️  Rebalanceador: " + (enabledAtStartup ? "activo" : "detenido") +
+                           " (umbral " + thresholdPercent + "%, " + maxConcurrentMoves + " movimientos concurrentes, " +
+                           bandwidthMBps + " MB/s)");
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (enabled.get()) {
+                runRound();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        enabled.set(false);
+        scheduler.shutdownNow();
+        movers.shutdownNow();
+    }
+
+    // ═══════════════════════════════════════════════════════════════
+    // CONTROL
+    // ═══════════════════════════════════════════════════════════════
+
+    /**
+     * Activa el rebalanceo periódico y lanza una ronda inmediata
+     */
+    public void start() {
+        enabled.set(true);
+        scheduler.execute(this::runRound);
+    }
+
+    /**
+     * Detiene el rebalanceo: la ronda en curso termina los movimientos ya iniciados
+     * y no lanza más
+     */
+    public void stop() {
+        enabled.set(false);
+    }
+
+    /**
+     * Un servidor se registró por primera vez: está vacío, así que conviene
+     * rebalancear apenas reporte sus métricas
+     */
+    public void onChunkserverAdded(String url) {
+        if (enabled.get()) {
+            scheduler.schedule(this::runRound, NEW_SERVER_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════
+    // RONDA DE REBALANCEO
+    // ═══════════════════════════════════════════════════════════════
+
+    private void runRound() {
+        if (!roundInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (!enabled.get()) {
+                return;
+            }
+            List<String> servers = heartbeatHandler.getHealthyChunkservers();
+            Map<String, ServerLoad> loads = loadTracker.snapshot(servers);
+            Map<String, Double> capacityMB = new HashMap<>();
+            Map<String, Double> usedMB = new HashMap<>();
+            for (ServerLoad load : loads.values()) {
+                if (load.isFreeSpaceKnown()) {
+                    usedMB.put(load.getUrl(), load.getStorageUsedMB());
+                    capacityMB.put(load.getUrl(), load.getStorageUsedMB() + load.getFreeSpaceMB());
+                }
+            }
+            lastUtilization = utilization(usedMB, capacityMB);
+
+            if (usedMB.size() < 2 || imbalance(lastUtilization) <= thresholdPercent) {
+                return;
+            }
+
+            lastRoundStart = System.currentTimeMillis();
+            totalRounds.incrementAndGet();
+            List<Move> moves = planMoves(usedMB, capacityMB, loads);
+            roundPlannedMoves.set(moves.size());
+            roundCompletedMoves.set(0);
+            roundFailedMoves.set(0);
+            if (moves.isEmpty()) {
+                return;
+            }
+
+            System.out.println("⚖️  Rebalanceo: " + moves.size() + " movimientos planificados (desbalance " +
+                               String.format("%.1f", imbalance(lastUtilization)) + "%)");
+
+            List<Future<?>> pending = new ArrayList<>();
+            for (Move move : moves) {
+                pending.add(movers.submit(() -> executeMove(move)));
+            }
+            for (Future<?> future : pending) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // executeMove ya registra sus errores
+                }
+            }
+
+            System.out.println("⚖️  Rebalanceo terminado: " + roundCompletedMoves.get() + " movidos, " +
+                               roundFailedMoves.get() + " fallidos");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("❌ Error en ronda de rebalanceo: " + e.getMessage());
+        } finally {
+            lastRoundEnd = System.currentTimeMillis();
+            roundInProgress.set(false);
+        }
+    }
+
+    /**
+     * Planifica movimientos de los servidores por encima de la media hacia los que
+     * están por debajo. La utilización proyectada se actualiza con cada movimiento
+     * para que ni el origen ni el destino crucen la media.
+     */
+    private List<Move> planMoves(Map<String, Double> usedMB, Map<String, Double> capacityMB,
+                                 Map<String, ServerLoad> loads) {
+        Map<String, Double> projected = new HashMap<>(usedMB);
+        double mean = mean(utilization(projected, capacityMB));
+        List<Move> moves = new ArrayList<>();
+
+        List<String> sources = new ArrayList<>(usedMB.keySet());
+        sources.sort(Comparator.comparingDouble((String url) -> percent(projected, capacityMB, url)).reversed());
+
+        for (String source : sources) {
+            if (percent(projected, capacityMB, source) <= mean) {
+                break;
+            }
+
+            Map<String, Set<Integer>> chunks = masterService.getChunksOnServer(source);
+            for (Map.Entry<String, Set<Integer>> entry : chunks.entrySet()) {
+                FileMetadata file = masterService.findFile(entry.getKey());
+                // Un contenedor que sigue recibiendo escrituras de rangos: una copia quedaría atrasada
+                if (file == null || file.erasureCoded() || replicationMonitor.isProcessing(file.getImagenId()) ||
+                    packingService.acceptsWrites(file.getImagenId())) {
+                    continue;
+                }
+
+                for (int chunkIndex : entry.getValue()) {
+                    if (moves.size() >= maxMovesPerRound || percent(projected, capacityMB, source) <= mean) {
+                        break;
+                    }
+
+                    double chunkMB = chunkBytes(file, chunkIndex) / (1024.0 * 1024.0);
+                    List<String> holders = holdersOf(file, chunkIndex);
+                    String target = chooseTarget(source, holders, chunkMB, projected, capacityMB, loads, mean);
+                    if (target == null) {
+                        continue;
+                    }
+
+                    projected.merge(source, -chunkMB, Double::sum);
+                    projected.merge(target, chunkMB, Double::sum);
+                    moves.add(new Move(file.getImagenId(), chunkIndex, source, target));
+                }
+            }
+            if (moves.size() >= maxMovesPerRound) {
+                break;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Destino menos utilizado que quede por debajo de la media tras recibir el chunk,
+     * acepte escrituras, no lo tenga ya y no empeore la separación por host.
+     * Si el origen no está desbalanceado, el destino tiene que estarlo.
+     */
+    private String chooseTarget(String source, List<String> holders, double chunkMB, Map<String, Double> projected,
+                                Map<String, Double> capacityMB, Map<String, ServerLoad> loads, double mean) {
+        boolean sourceOverUtilized = percent(projected, capacityMB, source) > mean + thresholdPercent;
+        Set<String> otherHosts = new HashSet<>();
+        for (String holder : holders) {
+            if (!holder.equals(source)) {
+                otherHosts.add(topologyService.of(holder).domain(ServerTopology.Level.HOST));
+            }
+        }
+        boolean sourceSharedHost = otherHosts.contains(topologyService.of(source).domain(ServerTopology.Level.HOST));
+
+        String best = null;
+        double bestPercent = Double.MAX_VALUE;
+        for (String candidate : projected.keySet()) {
+            if (candidate.equals(source) || holders.contains(candidate) || !loads.get(candidate).isCanWrite()) {
+                continue;
+            }
+            double candidatePercent = percent(projected, capacityMB, candidate);
+            double capacity = capacityMB.get(candidate);
+            if (candidatePercent + chunkMB * 100.0 / capacity > mean ||
+                (!sourceOverUtilized && candidatePercent >= mean - thresholdPercent)) {
+                continue;
+            }
+            String host = topologyService.of(candidate).domain(ServerTopology.Level.HOST);
+            if (otherHosts.contains(host) && !sourceSharedHost) {
+                continue;
+            }
+            if (candidatePercent < bestPercent) {
+                best = candidate;
+                bestPercent = candidatePercent;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Copia el chunk al destino, registra la réplica nueva, la quita del origen en
+     * los metadatos y por último la borra del disco del origen
+     */
+    private void executeMove(Move move) {
+        if (!enabled.get()) {
+            return; // Detenido: no empezar movimientos nuevos
+        }
+        placementService.repairStarted(move.source);
+        placementService.repairStarted(move.target);
+        try {
+            FileMetadata file = masterService.findFile(move.imagenId);
+            int replicaIndex = file != null ? replicaIndexOf(file, move.chunkIndex, move.source) : -1;
+            if (replicaIndex < 0) {
+                return; // El archivo o la réplica desaparecieron desde la planificación
+            }
+
+            // El origen copia el chunk directamente al destino: los datos no pasan por el Master
+            throttle.acquire(chunkBytes(file, move.chunkIndex));
+            long copiedBytes = copyChunk(move.imagenId, move.chunkIndex, move.source, move.target);
+
+            ChunkMetadata replica = new ChunkMetadata(move.chunkIndex, move.target, move.target);
+            replica.setReplicaIndex(replicaIndex);
+            if (!masterService.addReplica(move.imagenId, replica)) {
+                // Archivo borrado mientras se copiaba: descartar la copia
+                deleteChunk(move.imagenId, move.chunkIndex, move.target);
+                return;
+            }
+            if (masterService.removeReplica(move.imagenId, move.chunkIndex, move.source)) {
+                deleteChunk(move.imagenId, move.chunkIndex, move.source);
+            }
+
+            roundCompletedMoves.incrementAndGet();
+            totalMoves.incrementAndGet();
+            totalBytesMoved.addAndGet(copiedBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            roundFailedMoves.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println("   ❌ Error moviendo chunk " + move.chunkIndex + " de " + move.imagenId +
+                               " (" + move.source + " → " + move.target + "): " + e.getMessage());
+            roundFailedMoves.incrementAndGet();
+            totalFailedMoves.incrementAndGet();
+        } finally {
+            placementService.repairFinished(move.source);
+            placementService.repairFinished(move.target);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════
+    // AUXILIARES
+    // ═══════════════════════════════════════════════════════════════
+
+    private static List<String> holdersOf(FileMetadata file, int chunkIndex) {
+        List<String> holders = new ArrayList<>();
+        FileMetadata.Replicas replicas = file.replicas();
+        for (int i = 0; i < replicas.length(); i++) {
+            if (replicas.chunkIndex(i) == chunkIndex) {
+                holders.add(replicas.serverUrl(i));
+            }
+        }
+        return holders;
+    }
+
+    private static int replicaIndexOf(FileMetadata file, int chunkIndex, String serverUrl) {
+        FileMetadata.Replicas replicas = file.replicas();
+        for (int i = 0; i < replicas.length(); i++) {
+            if (replicas.chunkIndex(i) == chunkIndex && replicas.serverUrl(i).equals(serverUrl)) {
+                return replicas.replicaIndex(i);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tamaño del chunk (el último del archivo puede ser más chico)
+     */
+    private static long chunkBytes(FileMetadata file, int chunkIndex) {
+        long chunkSize = file.getChunkSize();
+        return Math.max(0, Math.min(chunkSize, file.getSize() - chunkIndex * chunkSize));
+    }
+
+    private static Map<String, Double> utilization(Map<String, Double> usedMB, Map<String, Double> capacityMB) {
+        Map<String, Double> result = new TreeMap<>();
+        for (String url : usedMB.keySet()) {
+            result.put(url, percent(usedMB, capacityMB, url));
+        }
+        return result;
+    }
+
+    private static double percent(Map<String, Double> usedMB, Map<String, Double> capacityMB, String url) {
+        double capacity = capacityMB.getOrDefault(url, 0.0);
+        return capacity > 0 ? usedMB.get(url) * 100.0 / capacity : 0.0;
+    }
+
+    private static double mean(Map<String, Double> utilization) {
+        return utilization.values().stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+    }
+
+    /**
+     * Desbalance: máxima distancia de un servidor a la utilización media, en puntos porcentuales
+     */
+    private static double imbalance(Map<String, Double> utilization) {
+        double mean = mean(utilization);
+        return utilization.values().stream().mapToDouble(u -> Math.abs(u - mean)).max().orElse(0.0);
+    }
+
+    /**
+     * Pide al origen que copie el chunk al destino (comando replicate_to en su heartbeat)
+     * y espera la confirmación
+     *
+     * @return Bytes copiados
+     */
+    private long copyChunk(String imagenId, int chunkIndex, String source, String target) throws InterruptedException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("imagenId", imagenId);
+        params.put("chunkIndex", chunkIndex);
+        params.put("target", target);
+        try {
+            Map<String, Object> result = commandQueue.submit(source, CommandQueueService.REPLICATE_TO, params).get();
+            Object bytes = result.get("bytes");
+            return bytes instanceof Number ? ((Number) bytes).longValue() : 0;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error copiando chunk de " + source + " a " + target + ": " +
+                                       e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Pide al servidor que borre el chunk (comando delete en su heartbeat) y espera la confirmación
+     */
+    private void deleteChunk(String imagenId, int chunkIndex, String serverUrl) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("imagenId", imagenId);
+        params.put("chunkIndex", chunkIndex);
+        try {
+            commandQueue.submit(serverUrl, CommandQueueService.DELETE, params).join();
+        } catch (CompletionException e) {
+            // Queda huérfano en el disco; la verificación de integridad lo reporta
+            System.err.println("   ⚠️  No se pudo borrar chunk " + chunkIndex + " de " + imagenId +
+                               " en " + serverUrl + ": " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Estado del rebalanceador: utilización por servidor, desbalance restante y
+     * progreso de la ronda actual
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Double> utilization = lastUtilization;
+
+        Map<String, Object> round = new LinkedHashMap<>();
+        round.put("inProgress", roundInProgress.get());
+        round.put("plannedMoves", roundPlannedMoves.get());
+        round.put("completedMoves", roundCompletedMoves.get());
+        round.put("failedMoves", roundFailedMoves.get());
+        round.put("lastRoundStart", lastRoundStart);
+        round.put("lastRoundEnd", lastRoundEnd);
+
+        Map<String, Object> budget = new LinkedHashMap<>();
+        budget.put("maxConcurrentMoves", maxConcurrentMoves);
+        budget.put("bandwidthMBps", bandwidthMBps);
+        budget.put("maxMovesPerRound", maxMovesPerRound);
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled.get());
+        status.put("thresholdPercent", thresholdPercent);
+        status.put("intervalSeconds", intervalSeconds);
+        status.put("budget", budget);
+        status.put("utilizationPercent", utilization);
+        status.put("meanUtilizationPercent", mean(utilization));
+        status.put("imbalancePercent", imbalance(utilization));
+        status.put("balanced", imbalance(utilization) <= thresholdPercent);
+        status.put("round", round);
+        status.put("totalRounds", totalRounds.get());
+        status.put("totalMoves", totalMoves.get());
+        status.put("totalFailedMoves", totalFailedMoves.get());
+        status.put("totalBytesMoved", totalBytesMoved.get());
+        return status;
+    }
+
+    /**
+     * Movimiento planificado de una réplica
+     */
+    private static final class Move {
+        final String imagenId;
+        final int chunkIndex;
+        final String source;
+        final String target;
+
+        Move(String imagenId, int chunkIndex, String source, String target) {
+            this.imagenId = imagenId;
+            this.chunkIndex = chunkIndex;
+            this.source = source;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Limitador de ancho de banda compartido por todos los movimientos: reserva el
+     * tiempo que tardaría en transferirse cada chunk a la tasa configurada y espera
+     * hasta su turno
+     */
+    private static final class BandwidthThrottle {
+        private final double bytesPerNano;
+        private long nextFreeNanos = System.nanoTime();
+
+        BandwidthThrottle(double megabytesPerSecond) {
+            this.bytesPerNano = megabytesPerSecond * 1024 * 1024 / 1_000_000_000.0;
+        }
+
+        void acquire(long bytes) throws InterruptedException {
+            if (bytesPerNano <= 0) {
+                return; // Sin límite
+            }
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFreeNanos);
+                nextFreeNanos = start + (long) (bytes / bytesPerNano);
+                waitNanos = start - now;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.tpdteam3.master.service;
 
+import com.tpdteam3.common.ChunkHeaders;
 import com.tpdteam3.master.model.FileMetadata;
 import com.tpdteam3.master.model.FileMetadata.ChunkMetadata;
 import com.tpdteam3.master.model.FileWithReplicationStatus;
@@ -7,8 +8,10 @@ import com.tpdteam3.master.model.ReplicationStatus;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -16,6 +19,7 @@ import org.springframework.web.client.RestTemplate;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -31,13 +35,32 @@ public class ReplicationMonitorService {
     @Autowired
     private HeartbeatHandler heartbeatHandler;
 
+    @Autowired
+    private PlacementService placementService;
+
+    @Autowired
+    private ErasureCodingService erasureCodingService;
+
+    @Autowired
+    private ReadHeatTracker readHeatTracker;
+
+    @Autowired
+    private CommandQueueService commandQueue;
+
+    @Autowired
+    @Lazy
+    private PackingService packingService;
+
     private final RestTemplate restTemplate;
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // Re-replicaciones y limpiezas: esperan confirmaciones de comandos, fuera del pool común
+    private final ExecutorService repairExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_REREPLICATIONS + 1);
 
     // Configuración
     private static final int REPLICATION_CHECK_INTERVAL_SECONDS = 30; // Verificar cada 30 segundos
     private static final int TARGET_REPLICATION_FACTOR = 3;
     private static final int MAX_CONCURRENT_REREPLICATIONS = 2; // Máximo 2 archivos replicándose al mismo tiempo
+    private static final int FULL_SWEEP_EVERY_N_CHECKS = 10; // Barrido completo de respaldo (~5 minutos)
 
     // Prevenir operaciones conflictivas
     private static final int MIN_REPLICATION_FACTOR = 2; // No eliminar si hay menos de esto
@@ -46,9 +69,19 @@ public class ReplicationMonitorService {
     // Estado
     private final Set<String> currentlyReplicating = ConcurrentHashMap.newKeySet();
     private final Map<String, Long> lastRepairTime = new ConcurrentHashMap<>(); // Track de última reparación
-    private long totalReplicationsMade = 0;
-    private long totalReplicationAttempts = 0;
-    private long totalCleanupOperations = 0; // Contador de limpiezas
+
+    // Archivos a revisar en la próxima verificación (afectados por eventos de servidores)
+    private final Set<String> pendingFiles = ConcurrentHashMap.newKeySet();
+
+    // Archivos que cambiaron de calor: al enfriarse se recortan hasta el objetivo exacto,
+    // sin el margen de una réplica que se tolera al resto
+    private final Set<String> heatChangedFiles = ConcurrentHashMap.newKeySet();
+    private long checksSinceFullSweep = 0;
+    private final AtomicLong totalFullSweeps = new AtomicLong();
+    private final AtomicLong totalFilesChecked = new AtomicLong();
+    private final AtomicLong totalReplicationsMade = new AtomicLong();
+    private final AtomicLong totalReplicationAttempts = new AtomicLong();
+    private final AtomicLong totalCleanupOperations = new AtomicLong(); // Contador de limpiezas
 
     public ReplicationMonitorService() {
         // Configurar RestTemplate con timeouts
@@ -83,19 +116,62 @@ public class ReplicationMonitorService {
     public void stopMonitoring() {
         System.out.println("🛑 Deteniendo Re-replication Monitor...");
         scheduler.shutdown();
+        repairExecutor.shutdown();
         try {
             if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
                 scheduler.shutdownNow();
             }
+            if (!repairExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                repairExecutor.shutdownNow();
+            }
         } catch (InterruptedException e) {
             scheduler.shutdownNow();
+            repairExecutor.shutdownNow();
             Thread.currentThread().interrupt();
         }
     }
 
+    // ═══════════════════════════════════════════════════════════════
+    // EVENTOS DE SERVIDORES (alimentan el conjunto de archivos pendientes)
+    // ═══════════════════════════════════════════════════════════════
+
     /**
-     * Verifica todos los archivos y re-replica los que necesiten más réplicas
-     * o elimina réplicas excedentes
+     * Un servidor cayó: sus archivos pueden haber quedado con replicación degradada.
+     * Cuesta O(chunks en el servidor) gracias al índice inverso del Master.
+     */
+    public void onChunkserverDown(String chunkserverUrl) {
+        Set<String> affected = masterService.getFilesOnServer(chunkserverUrl);
+        pendingFiles.addAll(affected);
+        if (!affected.isEmpty()) {
+            System.out.println("   📋 Archivos marcados para revisar replicación: " + affected.size());
+        }
+    }
+
+    /**
+     * Un servidor volvió: sus archivos pueden haber quedado sobre-replicados
+     */
+    public void onChunkserverUp(String chunkserverUrl) {
+        pendingFiles.addAll(masterService.getFilesOnServer(chunkserverUrl));
+    }
+
+    /**
+     * Indica si el archivo se está re-replicando o limpiando en este momento
+     */
+    public boolean isProcessing(String imagenId) {
+        return currentlyReplicating.contains(imagenId);
+    }
+
+    /**
+     * Marca un archivo para revisar en la próxima verificación
+     */
+    public void markForCheck(String imagenId) {
+        pendingFiles.add(imagenId);
+    }
+
+    /**
+     * Revisa los archivos pendientes y re-replica los que necesiten más réplicas
+     * o elimina réplicas excedentes. Cada FULL_SWEEP_EVERY_N_CHECKS ciclos revisa
+     * el namespace completo como respaldo ante eventos perdidos.
      */
     private void checkAndRereplicate() {
         try {
@@ -106,25 +182,62 @@ public class ReplicationMonitorService {
                 return; // No tiene sentido revisar si no hay servidores disponibles
             }
 
-            System.out.println("🔍 Verificando estado de replicación...");
+            Set<String> heatChanged = readHeatTracker.drainChangedFiles();
+            pendingFiles.addAll(heatChanged);
+            heatChangedFiles.addAll(heatChanged);
+
+            boolean fullSweep = ++checksSinceFullSweep >= FULL_SWEEP_EVERY_N_CHECKS;
+            if (!fullSweep && pendingFiles.isEmpty()) {
+                return;
+            }
+
+            Collection<FileMetadata> filesToCheck = new ArrayList<>();
+            if (fullSweep) {
+                checksSinceFullSweep = 0;
+                totalFullSweeps.incrementAndGet();
+                pendingFiles.clear();
+                heatChangedFiles.removeIf(imagenId -> masterService.findFile(imagenId) == null);
+                filesToCheck.addAll(masterService.listFiles());
+            } else {
+                for (String imagenId : new ArrayList<>(pendingFiles)) {
+                    pendingFiles.remove(imagenId);
+                    FileMetadata file = masterService.findFile(imagenId);
+                    if (file != null) {
+                        filesToCheck.add(file);
+                    }
+                }
+            }
+
+            System.out.println("🔍 Verificando estado de replicación" + (fullSweep ? " (barrido completo)" : "") + "...");
             System.out.println("   Servidores activos: " + healthyServers.size());
+            System.out.println("   Archivos a revisar: " + filesToCheck.size());
 
-            Collection<FileMetadata> allFiles = masterService.listFiles();
+            totalFilesChecked.addAndGet(filesToCheck.size());
             List<FileWithReplicationStatus> degradedFiles = new ArrayList<>();
             List<FileWithReplicationStatus> overReplicatedFiles = new ArrayList<>();
 
             // Identificar archivos que necesitan ajuste de réplicas
-            for (FileMetadata file : allFiles) {
+            for (FileMetadata file : filesToCheck) {
                 ReplicationStatus status = analyzeReplication(file, healthyServers);
 
+                // Un contenedor que recibe rangos no se copia entero: se cierra y se repara
+                // cuando termina su ventana de escrituras
+                if (status.needsReplication() && packingService.acceptsWrites(file.getImagenId())) {
+                    packingService.seal(file.getImagenId());
+                    pendingFiles.add(file.getImagenId());
+                    continue;
+                }
+
                 if (status.needsReplication()) {
                     degradedFiles.add(new FileWithReplicationStatus(file, status));
-                } else if (status.hasExcessReplicas()) {
+                } else if (status.hasExcessReplicas() || cooledAboveTarget(file, status)) {
                     // ✅ NUEVO: Solo considerar limpieza si no se reparó recientemente
                     Long lastRepair = lastRepairTime.get(file.getImagenId());
                     if (lastRepair == null ||
                         System.currentTimeMillis() - lastRepair > COOLDOWN_AFTER_REPAIR_MS) {
                         overReplicatedFiles.add(new FileWithReplicationStatus(file, status));
+                    } else {
+                        pendingFiles.add(file.getImagenId()); // Reintentar al terminar el cooldown
                     }
                 }
             }
@@ -146,6 +259,12 @@ public class ReplicationMonitorService {
             // 1. PRIORIDAD: Re-replicar archivos degradados
             degradedFiles.sort(Comparator.comparingInt(f -> f.getStatus().getCurrentMinReplicas()));
 
+            // Los degradados siguen pendientes hasta que una revisión los encuentre completos
+            // (por límite de concurrencia o por falta de servidores destino)
+            for (FileWithReplicationStatus degradedFile : degradedFiles) {
+                pendingFiles.add(degradedFile.getFile().getImagenId());
+            }
+
             int replicationsStarted = 0;
             for (FileWithReplicationStatus degradedFile : degradedFiles) {
                 if (currentlyReplicating.size() >= MAX_CONCURRENT_REREPLICATIONS) {
@@ -169,11 +288,16 @@ public class ReplicationMonitorService {
             int cleanupStarted = 0;
             for (FileWithReplicationStatus overReplicatedFile : overReplicatedFiles) {
                 if (currentlyReplicating.contains(overReplicatedFile.getFile().getImagenId())) {
+                    pendingFiles.add(overReplicatedFile.getFile().getImagenId());
                     continue; // Ya está siendo procesado
                 }
 
                 // ✅ NUEVO: Solo limpiar si realmente hay exceso significativo
-                if (overReplicatedFile.getStatus().getCurrentMinReplicas() > TARGET_REPLICATION_FACTOR) {
+                // (en archivos EC cualquier shard duplicado es exceso)
+                ReplicationStatus overStatus = overReplicatedFile.getStatus();
+                if (overStatus.getCurrentMinReplicas() > overStatus.getTargetReplicas() ||
+                    overReplicatedFile.getFile().erasureCoded() ||
+                    heatChangedFiles.contains(overReplicatedFile.getFile().getImagenId())) {
                     cleanupExcessReplicas(overReplicatedFile.getFile(), overReplicatedFile.getStatus(), healthyServers);
                     cleanupStarted++;
                 }
@@ -189,6 +313,32 @@ public class ReplicationMonitorService {
         }
     }
 
+    /**
+     * Réplicas objetivo de cada chunk del archivo: 1 por shard EC, o el factor de
+     * replicación más las réplicas extra que le da su calor de lectura
+     */
+    private int targetReplicasFor(FileMetadata file) {
+        if (file.erasureCoded()) {
+            return file.targetReplicasPerChunk(TARGET_REPLICATION_FACTOR);
+        }
+        return TARGET_REPLICATION_FACTOR + readHeatTracker.extraReplicas(file.getImagenId());
+    }
+
+    /**
+     * Un archivo que se enfrió conserva réplicas extra que el margen de hasExcessReplicas
+     * no detecta; se recortan una vez y después se deja de seguir
+     */
+    private boolean cooledAboveTarget(FileMetadata file, ReplicationStatus status) {
+        if (!heatChangedFiles.contains(file.getImagenId())) {
+            return false;
+        }
+        if (status.getCurrentMaxReplicas() <= status.getTargetReplicas()) {
+            heatChangedFiles.remove(file.getImagenId());
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Analiza el estado de replicación de un archivo
      */
@@ -197,6 +347,14 @@ public class ReplicationMonitorService {
         Map<Integer, List<ChunkMetadata>> chunksByIndex = file.getChunks().stream()
                 .collect(Collectors.groupingBy(ChunkMetadata::getChunkIndex));
 
+        int target = targetReplicasFor(file);
+        if (file.erasureCoded()) {
+            // Un shard EC sin ninguna réplica registrada también se puede reconstruir
+            for (int i = 0; i < file.expectedChunkCount(); i++) {
+                chunksByIndex.putIfAbsent(i, Collections.emptyList());
+            }
+        }
+
         int totalChunks = chunksByIndex.size();
         int minReplicas = Integer.MAX_VALUE;
         int maxReplicas = 0;
@@ -214,7 +372,7 @@ public class ReplicationMonitorService {
             minReplicas = Math.min(minReplicas, replicas);
             maxReplicas = Math.max(maxReplicas, replicas);
 
-            if (replicas < TARGET_REPLICATION_FACTOR) {
+            if (replicas < target) {
                 chunksNeedingReplication++;
             }
         }
@@ -224,7 +382,8 @@ public class ReplicationMonitorService {
                 minReplicas == Integer.MAX_VALUE ? 0 : minReplicas,
                 maxReplicas,
                 totalReplicas,
-                chunksNeedingReplication
+                chunksNeedingReplication,
+                target
         );
     }
 
@@ -238,7 +397,7 @@ public class ReplicationMonitorService {
             return; // Ya se está replicando
         }
 
-        totalReplicationAttempts++;
+        totalReplicationAttempts.incrementAndGet();
 
         System.out.println();
         System.out.println("╔════════════════════════════════════════════════════════╗");
@@ -246,7 +405,7 @@ public class ReplicationMonitorService {
         System.out.println("╚════════════════════════════════════════════════════════╝");
         System.out.println("   ImagenId: " + imagenId);
         System.out.println("   Réplicas actuales: " + status.getCurrentMinReplicas());
-        System.out.println("   Réplicas objetivo: " + TARGET_REPLICATION_FACTOR);
+        System.out.println("   Réplicas objetivo: " + status.getTargetReplicas());
         System.out.println("   Chunks a replicar: " + status.getChunksNeedingReplication());
         System.out.println();
 
@@ -254,7 +413,7 @@ public class ReplicationMonitorService {
         CompletableFuture.runAsync(() -> {
             try {
                 doReplication(file, healthyServers);
-                totalReplicationsMade++;
+                totalReplicationsMade.incrementAndGet();
                 lastRepairTime.put(imagenId, System.currentTimeMillis()); // ✅ NUEVO: Registrar tiempo de reparación
                 System.out.println("✅ Re-replicación completada: " + imagenId);
             } catch (Exception e) {
@@ -262,83 +421,120 @@ public class ReplicationMonitorService {
             } finally {
                 currentlyReplicating.remove(imagenId);
             }
-        });
+        }, repairExecutor);
     }
 
     /**
      * Realiza la re-replicación efectiva
      */
     private void doReplication(FileMetadata file, List<String> healthyServers) throws Exception {
+        if (file.erasureCoded()) {
+            doErasureCodedRepair(file, healthyServers);
+            return;
+        }
+
         // Agrupar chunks por índice
         Map<Integer, List<ChunkMetadata>> chunksByIndex = file.getChunks().stream()
                 .collect(Collectors.groupingBy(ChunkMetadata::getChunkIndex));
 
         int replicasCreated = 0;
         int replicasFailed = 0;
+        // Se encolan las copias de todos los chunks y después se esperan juntas
+        List<PendingCommand> copies = new ArrayList<>();
 
-        for (Map.Entry<Integer, List<ChunkMetadata>> entry : chunksByIndex.entrySet()) {
-            int chunkIndex = entry.getKey();
-            List<ChunkMetadata> existingReplicas = entry.getValue();
-
-            // Contar réplicas activas
-            List<ChunkMetadata> activeReplicas = existingReplicas.stream()
-                    .filter(chunk -> healthyServers.contains(chunk.getChunkserverUrl()))
-                    .collect(Collectors.toList());
-
-            int currentReplicas = activeReplicas.size();
-            int neededReplicas = TARGET_REPLICATION_FACTOR - currentReplicas;
+        try {
+            for (Map.Entry<Integer, List<ChunkMetadata>> entry : chunksByIndex.entrySet()) {
+                int chunkIndex = entry.getKey();
+                List<ChunkMetadata> existingReplicas = entry.getValue();
 
-            if (neededReplicas <= 0) {
-                continue; // Este chunk ya tiene suficientes réplicas
-            }
+                // Contar réplicas activas
+                List<ChunkMetadata> activeReplicas = existingReplicas.stream()
+                        .filter(chunk -> healthyServers.contains(chunk.getChunkserverUrl()))
+                        .collect(Collectors.toList());
 
-            // Seleccionar servidores que NO tienen este chunk
-            Set<String> serversWithChunk = activeReplicas.stream()
-                    .map(ChunkMetadata::getChunkserverUrl)
-                    .collect(Collectors.toSet());
+                if (activeReplicas.isEmpty()) {
+                    System.out.println("   ⚠️  Chunk " + chunkIndex + ": No quedan réplicas activas desde donde copiar");
+                    continue;
+                }
 
-            List<String> availableServers = healthyServers.stream()
-                    .filter(server -> !serversWithChunk.contains(server))
-                    .collect(Collectors.toList());
+                int currentReplicas = activeReplicas.size();
+                int neededReplicas = targetReplicasFor(file) - currentReplicas;
 
-            if (availableServers.isEmpty()) {
-                System.out.println("   ⚠️  Chunk " + chunkIndex + ": No hay servidores disponibles para replicar");
-                continue;
-            }
+                if (neededReplicas <= 0) {
+                    continue; // Este chunk ya tiene suficientes réplicas
+                }
 
-            // Limitar a los servidores necesarios
-            int serversToUse = Math.min(neededReplicas, availableServers.size());
+                // Seleccionar servidores que NO tienen este chunk
+                Set<String> serversWithChunk = activeReplicas.stream()
+                        .map(ChunkMetadata::getChunkserverUrl)
+                        .collect(Collectors.toSet());
 
-            System.out.println("   📦 Chunk " + chunkIndex + ": Creando " + serversToUse + " réplicas adicionales");
+                List<String> availableServers = healthyServers.stream()
+                        .filter(server -> !serversWithChunk.contains(server))
+                        .collect(Collectors.toList());
 
-            // Leer chunk desde una réplica existente
-            String sourceServer = activeReplicas.get(0).getChunkserverUrl();
-            byte[] chunkData = readChunkFromServer(file.getImagenId(), chunkIndex, sourceServer);
-            String base64Data = Base64.getEncoder().encodeToString(chunkData);
+                if (availableServers.isEmpty()) {
+                    System.out.println("   ⚠️  Chunk " + chunkIndex + ": No hay servidores disponibles para replicar");
+                    continue;
+                }
 
-            // Escribir en nuevos servidores
-            for (int i = 0; i < serversToUse; i++) {
-                String targetServer = availableServers.get(i);
+                // Elegir los destinos necesarios con la política de colocación,
+                // evitando los dominios de falla de las réplicas que quedan
+                List<String> targetServers = placementService.chooseServers(
+                        Math.min(neededReplicas, availableServers.size()),
+                        availableServers,
+                        serversWithChunk
+                );
+                int serversToUse = targetServers.size();
+
+                System.out.println("   📦 Chunk " + chunkIndex + ": Creando " + serversToUse + " réplicas adicionales");
+
+                // La réplica existente menos sospechosa copia el chunk a cada destino (comando
+                // replicate_to en su heartbeat)
+                String sourceServer = activeReplicas.stream()
+                        .map(ChunkMetadata::getChunkserverUrl)
+                        .min(Comparator.comparingDouble(heartbeatHandler::getSuspicion))
+                        .orElseThrow();
+                for (int i = 0; i < serversToUse; i++) {
+                    String targetServer = targetServers.get(i);
+                    Map<String, Object> params = new HashMap<>();
+                    params.put("imagenId", file.getImagenId());
+                    params.put("chunkIndex", chunkIndex);
+                    params.put("target", targetServer);
+                    CompletableFuture<Map<String, Object>> command =
+                            commandQueue.submit(sourceServer, CommandQueueService.REPLICATE_TO, params);
+                    placementService.repairStarted(sourceServer);
+                    placementService.repairStarted(targetServer);
+                    copies.add(new PendingCommand(chunkIndex, sourceServer, targetServer, currentReplicas + i, command));
+                }
+            }
+        } finally {
+            // Una sola espera para todas las confirmaciones (o fallas/vencimientos); siempre se
+            // esperan los comandos ya encolados y se liberan sus contadores de reparación
+            awaitAll(copies);
+            for (PendingCommand copy : copies) {
                 try {
-                    writeChunkToServer(file.getImagenId(), chunkIndex, base64Data, targetServer);
+                    awaitCommand(copy.command);
 
-                    // Actualizar metadatos en memoria
-                    ChunkMetadata newChunk = new ChunkMetadata(chunkIndex, targetServer, targetServer);
-                    newChunk.setReplicaIndex(currentReplicas + i);
-                    file.getChunks().add(newChunk);
+                    // Registrar réplica (memoria + log de operaciones)
+                    ChunkMetadata newChunk = new ChunkMetadata(copy.chunkIndex, copy.target, copy.target);
+                    newChunk.setReplicaIndex(copy.replicaIndex);
+                    masterService.addReplica(file.getImagenId(), newChunk);
 
-                    System.out.println("      ✅ Réplica creada en: " + targetServer);
+                    System.out.println("      ✅ Chunk " + copy.chunkIndex + ": réplica creada en " + copy.target);
                     replicasCreated++;
                 } catch (Exception e) {
-                    System.err.println("      ❌ Error creando réplica en " + targetServer + ": " + e.getMessage());
+                    System.err.println("      ❌ Chunk " + copy.chunkIndex + ": error creando réplica en " +
+                                       copy.target + ": " + e.getMessage());
                     replicasFailed++;
+                } finally {
+                    placementService.repairFinished(copy.server);
+                    placementService.repairFinished(copy.target);
                 }
             }
         }
 
-        // Persistir cambios en metadatos
         if (replicasCreated > 0) {
-            masterService.updateFileMetadata(file);
             System.out.println();
             System.out.println("📊 Resultado re-replicación:");
             System.out.println("   ✅ Réplicas creadas: " + replicasCreated);
@@ -348,6 +544,105 @@ public class ReplicationMonitorService {
         }
     }
 
+    /**
+     * Repara un archivo erasure-coded: por cada franja con shards sin réplica viva,
+     * los reconstruye con Reed-Solomon a partir de dataShards sobrevivientes y los
+     * escribe en servidores que no tengan otros shards de la franja (si los hay).
+     */
+    private void doErasureCodedRepair(FileMetadata file, List<String> healthyServers) throws Exception {
+        int shardsPerStripe = file.shardsPerStripe();
+        Set<String> healthySet = new HashSet<>(healthyServers);
+
+        // Servidores vivos por shard
+        Map<Integer, List<String>> holders = new HashMap<>();
+        FileMetadata.Replicas replicas = file.replicas();
+        for (int i = 0; i < replicas.length(); i++) {
+            String url = replicas.serverUrl(i);
+            if (healthySet.contains(url)) {
+                holders.computeIfAbsent(replicas.chunkIndex(i), k -> new ArrayList<>()).add(url);
+            }
+        }
+
+        int shardsRebuilt = 0;
+        int shardsFailed = 0;
+
+        for (int stripe = 0; stripe < file.stripeCount(); stripe++) {
+            Set<Integer> missing = new TreeSet<>();
+            Set<String> stripeServers = new HashSet<>();
+            for (int j = 0; j < shardsPerStripe; j++) {
+                int chunkIndex = stripe * shardsPerStripe + j;
+                List<String> shardHolders = holders.get(chunkIndex);
+                if (shardHolders == null) {
+                    missing.add(chunkIndex);
+                } else {
+                    stripeServers.addAll(shardHolders);
+                }
+            }
+
+            if (missing.isEmpty()) {
+                continue;
+            }
+            if (shardsPerStripe - missing.size() < file.getDataShards()) {
+                System.err.println("   ❌ Franja " + stripe + ": quedan " + (shardsPerStripe - missing.size()) +
+                                   " shards, se necesitan " + file.getDataShards() + " - irrecuperable por ahora");
+                shardsFailed += missing.size();
+                continue;
+            }
+
+            System.out.println("   🧩 Franja " + stripe + ": reconstruyendo " + missing.size() + " shards");
+
+            Map<Integer, byte[]> rebuilt;
+            try {
+                rebuilt = erasureCodingService.reconstruct(file, stripe, missing, healthyServers);
+            } catch (Exception e) {
+                System.err.println("      ❌ Error reconstruyendo franja " + stripe + ": " + e.getMessage());
+                shardsFailed += missing.size();
+                continue;
+            }
+
+            // Destinos: preferir servidores sin shards de esta franja
+            List<String> candidates = healthyServers.stream()
+                    .filter(server -> !stripeServers.contains(server))
+                    .collect(Collectors.toList());
+            if (candidates.isEmpty()) {
+                candidates = new ArrayList<>(healthyServers);
+            }
+            List<String> targets = placementService.chooseServers(
+                    Math.min(missing.size(), candidates.size()),
+                    candidates,
+                    stripeServers
+            );
+
+            int t = 0;
+            for (int chunkIndex : missing) {
+                String targetServer = targets.get(t++ % targets.size());
+                placementService.repairStarted(targetServer);
+                try {
+                    writeChunkToServer(file.getImagenId(), chunkIndex, rebuilt.get(chunkIndex), targetServer);
+
+                    masterService.addReplica(file.getImagenId(), new ChunkMetadata(chunkIndex, targetServer, targetServer));
+                    System.out.println("      ✅ Shard " + chunkIndex + " reconstruido en: " + targetServer);
+                    shardsRebuilt++;
+                } catch (Exception e) {
+                    System.err.println("      ❌ Error escribiendo shard " + chunkIndex + " en " + targetServer +
+                                       ": " + e.getMessage());
+                    shardsFailed++;
+                } finally {
+                    placementService.repairFinished(targetServer);
+                }
+            }
+        }
+
+        if (shardsRebuilt > 0 || shardsFailed > 0) {
+            System.out.println();
+            System.out.println("📊 Resultado reconstrucción EC:");
+            System.out.println("   ✅ Shards reconstruidos: " + shardsRebuilt);
+            if (shardsFailed > 0) {
+                System.out.println("   ❌ Shards fallidos: " + shardsFailed);
+            }
+        }
+    }
+
     /**
      * ✅ MEJORADO: Elimina réplicas excedentes de un archivo CON CUIDADO
      */
@@ -364,20 +659,20 @@ public class ReplicationMonitorService {
         System.out.println("╚════════════════════════════════════════════════════════╝");
         System.out.println("   ImagenId: " + imagenId);
         System.out.println("   Réplicas máximas actuales: " + status.getCurrentMaxReplicas());
-        System.out.println("   Réplicas objetivo: " + TARGET_REPLICATION_FACTOR);
+        System.out.println("   Réplicas objetivo: " + status.getTargetReplicas());
         System.out.println();
 
         CompletableFuture.runAsync(() -> {
             try {
                 doCleanup(file, healthyServers);
-                totalCleanupOperations++;
+                totalCleanupOperations.incrementAndGet();
                 System.out.println("✅ Limpieza completada: " + imagenId);
             } catch (Exception e) {
                 System.err.println("❌ Error en limpieza de " + imagenId + ": " + e.getMessage());
             } finally {
                 currentlyReplicating.remove(imagenId);
             }
-        });
+        }, repairExecutor);
     }
 
     /**
@@ -388,57 +683,72 @@ public class ReplicationMonitorService {
                 .collect(Collectors.groupingBy(ChunkMetadata::getChunkIndex));
 
         int replicasDeleted = 0;
-        List<ChunkMetadata> chunksToRemove = new ArrayList<>();
-
-        for (Map.Entry<Integer, List<ChunkMetadata>> entry : chunksByIndex.entrySet()) {
-            int chunkIndex = entry.getKey();
-            List<ChunkMetadata> allReplicas = entry.getValue();
+        int target = targetReplicasFor(file);
+        // Se encolan los borrados de todos los chunks y después se esperan juntos
+        List<PendingCommand> deletions = new ArrayList<>();
+        int minSafeReplicas = Math.min(MIN_REPLICATION_FACTOR, target);
 
-            // Filtrar solo réplicas activas
-            List<ChunkMetadata> activeReplicas = allReplicas.stream()
-                    .filter(chunk -> healthyServers.contains(chunk.getChunkserverUrl()))
-                    .sorted(Comparator.comparingInt(ChunkMetadata::getReplicaIndex))
-                    .collect(Collectors.toList());
-
-            int currentReplicas = activeReplicas.size();
+        try {
+            for (Map.Entry<Integer, List<ChunkMetadata>> entry : chunksByIndex.entrySet()) {
+                int chunkIndex = entry.getKey();
+                List<ChunkMetadata> allReplicas = entry.getValue();
 
-            // ✅ NUEVO: Solo eliminar si hay significativamente más réplicas de lo necesario
-            // Y asegurar que nunca bajemos del mínimo seguro
-            int excessReplicas = currentReplicas - TARGET_REPLICATION_FACTOR;
+                // Filtrar solo réplicas activas
+                List<ChunkMetadata> activeReplicas = allReplicas.stream()
+                        .filter(chunk -> healthyServers.contains(chunk.getChunkserverUrl()))
+                        .sorted(Comparator.comparingInt(ChunkMetadata::getReplicaIndex))
+                        .collect(Collectors.toList());
 
-            if (excessReplicas <= 0 || currentReplicas <= MIN_REPLICATION_FACTOR) {
-                continue; // No eliminar si no hay exceso real o estamos en el mínimo
-            }
+                int currentReplicas = activeReplicas.size();
 
-            System.out.println("   📦 Chunk " + chunkIndex + ": Eliminando " + excessReplicas + " réplicas excedentes");
-            System.out.println("      Réplicas actuales: " + currentReplicas + " → Objetivo: " + TARGET_REPLICATION_FACTOR);
+                // ✅ NUEVO: Solo eliminar si hay significativamente más réplicas de lo necesario
+                // Y asegurar que nunca bajemos del mínimo seguro
+                int excessReplicas = currentReplicas - target;
 
-            // Mantener solo las primeras TARGET_REPLICATION_FACTOR réplicas
-            List<ChunkMetadata> replicasToDelete = activeReplicas.stream()
-                    .skip(TARGET_REPLICATION_FACTOR)
-                    .collect(Collectors.toList());
+                if (excessReplicas <= 0 || currentReplicas <= minSafeReplicas) {
+                    continue; // No eliminar si no hay exceso real o estamos en el mínimo
+                }
 
-            for (ChunkMetadata chunk : replicasToDelete) {
+                System.out.println("   📦 Chunk " + chunkIndex + ": Eliminando " + excessReplicas + " réplicas excedentes");
+                System.out.println("      Réplicas actuales: " + currentReplicas + " → Objetivo: " + target);
+
+                // Borrar primero las réplicas que comparten dominio de falla con otra
+                List<String> serversToClean = placementService.chooseReplicasToRemove(
+                        excessReplicas,
+                        activeReplicas.stream().map(ChunkMetadata::getChunkserverUrl).collect(Collectors.toList())
+                );
+                List<ChunkMetadata> replicasToDelete = activeReplicas.stream()
+                        .filter(chunk -> serversToClean.contains(chunk.getChunkserverUrl()))
+                        .collect(Collectors.toList());
+
+                for (ChunkMetadata chunk : replicasToDelete) {
+                    // El servidor borra la réplica al recibir el comando en su heartbeat
+                    Map<String, Object> params = new HashMap<>();
+                    params.put("imagenId", file.getImagenId());
+                    params.put("chunkIndex", chunkIndex);
+                    deletions.add(new PendingCommand(chunkIndex, chunk.getChunkserverUrl(), null, chunk.getReplicaIndex(),
+                            commandQueue.submit(chunk.getChunkserverUrl(), CommandQueueService.DELETE, params)));
+                }
+            }
+        } finally {
+            // Los borrados ya encolados se esperan siempre: el chunk puede desaparecer del disco
+            // y la réplica tiene que salir de los metadatos
+            awaitAll(deletions);
+            for (PendingCommand deletion : deletions) {
                 try {
-                    String deleteUrl = chunk.getChunkserverUrl() + "/api/chunk/delete?imagenId=" +
-                                       file.getImagenId() + "&chunkIndex=" + chunkIndex;
-                    restTemplate.delete(deleteUrl);
+                    awaitCommand(deletion.command);
 
-                    chunksToRemove.add(chunk);
-                    System.out.println("      ✅ Réplica eliminada de: " + chunk.getChunkserverUrl());
+                    masterService.removeReplica(file.getImagenId(), deletion.chunkIndex, deletion.server);
+                    System.out.println("      ✅ Chunk " + deletion.chunkIndex + ": réplica eliminada de " + deletion.server);
                     replicasDeleted++;
                 } catch (Exception e) {
-                    System.err.println("      ❌ Error eliminando réplica de " +
-                                       chunk.getChunkserverUrl() + ": " + e.getMessage());
+                    System.err.println("      ❌ Chunk " + deletion.chunkIndex + ": error eliminando réplica de " +
+                                       deletion.server + ": " + e.getMessage());
                 }
             }
         }
 
-        // Actualizar metadatos si se eliminaron réplicas
         if (replicasDeleted > 0) {
-            file.getChunks().removeAll(chunksToRemove);
-            masterService.updateFileMetadata(file);
-
             System.out.println();
             System.out.println("📊 Resultado limpieza:");
             System.out.println("   🗑️ Réplicas eliminadas: " + replicasDeleted);
@@ -446,46 +756,42 @@ public class ReplicationMonitorService {
     }
 
     /**
-     * Lee un chunk desde un chunkserver
+     * Espera a que terminen todos los comandos, confirmados o no: cada uno se revisa
+     * después con awaitCommand, que ya no bloquea
      */
-    private byte[] readChunkFromServer(String imagenId, int chunkIndex, String chunkserverUrl) throws Exception {
-        String readUrl = chunkserverUrl + "/api/chunk/read?imagenId=" + imagenId + "&chunkIndex=" + chunkIndex;
-        ResponseEntity<Map> response = restTemplate.getForEntity(readUrl, Map.class);
-
-        if (!response.getStatusCode().is2xxSuccessful()) {
-            throw new RuntimeException("Error leyendo chunk");
-        }
-
-        Map<String, Object> responseBody = response.getBody();
-        if (responseBody == null) {
-            throw new RuntimeException("Response body es null");
+    private static void awaitAll(List<PendingCommand> pending) {
+        CompletableFuture<?>[] commands = pending.stream().map(p -> p.command).toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(commands).join();
+        } catch (CompletionException e) {
+            // Las fallas se informan por comando
         }
+    }
 
-        String base64Data = (String) responseBody.get("data");
-        if (base64Data == null) {
-            throw new RuntimeException("Data es null en la respuesta");
+    /**
+     * Espera la confirmación de un comando (la cola lo da por fallido si vence)
+     */
+    private static Map<String, Object> awaitCommand(CompletableFuture<Map<String, Object>> command) throws Exception {
+        try {
+            return command.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
         }
-
-        return Base64.getDecoder().decode(base64Data);
     }
 
     /**
-     * Escribe un chunk a un chunkserver
+     * Escribe un chunk a un chunkserver (PUT /api/chunk/raw, bytes crudos)
      */
-    private void writeChunkToServer(String imagenId, int chunkIndex, String base64Data, String chunkserverUrl)
+    private void writeChunkToServer(String imagenId, int chunkIndex, byte[] data, String chunkserverUrl)
             throws Exception {
-        String writeUrl = chunkserverUrl + "/api/chunk/write";
+        String writeUrl = chunkserverUrl + "/api/chunk/raw";
 
         HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(ChunkHeaders.IMAGEN_ID, imagenId);
+        headers.set(ChunkHeaders.CHUNK_INDEX, String.valueOf(chunkIndex));
 
-        Map<String, Object> request = new HashMap<>();
-        request.put("imagenId", imagenId);
-        request.put("chunkIndex", chunkIndex);
-        request.put("data", base64Data);
-
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(request, headers);
-        restTemplate.postForEntity(writeUrl, entity, String.class);
+        restTemplate.exchange(writeUrl, HttpMethod.PUT, new HttpEntity<>(data, headers), String.class);
     }
 
     /**
@@ -495,14 +801,38 @@ public class ReplicationMonitorService {
         Map<String, Object> stats = new HashMap<>();
         stats.put("currentlyReplicating", currentlyReplicating.size());
         stats.put("replicatingFiles", new ArrayList<>(currentlyReplicating));
-        stats.put("totalReplicationAttempts", totalReplicationAttempts);
-        stats.put("totalReplicationsMade", totalReplicationsMade);
-        stats.put("totalCleanupOperations", totalCleanupOperations);
-        stats.put("successRate", totalReplicationAttempts > 0
-                ? (totalReplicationsMade * 100.0 / totalReplicationAttempts)
+        stats.put("totalReplicationAttempts", totalReplicationAttempts.get());
+        stats.put("totalReplicationsMade", totalReplicationsMade.get());
+        stats.put("totalCleanupOperations", totalCleanupOperations.get());
+        stats.put("pendingFiles", pendingFiles.size());
+        stats.put("totalFilesChecked", totalFilesChecked.get());
+        stats.put("totalFullSweeps", totalFullSweeps.get());
+        long attempts = totalReplicationAttempts.get();
+        stats.put("successRate", attempts > 0
+                ? (totalReplicationsMade.get() * 100.0 / attempts)
                 : 100.0);
         return stats;
     }
 
-
-}
\ No newline at end of file
+    /**
+     * Comando encolado a un chunkserver (copia o borrado de un chunk) a la espera de su confirmación
+     */
+    private static final class PendingCommand {
+        private final int chunkIndex;
+        // Servidor que ejecuta el comando
+        private final String server;
+        // Destino de la copia (null en un borrado)
+        private final String target;
+        private final int replicaIndex;
+        private final CompletableFuture<Map<String, Object>> command;
+
+        PendingCommand(int chunkIndex, String server, String target, int replicaIndex,
+                       CompletableFuture<Map<String, Object>> command) {
+            this.chunkIndex = chunkIndex;
+            this.server = server;
+            this.target = target;
+            this.replicaIndex = replicaIndex;
+            this.command = command;
+        }
+    }
+}
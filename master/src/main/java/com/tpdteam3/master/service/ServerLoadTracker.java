@@ -0,0 +1,124 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerLoad;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lleva la carga conocida de cada chunkserver para las decisiones de colocación:
+ * <ul>
+ *   <li>Métricas reportadas en heartbeats (espacio libre, datos, chunks, canWrite)</li>
+ *   <li>Escrituras asignadas recientemente (contador con decaimiento exponencial)</li>
+ *   <li>Copias de reparación/re-replicación en curso que leen o escriben en el servidor</li>
+ *   <li>Sospecha del detector de fallas del HeartbeatHandler, calculada al tomar la foto</li>
+ * </ul>
+ */
+@Service
+public class ServerLoadTracker {
+
+    // Vida media del contador de escrituras recientes
+    private static final long RECENT_WRITES_HALF_LIFE_MS = 60_000;
+
+    @Autowired
+    @Lazy
+    private HeartbeatHandler heartbeatHandler;
+
+    private final Map<String, LoadEntry> loads = new ConcurrentHashMap<>();
+
+    /**
+     * Actualiza las métricas que el chunkserver envía en su heartbeat
+     */
+    public void reportMetrics(String url, Map<String, Object> heartbeatData) {
+        LoadEntry entry = entry(url);
+        if (heartbeatData.get("freeSpaceMB") instanceof Number) {
+            entry.freeSpaceMB = ((Number) heartbeatData.get("freeSpaceMB")).longValue();
+        }
+        if (heartbeatData.get("storageUsedMB") instanceof Number) {
+            entry.storageUsedMB = ((Number) heartbeatData.get("storageUsedMB")).doubleValue();
+        }
+        if (heartbeatData.get("totalChunks") instanceof Number) {
+            entry.totalChunks = ((Number) heartbeatData.get("totalChunks")).longValue();
+        }
+        if (heartbeatData.get("canWrite") instanceof Boolean) {
+            entry.canWrite = (Boolean) heartbeatData.get("canWrite");
+        }
+    }
+
+    /**
+     * Se asignó un chunk nuevo al servidor
+     */
+    public void recordWrite(String url) {
+        entry(url).addWrite(System.currentTimeMillis());
+    }
+
+    public void repairStarted(String url) {
+        entry(url).inFlightRepairs.incrementAndGet();
+    }
+
+    public void repairFinished(String url) {
+        entry(url).inFlightRepairs.updateAndGet(v -> Math.max(0, v - 1));
+    }
+
+    /**
+     * Foto de la carga actual de los servidores indicados
+     */
+    public Map<String, ServerLoad> snapshot(List<String> urls) {
+        long now = System.currentTimeMillis();
+        Map<String, ServerLoad> result = new HashMap<>(urls.size() * 2);
+        for (String url : urls) {
+            LoadEntry entry = loads.get(url);
+            double suspicion = heartbeatHandler != null ? heartbeatHandler.getSuspicion(url) : 0.0;
+            result.put(url, entry != null ? entry.toServerLoad(url, now, suspicion) : ServerLoad.unknown(url));
+        }
+        return result;
+    }
+
+    public void forget(String url) {
+        loads.remove(url);
+    }
+
+    private LoadEntry entry(String url) {
+        return loads.computeIfAbsent(url, k -> new LoadEntry());
+    }
+
+    /**
+     * Estado mutable por servidor
+     */
+    private static class LoadEntry {
+        private volatile long freeSpaceMB = ServerLoad.UNKNOWN;
+        private volatile double storageUsedMB = 0;
+        private volatile long totalChunks = 0;
+        private volatile boolean canWrite = true;
+        private final AtomicInteger inFlightRepairs = new AtomicInteger();
+
+        // Contador con decaimiento: valor a la fecha lastDecayTime
+        private double recentWrites = 0;
+        private long lastDecayTime = System.currentTimeMillis();
+
+        synchronized void addWrite(long now) {
+            recentWrites = decayed(now) + 1;
+            lastDecayTime = now;
+        }
+
+        synchronized double recentWrites(long now) {
+            return decayed(now);
+        }
+
+        private double decayed(long now) {
+            long elapsed = Math.max(0, now - lastDecayTime);
+            return recentWrites * Math.pow(0.5, (double) elapsed / RECENT_WRITES_HALF_LIFE_MS);
+        }
+
+        ServerLoad toServerLoad(String url, long now, double suspicion) {
+            return new ServerLoad(url, freeSpaceMB, storageUsedMB, totalChunks, canWrite,
+                    recentWrites(now), inFlightRepairs.get(), suspicion);
+        }
+    }
+}
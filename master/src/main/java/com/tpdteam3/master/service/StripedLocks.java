@@ -0,0 +1,36 @@
+package com.tpdteam3.master.service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conjunto fijo de locks repartidos por hash de clave (lock striping).
+ * <p>
+ * Las mutaciones de una misma imagen siempre toman el mismo lock, así que quedan
+ * ordenadas entre sí; imágenes distintas caen casi siempre en locks distintos
+ * y no se bloquean. Las lecturas no usan estos locks.
+ */
+class StripedLocks {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    StripedLocks(int minStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    ReentrantLock forKey(String key) {
+        int h = key.hashCode();
+        // Mezclar bits altos para que claves parecidas no caigan en el mismo lock
+        h ^= (h >>> 16);
+        return stripes[h & mask];
+    }
+
+    int size() {
+        return stripes.length;
+    }
+}
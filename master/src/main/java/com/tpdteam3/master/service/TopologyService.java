@@ -0,0 +1,78 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerTopology;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topología (rack / host / disco) de cada chunkserver, tal como la reportan en
+ * el registro y en cada heartbeat.
+ * <p>
+ * Los servidores que no reportan etiquetas (versiones viejas) quedan con la
+ * topología deducida de su URL.
+ */
+@Service
+public class TopologyService {
+
+    private final Map<String, ServerTopology> topologies = new ConcurrentHashMap<>();
+
+    /**
+     * Actualiza la topología a partir de las claves rack, host y disk del mensaje.
+     * Un mensaje sin ninguna de ellas no pisa lo que ya se conoce.
+     */
+    public void update(String url, Map<String, ?> labels) {
+        if (url == null || labels == null) {
+            return;
+        }
+        Object rack = labels.get("rack");
+        Object host = labels.get("host");
+        Object disk = labels.get("disk");
+        if (rack == null && host == null && disk == null) {
+            topologies.putIfAbsent(url, ServerTopology.fromUrl(url));
+            return;
+        }
+
+        ServerTopology topology = ServerTopology.fromLabels(url, rack, host, disk);
+        ServerTopology previous = topologies.put(url, topology);
+        if (!topology.equals(previous)) {
+            System.out.println("🗺️  Topología de " + url + ": " + topology);
+        }
+    }
+
+    public ServerTopology of(String url) {
+        ServerTopology topology = topologies.get(url);
+        return topology != null ? topology : ServerTopology.fromUrl(url);
+    }
+
+    public void forget(String url) {
+        topologies.remove(url);
+    }
+
+    /**
+     * Cantidad de dominios distintos por nivel entre los servidores indicados
+     */
+    public Map<String, Integer> countDomains(Collection<String> urls) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (ServerTopology.Level level : ServerTopology.Level.values()) {
+            Set<String> domains = new HashSet<>();
+            for (String url : urls) {
+                domains.add(of(url).domain(level));
+            }
+            counts.put(level.name().toLowerCase(), domains.size());
+        }
+        return counts;
+    }
+
+    /**
+     * Topología conocida de cada servidor (para /placement)
+     */
+    public Map<String, Map<String, String>> describe(Collection<String> urls) {
+        Map<String, Map<String, String>> result = new TreeMap<>();
+        for (String url : urls) {
+            result.put(url, of(url).toMap());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+package com.tpdteam3.master.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkLocationIndexTest {
+
+    private final ChunkserverIdTable ids = new ChunkserverIdTable();
+
+    private FileMetadata file(String imagenId, Object... chunkAndServer) {
+        FileMetadata file = new FileMetadata(ids, imagenId, 4096, 1024);
+        for (int i = 0; i < chunkAndServer.length; i += 2) {
+            file.addReplica((Integer) chunkAndServer[i], (String) chunkAndServer[i + 1], 0);
+        }
+        return file;
+    }
+
+    @Test
+    void rebuildIndexesEveryReplicaByServer() {
+        ChunkLocationIndex index = new ChunkLocationIndex();
+        index.rebuild(List.of(
+                file("a", 0, "http://cs1", 0, "http://cs2", 1, "http://cs1"),
+                file("b", 0, "http://cs2")));
+
+        assertEquals(2, index.serverCount());
+        assertEquals(Map.of("a", Set.of(0, 1)), index.chunksOn("http://cs1"));
+        assertEquals(Set.of("a", "b"), index.filesOn("http://cs2"));
+        assertEquals(2, index.chunkCountOn("http://cs1"));
+        assertEquals(2, index.chunkCountOn("http://cs2"));
+        assertEquals(0, index.chunkCountOn("http://cs9"));
+        assertTrue(index.chunksOn("http://cs9").isEmpty());
+    }
+
+    @Test
+    void removingTheLastChunkDropsTheFileEntry() {
+        ChunkLocationIndex index = new ChunkLocationIndex();
+        index.add("http://cs1", "a", 0);
+        index.add("http://cs1", "a", 1);
+
+        index.remove("http://cs1", "a", 0);
+        assertEquals(Set.of("a"), index.filesOn("http://cs1"));
+        index.remove("http://cs1", "a", 1);
+        assertTrue(index.filesOn("http://cs1").isEmpty());
+
+        // Quitar algo que no está no falla
+        index.remove("http://cs1", "a", 1);
+        index.remove("http://cs9", "a", 1);
+    }
+
+    @Test
+    void removeFileUndoesAddFile() {
+        ChunkLocationIndex index = new ChunkLocationIndex();
+        FileMetadata a = file("a", 0, "http://cs1", 1, "http://cs2");
+        FileMetadata b = file("b", 0, "http://cs1");
+        index.addFile(a);
+        index.addFile(b);
+
+        index.removeFile(a);
+        assertEquals(Map.of("b", Set.of(0)), index.chunksOn("http://cs1"));
+        assertEquals(0, index.chunkCountOn("http://cs2"));
+    }
+
+    @Test
+    void chunksOnReturnsACopy() {
+        ChunkLocationIndex index = new ChunkLocationIndex();
+        index.add("http://cs1", "a", 0);
+
+        Map<String, Set<Integer>> copy = index.chunksOn("http://cs1");
+        copy.get("a").add(99);
+        copy.remove("a");
+
+        assertEquals(Map.of("a", Set.of(0)), index.chunksOn("http://cs1"));
+    }
+}
@@ -0,0 +1,144 @@
+package com.tpdteam3.master.model;
+
+import com.fasterxml.jackson.databind.InjectableValues;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileMetadataTest {
+
+    private final ChunkserverIdTable ids = new ChunkserverIdTable();
+
+    private FileMetadata file() {
+        return new FileMetadata(ids, "img", 10 * 1024, 1024);
+    }
+
+    @Test
+    void replicasStaySortedByChunkAndIgnoreDuplicates() {
+        FileMetadata file = file();
+        assertTrue(file.addReplica(2, "http://cs1", 0));
+        assertTrue(file.addReplica(0, "http://cs2", 0));
+        assertTrue(file.addReplica(2, "http://cs3", 1));
+        assertTrue(file.addReplica(1, "http://cs1", 0));
+        assertFalse(file.addReplica(2, "http://cs1", 5), "mismo chunk en el mismo servidor");
+
+        FileMetadata.Replicas replicas = file.replicas();
+        assertEquals(4, replicas.length());
+        int[] chunks = new int[replicas.length()];
+        for (int i = 0; i < replicas.length(); i++) {
+            chunks[i] = replicas.chunkIndex(i);
+        }
+        assertArrayEquals(new int[]{0, 1, 2, 2}, chunks);
+        assertEquals("http://cs2", replicas.serverUrl(0));
+        assertEquals(ids.lookup("http://cs3"), replicas.serverId(3));
+        assertEquals(1, replicas.replicaIndex(3));
+    }
+
+    @Test
+    void snapshotsAreImmutable() {
+        FileMetadata file = file();
+        file.addReplica(0, "http://cs1", 0);
+        FileMetadata.Replicas before = file.replicas();
+
+        file.addReplica(1, "http://cs2", 0);
+        file.removeReplica(0, "http://cs1");
+
+        assertEquals(1, before.length());
+        assertEquals("http://cs1", before.serverUrl(0));
+        assertEquals(1, file.replicas().length());
+        assertEquals(1, file.replicas().chunkIndex(0));
+    }
+
+    @Test
+    void removeIgnoresUnknownServersAndChunks() {
+        FileMetadata file = file();
+        file.addReplica(0, "http://cs1", 0);
+        assertFalse(file.removeReplica(0, "http://nunca-visto"));
+        assertFalse(file.removeReplica(7, "http://cs1"));
+        assertEquals(-1, ids.lookup("http://nunca-visto"), "lookup no debe registrar el servidor");
+        assertTrue(file.removeReplica(0, "http://cs1"));
+        assertEquals(0, file.replicaCount());
+    }
+
+    @Test
+    void countsMissingAndUnderReplicatedChunks() {
+        FileMetadata file = file();
+        file.addReplica(0, "http://cs1", 0);
+        file.addReplica(0, "http://cs2", 1);
+        file.addReplica(0, "http://cs3", 2);
+        file.addReplica(1, "http://cs1", 0);
+        file.addReplica(3, "http://cs2", 0);
+
+        FileMetadata.Replicas replicas = file.replicas();
+        assertEquals(3, replicas.uniqueChunkCount());
+        assertEquals(3, replicas.replicaCountOf(0));
+        assertEquals(0, replicas.replicaCountOf(2));
+        assertEquals(2, replicas.underReplicatedChunkCount(3));
+        assertEquals(2, replicas.firstMissingChunk(4));
+        assertEquals(-1, replicas.firstMissingChunk(2));
+    }
+
+    @Test
+    void findsFirstUnreadableStripe() {
+        FileMetadata file = file();
+        // RS(2,1): 3 shards por franja, se necesitan 2 distintos
+        file.addReplica(0, "http://cs1", 0);
+        file.addReplica(1, "http://cs2", 0);
+        file.addReplica(3, "http://cs1", 0);
+        file.addReplica(3, "http://cs2", 0); // mismo shard dos veces: cuenta una
+        file.addReplica(7, "http://cs3", 0);
+        file.addReplica(8, "http://cs1", 0);
+
+        FileMetadata.Replicas replicas = file.replicas();
+        assertEquals(1, replicas.firstUnreadableStripe(3, 3, 2));
+        assertEquals(-1, replicas.firstUnreadableStripe(1, 3, 2));
+    }
+
+    @Test
+    void withReplicasOnFiltersByServerId() {
+        FileMetadata file = file();
+        file.addReplica(0, "http://cs1", 0);
+        file.addReplica(0, "http://cs2", 1);
+        file.addReplica(1, "http://cs2", 0);
+        int cs2 = ids.lookup("http://cs2");
+
+        FileMetadata filtered = file.withReplicasOn(id -> id == cs2);
+        assertEquals(2, filtered.replicaCount());
+        assertEquals(3, file.replicaCount());
+        for (FileMetadata.ChunkMetadata chunk : filtered.getChunks()) {
+            assertEquals("http://cs2", chunk.getChunkserverUrl());
+        }
+
+        // La copia sigue usando la misma tabla
+        assertTrue(filtered.addReplica(2, "http://cs4", 0));
+        assertEquals("http://cs4", filtered.replicas().serverUrl(2));
+    }
+
+    @Test
+    void jsonRoundTripUsesInjectedTable() throws Exception {
+        FileMetadata file = file();
+        file.addReplica(0, "http://cs1", 0);
+        file.addReplica(1, "http://cs2", 0);
+
+        ObjectMapper mapper = new ObjectMapper();
+        String json = mapper.writeValueAsString(file);
+        assertFalse(json.contains("idTable"));
+
+        ChunkserverIdTable other = new ChunkserverIdTable();
+        other.idOf("http://otro");
+        mapper.setInjectableValues(new InjectableValues.Std().addValue(ChunkserverIdTable.class, other));
+        FileMetadata read = mapper.readValue(json, FileMetadata.class);
+
+        List<String> urls = new ArrayList<>();
+        for (FileMetadata.ChunkMetadata chunk : read.getChunks()) {
+            urls.add(chunk.getChunkserverUrl());
+        }
+        assertEquals(List.of("http://cs1", "http://cs2"), urls);
+        assertEquals(3, other.size());
+        assertEquals(other.lookup("http://cs1"), read.replicas().serverId(0));
+    }
+}
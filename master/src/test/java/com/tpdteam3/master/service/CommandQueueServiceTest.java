@@ -0,0 +1,165 @@
+package com.tpdteam3.master.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandQueueServiceTest {
+
+    private static final String SERVER = "http://chunkserver-1:9001";
+
+    private CommandQueueService queue;
+
+    @BeforeEach
+    void setUp() {
+        queue = new CommandQueueService();
+        ReflectionTestUtils.setField(queue, "maxPerHeartbeat", 2);
+        ReflectionTestUtils.setField(queue, "redeliverAfterSeconds", 30L);
+        ReflectionTestUtils.setField(queue, "maxAttempts", 3);
+        ReflectionTestUtils.setField(queue, "timeoutSeconds", 120L);
+    }
+
+    private static Map<String, Object> params(String imagenId, int chunkIndex) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("imagenId", imagenId);
+        params.put("chunkIndex", chunkIndex);
+        return params;
+    }
+
+    private static Map<String, Object> result(Object commandId, String status) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("commandId", commandId);
+        result.put("status", status);
+        result.put("message", "disco lleno");
+        return result;
+    }
+
+    @Test
+    void commandsTravelInTheHeartbeatWithTheirParameters() {
+        queue.submit(SERVER, CommandQueueService.DELETE, params("imagen-a", 3));
+
+        List<Map<String, Object>> commands = queue.nextCommands(SERVER);
+
+        assertEquals(1, commands.size());
+        assertEquals(CommandQueueService.DELETE, commands.get(0).get("action"));
+        assertEquals("imagen-a", commands.get(0).get("imagenId"));
+        assertEquals(3, commands.get(0).get("chunkIndex"));
+        assertNotNull(commands.get(0).get("commandId"));
+        assertTrue(queue.nextCommands("http://otro:9001").isEmpty());
+    }
+
+    @Test
+    void deliveredCommandIsNotResentBeforeTheRedeliveryDelay() {
+        queue.submit(SERVER, CommandQueueService.DELETE, params("imagen-a", 0));
+
+        assertEquals(1, queue.nextCommands(SERVER).size());
+        assertTrue(queue.nextCommands(SERVER).isEmpty());
+    }
+
+    @Test
+    void eachHeartbeatCarriesAtMostMaxPerHeartbeatCommands() {
+        for (int i = 0; i < 5; i++) {
+            queue.submit(SERVER, CommandQueueService.DELETE, params("imagen-a", i));
+        }
+
+        assertEquals(2, queue.nextCommands(SERVER).size());
+        assertEquals(2, queue.nextCommands(SERVER).size());
+        assertEquals(1, queue.nextCommands(SERVER).size());
+    }
+
+    @Test
+    void successfulAcknowledgementCompletesTheFuture() throws Exception {
+        CompletableFuture<Map<String, Object>> future =
+                queue.submit(SERVER, CommandQueueService.REPLICATE_TO, params("imagen-a", 0));
+        Object id = queue.nextCommands(SERVER).get(0).get("commandId");
+
+        queue.acknowledge(SERVER, List.of(result(id, "success")));
+
+        assertTrue(future.isDone());
+        assertEquals("success", future.get().get("status"));
+        // Una confirmación repetida no cambia nada
+        queue.acknowledge(SERVER, List.of(result(id, "error")));
+        assertFalse(future.isCompletedExceptionally());
+        assertEquals(1L, queue.getStats().get("totalSucceeded"));
+    }
+
+    @Test
+    void failedAcknowledgementFailsTheFuture() {
+        CompletableFuture<Map<String, Object>> future =
+                queue.submit(SERVER, CommandQueueService.REPLICATE_TO, params("imagen-a", 0));
+        Object id = queue.nextCommands(SERVER).get(0).get("commandId");
+
+        queue.acknowledge(SERVER, List.of(result(id, "error")));
+
+        ExecutionException error = assertThrows(ExecutionException.class, future::get);
+        assertTrue(error.getCause().getMessage().contains("disco lleno"));
+    }
+
+    @Test
+    void unconfirmedCommandIsRedeliveredUntilMaxAttempts() {
+        ReflectionTestUtils.setField(queue, "redeliverAfterSeconds", 0L);
+        CompletableFuture<Map<String, Object>> future =
+                queue.submit(SERVER, CommandQueueService.DELETE, params("imagen-a", 0));
+
+        Object id = queue.nextCommands(SERVER).get(0).get("commandId");
+        assertEquals(id, queue.nextCommands(SERVER).get(0).get("commandId"));
+        assertEquals(id, queue.nextCommands(SERVER).get(0).get("commandId"));
+        assertFalse(future.isDone());
+
+        assertTrue(queue.nextCommands(SERVER).isEmpty());
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(2L, queue.getStats().get("totalRedelivered"));
+        assertEquals(1L, queue.getStats().get("totalExpired"));
+    }
+
+    @Test
+    void expiredCommandFailsOnTheNextHeartbeat() {
+        ReflectionTestUtils.setField(queue, "timeoutSeconds", -1L);
+        CompletableFuture<Map<String, Object>> future =
+                queue.submit(SERVER, CommandQueueService.VERIFY, new HashMap<>());
+
+        assertTrue(queue.nextCommands(SERVER).isEmpty());
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    void serverDownFailsItsPendingCommands() {
+        CompletableFuture<Map<String, Object>> delivered =
+                queue.submit(SERVER, CommandQueueService.DELETE, params("imagen-a", 0));
+        queue.nextCommands(SERVER);
+        CompletableFuture<Map<String, Object>> queued =
+                queue.submit(SERVER, CommandQueueService.DELETE, params("imagen-a", 1));
+
+        queue.onChunkserverDown(SERVER);
+
+        assertTrue(delivered.isCompletedExceptionally());
+        assertTrue(queued.isCompletedExceptionally());
+        assertTrue(queue.nextCommands(SERVER).isEmpty());
+    }
+
+    @Test
+    void allOfWaitsForEveryCommandOfABatch() {
+        CompletableFuture<Map<String, Object>> first =
+                queue.submit(SERVER, CommandQueueService.DELETE, params("imagen-a", 0));
+        CompletableFuture<Map<String, Object>> second =
+                queue.submit(SERVER, CommandQueueService.DELETE, params("imagen-a", 1));
+        List<Map<String, Object>> commands = queue.nextCommands(SERVER);
+        CompletableFuture<Void> batch = CompletableFuture.allOf(first, second);
+
+        queue.acknowledge(SERVER, List.of(result(commands.get(0).get("commandId"), "success")));
+        assertFalse(batch.isDone());
+
+        queue.acknowledge(SERVER, List.of(result(commands.get(1).get("commandId"), "error")));
+        assertTrue(batch.isDone());
+        assertFalse(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+    }
+}
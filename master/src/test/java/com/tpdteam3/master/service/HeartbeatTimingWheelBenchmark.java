@@ -0,0 +1,94 @@
+package com.tpdteam3.master.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compara, para N servidores con heartbeat cada intervalMs, el costo de la rueda de
+ * plazos (reprogramar en cada heartbeat + revisar un casillero por tick) contra el
+ * barrido completo que recorre todos los servidores en cada verificación, y la latencia
+ * de detección en el peor caso de cada uno.
+ * <p>
+ * Es una herramienta manual, fuera del servicio y de la suite de tests:
+ * <pre>
+ *   java -cp target/classes:target/test-classes com.tpdteam3.master.service.HeartbeatTimingWheelBenchmark \
+ *        [servers] [rounds] [intervalMs] [timeoutMs] [tickMs] [slots] [scanIntervalMs]
+ * </pre>
+ */
+public final class HeartbeatTimingWheelBenchmark {
+
+    private HeartbeatTimingWheelBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int servers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long intervalMs = args.length > 2 ? Long.parseLong(args[2]) : 10_000;
+        long timeoutMs = args.length > 3 ? Long.parseLong(args[3]) : 30_000;
+        long tickMs = args.length > 4 ? Long.parseLong(args[4]) : 250;
+        int slots = args.length > 5 ? Integer.parseInt(args[5]) : 512;
+        long scanIntervalMs = args.length > 6 ? Long.parseLong(args[6]) : 10_000;
+
+        List<String> urls = new ArrayList<>(servers);
+        for (int i = 0; i < servers; i++) {
+            urls.add("http://chunkserver-" + i + ":9001");
+        }
+        long heartbeats = (long) servers * rounds;
+
+        // Rueda: cada heartbeat reprograma; cada tick avanza un casillero
+        HeartbeatTimingWheel wheel = new HeartbeatTimingWheel(tickMs, slots, 0);
+        long ticksPerRound = Math.max(1, intervalMs / tickMs);
+        long clock = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String url : urls) {
+                wheel.schedule(url, clock + timeoutMs);
+            }
+            for (long t = 0; t < ticksPerRound; t++) {
+                clock += tickMs;
+                wheel.advance(clock, e -> { });
+            }
+        }
+        long wheelNanos = System.nanoTime() - start;
+
+        System.out.println(servers + " servidores, " + rounds + " rondas, heartbeat cada " + intervalMs +
+                           " ms, timeout " + timeoutMs + " ms");
+        System.out.printf("Rueda (tick %d ms, %d casilleros): %.1f ns/heartbeat, %.1f ms, peor detección %d ms%n",
+                tickMs, slots, wheelNanos / (double) heartbeats, wheelNanos / 1_000_000.0, timeoutMs + tickMs);
+        // Barrido completo al intervalo pedido y a la misma resolución que la rueda
+        scan(urls, rounds, intervalMs, timeoutMs, scanIntervalMs);
+        scan(urls, rounds, intervalMs, timeoutMs, tickMs);
+    }
+
+    /**
+     * Barrido: actualizar el último heartbeat y recorrer todos los servidores en cada verificación
+     */
+    private static void scan(List<String> urls, int rounds, long intervalMs, long timeoutMs, long scanIntervalMs) {
+        Map<String, Long> lastHeartbeat = new HashMap<>();
+        long scansPerRound = Math.max(1, intervalMs / scanIntervalMs);
+        long timedOut = 0;
+        long clock = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String url : urls) {
+                lastHeartbeat.put(url, clock);
+            }
+            for (long s = 0; s < scansPerRound; s++) {
+                clock += scanIntervalMs;
+                for (Map.Entry<String, Long> entry : lastHeartbeat.entrySet()) {
+                    if (clock - entry.getValue() > timeoutMs) {
+                        timedOut++;
+                    }
+                }
+            }
+        }
+        long scanNanos = System.nanoTime() - start;
+        long heartbeats = (long) urls.size() * rounds;
+
+        System.out.printf("Barrido cada %d ms: %.1f ns/heartbeat, %.1f ms, peor detección %d ms (%d vencidos)%n",
+                scanIntervalMs, scanNanos / (double) heartbeats, scanNanos / 1_000_000.0,
+                timeoutMs + scanIntervalMs, timedOut);
+    }
+}
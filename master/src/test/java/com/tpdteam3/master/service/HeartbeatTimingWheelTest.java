@@ -0,0 +1,104 @@
+package com.tpdteam3.master.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeartbeatTimingWheelTest {
+
+    // Ticks de 100 ms, una vuelta cubre 1 segundo
+    private final HeartbeatTimingWheel wheel = new HeartbeatTimingWheel(100, 10, 0);
+
+    private Map<String, Long> advance(long nowMs) {
+        Map<String, Long> expired = new HashMap<>();
+        int count = wheel.advance(nowMs, entry -> expired.put(entry.getKey(), entry.getValue()));
+        assertEquals(expired.size(), count);
+        return expired;
+    }
+
+    @Test
+    void serverExpiresAtItsDeadlineAndOnlyOnce() {
+        wheel.schedule("cs1", 350);
+
+        assertTrue(advance(300).isEmpty());
+        assertEquals(Map.of("cs1", 350L), advance(400));
+        assertTrue(advance(500).isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlineIsNeverReportedEarly() {
+        wheel.schedule("cs1", 350);
+        // El tick de 300 ms ya pasó por el casillero, pero el plazo todavía no venció
+        assertTrue(advance(349).isEmpty());
+        assertEquals(Map.of("cs1", 350L), advance(450));
+    }
+
+    @Test
+    void rescheduleReplacesThePreviousDeadline() {
+        wheel.schedule("cs1", 300);
+        wheel.schedule("cs1", 800);
+
+        assertTrue(advance(500).isEmpty());
+        assertEquals(Map.of("cs1", 800L), advance(800));
+    }
+
+    @Test
+    void cancelledServerNeverExpires() {
+        wheel.schedule("cs1", 300);
+        wheel.cancel("cs1");
+        wheel.cancel("desconocido");
+
+        assertTrue(advance(2000).isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlinesBeyondOneRevolutionWaitForTheirRound() {
+        // Mismo casillero que 500 ms, una vuelta después
+        wheel.schedule("lejano", 1500);
+
+        assertTrue(advance(500).isEmpty());
+        assertTrue(advance(1400).isEmpty());
+        assertEquals(Map.of("lejano", 1500L), advance(1500));
+    }
+
+    @Test
+    void lateAdvanceCatchesUpWithEveryOverdueServer() {
+        wheel.schedule("cs1", 200);
+        wheel.schedule("cs2", 700);
+        wheel.schedule("cs3", 6000);
+
+        // El hilo se atrasó varias vueltas
+        Map<String, Long> expired = advance(5000);
+
+        assertEquals(Map.of("cs1", 200L, "cs2", 700L), expired);
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void callbackRunsOutsideTheWheelLock() {
+        wheel.schedule("cs1", 100);
+        List<String> rescheduled = new ArrayList<>();
+
+        // Reprogramar desde el callback (como un heartbeat concurrente) no debe bloquearse
+        wheel.advance(100, entry -> {
+            wheel.schedule(entry.getKey(), 900);
+            rescheduled.add(entry.getKey());
+        });
+
+        assertEquals(List.of("cs1"), rescheduled);
+        assertEquals(Map.of("cs1", 900L), advance(900));
+    }
+
+    @Test
+    void invalidConfigurationIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new HeartbeatTimingWheel(0, 10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new HeartbeatTimingWheel(100, 0, 0));
+    }
+}
@@ -0,0 +1,70 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerLoad;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadAwarePlacementPolicyTest {
+
+    private final LoadAwarePlacementPolicy policy = new LoadAwarePlacementPolicy(100);
+
+    private static ServerLoad load(String url, long freeMB, double recentWrites, boolean canWrite) {
+        return new ServerLoad(url, freeMB, 0, 0, canWrite, recentWrites, 0, 0);
+    }
+
+    @Test
+    void duplicateCandidatesTerminateAndAreChosenOnce() {
+        List<String> candidates = List.of("http://cs1", "http://cs1", "http://cs1", "http://cs2", "http://cs2");
+
+        List<String> chosen = assertTimeoutPreemptively(Duration.ofSeconds(2),
+                () -> policy.choose(3, candidates, Map.of(), new Random(1)));
+
+        assertEquals(2, chosen.size());
+        assertEquals(Set.of("http://cs1", "http://cs2"), new HashSet<>(chosen));
+    }
+
+    @Test
+    void choosesDistinctServers() {
+        List<String> candidates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            candidates.add("http://cs" + i);
+        }
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            List<String> chosen = policy.choose(3, candidates, Map.of(), random);
+            assertEquals(3, chosen.size());
+            assertEquals(3, new HashSet<>(chosen).size());
+        }
+    }
+
+    @Test
+    void betterOfTwoWinsWhenOnlyTwoCandidates() {
+        Map<String, ServerLoad> loads = Map.of(
+                "http://ocupado", load("http://ocupado", 1000, 50, true),
+                "http://libre", load("http://libre", 1000, 0, true));
+
+        Random random = new Random(3);
+        for (int round = 0; round < 50; round++) {
+            List<String> chosen = policy.choose(1, List.of("http://ocupado", "http://libre"), loads, random);
+            assertEquals(List.of("http://libre"), chosen);
+        }
+    }
+
+    @Test
+    void fullServersAreOnlyALastResort() {
+        Map<String, ServerLoad> loads = Map.of(
+                "http://lleno", load("http://lleno", 10, 0, true),
+                "http://solo-lectura", load("http://solo-lectura", 5000, 0, false),
+                "http://sano", load("http://sano", 5000, 0, true));
+        List<String> candidates = List.of("http://lleno", "http://solo-lectura", "http://sano");
+
+        assertEquals(List.of("http://sano"), policy.choose(1, candidates, loads, new Random(5)));
+        List<String> all = policy.choose(3, candidates, loads, new Random(5));
+        assertEquals("http://sano", all.get(0));
+        assertEquals(Set.copyOf(candidates), new HashSet<>(all));
+    }
+}
@@ -0,0 +1,269 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ChunkserverIdTable;
+import com.tpdteam3.master.model.FileMetadata;
+import com.tpdteam3.master.model.MetadataOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataPersistenceServiceTest {
+
+    private Path dir;
+    private final ChunkserverIdTable ids = new ChunkserverIdTable();
+    private final List<MetadataPersistenceService> started = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("metadata-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        started.forEach(MetadataPersistenceService::shutdown);
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private MetadataPersistenceService start() throws IOException {
+        return start(ids);
+    }
+
+    private MetadataPersistenceService start(ChunkserverIdTable table) throws IOException {
+        MetadataPersistenceService service = new MetadataPersistenceService();
+        ReflectionTestUtils.setField(service, "chunkserverIds", table);
+        ReflectionTestUtils.setField(service, "metadataStoragePath", dir.toString());
+        ReflectionTestUtils.setField(service, "checkpointIntervalSeconds", 3600);
+        ReflectionTestUtils.setField(service, "checkpointMaxLogEntries", 1_000_000);
+        ReflectionTestUtils.setField(service, "groupCommitWindowMs", 5L);
+        ReflectionTestUtils.setField(service, "groupCommitMaxBatch", 512);
+        ReflectionTestUtils.setField(service, "fsyncEnabled", true);
+        ReflectionTestUtils.setField(service, "statsCacheMs", 0L);
+        service.init();
+        started.add(service);
+        return service;
+    }
+
+    private MetadataOperation create(String imagenId) {
+        return MetadataOperation.create(new FileMetadata(ids, imagenId, 1024));
+    }
+
+    @Test
+    void concurrentWritesAreGroupedIntoFewerFsyncs() throws Exception {
+        MetadataPersistenceService service = start();
+        service.loadMetadata();
+
+        int threads = 8;
+        int perThread = 50;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            writers.add(pool.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    service.logOperation(create("img-" + thread + "-" + i));
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        Map<String, Object> stats = service.getStorageStats();
+        assertEquals((long) threads * perThread, ((Number) stats.get("oplogTotalOperations")).longValue());
+        long batches = ((Number) stats.get("groupCommitBatches")).longValue();
+        assertTrue(batches < threads * perThread, "se esperaban lotes agrupados, hubo " + batches);
+        assertEquals(batches, ((Number) stats.get("oplogFsyncs")).longValue());
+    }
+
+    /**
+     * Igual que MasterService: aplica la operación al namespace vivo y la registra en el log
+     */
+    private static void apply(MetadataPersistenceService service, Map<String, FileMetadata> live,
+                              MetadataOperation op) {
+        MetadataPersistenceService.applyOperation(live, op);
+        service.logOperation(op);
+    }
+
+    @Test
+    void operationsSurviveRestartThroughCheckpointAndLog() throws Exception {
+        MetadataPersistenceService service = start();
+        Map<String, FileMetadata> live = service.loadMetadata();
+        apply(service, live, create("a"));
+        apply(service, live, create("b"));
+        apply(service, live, MetadataOperation.addReplica("a",
+                new FileMetadata.ChunkMetadata(0, "http://cs1", "http://cs1")));
+        service.checkpoint();
+        // Posteriores al checkpoint: solo están en el log
+        apply(service, live, create("c"));
+        apply(service, live, MetadataOperation.delete("b"));
+
+        // Caída sin checkpoint final: el reinicio debe reproducir el log sobre el checkpoint
+        Map<String, FileMetadata> reloaded = start().loadMetadata();
+        assertEquals(Set.of("a", "c"), reloaded.keySet());
+        assertEquals(1, reloaded.get("a").replicaCount());
+    }
+
+    @Test
+    void createdFilesWithReplicasAreReplayedFromTheLog() throws Exception {
+        MetadataPersistenceService service = start();
+        Map<String, FileMetadata> live = service.loadMetadata();
+        FileMetadata file = new FileMetadata(ids, "con-replicas", 4096, 1024);
+        file.addReplica(0, "http://cs1", 0);
+        file.addReplica(0, "http://cs2", 1);
+        file.addReplica(3, "http://cs3", 0);
+        apply(service, live, MetadataOperation.create(file));
+
+        // Otra instancia del Master (tabla de ids nueva) lee el CREATE del log
+        FileMetadata replayed = start(new ChunkserverIdTable()).loadMetadata().get("con-replicas");
+        assertEquals(3, replayed.replicaCount());
+        assertEquals(2, replayed.replicas().replicaCountOf(0));
+        assertEquals("http://cs3", replayed.replicas().serverUrl(2));
+    }
+
+    @Test
+    void corruptCheckpointFallsBackToPreviousCheckpointAndLog() throws Exception {
+        MetadataPersistenceService service = start();
+        Map<String, FileMetadata> live = service.loadMetadata();
+        apply(service, live, create("a"));
+        service.checkpoint();
+        apply(service, live, create("b"));
+        service.checkpoint();
+        apply(service, live, create("c"));
+        service.shutdown();
+        started.remove(service);
+
+        Path snapshot = dir.resolve("file_metadata.snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 0x40;
+        Files.write(snapshot, bytes);
+
+        MetadataPersistenceService restarted = start();
+        Map<String, FileMetadata> reloaded = restarted.loadMetadata();
+        assertEquals(Set.of("a", "b", "c"), reloaded.keySet());
+        assertTrue(Files.exists(dir.resolve("file_metadata.snapshot.corrupt")));
+
+        // El siguiente checkpoint parte del namespace completo
+        restarted.checkpoint();
+        restarted.shutdown();
+        started.remove(restarted);
+        assertEquals(Set.of("a", "b", "c"), start().loadMetadata().keySet());
+    }
+
+    @Test
+    void unreadableCheckpointFailsStartupInsteadOfStartingEmpty() throws Exception {
+        MetadataPersistenceService service = start();
+        Map<String, FileMetadata> live = service.loadMetadata();
+        apply(service, live, create("a"));
+        service.checkpoint();
+        service.shutdown();
+        started.remove(service);
+        Files.deleteIfExists(dir.resolve("file_metadata.snapshot.prev"));
+
+        Path snapshot = dir.resolve("file_metadata.snapshot");
+        Files.write(snapshot, Arrays.copyOf(Files.readAllBytes(snapshot), 10));
+
+        MetadataPersistenceService restarted = start();
+        assertThrows(IllegalStateException.class, restarted::loadMetadata);
+        assertTrue(Files.exists(snapshot), "el checkpoint ilegible no se debe reemplazar");
+    }
+
+    @Test
+    void writesAfterShutdownFailInsteadOfHanging() throws Exception {
+        MetadataPersistenceService service = start();
+        service.loadMetadata();
+        service.shutdown();
+        started.remove(service);
+
+        CompletableFuture<Void> logged = service.logOperationAsync(create("late"));
+        assertTrue(logged.isCompletedExceptionally());
+        assertThrows(RuntimeException.class, () -> service.logOperation(create("late")));
+    }
+
+    @Test
+    void everyOperationRacingShutdownIsCompleted() throws Exception {
+        MetadataPersistenceService service = start();
+        service.loadMetadata();
+
+        AtomicBoolean stop = new AtomicBoolean();
+        Queue<CompletableFuture<Void>> futures = new ConcurrentLinkedQueue<>();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                for (int i = 0; !stop.get(); i++) {
+                    futures.add(service.logOperationAsync(create("race-" + thread + "-" + i)));
+                }
+            });
+        }
+        Thread.sleep(50);
+        service.shutdown();
+        started.remove(service);
+        stop.set(true);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertFalse(futures.isEmpty());
+        for (CompletableFuture<Void> future : futures) {
+            // Persistida o rechazada, pero nunca pendiente para siempre
+            assertTrue(future.isDone(), "operación sin completar después del shutdown");
+        }
+    }
+
+    @Test
+    void failedWriteIsTrimmedFromTheLogAndStopsFurtherMutations() throws Exception {
+        MetadataPersistenceService service = start();
+        Map<String, FileMetadata> live = service.loadMetadata();
+        apply(service, live, create("a"));
+
+        // El próximo lote llega a disco a medias y falla
+        FileChannel channel = (FileChannel) ReflectionTestUtils.getField(service, "logChannel");
+        OutputStream halfWrite = new FilterOutputStream(Channels.newOutputStream(channel)) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len / 2);
+                throw new IOException("disco lleno");
+            }
+        };
+        ReflectionTestUtils.setField(service, "logWriter",
+                new BufferedWriter(new OutputStreamWriter(halfWrite, StandardCharsets.UTF_8)));
+
+        assertThrows(RuntimeException.class, () -> apply(service, live, create("b")));
+        assertFalse(service.isLogWritable());
+        assertThrows(RuntimeException.class, () -> service.logOperation(create("c")));
+
+        // "b" quedó en memoria, pero ni el checkpoint ni el apagado lo escriben
+        service.checkpoint();
+        service.shutdown();
+        started.remove(service);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path segment : files.filter(path -> path.getFileName().toString().endsWith(".log")).toList()) {
+                for (String line : Files.readAllLines(segment)) {
+                    assertTrue(line.startsWith("{") && line.endsWith("}"), "línea cortada en " + segment);
+                }
+            }
+        }
+        assertEquals(Set.of("a"), start().loadMetadata().keySet());
+    }
+}
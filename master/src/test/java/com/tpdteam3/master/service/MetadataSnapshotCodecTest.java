@@ -0,0 +1,139 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ChunkserverIdTable;
+import com.tpdteam3.master.model.FileMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataSnapshotCodecTest {
+
+    private final ChunkserverIdTable ids = new ChunkserverIdTable();
+
+    private Map<String, FileMetadata> sampleNamespace() {
+        Map<String, FileMetadata> metadata = new TreeMap<>();
+
+        FileMetadata replicated = new FileMetadata(ids, "replicado", 100_000, 64 * 1024);
+        replicated.setTimestamp(1234567890123L);
+        replicated.addReplica(0, "http://cs1:9001", 0);
+        replicated.addReplica(0, "http://cs2:9001", 1);
+        replicated.addReplica(1, "http://cs2:9001", 0);
+        metadata.put(replicated.getImagenId(), replicated);
+
+        FileMetadata erasure = new FileMetadata(ids, "ec", 300_000, 64 * 1024);
+        erasure.useErasureCoding(4, 2);
+        erasure.addReplica(5, "http://cs3:9001", 0);
+        metadata.put(erasure.getImagenId(), erasure);
+
+        FileMetadata packed = new FileMetadata(ids, "pequeño", 2_000, 64 * 1024);
+        packed.usePacking("contenedor-1", 8192);
+        packed.setChecksum(0xCAFEBABEL);
+        metadata.put(packed.getImagenId(), packed);
+
+        FileMetadata legacyPacked = new FileMetadata(ids, "sin-checksum", 500, 64 * 1024);
+        legacyPacked.usePacking("contenedor-1", 0);
+        metadata.put(legacyPacked.getImagenId(), legacyPacked);
+
+        return metadata;
+    }
+
+    private byte[] encode(Map<String, FileMetadata> metadata) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MetadataSnapshotCodec.write(ids, metadata, out);
+        return out.toByteArray();
+    }
+
+    private static Map<String, FileMetadata> decode(byte[] snapshot) throws IOException {
+        Map<String, FileMetadata> decoded = new TreeMap<>();
+        // Tabla vacía, como un Master recién arrancado
+        int count = MetadataSnapshotCodec.read(new ChunkserverIdTable(), new ByteArrayInputStream(snapshot),
+                file -> decoded.put(file.getImagenId(), file));
+        assertEquals(decoded.size(), count);
+        return decoded;
+    }
+
+    @Test
+    void roundTripPreservesEveryStorageClass() throws IOException {
+        Map<String, FileMetadata> original = sampleNamespace();
+        Map<String, FileMetadata> decoded = decode(encode(original));
+
+        assertEquals(original.keySet(), decoded.keySet());
+        for (FileMetadata expected : original.values()) {
+            FileMetadata actual = decoded.get(expected.getImagenId());
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getChunkSize(), actual.getChunkSize());
+            assertEquals(expected.getStorageClass(), actual.getStorageClass());
+            assertEquals(expected.getDataShards(), actual.getDataShards());
+            assertEquals(expected.getParityShards(), actual.getParityShards());
+            assertEquals(expected.getContainerId(), actual.getContainerId());
+            assertEquals(expected.getContainerOffset(), actual.getContainerOffset());
+            assertEquals(expected.getChecksum(), actual.getChecksum());
+            assertEquals(replicaSet(expected), replicaSet(actual));
+        }
+    }
+
+    @Test
+    void emptyNamespaceRoundTrips() throws IOException {
+        assertTrue(decode(encode(Map.of())).isEmpty());
+    }
+
+    @Test
+    void corruptedSnapshotPublishesNothing() throws IOException {
+        byte[] snapshot = encode(sampleNamespace());
+        // Un byte dentro de un imagenId: se decodifica bien, solo el CRC lo detecta
+        int position = indexOf(snapshot, "replicado".getBytes()) + 2;
+        snapshot[position] ^= 0x01;
+
+        List<FileMetadata> published = new ArrayList<>();
+        IOException error = assertThrows(IOException.class,
+                () -> MetadataSnapshotCodec.read(ids, new ByteArrayInputStream(snapshot), published::add));
+        assertTrue(error.getMessage().contains("CRC"));
+        assertTrue(published.isEmpty(), "no se debe publicar ningún archivo de un snapshot corrupto");
+    }
+
+    @Test
+    void truncatedSnapshotPublishesNothing() throws IOException {
+        byte[] snapshot = encode(sampleNamespace());
+        byte[] truncated = Arrays.copyOf(snapshot, snapshot.length - 2);
+
+        List<FileMetadata> published = new ArrayList<>();
+        assertThrows(IOException.class,
+                () -> MetadataSnapshotCodec.read(ids, new ByteArrayInputStream(truncated), published::add));
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    void badMagicIsRejected() {
+        byte[] notASnapshot = "{\"json\": true}".getBytes();
+        assertThrows(IOException.class,
+                () -> MetadataSnapshotCodec.read(ids, new ByteArrayInputStream(notASnapshot), file -> fail()));
+    }
+
+    private static Set<String> replicaSet(FileMetadata file) {
+        FileMetadata.Replicas replicas = file.replicas();
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < replicas.length(); i++) {
+            set.add(replicas.chunkIndex(i) + "@" + replicas.serverUrl(i) + "#" + replicas.replicaIndex(i));
+        }
+        return set;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("patrón no encontrado");
+    }
+}
@@ -0,0 +1,168 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ChunkserverIdTable;
+import com.tpdteam3.master.model.FileMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackingServiceTest {
+
+    private final ChunkserverIdTable ids = new ChunkserverIdTable();
+    private final List<String> plannedContainers = new ArrayList<>();
+    private PackingService packing;
+
+    @BeforeEach
+    void setUp() {
+        // Solo registra los contenedores que se abren, sin chunkservers
+        MasterService master = new MasterService() {
+            @Override
+            public FileMetadata planUpload(String imagenId, long fileSize, Integer requestedChunkSize,
+                                           String storageClass) {
+                plannedContainers.add(imagenId);
+                FileMetadata container = new FileMetadata(ids, imagenId, fileSize, requestedChunkSize);
+                packing.onFileStored(container);
+                return container;
+            }
+        };
+
+        packing = new PackingService();
+        ReflectionTestUtils.setField(packing, "masterService", master);
+        ReflectionTestUtils.setField(packing, "enabled", true);
+        ReflectionTestUtils.setField(packing, "maxObjectKB", 1);
+        ReflectionTestUtils.setField(packing, "containerSizeKB", 4);
+    }
+
+    @Test
+    void objectsShareTheOpenContainerInConsecutiveRanges() {
+        PackingService.Slot first = packing.allocate(1000);
+        PackingService.Slot second = packing.allocate(500);
+        PackingService.Slot third = packing.allocate(24);
+
+        assertEquals(1, plannedContainers.size());
+        assertEquals(first.containerId, second.containerId);
+        assertEquals(first.containerId, third.containerId);
+        assertEquals(0, first.offset);
+        assertEquals(1000, second.offset);
+        assertEquals(1500, third.offset);
+        assertTrue(PackingService.isContainer(first.containerId));
+        assertTrue(packing.isOpenContainer(first.containerId));
+    }
+
+    @Test
+    void objectThatDoesNotFitOpensANewContainer() {
+        PackingService.Slot first = packing.allocate(4000);
+        PackingService.Slot second = packing.allocate(200);
+
+        assertEquals(2, plannedContainers.size());
+        assertNotEquals(first.containerId, second.containerId);
+        assertEquals(0, second.offset);
+        assertFalse(packing.isOpenContainer(first.containerId));
+        assertTrue(packing.isOpenContainer(second.containerId));
+        // Recién cerrado: puede haber uploads en vuelo hacia su último rango
+        assertTrue(packing.acceptsWrites(first.containerId));
+    }
+
+    @Test
+    void exactFitStaysInTheSameContainer() {
+        PackingService.Slot first = packing.allocate(4096 - 96);
+        PackingService.Slot second = packing.allocate(96);
+
+        assertEquals(first.containerId, second.containerId);
+        assertEquals(4000, second.offset);
+        assertEquals(1, plannedContainers.size());
+    }
+
+    @Test
+    void sealedContainerReceivesNoMoreAllocations() {
+        PackingService.Slot first = packing.allocate(100);
+        packing.seal(first.containerId);
+
+        assertFalse(packing.isOpenContainer(first.containerId));
+        assertTrue(packing.acceptsWrites(first.containerId));
+
+        PackingService.Slot second = packing.allocate(100);
+        assertNotEquals(first.containerId, second.containerId);
+        assertEquals(0, second.offset);
+    }
+
+    @Test
+    void sealingAClosedContainerDoesNotTouchTheOpenOne() {
+        PackingService.Slot first = packing.allocate(4000);
+        PackingService.Slot second = packing.allocate(100);
+
+        packing.seal(first.containerId);
+
+        assertTrue(packing.isOpenContainer(second.containerId));
+        assertEquals(second.containerId, packing.allocate(100).containerId);
+    }
+
+    @Test
+    void objectLargerThanAContainerIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> packing.allocate(5000));
+    }
+
+    @Test
+    void unknownFilesDoNotAcceptRangeWrites() {
+        assertFalse(packing.acceptsWrites("imagen-normal"));
+        assertFalse(packing.acceptsWrites(null));
+    }
+
+    @Test
+    void rebuildResumesAllocationAfterTheLastRegisteredObject() {
+        FileMetadata container = new FileMetadata(ids, "pack-recuperado", 4096, 4096);
+        FileMetadata object = new FileMetadata(ids, "miniatura", 300);
+        object.usePacking("pack-recuperado", 700);
+
+        packing.rebuild(List.of(container, object));
+
+        // Ningún contenedor queda abierto al arrancar, pero siguen en su ventana de escrituras
+        assertFalse(packing.isOpenContainer("pack-recuperado"));
+        assertTrue(packing.acceptsWrites("pack-recuperado"));
+        assertEquals(1L, packing.getStats().get("packedObjects"));
+        assertEquals(300L, packing.getStats().get("liveBytes"));
+        assertEquals(1000L, packing.getStats().get("allocatedBytes"));
+
+        PackingService.Slot slot = packing.allocate(100);
+        assertNotEquals("pack-recuperado", slot.containerId);
+    }
+
+    @Test
+    void removingTheLastObjectLeavesTheContainerEmpty() {
+        PackingService.Slot slot = packing.allocate(300);
+        FileMetadata object = new FileMetadata(ids, "miniatura", 300);
+        object.usePacking(slot.containerId, slot.offset);
+        packing.onFileStored(object);
+        assertEquals(300L, packing.getStats().get("liveBytes"));
+
+        packing.onFileRemoved(object);
+
+        assertEquals(0L, packing.getStats().get("packedObjects"));
+        assertEquals(0L, packing.getStats().get("liveBytes"));
+        assertEquals(300L, packing.getStats().get("deadBytes"));
+    }
+
+    @Test
+    void onlySmallObjectsArePacked() {
+        assertTrue(packing.shouldPack(1));
+        assertTrue(packing.shouldPack(1024));
+        assertFalse(packing.shouldPack(1025));
+        assertFalse(packing.shouldPack(0));
+    }
+
+    @Test
+    void checksumIsCrc32OfTheContent() {
+        byte[] data = "miniatura".getBytes();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        assertEquals(crc.getValue(), PackingService.checksum(data));
+        assertNotEquals(PackingService.checksum(data), PackingService.checksum(new byte[data.length]));
+    }
+}
@@ -0,0 +1,115 @@
+package com.tpdteam3.master.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhiAccrualDetectorTest {
+
+    private static PhiAccrualDetector regular(long intervalMs, int heartbeats, long jitterMs) {
+        PhiAccrualDetector detector = new PhiAccrualDetector(100, 10, 0);
+        long clock = 0;
+        for (int i = 0; i < heartbeats; i++) {
+            clock += intervalMs + (i % 2 == 0 ? jitterMs : -jitterMs);
+            detector.heartbeat(clock);
+        }
+        return detector;
+    }
+
+    @Test
+    void noSamplesMeansNoSuspicion() {
+        PhiAccrualDetector detector = new PhiAccrualDetector(10, 100, 0);
+        assertEquals(0.0, detector.phi(1_000_000));
+
+        detector.heartbeat(1000);
+        assertEquals(0, detector.getSampleCount());
+        assertEquals(0.0, detector.phi(1_000_000));
+    }
+
+    @Test
+    void phiGrowsWithTimeSinceLastHeartbeat() {
+        PhiAccrualDetector detector = regular(1000, 20, 50);
+        long last = 20 * 1000;
+
+        double onTime = detector.phi(last + 1000);
+        double late = detector.phi(last + 1200);
+        double veryLate = detector.phi(last + 2000);
+
+        assertTrue(onTime < 1.0, "a tiempo: " + onTime);
+        assertTrue(late > onTime);
+        assertTrue(veryLate > 8.0, "muy tarde: " + veryLate);
+    }
+
+    @Test
+    void millisUntilPhiIsWherePhiCrossesTheThreshold() {
+        PhiAccrualDetector detector = regular(1000, 20, 50);
+        long last = 20 * 1000;
+
+        long timeout = detector.millisUntilPhi(8.0);
+
+        assertTrue(detector.phi(last + timeout) >= 8.0);
+        assertTrue(detector.phi(last + timeout - 1) < 8.0);
+    }
+
+    @Test
+    void jitteryServersGetALongerTimeout() {
+        // 21 heartbeats: 20 intervalos, mitad adelantados y mitad atrasados
+        PhiAccrualDetector stable = regular(1000, 21, 10);
+        PhiAccrualDetector jittery = regular(1000, 21, 400);
+
+        assertEquals(stable.getMeanMs(), jittery.getMeanMs(), 1.0);
+        assertTrue(jittery.millisUntilPhi(8.0) > stable.millisUntilPhi(8.0));
+    }
+
+    @Test
+    void acceptablePauseDelaysSuspicion() {
+        PhiAccrualDetector strict = new PhiAccrualDetector(100, 100, 0);
+        PhiAccrualDetector lenient = new PhiAccrualDetector(100, 100, 3000);
+        for (long t = 1000; t <= 10_000; t += 1000) {
+            strict.heartbeat(t);
+            lenient.heartbeat(t);
+        }
+
+        assertEquals(strict.millisUntilPhi(8.0) + 3000, lenient.millisUntilPhi(8.0), 1.0);
+    }
+
+    @Test
+    void stdDevHasAFloor() {
+        PhiAccrualDetector detector = regular(1000, 10, 0);
+        assertEquals(10.0, detector.getStdDevMs());
+    }
+
+    @Test
+    void windowKeepsOnlyTheLatestIntervals() {
+        PhiAccrualDetector detector = new PhiAccrualDetector(3, 10, 0);
+        long clock = 0;
+        for (int i = 0; i < 3; i++) {
+            detector.heartbeat(clock += 1000);
+        }
+        for (int i = 0; i < 3; i++) {
+            detector.heartbeat(clock += 5000);
+        }
+
+        assertEquals(3, detector.getSampleCount());
+        assertEquals(5000.0, detector.getMeanMs(), 0.001);
+    }
+
+    @Test
+    void resetIgnoresTheDowntimeGap() {
+        PhiAccrualDetector detector = regular(1000, 10, 0);
+        int samples = detector.getSampleCount();
+
+        detector.reset();
+        assertEquals(0.0, detector.phi(60_000));
+
+        // Primer heartbeat después de la caída: no cuenta el hueco como intervalo
+        detector.heartbeat(100_000);
+        assertEquals(samples, detector.getSampleCount());
+        assertEquals(1000.0, detector.getMeanMs(), 0.001);
+    }
+
+    @Test
+    void invalidWindowIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new PhiAccrualDetector(0, 100, 0));
+    }
+}
@@ -0,0 +1,142 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerLoad;
+import com.tpdteam3.master.model.ServerTopology;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlacementServiceTest {
+
+    private PlacementService placement;
+    private TopologyService topology;
+    private ServerLoadTracker loadTracker;
+    private final List<Integer> requestedCounts = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        topology = new TopologyService();
+        loadTracker = new ServerLoadTracker();
+        placement = new PlacementService();
+        ReflectionTestUtils.setField(placement, "topologyService", topology);
+        ReflectionTestUtils.setField(placement, "loadTracker", loadTracker);
+        ReflectionTestUtils.setField(placement, "policyName", LoadAwarePlacementPolicy.NAME);
+        ReflectionTestUtils.setField(placement, "minFreeMB", 100L);
+        placement.init();
+
+        // La política configurada, registrando cuántos servidores se le piden
+        PlacementPolicy delegate = (PlacementPolicy) ReflectionTestUtils.getField(placement, "policy");
+        ReflectionTestUtils.setField(placement, "policy", new PlacementPolicy() {
+            @Override
+            public String getName() {
+                return delegate.getName();
+            }
+
+            @Override
+            public List<String> choose(int count, List<String> candidates, Map<String, ServerLoad> loads,
+                                       Random rnd) {
+                requestedCounts.add(count);
+                return delegate.choose(count, candidates, loads, rnd);
+            }
+
+            @Override
+            public boolean accepts(ServerLoad load) {
+                return delegate.accepts(load);
+            }
+        });
+    }
+
+    private String server(String rack, String host, String disk) {
+        String url = "http://" + host + "-" + disk + ":9001";
+        topology.update(url, Map.of("rack", rack, "host", host, "disk", disk));
+        return url;
+    }
+
+    private Set<String> domains(Collection<String> urls, ServerTopology.Level level) {
+        Set<String> domains = new HashSet<>();
+        for (String url : urls) {
+            domains.add(topology.of(url).domain(level));
+        }
+        return domains;
+    }
+
+    @Test
+    void asksThePolicyOnlyForTheReplicasWhenDomainsDoNotCollide() {
+        List<String> candidates = new ArrayList<>();
+        for (int r = 0; r < 20; r++) {
+            candidates.add(server("rack" + r, "h" + r, "d0"));
+        }
+
+        List<String> chosen = placement.chooseServers(3, candidates);
+
+        assertEquals(3, chosen.size());
+        assertEquals(List.of(3), requestedCounts, "no se debe pedir el orden completo de los 20 candidatos");
+    }
+
+    @Test
+    void fallsBackToFullRankingWhenPicksShareAnAvoidableRack() {
+        // Diez servidores en rack-a y uno en rack-b: casi siempre la política elige dos de rack-a
+        List<String> candidates = new ArrayList<>();
+        for (int h = 0; h < 10; h++) {
+            candidates.add(server("rack-a", "a" + h, "d0"));
+        }
+        String lonely = server("rack-b", "b0", "d0");
+        candidates.add(lonely);
+
+        for (int round = 0; round < 100; round++) {
+            List<String> chosen = placement.chooseServers(2, candidates);
+            assertEquals(2, domains(chosen, ServerTopology.Level.RACK).size());
+            assertTrue(chosen.contains(lonely));
+        }
+        assertTrue(requestedCounts.contains(candidates.size()));
+    }
+
+    @Test
+    void existingReplicasCountAsOccupiedDomains() {
+        String existing = server("rack-a", "a0", "d0");
+        List<String> candidates = List.of(
+                server("rack-a", "a1", "d0"),
+                server("rack-a", "a2", "d0"),
+                server("rack-b", "b0", "d0"));
+
+        for (int round = 0; round < 50; round++) {
+            List<String> chosen = placement.chooseServers(1, candidates, List.of(existing));
+            assertEquals(List.of(candidates.get(2)), chosen);
+        }
+    }
+
+    @Test
+    void singleRackSpreadsAcrossHostsThenDisks() {
+        List<String> candidates = List.of(
+                server("rack", "h1", "d0"),
+                server("rack", "h1", "d1"),
+                server("rack", "h2", "d0"),
+                server("rack", "h2", "d1"));
+
+        for (int round = 0; round < 50; round++) {
+            List<String> two = placement.chooseServers(2, candidates);
+            assertEquals(2, domains(two, ServerTopology.Level.HOST).size());
+
+            List<String> three = placement.chooseServers(3, candidates);
+            assertEquals(2, domains(three, ServerTopology.Level.HOST).size());
+            assertEquals(3, domains(three, ServerTopology.Level.DISK).size());
+        }
+    }
+
+    @Test
+    void serversThatCannotWriteAreALastResort() {
+        String readOnly = server("rack-a", "a0", "d0");
+        String healthy = server("rack-a", "a1", "d0");
+        loadTracker.reportMetrics(readOnly, Map.of("canWrite", false));
+
+        for (int round = 0; round < 50; round++) {
+            assertEquals(List.of(healthy), placement.chooseServers(1, List.of(readOnly, healthy)));
+        }
+        List<String> both = placement.chooseServers(2, List.of(readOnly, healthy));
+        assertEquals(List.of(healthy, readOnly), both);
+    }
+}
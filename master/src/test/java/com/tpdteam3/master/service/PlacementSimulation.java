@@ -0,0 +1,90 @@
+package com.tpdteam3.master.service;
+
+import com.tpdteam3.master.model.ServerLoad;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compara el reparto de LoadAwarePlacementPolicy y RandomPlacementPolicy colocando
+ * {@code chunks} chunks de {@code replicas} réplicas sobre un cluster sintético de
+ * servidores con distinto espacio libre (uno de cada cuatro con el doble, el triple o
+ * el cuádruple que el más chico, y el último por debajo de minFreeMB). Cada escritura
+ * elegida se suma a la carga del servidor, como hace el ServerLoadTracker.
+ * <p>
+ * Es una herramienta manual, fuera del servicio y de la suite de tests:
+ * <pre>
+ *   java -cp target/classes:target/test-classes com.tpdteam3.master.service.PlacementSimulation \
+ *        [servers] [chunks] [replicas] [minFreeMB]
+ * </pre>
+ */
+public final class PlacementSimulation {
+
+    private PlacementSimulation() {
+    }
+
+    public static void main(String[] args) {
+        int servers = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+        int chunks = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int replicas = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        long minFreeMB = args.length > 3 ? Long.parseLong(args[3]) : 100;
+
+        List<String> urls = new ArrayList<>(servers);
+        Map<String, ServerLoad> initial = new HashMap<>();
+        for (int i = 0; i < servers; i++) {
+            String url = "http://chunkserver-" + i + ":9001";
+            long freeMB = i == servers - 1 ? minFreeMB / 2 : 2000L * (1 + i % 4);
+            urls.add(url);
+            initial.put(url, new ServerLoad(url, freeMB, 0, 0, true, 0, 0, 0));
+        }
+
+        System.out.println(servers + " servidores, " + chunks + " chunks x " + replicas + " réplicas, minFreeMB " +
+                           minFreeMB);
+        for (PlacementPolicy policy : List.of(new LoadAwarePlacementPolicy(minFreeMB), new RandomPlacementPolicy())) {
+            simulate(policy, urls, initial, chunks, replicas);
+        }
+    }
+
+    private static void simulate(PlacementPolicy policy, List<String> urls, Map<String, ServerLoad> initial,
+                                 int chunks, int replicas) {
+        Map<String, ServerLoad> loads = new HashMap<>(initial);
+        Map<String, Long> counts = new HashMap<>();
+        Random random = new Random(42);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < chunks; i++) {
+            for (String url : policy.choose(replicas, urls, loads, random)) {
+                loads.put(url, loads.get(url).withExtraWrite());
+                counts.merge(url, 1L, Long::sum);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        double sum = 0;
+        for (String url : urls) {
+            long c = counts.getOrDefault(url, 0L);
+            min = Math.min(min, c);
+            max = Math.max(max, c);
+            sum += c;
+        }
+        double mean = sum / urls.size();
+        double variance = 0;
+        for (String url : urls) {
+            double d = counts.getOrDefault(url, 0L) - mean;
+            variance += d * d;
+        }
+        double stddev = Math.sqrt(variance / urls.size());
+
+        System.out.printf("%-10s min %d, max %d, media %.1f, desvío %.1f, CV %.3f, %.1f µs/chunk%n",
+                policy.getName(), min, max, mean, stddev, mean > 0 ? stddev / mean : 0.0, nanos / 1000.0 / chunks);
+        for (String url : urls) {
+            System.out.printf("   %-28s libre %6d MB: %d%n", url, initial.get(url).getFreeSpaceMB(),
+                    counts.getOrDefault(url, 0L));
+        }
+    }
+}